@@ -0,0 +1,119 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import static org.junit.Assume.assumeTrue;
+
+//Compares the storage of the DataBuffer (see DoubleRingBuffer) to the LinkedList<Double> that held
+//the values before, for buffers of 10^4 to 10^7 values. The buffers are limited to this size and
+//filled completely, so each appended value removes the oldest one, like a long recording does.
+//Each iteration appends a block of values as a sensor would or reads all values as a graph would.
+//A list of 10^7 values takes more than half a gigabyte, so sizes that do not fit into the heap of
+//the device are skipped.
+@RunWith(Parameterized.class)
+public class DataBufferBenchmark {
+
+    private static final int block = 1000; //Values appended per iteration
+
+    @Parameterized.Parameters(name = "size={0,number,#}")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][] {{10000}, {100000}, {1000000}, {10000000}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int size;
+    private final double[] values = new double[block];
+
+    public DataBufferBenchmark(int size) {
+        this.size = size;
+        for (int i = 0; i < block; i++)
+            values[i] = Math.sin(0.01 * i);
+    }
+
+    //Skip sizes for which the heap is too small (bytes per value including some headroom)
+    private void assumeHeap(long bytesPerValue) {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long available = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        assumeTrue("Not enough heap for " + size + " values", available > bytesPerValue * size);
+    }
+
+    //The storage as it was before: A boxed value per list node and removing the first node for
+    //every value beyond the size
+    private LinkedList<Double> filledList() {
+        assumeHeap(64);
+        LinkedList<Double> list = new LinkedList<>();
+        for (int i = 0; i < size; i++)
+            list.add(values[i % block]);
+        return list;
+    }
+
+    private static void append(LinkedList<Double> list, int size, double[] values) {
+        for (double v : values) {
+            list.add(v);
+            if (list.size() > size)
+                list.remove(0);
+        }
+    }
+
+    private DataBuffer filledBuffer() {
+        //The array may be twice the size and a copy is read from it
+        assumeHeap(24);
+        PhyphoxExperiment experiment = new PhyphoxExperiment();
+        DataBuffer buffer = experiment.createBuffer("buffer", size, experiment.experimentTimeReference);
+        for (int i = 0; i < size; i += block)
+            buffer.append(values, Math.min(block, size - i));
+        return buffer;
+    }
+
+    @Test
+    public void appendLinkedList() {
+        LinkedList<Double> list = filledList();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            append(list, size, values);
+    }
+
+    @Test
+    public void appendDataBuffer() {
+        DataBuffer buffer = filledBuffer();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            buffer.append(values, block);
+    }
+
+    @Test
+    public void readLinkedList() {
+        LinkedList<Double> list = filledList();
+        double[] result = new double[size];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            int i = 0;
+            Iterator<Double> it = list.iterator();
+            while (it.hasNext())
+                result[i++] = it.next();
+        }
+    }
+
+    @Test
+    public void readDataBuffer() {
+        DataBuffer buffer = filledBuffer();
+        double[] result = new double[size];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            result = buffer.getDoubleArray(result);
+    }
+}
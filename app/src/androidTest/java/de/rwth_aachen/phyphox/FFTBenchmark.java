@@ -0,0 +1,84 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+//Throughput of the Java FFT, which is used if the native library cannot be loaded, for powers of
+//two and other sizes (Bluestein's algorithm) as used by fftAM, with complex and real input. The
+//native transform of the same size is measured for comparison. Each iteration restores the input,
+//as the transforms work in place.
+@RunWith(Parameterized.class)
+public class FFTBenchmark {
+
+    @Parameterized.Parameters(name = "n={0,number,#}")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][] {{1024}, {1000}, {4096}, {4800}, {65536}, {48000}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int n;
+    private final double[] inX, inY;
+    private final double[] x, y;
+
+    public FFTBenchmark(int n) {
+        this.n = n;
+        Random random = new Random(n);
+        inX = new double[n];
+        inY = new double[n];
+        for (int i = 0; i < n; i++) {
+            inX[i] = random.nextGaussian();
+            inY[i] = random.nextGaussian();
+        }
+        x = new double[n];
+        y = new double[n];
+    }
+
+    @Test
+    public void javaComplex() {
+        Analysis.FFT fft = new Analysis.FFT();
+        fft.prepare(n);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            System.arraycopy(inX, 0, x, 0, n);
+            System.arraycopy(inY, 0, y, 0, n);
+            fft.calculate(x, y);
+        }
+    }
+
+    @Test
+    public void javaReal() {
+        Analysis.FFT fft = new Analysis.FFT();
+        fft.prepare(n);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            System.arraycopy(inX, 0, x, 0, n);
+            fft.calculateReal(x, y);
+        }
+    }
+
+    @Test
+    public void nativeComplex() {
+        float[] input = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            input[2*i] = (float)inX[i];
+            input[2*i+1] = (float)inY[i];
+        }
+        float[] xy = new float[2 * n];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            System.arraycopy(input, 0, xy, 0, 2 * n);
+            Analysis.fftw3complex(xy, n);
+        }
+    }
+}
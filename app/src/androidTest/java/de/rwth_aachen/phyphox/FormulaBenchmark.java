@@ -0,0 +1,89 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+//Evaluates typical formulas of the formula module over columns of 10^6 values, once with the
+//compiled program of the FormulaParser and once by walking the parsed tree for each element with
+//boxed values, as the parser did before formulas were compiled.
+@RunWith(Parameterized.class)
+public class FormulaBenchmark {
+
+    private static final int n = 1000000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> formulas() {
+        return Arrays.asList(new Object[][] {
+                {"sqrt([1_]^2+[2_]^2+[3_]^2)"}, //Magnitude of a vector
+                {"([1_]-[2])*3.6"},             //Offset and unit conversion with a single value
+                {"sin([1_]*[2]+[3])*exp(-[1_]/10)"}, //Damped oscillation with single parameters
+        });
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final String formula;
+    private final double[][] in = new double[3][n];
+    private final int[] sizes = {n, n, n};
+
+    public FormulaBenchmark(String formula) {
+        this.formula = formula;
+        for (int i = 0; i < n; i++) {
+            in[0][i] = 0.001 * i;
+            in[1][i] = Math.sin(0.001 * i);
+            in[2][i] = Math.cos(0.001 * i);
+        }
+    }
+
+    private DataOutput output() {
+        PhyphoxExperiment experiment = new PhyphoxExperiment();
+        return new DataOutput(experiment.createBuffer("out", n, experiment.experimentTimeReference), false);
+    }
+
+    //The evaluation of the tree before formulas were compiled, which boxed every intermediate value
+    private static Double get(FormulaParser.Source source, Double[][] in, int i) {
+        if (source.node != null) {
+            Double a = get(source.node.in1, in, i);
+            Double b = source.node.in2 != null ? get(source.node.in2, in, i) : null;
+            return source.node.func.apply(a, b != null ? b : Double.NaN);
+        } else if (source.index != null) {
+            Double[] thisIn = in[source.index];
+            return source.single ? thisIn[thisIn.length-1] : thisIn[i];
+        } else
+            return source.value;
+    }
+
+    @Test
+    public void compiled() throws FormulaParser.FormulaException {
+        FormulaParser parser = new FormulaParser(formula);
+        DataOutput out = output();
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            parser.execute(in, sizes, out);
+    }
+
+    @Test
+    public void tree() throws FormulaParser.FormulaException {
+        FormulaParser parser = new FormulaParser(formula);
+        DataOutput out = output();
+        //The inputs were handed to the parser as boxed arrays
+        Double[][] boxed = new Double[in.length][n];
+        for (int j = 0; j < in.length; j++)
+            for (int i = 0; i < n; i++)
+                boxed[j][i] = in[j][i];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < n; i++)
+                out.append(get(parser.base, boxed, i));
+        }
+    }
+}
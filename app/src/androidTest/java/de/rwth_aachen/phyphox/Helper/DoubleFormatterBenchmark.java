@@ -0,0 +1,93 @@
+package de.rwth_aachen.phyphox.Helper;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Random;
+
+//Formats a block of sensor values with DecimalFormat and with the DoubleFormatter that replaced it,
+//for the patterns of the CSV export, the remote interface and the timestamps of the network
+//connections. Each iteration formats 10^4 values into text as the exports do.
+@RunWith(Parameterized.class)
+public class DoubleFormatterBenchmark {
+
+    private static final int n = 10000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> patterns() {
+        return Arrays.asList(new Object[][] {
+                {"0.000000000E0", DoubleFormatter.scientific(9, 9, ',')},
+                {"0.#######E0", DoubleFormatter.scientific(0, 7, '.')},
+                {"############0.000", DoubleFormatter.fixed(3, '.')},
+        });
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final DecimalFormat decimalFormat;
+    private final DoubleFormatter formatter;
+    private final double[] values = new double[n];
+
+    public DoubleFormatterBenchmark(String pattern, DoubleFormatter formatter) {
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.US);
+        symbols.setDecimalSeparator(pattern.startsWith("0.000") ? ',' : '.');
+        decimalFormat = new DecimalFormat(pattern, symbols);
+        decimalFormat.setGroupingUsed(false);
+        this.formatter = formatter;
+
+        //Accelerometer-like values with noise and the time of an hour-long recording
+        Random random = new Random(14);
+        for (int i = 0; i < n; i++)
+            values[i] = i % 2 == 0 ? 9.81 + random.nextGaussian() : 3600.0 * i / n;
+    }
+
+    @Test
+    public void decimalFormat() {
+        StringBuilder sb = new StringBuilder(n * formatter.maxLength());
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            sb.setLength(0);
+            for (double v : values) {
+                sb.append(decimalFormat.format(v));
+                sb.append('\n');
+            }
+        }
+    }
+
+    @Test
+    public void doubleFormatterStringBuilder() {
+        StringBuilder sb = new StringBuilder(n * formatter.maxLength());
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            sb.setLength(0);
+            for (double v : values) {
+                formatter.format(v, sb);
+                sb.append('\n');
+            }
+        }
+    }
+
+    @Test
+    public void doubleFormatterBytes() {
+        byte[] bytes = new byte[n * (formatter.maxLength() + 3)];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            int offset = 0;
+            for (double v : values) {
+                offset = formatter.format(v, bytes, offset);
+                bytes[offset++] = '\n';
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+//Latency of a single call to the native FFT with and without the plan cache (see analysis.cpp).
+//Before the cache, every call created and destroyed an FFTW_ESTIMATE plan. This is reproduced by
+//transforming more other sizes than the cache holds before each measured call, so its plan has
+//been dropped and has to be created again. These calls (and restoring the input, which the
+//transform replaces) are not measured. The cached calls pause the same way, so both include the
+//same overhead of pausing.
+//If the app has measured plans in its wisdom, the uncached calls create them from the wisdom
+//instead of estimating them, just like a cache miss in the app does.
+@RunWith(Parameterized.class)
+public class NativeFFTBenchmark {
+
+    private static final int cacheSize = 16; //maxEntries in analysis.cpp
+
+    @Parameterized.Parameters(name = "n={0,number,#}")
+    public static Collection<Object[]> sizes() {
+        return Arrays.asList(new Object[][] {{256}, {1000}, {4096}, {65536}});
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int n;
+    private final float[] input;
+    private final float[] xy;
+    private final FloatBuffer direct;
+    private final float[][] others = new float[cacheSize][]; //One array for each size used to evict n
+
+    public NativeFFTBenchmark(int n) {
+        this.n = n;
+        Random random = new Random(n);
+        input = new float[2 * n];
+        for (int i = 0; i < input.length; i++)
+            input[i] = (float)(random.nextDouble() - 0.5);
+        xy = input.clone();
+        direct = ByteBuffer.allocateDirect(input.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int i = 0; i < cacheSize; i++)
+            others[i] = new float[2 * (i + 1)]; //Sizes 1 to 16, none of which is a parameter
+    }
+
+    private void restore() {
+        System.arraycopy(input, 0, xy, 0, input.length);
+        direct.clear();
+        direct.put(input);
+        direct.clear();
+    }
+
+    private void evict() {
+        for (float[] other : others)
+            Analysis.fftw3complex(other, other.length / 2);
+    }
+
+    @Test
+    public void uncachedPlan() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            evict();
+            restore();
+            state.resumeTiming();
+            Analysis.fftw3complex(xy, n);
+        }
+    }
+
+    @Test
+    public void cachedPlan() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            restore();
+            state.resumeTiming();
+            Analysis.fftw3complex(xy, n);
+        }
+    }
+
+    @Test
+    public void cachedPlanDirect() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            restore();
+            state.resumeTiming();
+            Analysis.fftw3complexDirect(direct, n);
+        }
+    }
+}
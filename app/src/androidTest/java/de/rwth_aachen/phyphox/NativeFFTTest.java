@@ -0,0 +1,233 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+//Compares the FFTW functions of the native library to direct summation. The plans are cached by
+//size and replaced by measured ones after a few uses (see analysis.cpp), so the same sizes are
+//used repeatedly, with arrays and direct buffers of different alignments and on several threads.
+//This runs on a device, as the native library is not available on the JVM.
+@RunWith(AndroidJUnit4.class)
+public class NativeFFTTest {
+
+    private static final int[] complexSizes = {1, 2, 3, 8, 12, 97, 256, 1000, 1024};
+    private static final int[] realSizes = {2, 8, 12, 100, 256, 1000}; //Correlations need even sizes
+
+    private static float[] random(Random random, int n) {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++)
+            values[i] = (float)(random.nextDouble() - 0.5);
+        return values;
+    }
+
+    //A direct buffer in native order. If unaligned, it starts 4 bytes into its memory, so its
+    //alignment differs from the arrays FFTW allocates for its plans.
+    private static FloatBuffer direct(float[] values, boolean unaligned) {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(values.length * 4 + 4);
+        if (unaligned) {
+            bytes.position(4);
+            bytes = bytes.slice();
+        }
+        FloatBuffer buffer = bytes.order(ByteOrder.nativeOrder()).asFloatBuffer();
+        buffer.put(values);
+        buffer.rewind();
+        return buffer;
+    }
+
+    private static float[] toArray(FloatBuffer buffer, int n) {
+        float[] values = new float[n];
+        for (int i = 0; i < n; i++)
+            values[i] = buffer.get(i);
+        return values;
+    }
+
+    //Forward DFT of interleaved complex values
+    private static double[] dft(float[] xy) {
+        int n = xy.length / 2;
+        double[] result = new double[2 * n];
+        for (int k = 0; k < n; k++) {
+            double re = 0, im = 0;
+            for (int j = 0; j < n; j++) {
+                double angle = -2 * Math.PI * (double)(((long)j * k) % n) / n;
+                re += xy[2*j] * Math.cos(angle) - xy[2*j+1] * Math.sin(angle);
+                im += xy[2*j] * Math.sin(angle) + xy[2*j+1] * Math.cos(angle);
+            }
+            result[2*k] = re;
+            result[2*k+1] = im;
+        }
+        return result;
+    }
+
+    //Circular cross correlation as calculated by fftw3crosscorrelation: sum_j x[j+k]*y[j] / n
+    private static double[] crosscorrelation(float[] x, float[] y) {
+        int n = x.length;
+        double[] result = new double[n];
+        for (int k = 0; k < n; k++) {
+            double sum = 0;
+            for (int j = 0; j < n; j++)
+                sum += x[(j + k) % n] * y[j];
+            result[k] = sum / n;
+        }
+        return result;
+    }
+
+    //Circular autocorrelation as calculated by fftw3autocorrelation: sum_j x[j+k]*x[j]
+    private static double[] autocorrelation(float[] x) {
+        double[] result = crosscorrelation(x, x);
+        for (int k = 0; k < result.length; k++)
+            result[k] *= x.length;
+        return result;
+    }
+
+    //Float precision relative to the largest value
+    private static void assertClose(String message, double[] expected, float[] actual) {
+        double scale = 1e-30;
+        for (double e : expected)
+            scale = Math.max(scale, Math.abs(e));
+        assertEquals(message, expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(message + " [" + i + "]", expected[i], actual[i], 1e-4 * scale);
+    }
+
+    //All entry points for each size
+    private static void checkAll(Random random, boolean unaligned) {
+        for (int n : complexSizes) {
+            float[] xy = random(random, 2 * n);
+            double[] expected = dft(xy);
+
+            float[] array = xy.clone();
+            Analysis.fftw3complex(array, n);
+            assertClose("complex " + n, expected, array);
+
+            FloatBuffer buffer = direct(xy, unaligned);
+            Analysis.fftw3complexDirect(buffer, n);
+            assertClose("complexDirect " + n, expected, toArray(buffer, 2 * n));
+        }
+
+        for (int n : realSizes) {
+            float[] x = random(random, n);
+            float[] y = random(random, n);
+
+            double[] expected = crosscorrelation(x, y);
+            float[] a = x.clone();
+            Analysis.fftw3crosscorrelation(a, y.clone(), n);
+            assertClose("crosscorrelation " + n, expected, a);
+
+            FloatBuffer af = direct(x, unaligned);
+            Analysis.fftw3crosscorrelationDirect(af, direct(y, !unaligned), n);
+            assertClose("crosscorrelationDirect " + n, expected, toArray(af, n));
+
+            expected = autocorrelation(x);
+            a = x.clone();
+            Analysis.fftw3autocorrelation(a, n);
+            assertClose("autocorrelation " + n, expected, a);
+
+            af = direct(x, unaligned);
+            Analysis.fftw3autocorrelationDirect(af, n);
+            assertClose("autocorrelationDirect " + n, expected, toArray(af, n));
+        }
+    }
+
+    @Test
+    public void matchesDirectSummation() {
+        Random random = new Random(21);
+        checkAll(random, false);
+        checkAll(random, true);
+    }
+
+    @Test
+    public void javaFFTMatchesNative() {
+        //The Java FFT is used if the native library cannot be loaded, so both have to give the same
+        //results for all sizes (up to the float precision of the native transform)
+        Random random = new Random(22);
+        Analysis.FFT fft = new Analysis.FFT();
+        for (int n : new int[]{1, 2, 3, 8, 12, 97, 100, 256, 1000, 1009, 1024, 4096, 4800, 44100}) {
+            float[] xy = random(random, 2 * n);
+            float[] expected = xy.clone();
+            Analysis.fftw3complex(expected, n);
+
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = xy[2*i];
+                y[i] = xy[2*i+1];
+            }
+            fft.prepare(n);
+            fft.calculate(x, y);
+            double[] actual = new double[2 * n];
+            for (int i = 0; i < n; i++) {
+                actual[2*i] = x[i];
+                actual[2*i+1] = y[i];
+            }
+            assertClose("complex " + n, actual, expected);
+
+            //Real input, which the Java FFT packs into a transform of half the size
+            expected = xy.clone();
+            for (int i = 0; i < n; i++) {
+                x[i] = xy[2*i];
+                expected[2*i+1] = 0;
+            }
+            Analysis.fftw3complex(expected, n);
+            fft.calculateReal(x, y);
+            for (int i = 0; i < n; i++) {
+                actual[2*i] = x[i];
+                actual[2*i+1] = y[i];
+            }
+            assertClose("real " + n, actual, expected);
+        }
+    }
+
+    @Test
+    public void repeatedUse() throws InterruptedException {
+        //More uses than it takes to measure a size. The measured plans replace the estimated ones
+        //in the background, so wait a bit in between to use them as well.
+        Random random = new Random(42);
+        for (int i = 0; i < 20; i++) {
+            checkAll(random, i % 2 == 1);
+            if (i % 5 == 4)
+                Thread.sleep(200);
+        }
+    }
+
+    @Test
+    public void parallelThreads() throws InterruptedException {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 5; i++)
+                            checkAll(random, (seed + i) % 2 == 0);
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join(60000);
+            assertFalse("Deadlock", thread.isAlive());
+        }
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,151 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+import java.util.Vector;
+
+//One analysis cycle of the periodicity module on a pendulum recording of 20 s at 1 kHz, compared to
+//the autocorrelation by direct summation the module used before (see PeriodicityTest). Each
+//iteration analyzes all windows, like the first cycle after loading the data or changing a
+//parameter, with a new module, so no results of previous cycles are reused.
+@RunWith(Parameterized.class)
+public class PeriodicityBenchmark {
+
+    private static final int n = 20000;
+
+    //dx, overlap, minPeriod, maxPeriod (null to search the first period)
+    @Parameterized.Parameters(name = "dx={0},overlap={1},range={2}-{3}")
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {
+                {4000, 0, null, null},
+                {4000, 1000, null, null},
+                {2000, 1000, 500, 3000},
+        });
+    }
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final int dx, overlap;
+    private final Integer minPeriod, maxPeriod;
+    private final double[] x = new double[n];
+    private final double[] y = new double[n];
+    private double[] periods; //Results of the direct summation, kept so they are not optimized away
+
+    public PeriodicityBenchmark(int dx, int overlap, Integer minPeriod, Integer maxPeriod) {
+        this.dx = dx;
+        this.overlap = overlap;
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        //A damped pendulum with a period of about 1.9 s and some noise
+        Random random = new Random(23);
+        for (int i = 0; i < n; i++) {
+            x[i] = 0.001 * i;
+            y[i] = Math.exp(-0.05 * x[i]) * Math.sin(2 * Math.PI * x[i] / 1.9) + 0.05 * random.nextGaussian();
+        }
+    }
+
+    //The calculation of a window by direct summation before the autocorrelation was calculated by FFT
+    private static double period(double[] x, double[] y, int x1, int x2, int minPeriod, int maxPeriod, boolean userSelectedRange) {
+        int size = x2 - x1;
+        int firstNegative = -1;
+        int maxPosition = -1;
+        double maxValue = Double.NEGATIVE_INFINITY;
+        double maxValueLeft = Double.NEGATIVE_INFINITY;
+        double maxValueRight = Double.NEGATIVE_INFINITY;
+        double lastSum = Double.NEGATIVE_INFINITY;
+
+        int step = userSelectedRange ? 1 : 2;
+        for (int i = minPeriod; i < maxPeriod; i += step) {
+            double sum = 0.;
+            for (int j = x1; j < x2 - i; j++)
+                sum += y[j] * y[j + i];
+            sum /= (double) (size - i);
+
+            if (!userSelectedRange && firstNegative < 0) {
+                if (sum < 0) {
+                    firstNegative = i;
+                    i = 3 * firstNegative + 1;
+                    step = 1;
+                }
+            } else if (!userSelectedRange && i > 5 * firstNegative) {
+                break;
+            } else if (userSelectedRange || i > 3 * firstNegative) {
+                if (sum > maxValue) {
+                    maxValue = sum;
+                    maxPosition = i;
+                    maxValueLeft = lastSum;
+                    maxValueRight = Double.NEGATIVE_INFINITY;
+                } else if (i == maxPosition + 1) {
+                    maxValueRight = sum;
+                }
+            }
+            lastSum = sum;
+        }
+
+        if (maxPosition > 0 && maxValue > 0 && maxValueLeft > 0 && maxValueRight > 0) {
+            double dy = 0.5 * (maxValueRight - maxValueLeft);
+            double d2y = 2 * maxValue - maxValueLeft - maxValueRight;
+            double m = dy / d2y;
+            return x[x1 + maxPosition] + 0.5 * m * (x[x1 + maxPosition + 1] - x[x1 + maxPosition - 1]) - x[x1];
+        }
+        return Double.NaN;
+    }
+
+    @Test
+    public void directSummation() {
+        periods = new double[n / dx + 1];
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning()) {
+            int max = maxPeriod == null ? Integer.MAX_VALUE : maxPeriod;
+            int w = 0;
+            for (int stepX = 0; stepX <= n - dx; stepX += dx) {
+                int x1 = Math.max(0, stepX - overlap);
+                int x2 = Math.min(n, stepX + dx + overlap);
+                if (max > x2 - x1)
+                    max = x2 - x1;
+                periods[w++] = period(x, y, x1, x2, minPeriod == null ? 0 : minPeriod, max, minPeriod != null || maxPeriod != null);
+            }
+        }
+    }
+
+    @Test
+    public void module() {
+        PhyphoxExperiment experiment = new PhyphoxExperiment();
+        DataBuffer bx = experiment.createBuffer("x", 0, experiment.experimentTimeReference);
+        DataBuffer by = experiment.createBuffer("y", 0, experiment.experimentTimeReference);
+        bx.append(x, n);
+        by.append(y, n);
+        Vector<DataInput> inputs = new Vector<>();
+        inputs.add(new DataInput(bx, false));
+        inputs.add(new DataInput(by, false));
+        inputs.add(new DataInput(dx));
+        inputs.add(new DataInput(overlap));
+        if (minPeriod != null || maxPeriod != null) {
+            inputs.add(minPeriod == null ? null : new DataInput(minPeriod));
+            inputs.add(maxPeriod == null ? null : new DataInput(maxPeriod));
+        }
+        Vector<DataOutput> outputs = new Vector<>();
+        outputs.add(new DataOutput(experiment.createBuffer("time", 0, experiment.experimentTimeReference), true));
+        outputs.add(new DataOutput(experiment.createBuffer("period", 0, experiment.experimentTimeReference), true));
+
+        BenchmarkState state = benchmarkRule.getState();
+        int cycle = 0;
+        while (state.keepRunning()) {
+            state.pauseTiming();
+            Analysis.AnalysisModule periodicity = new Analysis.periodicityAM(experiment, inputs, outputs);
+            periodicity.setCycles(new Vector<Analysis.AnalysisModule.CycleRange>());
+            state.resumeTiming();
+            periodicity.updateIfNotStatic(cycle++, true);
+        }
+    }
+}
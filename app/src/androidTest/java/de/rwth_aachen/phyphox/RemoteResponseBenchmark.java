@@ -0,0 +1,126 @@
+package de.rwth_aachen.phyphox;
+
+import android.util.Log;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
+import static org.junit.Assert.assertTrue;
+
+//Serializes an audio recording of 100k samples with its time buffer for the /get request of the
+//remote interface, once as JSON (as getCommandHandler does on a cache miss) and once with the
+//binary response in both precisions. Each iteration takes a new snapshot of the buffers, as the
+//server does for each new version of a buffer.
+@RunWith(AndroidJUnit4.class)
+public class RemoteResponseBenchmark {
+
+    private static final int n = 100000;
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    private final DataBuffer audio;
+    private final DataBuffer time;
+
+    public RemoteResponseBenchmark() {
+        PhyphoxExperiment experiment = new PhyphoxExperiment();
+        audio = experiment.createBuffer("recording", n, experiment.experimentTimeReference);
+        time = experiment.createBuffer("t", n, experiment.experimentTimeReference);
+        Random random = new Random(11);
+        double[] a = new double[n];
+        double[] t = new double[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = 0.3 * Math.sin(2 * Math.PI * 440 * i / 48000.) + 0.01 * random.nextGaussian();
+            t[i] = i / 48000.;
+        }
+        audio.append(a, n);
+        time.append(t, n);
+    }
+
+    //The response as the browser receives it, without the status
+    private byte[] json() {
+        RemoteResponseCache cache = new RemoteResponseCache(Long.MAX_VALUE);
+        DoubleFormatter format = DoubleFormatter.scientific(0, 7, '.');
+        StringBuilder sb = new StringBuilder(2 * (14 * n + 100));
+        sb.append("{\"buffer\":{\n");
+        boolean first = true;
+        for (DataBuffer buffer : new DataBuffer[] {audio, time}) {
+            if (first)
+                first = false;
+            else
+                sb.append(",\n");
+            RemoteResponseCache.Entry entry = cache.get(buffer);
+            sb.append("\"").append(buffer.name).append("\":{\"size\":").append(buffer.size);
+            sb.append(",\"updateMode\":\"full\", \"next\":").append(entry.nextSequence).append(", \"buffer\":[");
+            cache.appendValues(entry, sb, 0, entry.values.length, entry.values, Double.NEGATIVE_INFINITY, format);
+            sb.append("]}");
+        }
+        sb.append("\n}\n}\n");
+        return sb.toString().getBytes();
+    }
+
+    private void binary(boolean float32, OutputStream out) throws IOException {
+        RemoteBinaryResponse response = new RemoteBinaryResponse("session", true, false, 0, float32);
+        for (DataBuffer buffer : new DataBuffer[] {audio, time}) {
+            double[] data = buffer.getDoubleArray();
+            response.add(buffer.name, buffer.size, "full", buffer.getNextSequence(), buffer.value, data, null, Double.NEGATIVE_INFINITY, data.length);
+        }
+        response.writeTo(out);
+    }
+
+    //Like the socket of the connection, which does not keep what has been written
+    private static final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Test
+    public void payloadSize() throws IOException {
+        ByteArrayOutputStream float64 = new ByteArrayOutputStream();
+        binary(false, float64);
+        ByteArrayOutputStream float32 = new ByteArrayOutputStream();
+        binary(true, float32);
+        int json = json().length;
+        Log.i("RemoteResponseBenchmark", "Payload for 2 x " + n + " values: JSON " + json + " bytes, Float64 " + float64.size() + " bytes, Float32 " + float32.size() + " bytes");
+        assertTrue(float64.size() < json);
+        assertTrue(float32.size() < float64.size());
+    }
+
+    @Test
+    public void serializeJson() {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            json();
+    }
+
+    @Test
+    public void serializeFloat64() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            binary(false, discard);
+    }
+
+    @Test
+    public void serializeFloat32() throws IOException {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            binary(true, discard);
+    }
+}
@@ -0,0 +1,192 @@
+package de.rwth_aachen.phyphox;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
+import static org.junit.Assert.assertEquals;
+
+//Saves and loads the state of a 10 minute recording of a three-axis sensor at 100 Hz, once with the
+//values in the init attributes of the XML and once with the binary data file (see StateData). Both
+//follow the steps of writeStateFile() and the data-containers block of PhyphoxFile, but read the
+//XML with DOM instead of the pull parser, as only the containers are of interest.
+@RunWith(AndroidJUnit4.class)
+public class StateBenchmark {
+
+    private static final int n = 60000;
+    private static final String[] names = {"accX", "accY", "accZ", "acc_time"};
+    private static final String source = "<phyphox version=\"1.14\"><data-containers>"
+            + "<container size=\"0\">accX</container><container size=\"0\">accY</container>"
+            + "<container size=\"0\">accZ</container><container size=\"0\">acc_time</container>"
+            + "</data-containers></phyphox>";
+
+    @Rule
+    public BenchmarkRule benchmarkRule = new BenchmarkRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PhyphoxExperiment experiment = new PhyphoxExperiment();
+    private File stateFile;
+    private File dataFile;
+
+    @Before
+    public void createBuffers() throws Exception {
+        for (int j = 0; j < names.length; j++) {
+            DataBuffer buffer = experiment.createBuffer(names[j], 0, experiment.experimentTimeReference);
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++)
+                values[i] = j == 3 ? 0.01 * i : Math.sin(0.01 * i + j) + 1e-3 * Math.cos(7.3 * i);
+            buffer.append(values, n);
+        }
+        stateFile = folder.newFile("state.phyphox");
+        dataFile = new File(stateFile.getPath() + StateData.suffix);
+    }
+
+    private static Document parse(InputStream in) throws Exception {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void transform(Document doc, File file) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+        } finally {
+            out.close();
+        }
+    }
+
+    //Re-parse the source and store the values of each container, either in its init attribute or
+    //in a section of the data file
+    private void save(boolean binary) throws Exception {
+        Document doc = parse(new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8)));
+        NodeList containers = doc.getElementsByTagName("container");
+        StateData.Writer writer = binary ? new StateData.Writer(dataFile) : null;
+        try {
+            DoubleFormatter format = DoubleFormatter.scientific(0, 9, '.');
+            for (int i = 0; i < containers.getLength(); i++) {
+                Element container = (Element)containers.item(i);
+                DataBuffer buffer = experiment.getBuffer(container.getTextContent());
+                if (binary) {
+                    container.setAttribute("init-data", writer.write(buffer));
+                    continue;
+                }
+                StringBuilder sb = new StringBuilder();
+                boolean first = true;
+                for (double v : buffer.getArray()) {
+                    if (first)
+                        first = false;
+                    else
+                        sb.append(",");
+                    format.format(v, sb);
+                }
+                container.setAttribute("init", sb.toString());
+            }
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+        if (binary)
+            ((Element)doc.getElementsByTagName("data-containers").item(0)).setAttribute("data-file", dataFile.getName());
+        transform(doc, stateFile);
+    }
+
+    //Create the buffers of the saved state and initialize them with their values
+    private PhyphoxExperiment load() throws Exception {
+        PhyphoxExperiment loaded = new PhyphoxExperiment();
+        Document doc = parse(new FileInputStream(stateFile));
+        Element block = (Element)doc.getElementsByTagName("data-containers").item(0);
+        ByteBuffer stateData = block.hasAttribute("data-file") ? StateData.map(new File(stateFile.getParentFile(), block.getAttribute("data-file"))) : null;
+        NodeList containers = doc.getElementsByTagName("container");
+        for (int i = 0; i < containers.getLength(); i++) {
+            Element container = (Element)containers.item(i);
+            DataBuffer buffer = loaded.createBuffer(container.getTextContent(), Integer.parseInt(container.getAttribute("size")), loaded.experimentTimeReference);
+            String strInit = container.getAttribute("init");
+            if (!strInit.isEmpty()) {
+                String strInitArray[] = strInit.split(",");
+                Double init[] = new Double[strInitArray.length];
+                for (int j = 0; j < init.length; j++) {
+                    try {
+                        init[j] = Double.parseDouble(strInitArray[j].trim());
+                    } catch (Exception e) {
+                        init[j] = Double.NaN;
+                    }
+                }
+                buffer.setInit(init);
+            } else if (container.hasAttribute("init-data"))
+                buffer.setInit(StateData.section(stateData, container.getAttribute("init-data")));
+        }
+        return loaded;
+    }
+
+    private void assertLoaded(PhyphoxExperiment loaded, double tolerance) {
+        for (String name : names) {
+            double[] expected = experiment.getBuffer(name).getDoubleArray();
+            double[] actual = loaded.getBuffer(name).getDoubleArray();
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++)
+                assertEquals(expected[i], actual[i], tolerance * Math.abs(expected[i]));
+        }
+    }
+
+    @Test
+    public void saveXml() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            save(false);
+    }
+
+    @Test
+    public void loadXml() throws Exception {
+        save(false);
+        assertLoaded(load(), 1e-9); //The XML keeps ten significant digits
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            load();
+    }
+
+    @Test
+    public void saveBinary() throws Exception {
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            save(true);
+    }
+
+    @Test
+    public void loadBinary() throws Exception {
+        save(true);
+        assertLoaded(load(), 0);
+        BenchmarkState state = benchmarkRule.getState();
+        while (state.keepRunning())
+            load();
+    }
+}
@@ -1,7 +1,284 @@
 #include <jni.h>
 #include <math.h>
+#include <pthread.h>
+#include <string.h>
+#include <list>
+#include <string>
 #include "../fftw3/api/fftw3.h"
 
+//Plan cache
+//Creating an FFTW plan is much more expensive than executing it, even with FFTW_ESTIMATE, and the
+//analysis modules usually transform data of the same size in every cycle. So, plans are kept in a
+//small cache by transform kind and size and the most recently used ones are kept.
+//A plan can only be executed on arrays with the same alignment as the ones it has been created
+//for. Therefore, each entry has its own (aligned) arrays to create the plans and the data is
+//copied into these arrays unless it happens to be aligned the same way (direct buffers usually
+//are). Copying is O(n) and negligible compared to the transform itself.
+//If enabled, sizes that are used repeatedly are planned again with FFTW_MEASURE on a background
+//thread. The measured plan replaces the estimated one once it is ready and the wisdom is saved,
+//so the next time the measured plan can be created right away.
+//The FFTW planner is not thread-safe, so creating and destroying plans (and wisdom) is guarded by
+//plannerLock. Executing plans is thread-safe, but the arrays of an entry are not, so each entry is
+//locked while it is used. Locks are always taken in the order cacheLock, entry lock, plannerLock.
+
+enum Kind {
+    COMPLEX = 0, //Complex forward DFT (interleaved real and imaginary parts)
+    REAL = 1 //Real to halfcomplex and back
+};
+
+struct Entry {
+    Kind kind;
+    int n;
+    int uses; //Number of times this entry has been used
+    bool measuring; //Set once a measured plan has been requested
+    fftwf_plan forward;
+    fftwf_plan backward; //REAL only
+    float *a; //Aligned array the plans have been created for. 2n floats for COMPLEX, n floats for REAL
+    float *b; //Second array for cross correlations, allocated when needed
+    pthread_mutex_t lock;
+};
+
+static const size_t maxEntries = 16; //Sizes kept in the cache
+static const int measureAfter = 8; //Uses of a size before it is measured
+
+static pthread_mutex_t cacheLock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_mutex_t plannerLock = PTHREAD_MUTEX_INITIALIZER;
+static std::list<Entry*> cache; //Most recently used first
+static bool measure = false;
+static std::string wisdomFile;
+
+//Size of the array of an entry in floats
+static size_t arraySize(Kind kind, int n) {
+    return kind == COMPLEX ? 2 * (size_t)n : (size_t)n;
+}
+
+//Create the (in place) plans for an entry on the array a. Call with plannerLock held.
+static bool createPlans(Kind kind, int n, unsigned flags, float *a, fftwf_plan *forward, fftwf_plan *backward) {
+    if (kind == COMPLEX) {
+        *forward = fftwf_plan_dft_1d(n, (fftwf_complex*)a, (fftwf_complex*)a, FFTW_FORWARD, flags);
+        *backward = NULL;
+        return *forward != NULL;
+    }
+    *forward = fftwf_plan_r2r_1d(n, a, a, FFTW_R2HC, flags);
+    *backward = fftwf_plan_r2r_1d(n, a, a, FFTW_HC2R, flags);
+    if (*forward == NULL || *backward == NULL) {
+        if (*forward != NULL)
+            fftwf_destroy_plan(*forward);
+        if (*backward != NULL)
+            fftwf_destroy_plan(*backward);
+        return false;
+    }
+    return true;
+}
+
+static void destroyEntry(Entry *e) {
+    pthread_mutex_lock(&plannerLock);
+    fftwf_destroy_plan(e->forward);
+    if (e->backward != NULL)
+        fftwf_destroy_plan(e->backward);
+    fftwf_free(e->a);
+    if (e->b != NULL)
+        fftwf_free(e->b);
+    pthread_mutex_unlock(&plannerLock);
+    pthread_mutex_destroy(&e->lock);
+    delete e;
+}
+
+struct MeasureRequest {
+    Kind kind;
+    int n;
+};
+
+//Background thread creating a measured plan
+static void *measurePlans(void *arg) {
+    MeasureRequest *request = (MeasureRequest*)arg;
+    Kind kind = request->kind;
+    int n = request->n;
+    delete request;
+
+    //FFTW_MEASURE overwrites the array, so we need our own
+    fftwf_plan forward, backward;
+    pthread_mutex_lock(&plannerLock);
+    float *a = fftwf_alloc_real(arraySize(kind, n));
+    bool ok = a != NULL && createPlans(kind, n, FFTW_MEASURE, a, &forward, &backward);
+    if (ok && !wisdomFile.empty())
+        fftwf_export_wisdom_to_filename(wisdomFile.c_str());
+    if (a != NULL)
+        fftwf_free(a);
+    pthread_mutex_unlock(&plannerLock);
+    if (!ok)
+        return NULL;
+
+    //Swap the plans if the entry is still in the cache. Otherwise, we just keep the wisdom.
+    pthread_mutex_lock(&cacheLock);
+    for (std::list<Entry*>::iterator it = cache.begin(); it != cache.end(); ++it) {
+        Entry *e = *it;
+        if (e->kind == kind && e->n == n) {
+            pthread_mutex_lock(&e->lock);
+            fftwf_plan f = e->forward;
+            fftwf_plan b = e->backward;
+            e->forward = forward;
+            e->backward = backward;
+            forward = f;
+            backward = b;
+            pthread_mutex_unlock(&e->lock);
+            break;
+        }
+    }
+    pthread_mutex_unlock(&cacheLock);
+
+    pthread_mutex_lock(&plannerLock);
+    fftwf_destroy_plan(forward);
+    if (backward != NULL)
+        fftwf_destroy_plan(backward);
+    pthread_mutex_unlock(&plannerLock);
+    return NULL;
+}
+
+//Get the entry for a transform and lock it. Returns NULL if no plan can be created.
+static Entry *acquire(Kind kind, int n) {
+    pthread_mutex_lock(&cacheLock);
+    Entry *e = NULL;
+    for (std::list<Entry*>::iterator it = cache.begin(); it != cache.end(); ++it) {
+        if ((*it)->kind == kind && (*it)->n == n) {
+            e = *it;
+            cache.erase(it);
+            break;
+        }
+    }
+
+    if (e == NULL) {
+        //Not cached. Drop the least recently used entry if the cache is full and create a new one.
+        if (cache.size() >= maxEntries) {
+            Entry *last = cache.back();
+            cache.pop_back();
+            pthread_mutex_lock(&last->lock); //Wait until it is no longer in use
+            pthread_mutex_unlock(&last->lock);
+            destroyEntry(last);
+        }
+
+        e = new Entry();
+        e->kind = kind;
+        e->n = n;
+        e->uses = 0;
+        e->measuring = false;
+        e->b = NULL;
+        pthread_mutex_lock(&plannerLock);
+        e->a = fftwf_alloc_real(arraySize(kind, n));
+        //Use measured plans from the wisdom if there are any
+        bool ok = e->a != NULL && createPlans(kind, n, FFTW_MEASURE | FFTW_WISDOM_ONLY, e->a, &e->forward, &e->backward);
+        if (ok)
+            e->measuring = true;
+        else
+            ok = e->a != NULL && createPlans(kind, n, FFTW_ESTIMATE, e->a, &e->forward, &e->backward);
+        if (!ok && e->a != NULL)
+            fftwf_free(e->a);
+        pthread_mutex_unlock(&plannerLock);
+        if (!ok) {
+            delete e;
+            pthread_mutex_unlock(&cacheLock);
+            return NULL;
+        }
+        pthread_mutex_init(&e->lock, NULL);
+    }
+    cache.push_front(e);
+
+    e->uses++;
+    if (measure && !e->measuring && e->uses >= measureAfter) {
+        e->measuring = true;
+        MeasureRequest *request = new MeasureRequest();
+        request->kind = kind;
+        request->n = n;
+        pthread_t thread;
+        if (pthread_create(&thread, NULL, measurePlans, request) == 0)
+            pthread_detach(thread);
+        else
+            delete request;
+    }
+
+    pthread_mutex_lock(&e->lock);
+    pthread_mutex_unlock(&cacheLock);
+    return e;
+}
+
+static void release(Entry *e) {
+    pthread_mutex_unlock(&e->lock);
+}
+
+//The transforms. These work on data in place and take an entry from acquire().
+
+//Execute plan p in place on a. If a is not aligned like the arrays of the plan, it is copied to scratch (an array of the entry) and back.
+static void execute(Entry *e, fftwf_plan p, float *a, float *scratch) {
+    size_t size = arraySize(e->kind, e->n);
+    if (fftwf_alignment_of(a) != fftwf_alignment_of(scratch)) {
+        memcpy(scratch, a, size * sizeof(float));
+        execute(e, p, scratch, scratch);
+        memcpy(a, scratch, size * sizeof(float));
+    } else if (e->kind == COMPLEX)
+        fftwf_execute_dft(p, (fftwf_complex*)a, (fftwf_complex*)a);
+    else
+        fftwf_execute_r2r(p, a, a);
+}
+
+static void complexTransform(Entry *e, float *xy) {
+    execute(e, e->forward, xy, e->a);
+}
+
+//The second array of an entry for cross correlations
+static float *secondArray(Entry *e) {
+    if (e->b == NULL) {
+        pthread_mutex_lock(&plannerLock);
+        e->b = fftwf_alloc_real(e->n);
+        pthread_mutex_unlock(&plannerLock);
+    }
+    return e->b;
+}
+
+//a and b may be the arrays of the entry (e->a and e->b)
+static void crosscorrelation(Entry *e, float *a, float *b) {
+    int n = e->n;
+    float n2 = (float)n*(float)n;
+
+    execute(e, e->forward, a, e->a);
+    execute(e, e->forward, b, e->b);
+    float c, d, f, g;
+    a[0] = a[0]*b[0]/n2;
+    a[n/2] = a[n/2]*b[n/2]/n2;
+    for (int i = 1; i < n/2; i++) {
+        c = a[i];
+        d = b[i];
+        f = a[n-i];
+        g = b[n-i];
+        a[i] = (c*d + f*g)/n2;
+        a[n-i] = (d*f - c*g)/n2;
+    }
+    execute(e, e->backward, a, e->a);
+}
+
+static void autocorrelation(Entry *e, float *a) {
+    int n = e->n;
+
+    execute(e, e->forward, a, e->a);
+    a[0] = a[0]*a[0];
+    a[n/2] = a[n/2]*a[n/2];
+    for (int i = 1; i < n/2; i++) {
+        a[i] = a[i]*a[i] + a[n-i]*a[n-i];
+        a[n-i] = 0.f;
+    }
+    for (int i = 0; i < n; i++) {
+        a[i] /= (float)n;
+    }
+    execute(e, e->backward, a, e->a);
+}
+
+//Address of a direct buffer with at least n floats, NULL otherwise
+static float *directFloats(JNIEnv *env, jobject buffer, jlong n) {
+    float *p = (float*)env->GetDirectBufferAddress(buffer);
+    if (p == NULL || env->GetDirectBufferCapacity(buffer) < n)
+        return NULL;
+    return p;
+}
+
 extern "C" {
 
     JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_nativePower(JNIEnv *env, jobject obj, jdoubleArray a, jdoubleArray b) {
@@ -32,78 +309,92 @@ extern "C" {
         env->ReleaseDoubleArrayElements(b, y, 0);
     }
 
-    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3complex(JNIEnv *env, jobject obj, jfloatArray xy, jint n) {
-        jfloat *a = env->GetFloatArrayElements(xy, 0);
-        fftwf_complex *fftwa = (fftwf_complex*)a;
+    //Set the file to keep the wisdom in (empty for none) and whether sizes used repeatedly should be measured
+    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3init(JNIEnv *env, jobject obj, jstring wisdom, jboolean measurePlans) {
+        const char *path = env->GetStringUTFChars(wisdom, 0);
+        pthread_mutex_lock(&plannerLock);
+        wisdomFile = path;
+        if (!wisdomFile.empty())
+            fftwf_import_wisdom_from_filename(path);
+        pthread_mutex_unlock(&plannerLock);
+        env->ReleaseStringUTFChars(wisdom, path);
+        pthread_mutex_lock(&cacheLock);
+        measure = measurePlans;
+        pthread_mutex_unlock(&cacheLock);
+    }
 
-        fftwf_plan p;
-        p = fftwf_plan_dft_1d(n, fftwa, fftwa, FFTW_FORWARD, FFTW_ESTIMATE);
-        fftwf_execute(p);
-        fftwf_destroy_plan(p);
+    //The array versions copy the values directly to the aligned arrays of the plans and back,
+    //which avoids the additional copy GetFloatArrayElements might do
 
-        env->ReleaseFloatArrayElements(xy, a, 0);
+    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3complex(JNIEnv *env, jobject obj, jfloatArray xy, jint n) {
+        Entry *e = acquire(COMPLEX, n);
+        if (e == NULL)
+            return;
+        env->GetFloatArrayRegion(xy, 0, 2 * n, e->a);
+        complexTransform(e, e->a);
+        env->SetFloatArrayRegion(xy, 0, 2 * n, e->a);
+        release(e);
     }
 
     JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3crosscorrelation(JNIEnv *env, jobject obj, jfloatArray x, jfloatArray y, jint n) {
-        jfloat *a = env->GetFloatArrayElements(x, 0);
-        jfloat *b = env->GetFloatArrayElements(y, 0);
-
-        float n2 = (float)n*(float)n;
-
-        fftwf_plan pa, pb, pr;
-        pa = fftwf_plan_r2r_1d(n, a, a, FFTW_R2HC, FFTW_ESTIMATE);
-        pb = fftwf_plan_r2r_1d(n, b, b, FFTW_R2HC, FFTW_ESTIMATE);
-        fftwf_execute(pa);
-        fftwf_execute(pb);
-        float c, d, e, f;
-        a[0] = a[0]*b[0]/n2;
-        a[n/2] = a[n/2]*b[n/2]/n2;
-        for (int i = 0; i < n/2; i++) {
-            c = a[i];
-            d = b[i];
-            e = a[n-i];
-            f = b[n-i];
-            a[i] = (c*d + e*f)/n2;
-            a[n-i] = (d*e - c*f)/n2;
+        Entry *e = acquire(REAL, n);
+        if (e == NULL)
+            return;
+        if (secondArray(e) != NULL) {
+            env->GetFloatArrayRegion(x, 0, n, e->a);
+            env->GetFloatArrayRegion(y, 0, n, e->b);
+            crosscorrelation(e, e->a, e->b);
+            env->SetFloatArrayRegion(x, 0, n, e->a);
+            env->SetFloatArrayRegion(y, 0, n, e->b);
         }
-
-        pr = fftwf_plan_r2r_1d(n, a, a, FFTW_HC2R, FFTW_ESTIMATE);
-        fftwf_execute(pr);
-
-        fftwf_destroy_plan(pa);
-        fftwf_destroy_plan(pb);
-        fftwf_destroy_plan(pr);
-
-        env->ReleaseFloatArrayElements(x, a, 0);
-        env->ReleaseFloatArrayElements(y, b, 0);
+        release(e);
     }
 
     JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3autocorrelation(JNIEnv *env, jobject obj, jfloatArray x, jint n) {
-        jfloat *a = env->GetFloatArrayElements(x, 0);
-
-        fftwf_plan pa, pr;
-        pa = fftwf_plan_r2r_1d(n, a, a, FFTW_R2HC, FFTW_ESTIMATE);
-        fftwf_execute(pa);
-
-        a[0] = a[0]*a[0];
-        a[n/2] = a[n/2]*a[n/2];
-        for (int i = 0; i < n/2; i++) {
-            a[i] = a[i]*a[i] + a[n-i]*a[n-i];
-            a[n-i] = 0.f;
-        }
+        Entry *e = acquire(REAL, n);
+        if (e == NULL)
+            return;
+        env->GetFloatArrayRegion(x, 0, n, e->a);
+        autocorrelation(e, e->a);
+        env->SetFloatArrayRegion(x, 0, n, e->a);
+        release(e);
+    }
 
-        pr = fftwf_plan_r2r_1d(n, a, a, FFTW_HC2R, FFTW_ESTIMATE);
+    //Direct buffer versions. These work on the memory of the buffers without any JNI copies.
 
-        for (int i = 0; i < n; i++) {
-            a[i] /= (float)n;
-        }
-
-        fftwf_execute(pr);
+    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3complexDirect(JNIEnv *env, jobject obj, jobject xy, jint n) {
+        float *a = directFloats(env, xy, 2 * (jlong)n);
+        if (a == NULL)
+            return;
+        Entry *e = acquire(COMPLEX, n);
+        if (e == NULL)
+            return;
+        complexTransform(e, a);
+        release(e);
+    }
 
-        fftwf_destroy_plan(pa);
-        fftwf_destroy_plan(pr);
+    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3crosscorrelationDirect(JNIEnv *env, jobject obj, jobject x, jobject y, jint n) {
+        float *a = directFloats(env, x, n);
+        float *b = directFloats(env, y, n);
+        if (a == NULL || b == NULL)
+            return;
+        Entry *e = acquire(REAL, n);
+        if (e == NULL)
+            return;
+        if (secondArray(e) != NULL)
+            crosscorrelation(e, a, b);
+        release(e);
+    }
 
-        env->ReleaseFloatArrayElements(x, a, 0);
+    JNIEXPORT void JNICALL Java_de_rwth_1aachen_phyphox_Analysis_fftw3autocorrelationDirect(JNIEnv *env, jobject obj, jobject x, jint n) {
+        float *a = directFloats(env, x, n);
+        if (a == NULL)
+            return;
+        Entry *e = acquire(REAL, n);
+        if (e == NULL)
+            return;
+        autocorrelation(e, a);
+        release(e);
     }
 
-}
\ No newline at end of file
+}
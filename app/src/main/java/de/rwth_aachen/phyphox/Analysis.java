@@ -2,10 +2,18 @@ package de.rwth_aachen.phyphox;
 
 import android.util.Log;
 
+import java.io.File;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
 // The analysis class is used to to do math operations on dataBuffers
@@ -26,44 +34,236 @@ public class Analysis {
     }
 
     public static native void nativePower(double[] x, double[] y);
+    //The FFTW plans are cached by the native library, which also takes care of the planner not
+    //being thread-safe, so modules running in parallel may call these at the same time.
+    private static native void fftw3init(String wisdomFile, boolean measure);
     public static native void fftw3complex(float[] xy, int n);
     public static native void fftw3crosscorrelation(float[] x, float[] y, int n);
     public static native void fftw3autocorrelation(float[] x, int n);
+    //Same for direct buffers (in native order), which are used without any copies by JNI
+    public static native void fftw3complexDirect(FloatBuffer xy, int n);
+    public static native void fftw3crosscorrelationDirect(FloatBuffer x, FloatBuffer y, int n);
+    public static native void fftw3autocorrelationDirect(FloatBuffer x, int n);
+
+    //Set up the FFTW plan cache: The wisdom (the results of measuring plans) is kept in
+    //wisdomFile, so it is available after a restart. If measure is set, sizes that are used
+    //repeatedly are planned again with FFTW_MEASURE on a background thread, which gives faster
+    //plans than the estimated ones used at first.
+    public static void initFFTW(File wisdomFile, boolean measure) {
+        if (nativeLib)
+            fftw3init(wisdomFile.getPath(), measure);
+    }
 
+    //Java implementation of the FFT, used if the native library is not available.
+    //The transform is an exact DFT of any length n like the FFTW transform of the native library:
+    //Powers of two use an in-place radix-2 algorithm. Other lengths use Bluestein's algorithm,
+    //which expresses the DFT as a convolution that is calculated with power-of-two FFTs of at
+    //least 2n-1 values. Real input of even length is packed into a complex transform of half the
+    //length (see calculateReal()).
+    //The twiddle factors and the other tables only depend on the size, so they are calculated
+    //once per size and shared by all instances (see Tables). An instance holds the scratch arrays
+    //for one size, so it must not be used by multiple threads at the same time.
     public static class FFT implements Serializable {
-        private int n, logn; //input size, power-of-two filled size, log2 of input size (integer)
-        private double [] cos, sin; //Lookup table
+        private int n = 0; //Size of the transform
+        private Tables tables = null;
+        private FFT half = null; //Transform of n/2 values for real input of even length
+        private double[] ur, ui; //Scratch arrays for Bluestein's algorithm
+        private double[] zr, zi; //Scratch arrays for the packed real input
+
+        //Tables for a transform size
+        private static class Tables implements Serializable {
+            final int n;
+            final int logn; //log2(n) if n is a power of two, -1 otherwise
+            final double[] cos, sin; //Twiddle factors of a power of two (n/2 values)
+            final Tables conv; //Tables for the power-of-two size of the convolution of Bluestein's algorithm
+            final double[] chirpRe, chirpIm; //exp(-i*pi*k^2/n) for Bluestein's algorithm
+            final double[] kernelRe, kernelIm; //Transform of the convolution kernel for Bluestein's algorithm (conv.n values)
+            final double[] realCos, realSin; //exp(-2*pi*i*k/n) for k < n/2 to combine the packed transform of real input
+
+            Tables(int n) {
+                this.n = n;
+                int log = 31 - Integer.numberOfLeadingZeros(n);
+                if (n == (1 << log)) {
+                    logn = log;
+                    cos = new double[n/2];
+                    sin = new double[n/2];
+                    for (int i = 0; i < n / 2; i++) {
+                        cos[i] = Math.cos(-2 * Math.PI * i / n);
+                        sin[i] = Math.sin(-2 * Math.PI * i / n);
+                    }
+                    conv = null;
+                    chirpRe = chirpIm = kernelRe = kernelIm = null;
+                } else {
+                    logn = -1;
+                    cos = sin = null;
+                    int m = Integer.highestOneBit(2 * n - 1);
+                    if (m < 2 * n - 1)
+                        m *= 2;
+                    conv = get(m);
+                    chirpRe = new double[n];
+                    chirpIm = new double[n];
+                    for (int k = 0; k < n; k++) {
+                        //k^2 modulo 2n keeps the argument small, so we do not lose precision for large k
+                        double angle = Math.PI * (double)(((long)k * k) % (2L * n)) / n;
+                        chirpRe[k] = Math.cos(angle);
+                        chirpIm[k] = -Math.sin(angle);
+                    }
+                    //The kernel is the conjugated chirp at indices -(n-1) to n-1 (wrapped around)
+                    kernelRe = new double[m];
+                    kernelIm = new double[m];
+                    for (int k = 0; k < n; k++) {
+                        kernelRe[k] = chirpRe[k];
+                        kernelIm[k] = -chirpIm[k];
+                        if (k > 0) {
+                            kernelRe[m - k] = chirpRe[k];
+                            kernelIm[m - k] = -chirpIm[k];
+                        }
+                    }
+                    radix2(kernelRe, kernelIm, conv);
+                }
+                if (n % 2 == 0) {
+                    realCos = new double[n/2];
+                    realSin = new double[n/2];
+                    for (int k = 0; k < n / 2; k++) {
+                        realCos[k] = Math.cos(-2 * Math.PI * k / n);
+                        realSin[k] = Math.sin(-2 * Math.PI * k / n);
+                    }
+                } else
+                    realCos = realSin = null;
+            }
+
+            //Shared tables of the most recently used sizes
+            private static final int maxCached = 16;
+            private static final Map<Integer, Tables> cache = new LinkedHashMap<Integer, Tables>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Tables> eldest) {
+                    return size() > maxCached;
+                }
+            };
 
-        public int np2;
+            static Tables get(int n) {
+                synchronized (cache) {
+                    Tables t = cache.get(n);
+                    if (t == null) {
+                        t = new Tables(n);
+                        cache.put(n, t);
+                    }
+                    return t;
+                }
+            }
+        }
 
         FFT() {
-            n = 0;
+        }
+
+        public int size() {
+            return n;
         }
 
         public void prepare(int n) {
             this.n = n;
             if (n < 2)
                 return;
-
-            logn = (int)(Math.log(n)/Math.log(2)); //log of input size
-            if (n != (1 << logn)) {
-                logn++;
-                np2 = (1 << logn); //power of two after zero filling
-            } else
-                np2 = n; //n is already power of two
-
-            //Create buffer of sine and cosine values
-            cos = new double[np2/2];
-            sin = new double[np2/2];
-            for (int i = 0; i < np2 / 2; i++) {
-                cos[i] = Math.cos(-2 * Math.PI * i / np2);
-                sin[i] = Math.sin(-2 * Math.PI * i / np2);
+            tables = Tables.get(n);
+            ur = ui = zr = zi = null;
+            half = null;
+            if (tables.conv != null) {
+                ur = new double[tables.conv.n];
+                ui = new double[tables.conv.n];
+            }
+            if (n % 2 == 0 && n > 2) {
+                half = new FFT();
+                half.prepare(n / 2);
+                zr = new double[n / 2];
+                zi = new double[n / 2];
             }
         }
 
-        public void calculate(Double[] x, Double[] y) {
+        //Complex DFT of n values in place. x holds the real part and y the imaginary part.
+        public void calculate(double[] x, double[] y) {
             if (n < 2)
                 return;
+            if (tables.logn >= 0)
+                radix2(x, y, tables);
+            else
+                bluestein(x, y);
+        }
+
+        //DFT of n real values in x. The result is written to x (real part) and y (imaginary part)
+        //just like calculate() with y set to zero, but for even n this only takes a complex
+        //transform of n/2 values: The even values are used as real and the odd ones as imaginary
+        //part and the transforms of both are separated afterwards using their symmetry.
+        public void calculateReal(double[] x, double[] y) {
+            if (n < 2)
+                return;
+            if (half == null) {
+                Arrays.fill(y, 0, n, 0.);
+                calculate(x, y);
+                return;
+            }
+
+            int h = n / 2;
+            for (int j = 0; j < h; j++) {
+                zr[j] = x[2 * j];
+                zi[j] = x[2 * j + 1];
+            }
+            half.calculate(zr, zi);
+
+            //X[k] = E[k] + exp(-2*pi*i*k/n) * O[k] with E[k] = (Z[k] + conj(Z[h-k]))/2 and O[k] = -i(Z[k] - conj(Z[h-k]))/2
+            for (int k = 0; k <= h; k++) {
+                int a = k % h;
+                int b = (h - k) % h;
+                double er = 0.5 * (zr[a] + zr[b]);
+                double ei = 0.5 * (zi[a] - zi[b]);
+                double or = 0.5 * (zi[a] + zi[b]);
+                double oi = -0.5 * (zr[a] - zr[b]);
+                double c = k < h ? tables.realCos[k] : -1.;
+                double s = k < h ? tables.realSin[k] : 0.;
+                x[k] = er + c * or - s * oi;
+                y[k] = ei + c * oi + s * or;
+            }
+            //The rest follows from the symmetry of the transform of real input
+            for (int k = h + 1; k < n; k++) {
+                x[k] = x[n - k];
+                y[k] = -y[n - k];
+            }
+        }
+
+        //Bluestein's algorithm: X[k] = chirp[k] * sum_j (x[j]*chirp[j]) * conj(chirp[k-j]), so the
+        //DFT is the convolution of x*chirp with the conjugated chirp, which we calculate with
+        //power-of-two transforms.
+        private void bluestein(double[] x, double[] y) {
+            Tables conv = tables.conv;
+            int m = conv.n;
+            for (int k = 0; k < n; k++) {
+                ur[k] = x[k] * tables.chirpRe[k] - y[k] * tables.chirpIm[k];
+                ui[k] = x[k] * tables.chirpIm[k] + y[k] * tables.chirpRe[k];
+            }
+            Arrays.fill(ur, n, m, 0.);
+            Arrays.fill(ui, n, m, 0.);
+            radix2(ur, ui, conv);
+            //Multiply with the kernel and transform back. The inverse transform is done as a
+            //forward transform of the complex conjugate.
+            for (int k = 0; k < m; k++) {
+                double re = ur[k] * tables.kernelRe[k] - ui[k] * tables.kernelIm[k];
+                double im = ur[k] * tables.kernelIm[k] + ui[k] * tables.kernelRe[k];
+                ur[k] = re;
+                ui[k] = -im;
+            }
+            radix2(ur, ui, conv);
+            for (int k = 0; k < n; k++) {
+                double re = ur[k] / m;
+                double im = -ui[k] / m;
+                x[k] = re * tables.chirpRe[k] - im * tables.chirpIm[k];
+                y[k] = re * tables.chirpIm[k] + im * tables.chirpRe[k];
+            }
+        }
+
+        private static void radix2(double[] x, double[] y, Tables t) {
+            int np2 = t.n;
+            int logn = t.logn;
+            double[] cos = t.cos;
+            double[] sin = t.sin;
 
             /***************************************************************
              * fft.c
@@ -152,6 +352,43 @@ public class Analysis {
         protected boolean useArray = false;
         protected boolean clearInModule = false;
 
+        //Primitive alternative to useArray. The inputs are copied to double arrays, which are kept
+        //and reused in the next cycle, so modules using this do not need to box or allocate anything.
+        //Note that the arrays may be larger than the data, so inputDoubleArraySizes has to be used.
+        protected boolean useDoubleArray = false;
+        protected double[][] inputDoubleArrays = new double[0][];
+        protected int[] inputDoubleArraySizes = new int[0];
+        //Sequence numbers (see DataBuffer) of the first value in inputDoubleArrays of each input
+        //that is a buffer. Modules that keep track of the values they have seen can use this with
+        //inputSince() to receive only newer values, even if they cannot do streaming updates.
+        protected long[] inputDoubleArraySequences = new long[0];
+        //Number of sequence numbers each of these buffers had skipped by clearing (see
+        //DataBuffer.getSkippedSequences()) when it was copied. Comparing this to the previous copy
+        //tells a module how many of the values between the copies it has actually missed.
+        protected long[] inputDoubleArraySkipped = new long[0];
+
+        //Streaming mode
+        //Modules with supportsStreaming (which requires useDoubleArray) can continue from their
+        //previous execution and only process the values that have been appended to their inputs
+        //since then. This is decided for each cycle and only done if no input has been cleared
+        //or lost values at its front (i.e. because it is full), no input is cleared after reading
+        //and, if the module appends its results to its outputs (streamingAppendsToOutputs), no one
+        //else modified those outputs. Otherwise the module does a full update as usual.
+        //During a streaming update, streamingUpdate is true, inputDoubleArrays only hold the values
+        //from streamingStart() onwards (by default the new values) and outputs with
+        //streamingAppendsToOutputs are not cleared. Modules need to keep the state required to
+        //continue and reset it whenever streamingUpdate is false.
+        protected boolean supportsStreaming = false;
+        protected boolean streamingAppendsToOutputs = false;
+        protected boolean streamingUpdate = false;
+        private long[] streamingInputFirst = null; //First and next sequence of each input at the last execution
+        private long[] streamingInputNext = null;
+        private long[] streamingOutputFirst = null; //First and next sequence of each output after the last execution
+        private long[] streamingOutputNext = null;
+        private boolean streamingStateValid = false; //False if the last update did not complete
+
+        private transient BufferLocks inputLocks = null;
+
         public static class CycleRange {
             int start = -1;
             int stop = -1;
@@ -196,6 +433,17 @@ public class Analysis {
             this.cycles = cycles;
         }
 
+        //Add the buffers this module clears or rewrites to the set: its outputs and the inputs it
+        //clears after reading. Other buffers only grow while the module runs (see DataExport).
+        public void addRewrittenBuffers(Set<DataBuffer> buffers) {
+            for (DataOutput output : outputs)
+                if (output != null && output.buffer != null)
+                    buffers.add(output.buffer);
+            for (DataInput input : inputsOriginal)
+                if (input != null && input.isBuffer && input.clearAfterRead)
+                    buffers.add(input.buffer);
+        }
+
         //Called when one of the input buffers is updated
         public void notifyUpdate(boolean clear, boolean reset) {
             if (reset) {
@@ -203,6 +451,110 @@ public class Analysis {
             }
         }
 
+        //Check if the module can continue from its last execution. Must be called with the dataLock held.
+        private boolean canStream() {
+            if (!supportsStreaming || !useDoubleArray || !streamingStateValid || streamingInputNext == null || streamingInputNext.length != inputsOriginal.size())
+                return false;
+            for (int i = 0; i < inputsOriginal.size(); i++) {
+                DataInput input = inputsOriginal.get(i);
+                if (input == null || !input.isBuffer)
+                    continue;
+                DataBuffer buffer = input.buffer;
+                if (input.clearAfterRead && !buffer.isStatic)
+                    return false;
+                if (buffer.getFirstSequence() != streamingInputFirst[i] || buffer.getNextSequence() < streamingInputNext[i])
+                    return false;
+                for (DataOutput output : outputs)
+                    if (output != null && output.buffer == buffer)
+                        return false;
+            }
+            if (streamingAppendsToOutputs) {
+                for (int i = 0; i < outputs.size(); i++) {
+                    DataOutput output = outputs.get(i);
+                    if (output == null)
+                        continue;
+                    if (!output.clearBeforeWrite)
+                        return false;
+                    if (output.buffer.getFirstSequence() != streamingOutputFirst[i] || output.buffer.getNextSequence() != streamingOutputNext[i])
+                        return false;
+                }
+            }
+            return canContinueStreaming();
+        }
+
+        //Modules can override this to add their own conditions for streaming updates
+        protected boolean canContinueStreaming() {
+            return true;
+        }
+
+        //Index of the first value of an input that is copied to inputDoubleArrays in a streaming
+        //update. By default, this is the first value that has been added since the last execution.
+        protected int streamingStart(int i) {
+            return newValuesStart(i);
+        }
+
+        //Sequence number from which on the values of an input are copied to inputDoubleArrays in
+        //a full (not streaming) update. If the buffer no longer holds the value with this number,
+        //the copy starts with its first value (see inputDoubleArraySequences). By default, all
+        //values are copied.
+        protected long inputSince(int i) {
+            return Long.MIN_VALUE;
+        }
+
+        //Copy the values of a buffer input from the sequence number since onwards (see inputSince())
+        private void copyInputSince(int i, long since) {
+            DataBuffer buffer = inputsOriginal.get(i).buffer;
+            int start = 0;
+            if (since > buffer.getFirstSequence())
+                start = (int)Math.min(since - buffer.getFirstSequence(), buffer.getFilledSize());
+            inputDoubleArrays[i] = buffer.getDoubleArray(inputDoubleArrays[i], start);
+            inputDoubleArraySizes[i] = buffer.getFilledSize() - start;
+            inputDoubleArraySequences[i] = buffer.getFirstSequence() + start;
+            inputDoubleArraySkipped[i] = buffer.getSkippedSequences();
+        }
+
+        //Copy a buffer input again during update(), starting with all of its values. This is for
+        //modules that have asked for newer values only (see inputSince()) and learn from another
+        //input that they have to start over. Returns false if the input is cleared after reading,
+        //so the values are already gone and the copy is all there is.
+        protected boolean recopyInput(int i) {
+            DataInput input = inputsOriginal.get(i);
+            if (!input.isBuffer || input.clearAfterRead)
+                return false;
+            //The other inputs have already been released, so only this buffer is locked
+            input.buffer.lock.readLock().lock();
+            try {
+                copyInputSince(i, Long.MIN_VALUE);
+            } finally {
+                input.buffer.lock.readLock().unlock();
+            }
+            return true;
+        }
+
+        //Index of the first value of an input that has been added since the last execution
+        protected int newValuesStart(int i) {
+            DataBuffer buffer = inputsOriginal.get(i).buffer;
+            return (int)(streamingInputNext[i] - buffer.getFirstSequence());
+        }
+
+        //True if the input is a buffer that did not change since the last execution
+        protected boolean inputUnchanged(int i) {
+            DataInput input = inputsOriginal.get(i);
+            if (input == null || !input.isBuffer)
+                return true;
+            return streamingInputNext != null && input.buffer.getNextSequence() == streamingInputNext[i] && input.buffer.getFirstSequence() == streamingInputFirst[i];
+        }
+
+        //True if the input is a buffer (as opposed to a constant value or an empty input)
+        protected boolean inputIsBuffer(int i) {
+            return i < inputsOriginal.size() && inputsOriginal.get(i) != null && inputsOriginal.get(i).isBuffer;
+        }
+
+        //Current number of values in an input (not just in the copy used by the module)
+        protected int inputFilledSize(int i) {
+            return inputsOriginal.get(i).getFilledSize();
+        }
+
         private boolean runInCycle(int thisCycle) {
             if (cycles.size() == 0)
                 return true;
@@ -216,51 +568,140 @@ public class Analysis {
             return false;
         }
 
+        //Locks of the input buffers. Inputs that are cleared after reading are locked for writing.
+        private BufferLocks getInputLocks() {
+            if (inputLocks == null)
+                inputLocks = new BufferLocks(getReadBuffers(), getWrittenInputBuffers());
+            return inputLocks;
+        }
+
+        private Set<DataBuffer> getWrittenInputBuffers() {
+            Set<DataBuffer> buffers = new HashSet<>();
+            for (DataInput input : inputsOriginal)
+                if (input != null && input.isBuffer && input.clearAfterRead && !input.buffer.isStatic)
+                    buffers.add(input.buffer);
+            return buffers;
+        }
+
+        //Buffers read by this module
+        Set<DataBuffer> getReadBuffers() {
+            Set<DataBuffer> buffers = new HashSet<>();
+            for (DataInput input : inputsOriginal)
+                if (input != null && input.isBuffer)
+                    buffers.add(input.buffer);
+            return buffers;
+        }
+
+        //Buffers modified by this module. This includes inputs that are cleared after reading.
+        Set<DataBuffer> getWrittenBuffers() {
+            Set<DataBuffer> buffers = new HashSet<>();
+            for (DataOutput output : outputs)
+                if (output != null)
+                    buffers.add(output.buffer);
+            buffers.addAll(getWrittenInputBuffers());
+            return buffers;
+        }
+
         //Wrapper to update the module only if it is not static or has never been executed and to clear the buffer if required
         protected void updateIfNotStatic(int thisCycle) {
+            updateIfNotStatic(thisCycle, false);
+        }
+
+        //Same as above. If lockHeld is set, the caller holds the dataLock on behalf of this module
+        //(i.e. the AnalysisScheduler, which runs the module on another thread), so it is not
+        //acquired again.
+        void updateIfNotStatic(int thisCycle, boolean lockHeld) {
             if (!runInCycle(thisCycle))
                 return;
 
             if (!(isStatic && executed)) {
 //                long updateStart = System.nanoTime();
 
-                experiment.dataLock.lock();
+                if (!lockHeld)
+                    experiment.dataLock.lock();
+                //Sensors and other inputs do not use the dataLock, so we need the locks of the input buffers for a consistent snapshot
+                BufferLocks inputLocks = getInputLocks();
+                inputLocks.lock();
                 try {
-                    if (useArray) {
+                    streamingUpdate = canStream();
+                    if (supportsStreaming && (streamingInputNext == null || streamingInputNext.length != inputsOriginal.size())) {
+                        streamingInputFirst = new long[inputsOriginal.size()];
+                        streamingInputNext = new long[inputsOriginal.size()];
+                        streamingOutputFirst = new long[outputs.size()];
+                        streamingOutputNext = new long[outputs.size()];
+                    }
+                    if (useDoubleArray) {
+                        if (inputDoubleArrays.length != inputsOriginal.size()) {
+                            inputDoubleArrays = new double[inputsOriginal.size()][];
+                            inputDoubleArraySizes = new int[inputsOriginal.size()];
+                            inputDoubleArraySequences = new long[inputsOriginal.size()];
+                            inputDoubleArraySkipped = new long[inputsOriginal.size()];
+                        }
+                    } else if (useArray) {
                         inputArrays.setSize(inputsOriginal.size());
                         inputArraySizes.setSize(inputsOriginal.size());
                     } else
                         inputs.setSize(inputsOriginal.size());
                     for (int i = 0; i < inputsOriginal.size(); i++) {
                         if (inputsOriginal.get(i) == null) {
-                            if (useArray) {
+                            if (useDoubleArray) {
+                                inputDoubleArrays[i] = null;
+                                inputDoubleArraySizes[i] = 0;
+                            } else if (useArray) {
                                 inputArrays.set(i, null);
                                 inputArraySizes.set(i, 0);
                             } else
                                 inputs.set(i, null);
                         } else {
-                            if (useArray) {
+                            if (useDoubleArray && streamingUpdate && inputsOriginal.get(i).isBuffer) {
+                                int start = streamingStart(i);
+                                inputDoubleArrays[i] = inputsOriginal.get(i).getDoubleArray(inputDoubleArrays[i], start);
+                                inputDoubleArraySizes[i] = inputsOriginal.get(i).getFilledSize() - start;
+                                inputDoubleArraySequences[i] = inputsOriginal.get(i).buffer.getFirstSequence() + start;
+                            } else if (useDoubleArray && inputsOriginal.get(i).isBuffer) {
+                                copyInputSince(i, inputSince(i));
+                            } else if (useDoubleArray) {
+                                inputDoubleArrays[i] = inputsOriginal.get(i).getDoubleArray(inputDoubleArrays[i]);
+                                inputDoubleArraySizes[i] = inputsOriginal.get(i).getFilledSize();
+                            } else if (useArray) {
                                 inputArrays.set(i, inputsOriginal.get(i).getArray());
                                 inputArraySizes.set(i, inputsOriginal.get(i).getFilledSize());
                             } else
                                 inputs.set(i, inputsOriginal.get(i).copy());
+                            if (supportsStreaming && inputsOriginal.get(i).isBuffer) {
+                                streamingInputFirst[i] = inputsOriginal.get(i).buffer.getFirstSequence();
+                                streamingInputNext[i] = inputsOriginal.get(i).buffer.getNextSequence();
+                            }
                             if (inputsOriginal.get(i).isBuffer && inputsOriginal.get(i).clearAfterRead && !inputsOriginal.get(i).buffer.isStatic)
                                 inputsOriginal.get(i).clear(false);
                         }
                     }
                 } finally {
-                    experiment.dataLock.unlock();
+                    inputLocks.unlock();
+                    if (!lockHeld)
+                        experiment.dataLock.unlock();
                 }
 
-                if (!clearInModule) {
+                if (!clearInModule && !(streamingUpdate && streamingAppendsToOutputs)) {
                     for (DataOutput output : outputs)
                         if (output != null && output.clearBeforeWrite)
                             output.buffer.clear(false);
                 }
 
 
+                streamingStateValid = false;
                 update();
 
+                if (supportsStreaming) {
+                    streamingStateValid = true;
+                    for (int i = 0; i < outputs.size(); i++) {
+                        if (outputs.get(i) != null) {
+                            streamingOutputFirst[i] = outputs.get(i).buffer.getFirstSequence();
+                            streamingOutputNext[i] = outputs.get(i).buffer.getNextSequence();
+                        }
+                    }
+                }
+
 //                long time = System.nanoTime() - updateStart;
 //                if (time > 1e6)
 //                    Log.d("AnalysisDebug", this.toString() + " update: " + (time*1e-6) + "ms");
@@ -299,6 +740,21 @@ public class Analysis {
         protected void update() {
 
         }
+
+        //Helper for modules that keep scratch arrays between cycles: Returns array if it can hold
+        //size values or a new array with some headroom otherwise.
+        protected static double[] ensureCapacity(double[] array, int size) {
+            if (array != null && array.length >= size)
+                return array;
+            return new double[size + size/2];
+        }
+
+        //Same for direct buffers, which are used to pass values to the native library
+        protected static FloatBuffer ensureCapacity(FloatBuffer buffer, int size) {
+            if (buffer != null && buffer.capacity() >= size)
+                return buffer;
+            return ByteBuffer.allocateDirect((size + size/2) * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
     }
 
     //Get the seconds since the experiment started
@@ -322,32 +778,72 @@ public class Analysis {
     //Describe multiple analysis steps as a formula
     public static class formulaAM extends AnalysisModule implements Serializable {
         FormulaParser formula;
+        private int produced = 0; //Number of results since the last full update
 
         protected formulaAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs, String formula) throws FormulaParser.FormulaException {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
+            supportsStreaming = true;
+            streamingAppendsToOutputs = true;
             this.formula = new FormulaParser(formula);
         }
 
+        //The formula is evaluated element-wise, so we can continue where we stopped as long as all
+        //inputs used as columns are buffers and all inputs used as single values did not change.
+        @Override
+        protected boolean canContinueStreaming() {
+            if (!formula.usesColumns())
+                return false;
+            for (int i = 0; i < inputDoubleArrays.length; i++) {
+                if (formula.usesColumn(i) && !inputIsBuffer(i))
+                    return false;
+                if (formula.usesSingle(i) && !inputUnchanged(i))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        protected int streamingStart(int i) {
+            if (formula.usesColumn(i))
+                return produced;
+            int n = inputFilledSize(i);
+            if (formula.usesSingle(i))
+                return Math.max(0, n - 1);
+            return n;
+        }
+
         @Override
         protected void update() {
+            if (!streamingUpdate)
+                produced = 0;
             if (outputs.size() > 0)
-            formula.execute(inputArrays, outputs.get(0));
+            produced += formula.execute(inputDoubleArrays, inputDoubleArraySizes, outputs.get(0));
         }
     }
 
     // Get the number of elements in the input buffer
     public static class countAM extends AnalysisModule implements Serializable {
+        private int count = 0;
 
         protected countAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
+            supportsStreaming = true;
+        }
+
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0);
         }
 
         @Override
         protected void update() {
-            int size = inputArraySizes.get(0);
-            outputs.get(0).append(size);
+            if (streamingUpdate)
+                count += inputDoubleArraySizes[0];
+            else
+                count = inputDoubleArraySizes[0];
+            outputs.get(0).append(count);
         }
     }
 
@@ -388,27 +884,61 @@ public class Analysis {
 
     // Get the average value of this buffer (ignoring NaNs)
     public static class averageAM extends AnalysisModule implements Serializable {
+        //Running values, so streaming updates can continue
+        private double sum = 0.; //Sum of all valid values
+        private int count = 0; //Number of valid values
+        private double mean = 0.; //Mean and sum of squared deviations (Welford's algorithm) for the standard deviation
+        private double m2 = 0.;
 
         protected averageAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
+            supportsStreaming = true;
+        }
+
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0);
         }
 
         @Override
         protected void update() {
-            Double in[] = inputArrays.get(0);
-            int size = inputArraySizes.get(0);
-            if (size == 0)
-                return;
+            double in[] = inputDoubleArrays[0];
+            int size = inputDoubleArraySizes[0];
 
-            double sum = 0.;
-            int count = 0;
-            for (int i = 0; i < size; i++) {
-                if (in[i].isNaN() || in[i].isInfinite())
-                    continue;;
-                sum += in[i];
-                count++;
+            //We only calculate the standard deviation if it is actually written to a buffer
+            boolean calculateStd = outputs.size() > 1 && outputs.get(1) != null;
+
+            if (streamingUpdate) {
+                for (int i = 0; i < size; i++) {
+                    if (Double.isNaN(in[i]) || Double.isInfinite(in[i]))
+                        continue;
+                    sum += in[i];
+                    count++;
+                    double delta = in[i] - mean;
+                    mean += delta / count;
+                    m2 += delta * (in[i] - mean);
+                }
+            } else {
+                sum = 0.;
+                count = 0;
+                for (int i = 0; i < size; i++) {
+                    if (Double.isNaN(in[i]) || Double.isInfinite(in[i]))
+                        continue;
+                    sum += in[i];
+                    count++;
+                }
+                mean = count > 0 ? sum/count : 0.;
+                m2 = 0.;
+                if (calculateStd && count > 0) {
+                    for (int i = 0; i < size; i++) {
+                        if (Double.isNaN(in[i]) || Double.isInfinite(in[i]))
+                            continue;
+                        m2 += (in[i]-mean)*(in[i]-mean);
+                    }
+                }
             }
+
             if (count == 0)
                 return;
 
@@ -418,20 +948,11 @@ public class Analysis {
                 outputs.get(0).append(avg);
             }
 
-            //We only calculate the standard deviation if it is actually written to a buffer
-            if (outputs.size() > 1 && outputs.get(1) != null) {
+            if (calculateStd) {
                 if (count < 2) {
                     outputs.get(1).append(Double.NaN);
                 }
-                sum = 0.;
-                count = 0;
-                for (int i = 0; i < size; i++) {
-                    if (in[i].isNaN() || in[i].isInfinite())
-                        continue;;
-                    sum += (in[i]-avg)*(in[i]-avg);
-                    count++;
-                }
-                double std = Math.sqrt(sum/(count-1));
+                double std = Math.sqrt(m2/(count-1));
                 outputs.get(1).append(std);
             }
         }
@@ -439,42 +960,38 @@ public class Analysis {
 
     //Add input values. The output has the length of the longest input buffer or the size of the output buffer (whichever is smaller). Missing values in shorter buffers are filled from the last value.
     public static class addAM extends AnalysisModule implements Serializable {
+        private double[] result = null;
 
         protected addAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
         }
 
         @Override
         protected void update() {
+            //The output is as long as the longest input. If any input is empty, there is no result.
+            int n = 0;
+            for (int j = 0; j < inputDoubleArrays.length; j++) {
+                if (inputDoubleArrays[j] == null || inputDoubleArraySizes[j] == 0)
+                    return;
+                n = Math.max(n, inputDoubleArraySizes[j]);
+            }
+            if (n == 0)
+                return;
 
-            boolean anyInput = true; //Is there any buffer left with values?
-            int i = 0;
-            while (anyInput) { //For each value of output buffer
-                double result = 0;
-                anyInput = false;
+            result = ensureCapacity(result, n);
+            Arrays.fill(result, 0, n, 0.);
 
-                for (int j = 0; j < inputArrays.size(); j++) { //For each input buffer
-                    Double in[] = inputArrays.get(j);
-                    int size = inputArraySizes.get(j);
-                    if (in == null || size == 0) {
-                        anyInput = false;
-                        break;
-                    }
-                    if (i < size) { //New value from this iterator
-                        result += in[i];
-                        anyInput = true;
-                    } else {
-                        result += in[size-1];
-                    }
-                }
-                if (anyInput) //There was a new value. Append the result.
-                    outputs.get(0).append(result);
-                else //No values left. Let's stop here...
-                    break;
-                i++;
+            for (int j = 0; j < inputDoubleArrays.length; j++) { //For each input buffer
+                double in[] = inputDoubleArrays[j];
+                int size = inputDoubleArraySizes[j];
+                for (int i = 0; i < size; i++)
+                    result[i] += in[i];
+                for (int i = size; i < n; i++) //Missing values are filled from the last value
+                    result[i] += in[size-1];
             }
 
+            outputs.get(0).append(result, n);
         }
     }
 
@@ -526,40 +1043,38 @@ public class Analysis {
 
     //Multiply input values. The output has the length of the longest input buffer or the size of the output buffer (whichever is smaller). Missing values in shorter buffers are filled from the last value.
     public static class multiplyAM extends AnalysisModule implements Serializable {
+        private double[] result = null;
 
         protected multiplyAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
         }
 
         @Override
         protected void update() {
-            boolean anyInput = true; //Is there any buffer left with values?
-            int i = 0;
-            while (anyInput) { //For each value of output buffer
-                double result = 1.;
-                anyInput = false;
+            //The output is as long as the longest input. If any input is empty, there is no result.
+            int n = 0;
+            for (int j = 0; j < inputDoubleArrays.length; j++) {
+                if (inputDoubleArrays[j] == null || inputDoubleArraySizes[j] == 0)
+                    return;
+                n = Math.max(n, inputDoubleArraySizes[j]);
+            }
+            if (n == 0)
+                return;
 
-                for (int j = 0; j < inputArrays.size(); j++) { //For each input buffer
-                    Double in[] = inputArrays.get(j);
-                    int size = inputArraySizes.get(j);
-                    if (in == null || size == 0) {
-                        anyInput = false;
-                        break;
-                    }
-                    if (i < size) { //New value from this iterator
-                        result *= in[i];
-                        anyInput = true;
-                    } else {
-                        result *= in[size-1];
-                    }
-                }
-                if (anyInput) //There was a new value. Append the result.
-                    outputs.get(0).append(result);
-                else //No values left. Let's stop here...
-                    break;
-                i++;
+            result = ensureCapacity(result, n);
+            Arrays.fill(result, 0, n, 1.);
+
+            for (int j = 0; j < inputDoubleArrays.length; j++) { //For each input buffer
+                double in[] = inputDoubleArrays[j];
+                int size = inputDoubleArraySizes[j];
+                for (int i = 0; i < size; i++)
+                    result[i] *= in[i];
+                for (int i = size; i < n; i++) //Missing values are filled from the last value
+                    result[i] *= in[size-1];
             }
+
+            outputs.get(0).append(result, n);
         }
     }
 
@@ -1116,39 +1631,66 @@ public class Analysis {
     public static class maxAM extends AnalysisModule implements Serializable {
         private boolean multiple = false;
 
+        //State for streaming updates (not used in multiple mode)
+        private double max = Double.NEGATIVE_INFINITY; //This will hold the maximum value
+        private double x = Double.NEGATIVE_INFINITY; //The x location of the maximum
+        private double currentX = -1; //Current x during iteration
+        private int processed = 0; //Number of y values processed since the last full update
+        private boolean xComplete = true; //False if there were fewer x values than y values, so x had to be generated
+
         protected maxAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs, boolean multiple) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = !multiple;
             this.multiple = multiple;
         }
 
+        //If x has been generated for some values, it might have been appended later, so we need to start over
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(1) && xComplete;
+        }
+
+        //x has to start at the same index as the new y values
+        @Override
+        protected int streamingStart(int i) {
+            if (i == 0)
+                return Math.min(processed, inputFilledSize(0));
+            return newValuesStart(i);
+        }
+
         @Override
         protected void update() {
             double threshold = 0.;
 
-            //Get iterators, values do not make sense here.
-            Vector<Iterator> its = new Vector<>();
-            for (int i = 0; i < 2; i++) {
-                if (inputs.get(i) != null)
-                    its.add(inputs.get(i).getIterator());
-                else
-                    its.add(null);
-            }
+            //x is only used if it is a buffer, values do not make sense here.
+            double[] xs = inputIsBuffer(0) ? inputDoubleArrays[0] : null;
+            int nx = inputIsBuffer(0) ? inputDoubleArraySizes[0] : 0;
+            double[] ys = inputDoubleArrays[1];
+            int ny = inputDoubleArraySizes[1];
 
-            if (multiple && inputs.size() > 2 && inputs.get(2) != null)
-                threshold = inputs.get(2).getValue();
+            if (multiple && inputDoubleArrays.length > 2 && inputDoubleArrays[2] != null)
+                threshold = inputDoubleArraySizes[2] > 0 ? inputDoubleArrays[2][inputDoubleArraySizes[2]-1] : Double.NaN;
 
-            double max = Double.NEGATIVE_INFINITY; //This will hold the maximum value
-            double x = Double.NEGATIVE_INFINITY; //The x location of the maximum
-            double currentX = -1; //Current x during iteration
+            if (!streamingUpdate) {
+                max = Double.NEGATIVE_INFINITY;
+                x = Double.NEGATIVE_INFINITY;
+                currentX = -1;
+                processed = 0;
+                xComplete = true;
+            }
 
-            while (its.get(1).hasNext()) { //For each value of input1
-                double v = (double)its.get(1).next();
+            for (int i = 0; i < ny; i++) { //For each value of input1
+                double v = ys[i];
 
                 //if input2 is given set x to this value. Otherwise generate x by incrementing it by 1.
-                if (its.get(0) != null && its.get(0).hasNext())
-                    currentX = (double)its.get(0).next();
-                else
+                if (i < nx)
+                    currentX = xs[i];
+                else {
                     currentX += 1;
+                    if (xs != null)
+                        xComplete = false;
+                }
 
                 if (multiple && v < threshold) {
                     if (!Double.isInfinite(x)) {
@@ -1167,6 +1709,7 @@ public class Analysis {
                     x = currentX;
                 }
             }
+            processed += ny;
 
             //Done. Append result to output1 and output2 if used.
             if (!Double.isInfinite(x)) {
@@ -1192,39 +1735,66 @@ public class Analysis {
     public static class minAM extends AnalysisModule implements Serializable {
         private boolean multiple = false;
 
+        //State for streaming updates (not used in multiple mode)
+        private double min = Double.POSITIVE_INFINITY; //This will hold the minimum value
+        private double x = Double.NEGATIVE_INFINITY; //The x location of the minimum
+        private double currentX = -1; //Current x during iteration
+        private int processed = 0; //Number of y values processed since the last full update
+        private boolean xComplete = true; //False if there were fewer x values than y values, so x had to be generated
+
         protected minAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs, boolean multiple) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = !multiple;
             this.multiple = multiple;
         }
 
+        //If x has been generated for some values, it might have been appended later, so we need to start over
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(1) && xComplete;
+        }
+
+        //x has to start at the same index as the new y values
+        @Override
+        protected int streamingStart(int i) {
+            if (i == 0)
+                return Math.min(processed, inputFilledSize(0));
+            return newValuesStart(i);
+        }
+
         @Override
         protected void update() {
             double threshold = 0.;
 
-            //Get iterators, values do not make sense here.
-            Vector<Iterator> its = new Vector<>();
-            for (int i = 0; i < 2; i++) {
-                if (inputs.get(i) != null)
-                    its.add(inputs.get(i).getIterator());
-                else
-                    its.add(null);
-            }
+            //x is only used if it is a buffer, values do not make sense here.
+            double[] xs = inputIsBuffer(0) ? inputDoubleArrays[0] : null;
+            int nx = inputIsBuffer(0) ? inputDoubleArraySizes[0] : 0;
+            double[] ys = inputDoubleArrays[1];
+            int ny = inputDoubleArraySizes[1];
 
-            if (multiple && inputs.size() > 2 && inputs.get(2) != null)
-                threshold = inputs.get(2).getValue();
+            if (multiple && inputDoubleArrays.length > 2 && inputDoubleArrays[2] != null)
+                threshold = inputDoubleArraySizes[2] > 0 ? inputDoubleArrays[2][inputDoubleArraySizes[2]-1] : Double.NaN;
 
-            double min = Double.POSITIVE_INFINITY; //This will hold the minimum value
-            double x = Double.NEGATIVE_INFINITY; //The x location of the minimum
-            double currentX = -1; //Current x during iteration
+            if (!streamingUpdate) {
+                min = Double.POSITIVE_INFINITY;
+                x = Double.NEGATIVE_INFINITY;
+                currentX = -1;
+                processed = 0;
+                xComplete = true;
+            }
 
-            while (its.get(1).hasNext()) { //For each value of input1
-                double v = (double)its.get(1).next();
+            for (int i = 0; i < ny; i++) { //For each value of input1
+                double v = ys[i];
 
                 //if input2 is given set x to this value. Otherwise generate x by incrementing it by 1.
-                if (its.get(0) != null && its.get(0).hasNext())
-                    currentX = (double)its.get(0).next();
-                else
+                if (i < nx)
+                    currentX = xs[i];
+                else {
                     currentX += 1;
+                    if (xs != null)
+                        xComplete = false;
+                }
 
                 if (multiple && v > threshold) {
                     if (!Double.isInfinite(x)) {
@@ -1243,6 +1813,7 @@ public class Analysis {
                     x = currentX;
                 }
             }
+            processed += ny;
 
             //Done. Append result to output1 and output2 if used.
             if (!Double.isInfinite(x)) {
@@ -1593,14 +2164,19 @@ public class Analysis {
     }
 
     //Calculate FFT of single input
-    //If the input length is not a power of two the input will be filled with zeros until it is a power of two
+    //The transform has the length of the input, which may be any length (no zero padding)
     public static class fftAM extends AnalysisModule implements Serializable {
         private FFT fft;
 
+        //Scratch arrays, kept to avoid allocations in every cycle
+        private transient FloatBuffer xy = null;
+        private double[] x = null;
+        private double[] y = null;
+
         protected fftAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
 
-            useArray = true;
+            useDoubleArray = true;
             if (!nativeLib)
                 fft = new FFT();
         }
@@ -1608,67 +2184,262 @@ public class Analysis {
         @Override
         protected void update() {
 
-            if (nativeLib) {
+            if (inputDoubleArrays.length == 0)
+                return;
 
-                if (inputArrays.size() == 0)
-                    return;
+            int size = inputDoubleArraySizes[0];
+            if (size < 2)
+                return;
 
-                int size = inputArraySizes.get(0);
-                if (size < 2)
-                    return;
+            double[] re = inputDoubleArrays[0];
+            double[] im = inputDoubleArrays.length > 1 ? inputDoubleArrays[1] : null;
+            int imSize = inputDoubleArrays.length > 1 ? inputDoubleArraySizes[1] : 0;
+
+            if (nativeLib) {
 
-                final float xy[] = new float[2 * size];
+                xy = ensureCapacity(xy, 2 * size);
 
                 for (int i = 0; i < size; i++) {
-                    xy[2 * i] = inputArrays.get(0)[i].floatValue();
-                    xy[2 * i + 1] = (inputArrays.size() > 1 && inputArraySizes.get(1) > i ? inputArrays.get(1)[i].floatValue() : 0.f);
+                    xy.put(2 * i, (float)re[i]);
+                    xy.put(2 * i + 1, (imSize > i ? (float)im[i] : 0.f));
                 }
 
-                fftw3complex(xy, size);
+                fftw3complexDirect(xy, size);
 
-                //Append the real part of the result to output1 and the imaginary part to output2 (if used)
+                //Split into real and imaginary part
+                x = ensureCapacity(x, size);
+                y = ensureCapacity(y, size);
                 for (int i = 0; i < size; i++) {
-                    if (outputs.size() > 0 && outputs.get(0) != null)
-                        outputs.get(0).append(xy[2 * i]);
-                    if (outputs.size() > 1 && outputs.get(1) != null)
-                        outputs.get(1).append(xy[2 * i + 1]);
+                    x[i] = xy.get(2 * i);
+                    y[i] = xy.get(2 * i + 1);
                 }
             } else {
 
-                int size = inputArrays.get(0).length;
-                if (size < 2)
-                    return;
-
-                if (fft.n != size) {
+                if (fft.size() != size) {
                     fft.prepare(size);
                 }
 
-                Double x[] = Arrays.copyOf(inputArrays.get(0), fft.np2);
-                Double y[];
-                if (inputArrays.size() > 1)
-                    y = Arrays.copyOf(inputArrays.get(1), fft.np2);
-                else
-                    y = new Double[fft.np2];
+                x = ensureCapacity(x, size);
+                y = ensureCapacity(y, size);
 
-                //Fill any unused inputs with zeros
-                for (int i = 0; i < fft.np2; i++) {
-                    if (x[i] == null)
-                        x[i] = 0.;
-                    if (y[i] == null)
-                        y[i] = 0.;
+                //Copy the input and fill any unused imaginary inputs with zeros. Without any
+                //imaginary part, we can use the faster transform for real input.
+                System.arraycopy(re, 0, x, 0, size);
+                int n = Math.min(imSize, size);
+                if (n > 0) {
+                    System.arraycopy(im, 0, y, 0, n);
+                    Arrays.fill(y, n, size, 0.);
+                    fft.calculate(x, y);
+                } else {
+                    fft.calculateReal(x, y);
                 }
 
-                fft.calculate(x, y);
+            }
 
-                //Append the real part of the result to output1 and the imaginary part to output2 (if used)
-                for (int i = 0; i < size; i++) {
-                    if (outputs.size() > 0 && outputs.get(0) != null)
-                        outputs.get(0).append(x[i]);
-                    if (outputs.size() > 1 && outputs.get(1) != null)
-                        outputs.get(1).append(y[i]);
+            //Append the real part of the result to output1 and the imaginary part to output2 (if used)
+            if (outputs.size() > 0 && outputs.get(0) != null)
+                outputs.get(0).append(x, size);
+            if (outputs.size() > 1 && outputs.get(1) != null)
+                outputs.get(1).append(y, size);
+        }
+    }
+
+    //Short-time Fourier transform (spectrogram)
+    //input1 is the signal
+    //input2 is the window size in samples
+    //input3 is the hop, the distance of consecutive frames in samples (optional, default: window size)
+    //input4 is the sample rate (optional, default: 1, so times are in samples and frequencies in cycles per sample)
+    //output1 is the time (center of the frame)
+    //output2 is the frequency
+    //output3 is the magnitude of the transform
+    //Each frame is transformed after applying the window function and adds size/2+1 points
+    //(frequencies 0 to rate/2) to all three outputs. This is the layout expected by graphs with the
+    //styles mapXY and mapZ and a mapWidth of size/2+1, with time on the x axis and frequency on the
+    //y axis. The outputs are not cleared, so new frames are appended to the existing matrix. Output
+    //buffers with a size that is a multiple of size/2+1 hold a rolling spectrogram of the latest
+    //frames.
+    //Only the frames that have been completed since the last execution are calculated. The module
+    //keeps the samples of the incomplete next frame and only receives the new values of the input,
+    //so the cost of a cycle does not depend on the length of the history. Audio input that is
+    //cleared to only keep fresh data is continued seamlessly. If values have been missed, the
+    //incomplete frame is dropped and the next frame starts with the available values.
+    //If the parameters change or the outputs have been modified by someone else (i.e. all data has
+    //been cleared), the outputs are cleared and the module starts over.
+    public static class stftAM extends AnalysisModule implements Serializable {
+
+        public enum Window {
+            rectangular, hann, hamming, blackman;
+        }
+
+        private final Window window;
+        private FFT fft = new FFT();
+
+        private int size = 0;
+        private int hop = 0;
+        private double rate = Double.NaN;
+        private double[] coefficients = null; //The window function
+
+        private long next = -1; //Sequence number of the next value of the input we expect, -1 to start over
+        private long skipped = 0; //Sequence numbers skipped by clearing the input (see DataBuffer.getSkippedSequences()) when we last read it
+        private long received = 0; //Number of samples received (including missed ones) since we started
+        private long frameStart = 0; //Sample number of the first sample of the next frame
+        private double[] pending = new double[0]; //Samples from frameStart to received, if received > frameStart
+        private int pendingCount = 0;
+        private long[] outputNext = null; //Next sequence numbers of the outputs after our last execution
+
+        //Scratch arrays, kept to avoid allocations in every cycle
+        private double[] re = null;
+        private double[] im = null;
+        private double[] t = null;
+        private double[] f = null;
+        private double[] z = null;
+
+        protected stftAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs, Window window) {
+            super(experiment, inputs, outputs);
+            this.window = window;
+            useDoubleArray = true;
+            clearInModule = true;
+        }
+
+        @Override
+        protected long inputSince(int i) {
+            if (i == 0 && next >= 0)
+                return next;
+            return Long.MIN_VALUE;
+        }
+
+        //Last value of an optional input
+        private double parameter(int i, double defaultValue) {
+            if (inputDoubleArrays.length <= i || inputDoubleArrays[i] == null)
+                return defaultValue;
+            return inputDoubleArraySizes[i] > 0 ? inputDoubleArrays[i][inputDoubleArraySizes[i]-1] : Double.NaN;
+        }
+
+        private void start(int size, int hop, double rate) {
+            if (size != this.size) {
+                fft.prepare(size);
+                coefficients = new double[size];
+                for (int k = 0; k < size; k++) {
+                    double phi = 2*Math.PI*k/size; //Periodic window, as is usual for spectral analysis
+                    switch (window) {
+                        case rectangular: coefficients[k] = 1.0;
+                                          break;
+                        case hann:        coefficients[k] = 0.5 - 0.5*Math.cos(phi);
+                                          break;
+                        case hamming:     coefficients[k] = 0.54 - 0.46*Math.cos(phi);
+                                          break;
+                        case blackman:    coefficients[k] = 0.42 - 0.5*Math.cos(phi) + 0.08*Math.cos(2*phi);
+                                          break;
+                    }
                 }
+            }
+            this.size = size;
+            this.hop = hop;
+            this.rate = rate;
+            next = -1;
+            received = 0;
+            frameStart = 0;
+            pendingCount = 0;
 
+            for (DataOutput output : outputs)
+                if (output != null)
+                    output.clear(false);
+        }
+
+        @Override
+        protected void update() {
+            int size = (int)parameter(1, Double.NaN);
+            int hop = (int)parameter(2, size);
+            double rate = parameter(3, 1.0);
+            if (size < 2 || hop < 1 || !(rate > 0) || Double.isInfinite(rate)) {
+                //Start over with all values as soon as we get valid parameters
+                next = -1;
+                this.size = 0;
+                return;
             }
+
+            boolean modified = outputNext == null || outputNext.length != outputs.size();
+            for (int i = 0; !modified && i < outputs.size(); i++)
+                if (outputs.get(i) != null && outputs.get(i).buffer.getNextSequence() != outputNext[i])
+                    modified = true;
+            if (modified || size != this.size || hop != this.hop || rate != this.rate) {
+                //We have only received the values since our last execution, but the new frames
+                //have to be calculated from all of them
+                if (next >= 0)
+                    recopyInput(0);
+                start(size, hop, rate);
+            }
+
+            double[] data = inputDoubleArrays[0];
+            int n = inputDoubleArraySizes[0];
+            long first = inputDoubleArraySequences[0];
+
+            //Values between the ones we have seen and the new ones are missing, except for the
+            //sequence numbers that have been skipped because the input has been cleared.
+            if (next >= 0) {
+                long missed = first - next - (inputDoubleArraySkipped[0] - skipped);
+                if (missed > 0) {
+                    received += missed;
+                    if (frameStart < received) {
+                        frameStart = received;
+                        pendingCount = 0;
+                    }
+                }
+            }
+            next = first + n;
+            skipped = inputDoubleArraySkipped[0];
+
+            //Keep the new samples that belong to the next frame or later ones
+            int skip = (int)Math.max(0, Math.min(frameStart - received, n));
+            if (pending.length < pendingCount + n - skip)
+                pending = Arrays.copyOf(pending, (pendingCount + n - skip) * 3 / 2);
+            System.arraycopy(data, skip, pending, pendingCount, n - skip);
+            pendingCount += n - skip;
+            received += n;
+
+            //Transform all complete frames
+            int bins = size/2 + 1;
+            int frames = pendingCount >= size ? (pendingCount - size)/hop + 1 : 0;
+            re = ensureCapacity(re, size);
+            im = ensureCapacity(im, size);
+            t = ensureCapacity(t, frames*bins);
+            f = ensureCapacity(f, frames*bins);
+            z = ensureCapacity(z, frames*bins);
+            for (int frame = 0; frame < frames; frame++) {
+                int offset = frame * hop;
+                for (int k = 0; k < size; k++)
+                    re[k] = pending[offset + k] * coefficients[k];
+                fft.calculateReal(re, im);
+                double time = (frameStart + offset + 0.5*size) / rate;
+                for (int k = 0; k < bins; k++) {
+                    int index = frame*bins + k;
+                    t[index] = time;
+                    f[index] = k * rate / size;
+                    z[index] = Math.sqrt(re[k]*re[k] + im[k]*im[k]);
+                }
+            }
+
+            //Remove the samples that are no longer needed
+            int consumed = frames * hop;
+            if (consumed >= pendingCount) {
+                pendingCount = 0;
+            } else if (consumed > 0) {
+                System.arraycopy(pending, consumed, pending, 0, pendingCount - consumed);
+                pendingCount -= consumed;
+            }
+            frameStart += consumed;
+
+            if (outputs.size() > 0 && outputs.get(0) != null)
+                outputs.get(0).append(t, frames*bins);
+            if (outputs.size() > 1 && outputs.get(1) != null)
+                outputs.get(1).append(f, frames*bins);
+            if (outputs.size() > 2 && outputs.get(2) != null)
+                outputs.get(2).append(z, frames*bins);
+
+            outputNext = new long[outputs.size()];
+            for (int i = 0; i < outputs.size(); i++)
+                if (outputs.get(i) != null)
+                    outputNext[i] = outputs.get(i).buffer.getNextSequence();
         }
     }
 
@@ -1750,48 +2521,95 @@ public class Analysis {
     //input6 is the maximum period in samples (optional, default: +Inf)
     //input6 is the precision in samples (optional, default: 1)
     //output1 is the periodicity in units of input1
+    //The autocorrelation of a window is calculated for all displacements at once as the inverse
+    //transform of its power spectrum (zero-padded, so it does not wrap around), which takes
+    //O(m log m) instead of O(window size * displacements). Small windows, for which this is not
+    //worth it, are still summed directly.
+    //The result of a window only depends on its values and the parameters, so the results of
+    //windows that were complete (not cut off by the end of the data) are kept and, as long as the
+    //inputs are only appended to, only new windows are calculated in the next cycle.
     public static class periodicityAM extends AnalysisModule implements Serializable {
+        private FFT fft = new FFT();
+
+        //Scratch arrays, kept to avoid allocations in every cycle
+        private double[] re = null;
+        private double[] im = null;
+
+        //Results of the complete windows from previous cycles and the parameters they were calculated with
+        private int windows = 0;
+        private double[] windowX = null;
+        private double[] windowPeriod = null;
+        private int lastDx, lastOverlap, lastMinPeriod, lastMaxPeriod;
 
         protected periodicityAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = true;
+        }
+
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0) && inputIsBuffer(1);
+        }
+
+        @Override
+        protected int streamingStart(int i) {
+            return 0; //We need all values, but it is enough to know that the old ones did not change
+        }
+
+        //Last value of an optional input
+        private double parameter(int i) {
+            if (inputDoubleArrays.length <= i || inputDoubleArrays[i] == null)
+                return Double.NaN;
+            return inputDoubleArraySizes[i] > 0 ? inputDoubleArrays[i][inputDoubleArraySizes[i]-1] : Double.NaN;
         }
 
         @Override
         protected void update() {
-            //Get arrays for random access
-            Double x[] = inputs.get(0).buffer.getArray();
-            Double y[] = inputs.get(1).buffer.getArray();
+            double[] x = inputDoubleArrays[0];
+            double[] y = inputDoubleArrays[1];
 
-            int n = inputs.get(1).buffer.getFilledSize();
+            int n = inputDoubleArraySizes[1];
 
             //Get dx and overlap
-            int dx = (int)inputs.get(2).getValue();
+            int dx = (int)parameter(2);
             if (dx <= 0)
                 return;
 
             //Overlap is optional...
             int overlap = 0;
-            if (inputs.size() >= 4 && inputs.get(3) != null)
-                overlap = (int)inputs.get(3).getValue();
+            if (inputDoubleArrays.length >= 4 && inputDoubleArrays[3] != null)
+                overlap = (int)parameter(3);
 
             boolean userSelectedRange = false;
 
             //min period is optional...
             int minPeriod = 0;
-            if (inputs.size() >= 5 && inputs.get(4) != null) {
-                minPeriod = (int) Math.floor(inputs.get(4).getValue());
+            if (inputDoubleArrays.length >= 5 && inputDoubleArrays[4] != null) {
+                minPeriod = (int) Math.floor(parameter(4));
                 userSelectedRange = true;
             }
 
             //max period is optional...
             int maxPeriod = Integer.MAX_VALUE;
-            if (inputs.size() >= 6 && inputs.get(5) != null) {
-                maxPeriod = (int) Math.ceil(inputs.get(5).getValue());
+            if (inputDoubleArrays.length >= 6 && inputDoubleArrays[5] != null) {
+                maxPeriod = (int) Math.ceil(parameter(5));
                 userSelectedRange = true;
             }
 
+            //Results of previous cycles can only be used if the old values did not change (which
+            //implies that the optional inputs did not change from missing to present) and if they
+            //were calculated with the same parameters
+            if (!streamingUpdate || dx != lastDx || overlap != lastOverlap || minPeriod != lastMinPeriod || maxPeriod != lastMaxPeriod)
+                windows = 0;
+            lastDx = dx;
+            lastOverlap = overlap;
+            lastMinPeriod = minPeriod;
+            lastMaxPeriod = maxPeriod;
+
             //The actual calculation
-            for (int stepX = 0; stepX <= n - dx; stepX += dx) {
+            int window = 0;
+            for (int stepX = 0; stepX <= n - dx; stepX += dx, window++) {
                 //Calculate actual autocorrelation range as it might be cut off at the edges
                 int x1 = stepX - overlap;
                 if (x1 < 0)
@@ -1804,58 +2622,120 @@ public class Analysis {
                 if (maxPeriod > x2-x1)
                     maxPeriod = x2-x1;
 
-                int firstNegative = -1;
-                int maxPosition = -1;
-                double maxValue = Double.NEGATIVE_INFINITY;
-                double maxValueLeft = Double.NEGATIVE_INFINITY;
-                double maxValueRight = Double.NEGATIVE_INFINITY;
-                double lastSum = Double.NEGATIVE_INFINITY;
-
-                double step = 1;
-                if (!userSelectedRange)
-                    step = 2; //Until we find the first negative value, we can go faster...
+                double x0, xMax;
+                if (window < windows) {
+                    x0 = windowX[window];
+                    xMax = windowPeriod[window];
+                } else {
+                    x0 = x[x1];
+                    xMax = period(x, y, x1, x2, minPeriod, maxPeriod, userSelectedRange);
+                    if (stepX + dx + overlap <= n) {
+                        //Complete window. Remember the result.
+                        if (windowX == null) {
+                            windowX = new double[16];
+                            windowPeriod = new double[16];
+                        } else if (window >= windowX.length) {
+                            windowX = Arrays.copyOf(windowX, 2*windowX.length);
+                            windowPeriod = Arrays.copyOf(windowPeriod, 2*windowPeriod.length);
+                        }
+                        windowX[window] = x0;
+                        windowPeriod[window] = xMax;
+                        windows = window+1;
+                    }
+                }
+//Log.d("test", "min: " + minPeriod + ", max: " + maxPeriod + ", x1: " + x1 + ", period: " + xMax);
+                if (outputs.size() > 0 && outputs.get(0) != null)
+                    outputs.get(0).append(x0);
+                if (outputs.size() > 1 && outputs.get(1) != null)
+                    outputs.get(1).append(xMax);
+            }
+        }
 
-                for (int i = minPeriod; i < maxPeriod; i += step) { //Displacement i for each value of input1
-                    double sum = 0.;
+        //Period of the window from x1 to x2 (exclusive) or NaN if there is no suitable maximum
+        private double period(double[] x, double[] y, int x1, int x2, int minPeriod, int maxPeriod, boolean userSelectedRange) {
+            int size = x2 - x1;
+
+            //We need the autocorrelation up to a displacement of maxPeriod-1, so the window has to
+            //be padded with at least as many zeros to avoid wrapping around
+            boolean useFFT = false;
+            if (minPeriod >= 0 && maxPeriod > minPeriod) {
+                int m = Integer.highestOneBit(size + maxPeriod - 1);
+                if (m < size + maxPeriod - 1)
+                    m *= 2;
+                //Direct summation takes up to size*(maxPeriod-minPeriod) multiplications, the
+                //transforms roughly 3*m*log2(m) for both real transforms
+                long direct = (long)size * (maxPeriod - minPeriod);
+                useFFT = direct > 3L * m * Integer.numberOfTrailingZeros(m);
+                if (useFFT) {
+                    if (fft.size() != m)
+                        fft.prepare(m);
+                    re = ensureCapacity(re, m);
+                    im = ensureCapacity(im, m);
+                    System.arraycopy(y, x1, re, 0, size);
+                    Arrays.fill(re, size, m, 0.);
+                    fft.calculateReal(re, im);
+                    for (int k = 0; k < m; k++)
+                        re[k] = re[k]*re[k] + im[k]*im[k];
+                    //The power spectrum is real and symmetric, so its transform equals the inverse
+                    //transform (times m) and is real as well
+                    fft.calculateReal(re, im);
+                    double norm = 1.0 / m;
+                    for (int i = minPeriod; i < maxPeriod; i++)
+                        re[i] *= norm;
+                }
+            }
+
+            int firstNegative = -1;
+            int maxPosition = -1;
+            double maxValue = Double.NEGATIVE_INFINITY;
+            double maxValueLeft = Double.NEGATIVE_INFINITY;
+            double maxValueRight = Double.NEGATIVE_INFINITY;
+            double lastSum = Double.NEGATIVE_INFINITY;
+
+            double step = 1;
+            if (!userSelectedRange)
+                step = 2; //Until we find the first negative value, we can go faster...
+
+            for (int i = minPeriod; i < maxPeriod; i += step) { //Displacement i for each value of input1
+                double sum;
+                if (useFFT)
+                    sum = re[i];
+                else {
+                    sum = 0.;
                     for (int j = x1; j < x2 - i; j++) { //For each value of input1 minus the current displacement
                         sum += y[j] * y[j + i]; //Product of normal and displaced data
                     }
-                    sum /= (double) (x2-x1-i); //Normalize to the number of values at this displacement
+                }
+                sum /= (double) (size-i); //Normalize to the number of values at this displacement
 
-                    if (!userSelectedRange && firstNegative < 0) {
-                        if (sum < 0) { //So, this is the first negative one... We can now skip ahead to 3 times this position and work more precisely from there.
-                            firstNegative = i;
-                            i = 3*firstNegative+1;
-                            step = 1;
-                        }
-                    } else if (!userSelectedRange && i > 5 * firstNegative) { //We have passed the first period. Further maxima can only be found on the next period and we are not interested in this...
-                        break;
-                    } else if (userSelectedRange || i > 3 * firstNegative) {
-                        if (sum > maxValue) {
-                            maxValue = sum;
-                            maxPosition = i;
-                            maxValueLeft = lastSum;
-                            maxValueRight = Double.NEGATIVE_INFINITY;
-                        } else if (i == maxPosition + 1) {
-                            maxValueRight = sum;
-                        }
+                if (!userSelectedRange && firstNegative < 0) {
+                    if (sum < 0) { //So, this is the first negative one... We can now skip ahead to 3 times this position and work more precisely from there.
+                        firstNegative = i;
+                        i = 3*firstNegative+1;
+                        step = 1;
+                    }
+                } else if (!userSelectedRange && i > 5 * firstNegative) { //We have passed the first period. Further maxima can only be found on the next period and we are not interested in this...
+                    break;
+                } else if (userSelectedRange || i > 3 * firstNegative) {
+                    if (sum > maxValue) {
+                        maxValue = sum;
+                        maxPosition = i;
+                        maxValueLeft = lastSum;
+                        maxValueRight = Double.NEGATIVE_INFINITY;
+                    } else if (i == maxPosition + 1) {
+                        maxValueRight = sum;
                     }
-                    lastSum = sum;
                 }
+                lastSum = sum;
+            }
 
-                double xMax = Double.NaN;
-                if (maxPosition > 0 && maxValue > 0 && maxValueLeft > 0 && maxValueRight > 0) {
-                    double dy = 0.5 * (maxValueRight - maxValueLeft);
-                    double d2y = 2*maxValue - maxValueLeft - maxValueRight;
-                    double m = dy / d2y;
-                    xMax = x[x1+maxPosition] + 0.5*m*(x[x1+maxPosition+1] - x[x1+maxPosition-1]) - x[x1];
-                }
-//Log.d("test", "min: " + minPeriod + ", max: " + maxPeriod + ", x1: " + x1 + ", pos: " + maxPosition + ", period: " + xMax);
-                if (outputs.size() > 0 && outputs.get(0) != null)
-                    outputs.get(0).append(x[x1]);
-                if (outputs.size() > 1 && outputs.get(1) != null)
-                    outputs.get(1).append(xMax);
+            if (maxPosition > 0 && maxValue > 0 && maxValueLeft > 0 && maxValueRight > 0) {
+                double dy = 0.5 * (maxValueRight - maxValueLeft);
+                double d2y = 2*maxValue - maxValueLeft - maxValueRight;
+                double m = dy / d2y;
+                return x[x1+maxPosition] + 0.5*m*(x[x1+maxPosition+1] - x[x1+maxPosition-1]) - x[x1];
             }
+            return Double.NaN;
         }
     }
 
@@ -1863,30 +2743,47 @@ public class Analysis {
     //The resulting array has exactly one element less than the input array
     public static class differentiateAM extends AnalysisModule implements Serializable {
 
+        private double last = Double.NaN; //Last value of the previous update, so streaming updates can continue
+        private boolean first = true;
+        private double[] result = null;
+
         protected differentiateAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = true;
+            streamingAppendsToOutputs = true;
         }
 
         @Override
-        protected void update() {
-            double v, last = Double.NaN;
-            boolean first = true;
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0);
+        }
 
-            //The actual calculation
-            Iterator it = inputs.get(0).getIterator();
-            if (it == null) //non-buffer values are ignored
+        @Override
+        protected void update() {
+            if (!inputIsBuffer(0)) //non-buffer values are ignored
                 return;
+
+            if (!streamingUpdate)
+                first = true;
+
+            double in[] = inputDoubleArrays[0];
+            int size = inputDoubleArraySizes[0];
+            result = ensureCapacity(result, size);
+            int count = 0;
+
             //Calculate difference of neighbors
-            while (it.hasNext()) {
+            for (int i = 0; i < size; i++) {
                 if (first) { //The first value is just stored
-                    last = (double)it.next();
+                    last = in[i];
                     first = false;
                     continue;
                 }
-                v = (double)it.next();
-                outputs.get(0).append(v-last);
-                last = v;
+                result[count++] = in[i]-last;
+                last = in[i];
             }
+            if (count > 0)
+                outputs.get(0).append(result, count);
         }
     }
 
@@ -1895,23 +2792,40 @@ public class Analysis {
     //The resulting array has exactly as many elements as the input array
     public static class integrateAM extends AnalysisModule implements Serializable {
 
+        private double sum = 0.; //Sum of the previous update, so streaming updates can continue
+        private double[] result = null;
+
         protected integrateAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = true;
+            streamingAppendsToOutputs = true;
         }
 
         @Override
-        protected void update() {
-            double sum = 0.;
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0);
+        }
 
-            //The actual calculation
-            Iterator it = inputs.get(0).getIterator();
-            if (it == null) //non-buffer values are ignored
+        @Override
+        protected void update() {
+            if (!inputIsBuffer(0)) //non-buffer values are ignored
                 return;
+
+            if (!streamingUpdate)
+                sum = 0.;
+
+            double in[] = inputDoubleArrays[0];
+            int size = inputDoubleArraySizes[0];
+            result = ensureCapacity(result, size);
+
             //Calculate the sum
-            while (it.hasNext()) {
-                sum += (double)it.next();
-                outputs.get(0).append(sum);
+            for (int i = 0; i < size; i++) {
+                sum += in[i];
+                result[i] = sum;
             }
+            if (size > 0)
+                outputs.get(0).append(result, size);
         }
     }
 
@@ -1922,6 +2836,10 @@ public class Analysis {
     //This does not work if both have the same size. Pad one input to match the target total size first.
     //The size of the output is the difference of both input sizes.
     public static class crosscorrelationAM extends AnalysisModule implements Serializable {
+        //Scratch buffers for the native implementation, kept to avoid allocations in every cycle
+        private transient FloatBuffer af = null;
+        private transient FloatBuffer bf = null;
+
         protected crosscorrelationAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
             useArray = true;
@@ -1940,31 +2858,31 @@ public class Analysis {
                 Double[] a = inputArrays.get(0);
                 Double[] b = inputArrays.get(1);
 
-                final float af[] = new float[size];
-                final float bf[] = new float[size];
+                af = ensureCapacity(af, size);
+                bf = ensureCapacity(bf, size);
 
-                if (sizeA > sizeB) {
-                    for (int i = 0; i < sizeA; i++) {
-                        af[i] = a[i].floatValue();
-                    }
-                    for (int i = 0; i < sizeB; i++) {
-                        bf[i] = b[i].floatValue();
-                    }
-                } else {
-                    for (int i = 0; i < sizeA; i++) {
-                        bf[i] = a[i].floatValue();
-                    }
-                    for (int i = 0; i < sizeB; i++) {
-                        af[i] = b[i].floatValue();
-                    }
+                //The larger input goes to af and the smaller one to bf, padded with zeros
+                FloatBuffer targetA = sizeA > sizeB ? af : bf;
+                FloatBuffer targetB = sizeA > sizeB ? bf : af;
+                for (int i = 0; i < sizeA; i++) {
+                    targetA.put(i, a[i].floatValue());
+                }
+                for (int i = sizeA; i < size; i++) {
+                    targetA.put(i, 0.f);
+                }
+                for (int i = 0; i < sizeB; i++) {
+                    targetB.put(i, b[i].floatValue());
+                }
+                for (int i = sizeB; i < size; i++) {
+                    targetB.put(i, 0.f);
                 }
 
-                fftw3crosscorrelation(af, bf, size);
+                fftw3crosscorrelationDirect(af, bf, size);
 
                 //Append the real part of the result to output1 and the imaginary part to output2 (if used)
                 for (int i = 0; i < Math.abs(sizeA - sizeB); i++) {
                     if (outputs.size() > 0 && outputs.get(0) != null)
-                        outputs.get(0).append(af[i]);
+                        outputs.get(0).append(af.get(i));
                 }
             } else {
 
@@ -2001,19 +2919,49 @@ public class Analysis {
     }
 
     //Smooth data using a gauss distribution
-    //Sigma defaults to 3 but can be changed.
-    //Note that sigma cannot be set by a dataBuffer
+    //Sigma defaults to 3 but can be changed by the attribute sigma or by an optional second input,
+    //which may be a dataBuffer.
+    //The kernel is cut off at 3 sigma and normalized over the part that lies within the data, so
+    //the values at the edges are weighted averages of the available values. Depending on sigma
+    //and the number of values, the convolution is either summed directly or calculated with FFTs
+    //in blocks (overlap-save), which gives the same result.
+    //Alternatively (attribute recursive), the recursive filter by Young and van Vliet
+    //approximates the (uncut) gauss distribution with constant cost per value regardless of
+    //sigma. It extends the data with its edge values, so its results differ slightly, most
+    //noticeably at the edges.
+    //If values are only appended to the input, only the values within reach of the kernel of the
+    //new ones are calculated again.
     public static class gaussSmoothAM extends AnalysisModule implements Serializable {
+        double sigma;
         int calcWidth; //range to which the gauss is calculated
         double[] gauss; //Gauss-weight look-up-table
+        double[] gaussSum; //gaussSum[i] is the sum of the first i weights of the look-up-table
+        boolean recursive = false;
+        double[] iir; //Coefficients of the recursive filter: B, b1/b0, b2/b0, b3/b0
+
+        private double[] result = null;
+        private double[] forward = null; //Result of the causal pass of the recursive filter
+        private int resultSize = 0; //Number of values in result (and forward) from the last execution
+        private int tailStart = 0; //Index of the first value of the input in a streaming update
+
+        //FFT and transform of the kernel, calculated once for a block size
+        private FFT fft = new FFT();
+        private int kernelWidth = -1; //Number of weights on either side used for the transform of the kernel
+        private double[] kernelRe = null;
+        private double[] kernelIm = null;
+        private double[] re = null;
+        private double[] im = null;
 
         protected gaussSmoothAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
+            useDoubleArray = true;
+            supportsStreaming = true;
             setSigma(3); //default
         }
 
         //Change sigma
         protected void setSigma(double sigma) {
+            this.sigma = sigma;
             this.calcWidth = (int)Math.round(sigma*3); //Adapt calculation range: 3x sigma should be plenty
 
             gauss = new double[calcWidth*2+1];
@@ -2025,27 +2973,195 @@ public class Analysis {
             for (int i = -calcWidth; i <= calcWidth; i++) {
                 gauss[i+calcWidth] /= sum;
             }
+
+            gaussSum = new double[gauss.length+1];
+            for (int i = 0; i < gauss.length; i++)
+                gaussSum[i+1] = gaussSum[i] + gauss[i];
+
+            //Coefficients of the recursive filter (Young, van Vliet, Signal Processing 44 (1995) 139-151)
+            double q = sigma >= 2.5 ? 0.98711*sigma - 0.96330 : 3.97156 - 4.14554*Math.sqrt(1 - 0.26891*sigma);
+            double b0 = 1.57825 + 2.44413*q + 1.4281*q*q + 0.422205*q*q*q;
+            double b1 = 2.44413*q + 2.85619*q*q + 1.26661*q*q*q;
+            double b2 = -(1.4281*q*q + 1.26661*q*q*q);
+            double b3 = 0.422205*q*q*q;
+            iir = new double[] {1 - (b1 + b2 + b3)/b0, b1/b0, b2/b0, b3/b0};
+
+            fft.prepare(0);
+            kernelWidth = -1;
+            kernelRe = kernelIm = null;
+        }
+
+        protected void setRecursive(boolean recursive) {
+            this.recursive = recursive;
+        }
+
+        //The recursive filter is only defined for sigma >= 0.5
+        private boolean useRecursive() {
+            return recursive && sigma >= 0.5;
+        }
+
+        //Number of values at the end of the previous result that change if values are appended. For
+        //the recursive filter, this is the range after which the change has decayed below 1e-6 (relative).
+        private int tail() {
+            return useRecursive() ? (int)Math.ceil(15*sigma) + 3 : calcWidth;
+        }
+
+        @Override
+        protected boolean canContinueStreaming() {
+            return inputIsBuffer(0) && (!inputIsBuffer(1) || inputUnchanged(1));
+        }
+
+        @Override
+        protected int streamingStart(int i) {
+            if (i == 0) {
+                tailStart = Math.max(0, newValuesStart(0) - tail() - calcWidth);
+                return tailStart;
+            }
+            return Math.max(0, inputFilledSize(i) - 1);
         }
 
         @Override
         protected void update() {
+            if (inputDoubleArrays.length > 1 && inputDoubleArrays[1] != null && inputDoubleArraySizes[1] > 0) {
+                double newSigma = inputDoubleArrays[1][inputDoubleArraySizes[1]-1];
+                if (newSigma > 0 && newSigma != sigma)
+                    setSigma(newSigma);
+            }
+
             //Get array for random access
-            Double y[] = inputs.get(0).getArray();
+            double y[] = inputDoubleArrays[0];
+            int offset = streamingUpdate ? tailStart : 0; //Index of y[0] in the input
+            int n = offset + inputDoubleArraySizes[0];
+            int previousSize = resultSize;
+            int from = streamingUpdate ? Math.max(0, previousSize - tail()) : 0; //First value to be calculated
+            resultSize = 0;
+            if (n == 0)
+                return;
+
+            if (result == null || result.length < n)
+                result = result == null ? new double[n + n/2] : Arrays.copyOf(result, n + n/2);
+
+            if (useRecursive())
+                smoothRecursive(y, offset, n, from, streamingUpdate ? previousSize : 0);
+            else if (useFFT(n - from, n))
+                smoothFFT(y, offset, n, from);
+            else
+                smoothDirect(y, offset, n, from);
+
+            resultSize = n;
+            outputs.get(0).append(result, n); //Append the results to the output buffer
+        }
 
-            for (int i = 0; i < y.length; i++) { //For each data-point
+        //Sum of the weights of the kernel at index i that lie within n values
+        private double norm(int i, int n) {
+            return gaussSum[Math.min(calcWidth, n-1-i) + calcWidth + 1] - gaussSum[Math.max(-calcWidth, -i) + calcWidth];
+        }
+
+        //The values from index from to n-1, where the value with index i is found in y[i-offset]
+        private void smoothDirect(double[] y, int offset, int n, int from) {
+            for (int i = from; i < n; i++) { //For each data-point
                 double sum = 0;
                 double norm = 0;
-                for (int j = -calcWidth; j <= calcWidth; j++) { //For each step in the look-up-table
+                int jMin = Math.max(-calcWidth, -i); //Only the steps that correspond to an index in the input
+                int jMax = Math.min(calcWidth, n - 1 - i);
+                for (int j = jMin; j <= jMax; j++) { //For each step in the look-up-table
                     int k = i+j; //index in input that corresponds to the step in the look-up-table
-                    if (k >= 0 && k < y.length) {
-                        sum += gauss[j + calcWidth] * y[k]; //Add weighted contribution
-                        if (i < calcWidth || i > y.length - calcWidth - 1)
-                            norm += gauss[j + calcWidth];
-                    }
+                    sum += gauss[j + calcWidth] * y[k - offset]; //Add weighted contribution
+                    if (i < calcWidth || i > n - calcWidth - 1)
+                        norm += gauss[j + calcWidth];
                 }
-                if (i < calcWidth || i > y.length-calcWidth - 1)
+                if (i < calcWidth || i > n - calcWidth - 1)
                     sum /= norm;
-                outputs.get(0).append(sum); //Append the result to the output buffer
+                result[i] = sum;
+            }
+        }
+
+        //Size of the transforms to calculate count values with a kernel of width values on either
+        //side: A block of the result also requires the width values on either side and another
+        //width values of zero padding, so we use at least four times that to keep the overhead low,
+        //but not more than needed for count values.
+        private static int blockSize(int count, int width) {
+            int m = Integer.highestOneBit(Math.max(Math.min(12*width, count + 3*width), 1024));
+            while (m < 4*width || m < Math.min(12*width, count + 3*width))
+                m *= 2;
+            return m;
+        }
+
+        //Direct summation takes up to gauss.length multiplications per value, the transforms of a
+        //block roughly 2*m*log2(m) operations
+        private boolean useFFT(int count, int n) {
+            int width = Math.min(calcWidth, n - 1);
+            int m = blockSize(count, width);
+            long blocks = (count + m - 3*width - 1) / (m - 3*width);
+            return (long)count * (2*width + 1) > blocks * 2 * m * Integer.numberOfTrailingZeros(m);
+        }
+
+        private void smoothFFT(double[] y, int offset, int n, int from) {
+            //Weights further away than n-1 values are never used
+            int width = Math.min(calcWidth, n - 1);
+            int m = blockSize(n - from, width);
+            int block = m - 3*width;
+            if (fft.size() != m || width != kernelWidth) {
+                fft.prepare(m);
+                kernelWidth = width;
+                kernelRe = new double[m];
+                kernelIm = new double[m];
+                re = new double[m];
+                im = new double[m];
+                for (int j = -width; j <= width; j++)
+                    kernelRe[(j + m) % m] = gauss[j + calcWidth];
+                fft.calculateReal(kernelRe, kernelIm);
+            }
+
+            for (int start = from; start < n; start += block) {
+                int end = Math.min(n, start + block);
+                int a = Math.max(0, start - width);
+                int b = Math.min(n, end + width);
+                System.arraycopy(y, a - offset, re, 0, b - a);
+                Arrays.fill(re, b - a, m, 0.);
+                fft.calculateReal(re, im);
+                //Multiply with the transform of the kernel and conjugate, so the forward transform
+                //gives us the (conjugated) inverse transform
+                for (int k = 0; k < m; k++) {
+                    double r = re[k]*kernelRe[k] - im[k]*kernelIm[k];
+                    double i = re[k]*kernelIm[k] + im[k]*kernelRe[k];
+                    re[k] = r;
+                    im[k] = -i;
+                }
+                fft.calculate(re, im);
+                for (int i = start; i < end; i++) {
+                    double v = re[i - a] / m;
+                    if (i < calcWidth || i > n - calcWidth - 1)
+                        v /= norm(i, n);
+                    result[i] = v;
+                }
+            }
+        }
+
+        //Same as smoothDirect(), but the causal pass is only calculated from index start on
+        private void smoothRecursive(double[] y, int offset, int n, int from, int start) {
+            double B = iir[0], b1 = iir[1], b2 = iir[2], b3 = iir[3];
+
+            //Causal pass, continued after the values of the last execution. Before the first value,
+            //the filter is in the steady state of the first value.
+            if (forward == null || forward.length < n)
+                forward = forward == null ? new double[n + n/2] : Arrays.copyOf(forward, n + n/2);
+            for (int i = start; i < n; i++) {
+                double w1 = i > 0 ? forward[i-1] : y[-offset];
+                double w2 = i > 1 ? forward[i-2] : y[-offset];
+                double w3 = i > 2 ? forward[i-3] : y[-offset];
+                forward[i] = B*y[i - offset] + b1*w1 + b2*w2 + b3*w3;
+            }
+
+            //Anti-causal pass from the end, which starts in the steady state of the last value
+            double last = forward[n-1];
+            double o1 = last, o2 = last, o3 = last;
+            for (int i = n-1; i >= from; i--) {
+                double o = B*forward[i] + b1*o1 + b2*o2 + b3*o3;
+                result[i] = o;
+                o3 = o2;
+                o2 = o1;
+                o1 = o;
             }
         }
     }
@@ -2057,10 +3173,11 @@ public class Analysis {
     //xi is the x coordinates at which the loess function should be evaluated. Has to be monotonic!
     public static class loessAM extends AnalysisModule implements Serializable {
         double d;
+        private double[] result0 = null, result1 = null, result2 = null; //Value, first and second derivative
 
         protected loessAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
         }
 
         protected double weight(double dx) {
@@ -2074,16 +3191,24 @@ public class Analysis {
         @Override
         protected void update() {
             //Get arrays for random access
-            Double x[] = inputArrays.get(0);
-            Double y[] = inputArrays.get(1);
-            if (inputArraySizes.get(2) == 0)
+            double x[] = inputDoubleArrays[0];
+            double y[] = inputDoubleArrays[1];
+            if (inputDoubleArraySizes[2] == 0)
                 return;
-            d = inputArrays.get(2)[0];
+            d = inputDoubleArrays[2][0];
             if (d <= 0.0 || Double.isNaN(d))
                 return;
-            Double xout[] = inputArrays.get(3);
-            int incount = Math.min(inputArraySizes.get(0), inputArraySizes.get(1));
-            int outcount = inputArraySizes.get(3);
+            double xout[] = inputDoubleArrays[3];
+            int incount = Math.min(inputDoubleArraySizes[0], inputDoubleArraySizes[1]);
+            int outcount = inputDoubleArraySizes[3];
+
+            boolean out1 = outputs.size() > 1 && outputs.get(1) != null;
+            boolean out2 = outputs.size() > 2 && outputs.get(2) != null;
+            result0 = ensureCapacity(result0, outcount);
+            if (out1)
+                result1 = ensureCapacity(result1, outcount);
+            if (out2)
+                result2 = ensureCapacity(result2, outcount);
 
             int minj = 0;
 
@@ -2138,25 +3263,28 @@ public class Analysis {
 
                 double det = sw*swxx*swxxxx+2*swx*swxx*swxxx-swxx*swxx*swxx-swx*swx*swxxxx-sw*swxxx*swxxx;
 
-                double yi0 = (a*swy + b*swxy + c*swxxy)/det;
+                result0[i] = (a*swy + b*swxy + c*swxxy)/det;
 
-                outputs.get(0).append(yi0); //Append the result to the output buffer
-
-                if (outputs.size() > 1) {
+                if (out1 || out2) {
                     double d = sw*swxxxx-swxx*swxx;
                     double e = swx*swxx-sw*swxxx;
                     double f = sw*swxx-swx*swx;
 
-                    if (outputs.get(1) != null) {
-                        double yi1 = (b * swy + d * swxy + e * swxxy) / det;
-                        outputs.get(1).append(yi1);
-                    }
-                    if (outputs.size() > 2 && outputs.get(2) != null) {
-                        double yi2 = (c * swy + e * swxy + f * swxxy) / det;
-                        outputs.get(2).append(yi2);
-                    }
+                    if (out1)
+                        result1[i] = (b * swy + d * swxy + e * swxxy) / det;
+                    if (out2)
+                        result2[i] = (c * swy + e * swxy + f * swxxy) / det;
                 }
             }
+
+            //Append the results to the output buffers
+            if (outcount == 0)
+                return;
+            outputs.get(0).append(result0, outcount);
+            if (out1)
+                outputs.get(1).append(result1, outcount);
+            if (out2)
+                outputs.get(2).append(result2, outcount);
         }
     }
 
@@ -2286,76 +3414,82 @@ public class Analysis {
     // If tha value of any input falls outside min and max, the data at this index if discarded for all inputs
     //You need exactly as many outputs as there are inputs.
     public static class rangefilterAM extends AnalysisModule implements Serializable {
+        //Scratch arrays, kept to avoid allocations in every cycle
+        private double[] min = new double[0]; //Double-valued min and max. Filled from String value / dataBuffer
+        private double[] max = new double[0];
+        private double[] data = new double[0]; //Will hold values of all inputs at same index
+        private double[][] results = new double[0][];
 
         //Constructor also takes arrays of min and max values
         protected rangefilterAM(PhyphoxExperiment experiment, Vector<DataInput> inputs, Vector<DataOutput> outputs) {
             super(experiment, inputs, outputs);
-            useArray = true;
+            useDoubleArray = true;
         }
 
         @Override
         protected void update() {
-            double[] min; //Double-valued min and max. Filled from String value / dataBuffer
-            double[] max;
-
-            int n = (inputArrays.size()-1)/3+1;
-            min = new double[n];
-            max = new double[n];
-            inputArrays.setSize(n * 3);
+            int n = (inputDoubleArrays.length-1)/3+1;
+            if (min.length != n) {
+                min = new double[n];
+                max = new double[n];
+                data = new double[n];
+                results = new double[n][];
+            }
 
             for(int i = 0; i < n; i++) {
-                if (inputArrays.get(3*i+1) == null || inputArraySizes.get(3*i+1) == 0)
+                int minIndex = 3*i+1;
+                int maxIndex = 3*i+2;
+                if (minIndex >= inputDoubleArrays.length || inputDoubleArrays[minIndex] == null || inputDoubleArraySizes[minIndex] == 0)
                     min[i] = Double.NEGATIVE_INFINITY; //Not set by user, set to -inf so it has no influence
                 else {
-                    min[i] = inputArrays.get(3*i+1)[inputArraySizes.get(3*i+1)-1]; //Get value from string: numeric or buffer
+                    min[i] = inputDoubleArrays[minIndex][inputDoubleArraySizes[minIndex]-1]; //Get value from string: numeric or buffer
                 }
-                if (inputArrays.get(3*i+2) == null || inputArraySizes.get(3*i+2) == 0)
+                if (maxIndex >= inputDoubleArrays.length || inputDoubleArrays[maxIndex] == null || inputDoubleArraySizes[maxIndex] == 0)
                     max[i] = Double.POSITIVE_INFINITY; //Not set by user, set to +inf so it has no influence
                 else {
-                    max[i] = inputArrays.get(3*i+2)[inputArraySizes.get(3*i+2)-1]; //Get value from string: numeric or buffer
+                    max[i] = inputDoubleArrays[maxIndex][inputDoubleArraySizes[maxIndex]-1]; //Get value from string: numeric or buffer
                 }
             }
 
-            //Get iterators of all inputs (numeric string not allowed here as it makes no sense to filter static input)
-            Double[][] ins = new Double[n][];
-            int[] sizes = new int[n];
+            //The length of the longest input (which is not necessarily the length of all of them)
+            int length = 0;
             for (int i = 0; i < n; i++) {
-                ins[i] = inputArrays.get(3*i);
-                sizes[i] = inputArraySizes.get(3*i);
+                if (3*i < inputDoubleArrays.length && inputDoubleArraySizes[3*i] > length)
+                    length = inputDoubleArraySizes[3*i];
             }
 
-            double []data = new double[n]; //Will hold values of all inputs at same index
-            boolean hasNext = true; //Will be set to true if ANY of the iterators has a next item (not neccessarily all of them)
-            int index = 0;
-            while (hasNext) {
-                //Check if any input has a value left
-                hasNext = false;
-                for (int i = 0; i < n; i++) {
-                    if (index < sizes[i])
-                        hasNext = true;
-                }
+            for (int i = 0; i < n; i++) {
+                if (i < outputs.size() && outputs.get(i) != null)
+                    results[i] = ensureCapacity(results[i], length);
+            }
 
-                if (hasNext) {
-                    boolean filter = false; //Will be set to true if any input falls outside its min/max
-                    for (int i = 0; i < n; i++) { //For each input...
-                        if (index < sizes[i]) { //This input has a value left. Get it!
-                            data[i] = ins[i][index];
-                            if (data[i] < min[i] || data[i] > max[i]) { //Is this value outside its min/max?
-                                filter = true; //Yepp, filter this index
-                            }
-                        } else
-                            data[i] = Double.NaN; //No value left in input. Set this value to NaN and do not filter it
-                    }
-                    if (!filter) { //Filter not triggered? Append the values of each input to the corresponding outputs.
-                        for (int i = 0; i < n; i++) {
-                            if (i < outputs.size() && outputs.get(i) != null) {
-                                outputs.get(i).append(data[i]);
-                            }
+            int count = 0; //Number of values that passed the filter
+            for (int index = 0; index < length; index++) {
+                boolean filter = false; //Will be set to true if any input falls outside its min/max
+                for (int i = 0; i < n; i++) { //For each input...
+                    if (index < inputDoubleArraySizes[3*i]) { //This input has a value left. Get it!
+                        data[i] = inputDoubleArrays[3*i][index];
+                        if (data[i] < min[i] || data[i] > max[i]) { //Is this value outside its min/max?
+                            filter = true; //Yepp, filter this index
+                        }
+                    } else
+                        data[i] = Double.NaN; //No value left in input. Set this value to NaN and do not filter it
+                }
+                if (!filter) { //Filter not triggered? Keep the values of each input for the corresponding outputs.
+                    for (int i = 0; i < n; i++) {
+                        if (i < outputs.size() && outputs.get(i) != null) {
+                            results[i][count] = data[i];
                         }
                     }
-
+                    count++;
                 }
-                index++;
+            }
+
+            if (count == 0)
+                return;
+            for (int i = 0; i < n; i++) {
+                if (i < outputs.size() && outputs.get(i) != null)
+                    outputs.get(i).append(results[i], count);
             }
         }
     }
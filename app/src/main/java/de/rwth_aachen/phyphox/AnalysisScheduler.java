@@ -0,0 +1,202 @@
+package de.rwth_aachen.phyphox;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Runs the analysis modules of an experiment in each analysis cycle.
+//The modules form a dependency graph: A module has to wait for an earlier module (in the order of
+//the experiment file) if one of them modifies a buffer the other one uses. Modules without such a
+//dependency (like independent chains of analysis on different sensors) are run at the same time on
+//a thread pool. The caller holds the dataLock for the whole cycle on behalf of all modules, so
+//views and the remote server do not see intermediate results. Each module still locks its input
+//buffers while taking its snapshot, as inputs like sensors do not use the dataLock.
+//If the graph is a simple chain or there is only one processor, the modules are just executed in
+//order on the calling thread, exactly like before.
+
+public class AnalysisScheduler {
+    private static final int statisticsInterval = 100; //Number of cycles after which the timing is logged
+
+    private final List<Analysis.AnalysisModule> modules;
+    private final int[][] successors; //Modules that have to wait for a module
+    private final int[] predecessorCount; //Number of modules a module has to wait for
+    private final AtomicInteger[] pending; //Remaining predecessors in the current cycle
+    private final long[] moduleTime; //Execution time of each module in the current cycle in ns
+    private final boolean parallel;
+    private final int threads;
+
+    private ExecutorService pool = null;
+    private CountDownLatch done = null;
+    private int cycle = 0;
+
+    //Timing of the last cycle in ns. serialTime is the sum of the execution times of all modules,
+    //so it estimates the time the cycle would take without running modules in parallel.
+    public long lastWallTime = 0;
+    public long lastSerialTime = 0;
+    private long statisticsWallTime = 0;
+    private long statisticsSerialTime = 0;
+    private int statisticsCycles = 0;
+
+    AnalysisScheduler(List<Analysis.AnalysisModule> modules) {
+        this(modules, Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    //Same as above with a given number of threads and a given pool (null to create one as needed),
+    //so tests can run the modules in parallel regardless of the device
+    AnalysisScheduler(List<Analysis.AnalysisModule> modules, int threads, ExecutorService pool) {
+        this.modules = new ArrayList<>(modules);
+        this.pool = pool;
+        int n = this.modules.size();
+
+        List<Set<DataBuffer>> read = new ArrayList<>(n);
+        List<Set<DataBuffer>> written = new ArrayList<>(n);
+        for (Analysis.AnalysisModule module : this.modules) {
+            read.add(module.getReadBuffers());
+            written.add(module.getWrittenBuffers());
+        }
+
+        //Module j depends on an earlier module i if one of them writes to a buffer used by the other
+        List<List<Integer>> edges = new ArrayList<>(n);
+        predecessorCount = new int[n];
+        int[] level = new int[n]; //Length of the longest chain of dependencies ending at a module
+        int depth = 0;
+        for (int i = 0; i < n; i++)
+            edges.add(new ArrayList<Integer>());
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < j; i++) {
+                if (intersects(written.get(i), read.get(j)) || intersects(written.get(i), written.get(j)) || intersects(read.get(i), written.get(j))) {
+                    edges.get(i).add(j);
+                    predecessorCount[j]++;
+                    level[j] = Math.max(level[j], level[i] + 1);
+                }
+            }
+            depth = Math.max(depth, level[j] + 1);
+        }
+
+        successors = new int[n][];
+        pending = new AtomicInteger[n];
+        for (int i = 0; i < n; i++) {
+            successors[i] = new int[edges.get(i).size()];
+            for (int k = 0; k < successors[i].length; k++)
+                successors[i][k] = edges.get(i).get(k);
+            pending[i] = new AtomicInteger();
+        }
+        moduleTime = new long[n];
+
+        this.threads = threads;
+        parallel = depth < n && threads > 1;
+    }
+
+    private static boolean intersects(Set<DataBuffer> a, Set<DataBuffer> b) {
+        for (DataBuffer buffer : a)
+            if (b.contains(buffer))
+                return true;
+        return false;
+    }
+
+    //Idle threads of both pools terminate on their own, so there is nothing to shut down
+    private ExecutorService getPool() {
+        if (pool == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                pool = new ForkJoinPool(threads);
+            else {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+                executor.allowCoreThreadTimeOut(true);
+                pool = executor;
+            }
+        }
+        return pool;
+    }
+
+    //Run all modules for the given cycle. The caller has to hold the dataLock.
+    void run(int cycle) {
+        long start = System.nanoTime();
+        this.cycle = cycle;
+
+        if (!parallel) {
+            for (int i = 0; i < modules.size(); i++) {
+                Thread.yield();
+                runModule(i, false);
+            }
+        } else {
+            done = new CountDownLatch(modules.size());
+            for (int i = 0; i < modules.size(); i++)
+                pending[i].set(predecessorCount[i]);
+            for (int i = 0; i < modules.size(); i++)
+                if (predecessorCount[i] == 0)
+                    submit(i);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    //We cannot leave while modules are still working on the buffers
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        lastWallTime = System.nanoTime() - start;
+        lastSerialTime = 0;
+        for (long t : moduleTime)
+            lastSerialTime += t;
+
+        //The statistics are only collected for debug builds, so release builds do not format log
+        //messages during measurements
+        if (BuildConfig.DEBUG) {
+            statisticsWallTime += lastWallTime;
+            statisticsSerialTime += lastSerialTime;
+            statisticsCycles++;
+            if (statisticsCycles >= statisticsInterval) {
+                Log.d("AnalysisScheduler", String.format("%d modules (%s): %.3f ms per cycle, %.3f ms in serial order, speedup %.2f",
+                        modules.size(), parallel ? threads + " threads" : "serial",
+                        statisticsWallTime * 1e-6 / statisticsCycles, statisticsSerialTime * 1e-6 / statisticsCycles,
+                        statisticsWallTime > 0 ? (double)statisticsSerialTime / statisticsWallTime : 1.0));
+                statisticsWallTime = 0;
+                statisticsSerialTime = 0;
+                statisticsCycles = 0;
+            }
+        }
+    }
+
+    private void runModule(int i, boolean lockHeld) {
+        long start = System.nanoTime();
+        Analysis.AnalysisModule module = modules.get(i);
+        try {
+            module.updateIfNotStatic(cycle, lockHeld);
+        } catch (Exception e) {
+            Log.e("processAnalysis", "Unhandled exception in analysis module " + module.toString() + ".", e);
+        }
+        moduleTime[i] = System.nanoTime() - start;
+    }
+
+    private void submit(final int i) {
+        getPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runModule(i, true);
+                } finally {
+                    //Start all modules that only waited for this one
+                    for (int successor : successors[i])
+                        if (pending[successor].decrementAndGet() == 0)
+                            submit(successor);
+                    done.countDown();
+                }
+            }
+        });
+    }
+}
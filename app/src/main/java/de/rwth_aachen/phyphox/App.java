@@ -4,8 +4,19 @@ import android.app.Application;
 
 import androidx.multidex.MultiDexApplication;
 
+import java.io.File;
+
 //This extension to application is only used to store measured data in memory as this may easily exceed the amount of data allowed on the transaction stack
 
 public class App extends MultiDexApplication {
     public PhyphoxExperiment experiment = null;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        //Unlimited buffers move their older values to files in this directory (see FileDoubleStorage)
+        FileDoubleStorage.setDirectory(new File(getCacheDir(), "buffers"));
+        //FFT sizes used repeatedly are measured in the background and the results are kept here
+        Analysis.initFFTW(new File(getFilesDir(), "fftw_wisdom"), true);
+    }
 }
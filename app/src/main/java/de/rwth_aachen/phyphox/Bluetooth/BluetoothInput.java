@@ -62,7 +62,7 @@ public class BluetoothInput extends Bluetooth {
      */
     private Vector<DataOutput> data = new Vector<>();
 
-    private Lock dataLock;
+    private Lock outputLock;
 
     /**
      * Used to store data in mode "poll" before it will be retrieved all together
@@ -98,7 +98,7 @@ public class BluetoothInput extends Bluetooth {
             throw new PhyphoxFile.phyphoxFileException(context.getResources().getString(R.string.bt_exception_rate));
         }
 
-        this.dataLock = lock;
+        this.outputLock = lock;
 
         if (rate <= 0)
             this.period = 0; // as fast as possible
@@ -308,7 +308,7 @@ public class BluetoothInput extends Bluetooth {
         }
 
         //Append the data to available buffers
-        dataLock.lock();
+        outputLock.lock();
         try {
             for (Characteristic c : characteristics) {
                 for (Double v: outputs[characteristics.indexOf(c)])
@@ -321,7 +321,7 @@ public class BluetoothInput extends Bluetooth {
                 this.data.get(saveTime.get(characteristic)).markSet();
             }
         } finally {
-            dataLock.unlock();
+            outputLock.unlock();
         }
     }
 
@@ -333,7 +333,7 @@ public class BluetoothInput extends Bluetooth {
         double t = experimentTimeReference.getExperimentTime();
 
         //Append the data to available buffers
-        dataLock.lock();
+        outputLock.lock();
         try {
             for (ArrayList<Characteristic> al : mapping.values()) {
                 for (Characteristic c : al) {
@@ -348,7 +348,7 @@ public class BluetoothInput extends Bluetooth {
                 data.get(i).markSet();
             }
         } finally {
-            dataLock.unlock();
+            outputLock.unlock();
             outputs.clear(); // remove values from receivedData because it is retrieved now
         }
     }
@@ -0,0 +1,126 @@
+package de.rwth_aachen.phyphox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+//Locks a set of buffers at once to get a consistent snapshot of all of them (for reading) or to
+//modify all of them without others seeing an intermediate state (for writing), for example the x,
+//y, z and t buffers of a sensor.
+//The locks are always acquired in the same global order (see DataBuffer.getLockOrder()), so two
+//threads locking overlapping sets cannot deadlock. A thread holding these locks should not
+//acquire the lock of another buffer.
+//This implements the Lock interface, so it can be handed to the inputs (sensors, bluetooth etc.)
+//instead of the dataLock of the experiment.
+
+public class BufferLocks implements Lock {
+    private final Lock[] locks;
+
+    //Buffers in both collections are locked for writing. Null entries are ignored.
+    public BufferLocks(Collection<DataBuffer> read, Collection<DataBuffer> write) {
+        Map<DataBuffer, Boolean> buffers = new HashMap<>();
+        if (read != null)
+            for (DataBuffer buffer : read)
+                if (buffer != null)
+                    buffers.put(buffer, false);
+        if (write != null)
+            for (DataBuffer buffer : write)
+                if (buffer != null)
+                    buffers.put(buffer, true);
+
+        List<DataBuffer> ordered = new ArrayList<>(buffers.keySet());
+        Collections.sort(ordered, new Comparator<DataBuffer>() {
+            @Override
+            public int compare(DataBuffer a, DataBuffer b) {
+                int oa = a.getLockOrder();
+                int ob = b.getLockOrder();
+                return oa < ob ? -1 : (oa == ob ? 0 : 1);
+            }
+        });
+
+        locks = new Lock[ordered.size()];
+        for (int i = 0; i < locks.length; i++) {
+            DataBuffer buffer = ordered.get(i);
+            locks[i] = buffers.get(buffer) ? buffer.lock.writeLock() : buffer.lock.readLock();
+        }
+    }
+
+    //Lock the buffers of a set of outputs for writing
+    public static BufferLocks forOutputs(Collection<DataOutput> outputs) {
+        List<DataBuffer> buffers = new ArrayList<>();
+        for (DataOutput output : outputs)
+            if (output != null)
+                buffers.add(output.buffer);
+        return new BufferLocks(null, buffers);
+    }
+
+    @Override
+    public void lock() {
+        for (Lock lock : locks)
+            lock.lock();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        int i = 0;
+        try {
+            for (; i < locks.length; i++)
+                locks[i].lockInterruptibly();
+        } catch (InterruptedException e) {
+            release(i);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        for (int i = 0; i < locks.length; i++) {
+            if (!locks[i].tryLock()) {
+                release(i);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(time);
+        int i = 0;
+        try {
+            for (; i < locks.length; i++) {
+                if (!locks[i].tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    release(i);
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            release(i);
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        release(locks.length);
+    }
+
+    //Release the first n locks in reverse order
+    private void release(int n) {
+        for (int i = n - 1; i >= 0; i--)
+            locks[i].unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("BufferLocks does not support conditions.");
+    }
+}
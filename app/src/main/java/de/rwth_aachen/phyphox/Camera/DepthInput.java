@@ -39,7 +39,7 @@ public class DepthInput {
     float x1, x2, y1, y2;
 
     private final ExperimentTimeReference experimentTimeReference;
-    private Lock dataLock;
+    private Lock outputLock;
 
     public DataBuffer dataZ; //Data-buffer for x
     public DataBuffer dataT; //Data-buffer for t
@@ -83,7 +83,7 @@ public class DepthInput {
     }
 
     public DepthInput(DepthExtractionMode mode, float x1, float x2, float y1, float y2, Vector<DataOutput> buffers, Lock lock, ExperimentTimeReference experimentTimeReference, CameraManager cameraManager) {
-        this.dataLock = lock;
+        this.outputLock = lock;
         this.experimentTimeReference = experimentTimeReference;
         this.cameraManager = cameraManager;
 
@@ -663,7 +663,7 @@ public class DepthInput {
                     if (Double.isInfinite(z))
                         z = Double.NaN;
 
-                    dataLock.lock();
+                    outputLock.lock();
                     try {
                         if (dataZ != null)
                             dataZ.append(z*0.001); //Given in millimeters, but phyphox uses meter
@@ -671,7 +671,7 @@ public class DepthInput {
                             dataT.append(t);
                         }
                     } finally {
-                        dataLock.unlock();
+                        outputLock.unlock();
                     }
                 } else {
                     Log.e("DepthInput", "imageReader encountered unexpected number of planes: " + planes.length);
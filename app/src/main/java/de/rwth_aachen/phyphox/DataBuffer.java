@@ -5,16 +5,15 @@ import android.util.Log;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 //Databuffer class
 //Each databuffer can be identified by a name (mapped in phyphoxExperiment class)
@@ -25,11 +24,12 @@ interface BufferNotification {
 
 public class DataBuffer implements Serializable {
     public String name; //The key name
-    private List<Double> buffer; //The actual buffer
+    private DoubleRingBuffer buffer; //The actual buffer
     public int size; //The target size
     public double value; //The last added value for easy access and graceful returning NaN for empty buffers
     public boolean isStatic = false; //If set to static, this buffer should only be filled once and cannot be cleared thereafter
     public Double [] init = new Double[0];
+    transient private DoubleBuffer initData = null; //Initial values mapped from the data file of a saved state (see StateData), replacing init
     public boolean staticAndSet = false;
     public boolean linkedToUserInput = false; //If set to true, we should avoid overwriting this value by global operations, i.e.: Do not clear on a reset event.
 
@@ -49,35 +49,67 @@ public class DataBuffer implements Serializable {
     private int floatCopyCapacity = 0;
     private int floatCopyBarValueCapacity = 0;
     private int floatCopyBarAxisCapacity = 0;
+    transient private float[] floatScratch = null; //Used to convert new values for the float copies
+    transient private double[] appendScratch = null; //Used to convert boxed, short and float values before appending them
 
     private double min = Double.NaN;
     private double max = Double.NaN;
 
+    private static final int chunkSize = 4096; //Values are read from the storage in chunks of this size
+
+    //Sequence numbers: Each value appended to the buffer is numbered by a counter that never
+    //decreases (not even if the buffer is cleared). nextSequence is the number the next value will
+    //receive and firstSequence is the number of the oldest value still in the buffer. Everything
+    //before has been removed by clearing or because the buffer was full. This allows to find the
+    //values that have been added since a given point in time (see getValuesSince()).
+    //Clearing a buffer that is not empty skips one number, so the values with sequence numbers
+    //from firstSequence to nextSequence-1 are always in the buffer, but a reader that has seen all
+    //values up to nextSequence-1 before the buffer was cleared learns that they are gone.
+    private volatile long firstSequence = 0;
+    private volatile long nextSequence = 0;
+    private volatile long skippedSequences = 0; //Number of sequence numbers skipped by clearing the buffer
+
+    //Each buffer has its own lock, so threads working on different buffers do not block each other
+    //(i.e. sensors writing to their buffers while the web interface reads the results of the
+    //analysis). The methods of this class acquire it as needed, so single calls are always
+    //consistent. To access several buffers consistently (like the x, y, z and t values of a
+    //sensor) or to use getIterator(), lock all of them with a BufferLocks instance.
+    //Note that a thread holding the read lock cannot acquire the write lock, so do not call methods
+    //that modify the buffer (this includes getFloatBuffer(), getMin() and getMax(), which update
+    //cached values) while holding only the read lock.
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private transient int lockOrder = -1; //Order in which BufferLocks acquires the locks to avoid deadlocks
+    private static final AtomicInteger lockOrderCounter = new AtomicInteger();
+
     //Contructor. Set key name and target size.
     protected DataBuffer(String name, int size, ExperimentTimeReference experimentTimeReference) {
         this.experimentTimeReference = experimentTimeReference;
         this.size = size;
         this.name = name;
 
-        //Note on the choice of LinkedList over ArrayList
-        //For data acquisition during an experiment we require the ability to append data
-        //consistently fast, which fails for the ArrayList if it needs to be extended and copied to
-        //a new memory block. Hence, for a long time, phyphox used LinkedList for unlimited buffers
-        //and ArrayList for ones with a fixed size. However, ArrayList is also problematic for the
-        //fixed sized ones, because if the first element needs to be removed with inflowing data,
-        //the entire array needs to be shifted, which again takes a lot of time.
-        //Therefore, both situations now use the LinkedArray.
-        //A faster alternative for fixed-size buffers could be an ArrayList as a ring buffer (i.e.
-        //with a moving index pointing to the start and a filled size to keep track of the number
-        //of elements which wrap around at the end), but this complicated several implementations
-        //below, which would need separate versions for both buffer times. At this point, this does
-        //not seem necessary.
-
-        this.buffer = new LinkedList<>();
+        //Note on the storage of the values
+        //For a long time, phyphox used a LinkedList<Double> for all buffers, because data
+        //acquisition requires appending data consistently fast and fixed-size buffers need to drop
+        //their first element with every new value. However, a boxed Double in a linked list takes
+        //about 40 bytes per value and long recordings at high rates kept the garbage collector
+        //busy. The DoubleRingBuffer stores the values in a primitive array and supports appending
+        //and removing the first elements in (amortized) constant time. Buffers without a size
+        //limit only keep their newest values on the heap and move older ones to a temporary
+        //file, so the values have to be read through the DoubleRingBuffer (i.e. in chunks, see
+        //chunkSize) instead of accessing its array directly.
+
+        this.buffer = new DoubleRingBuffer(size);
 
         this.value = Double.NaN;
     }
 
+    //Unique number to define the order in which locks of several buffers are acquired
+    synchronized int getLockOrder() {
+        if (lockOrder < 0)
+            lockOrder = lockOrderCounter.getAndIncrement();
+        return lockOrder;
+    }
+
     //Analysis and view modules can register to learn about updates
     public void register(BufferNotification listener) {
         updateListeners.add(listener);
@@ -132,190 +164,236 @@ public class DataBuffer implements Serializable {
         }
     }
 
-    //Append a value to the buffer.
-    private void append(double value, boolean notify) {
+    //Append a float copy of new values to one of the float buffer representations, which are used
+    //by graphs. The first removed values (times stride floats per value) are dropped from the front.
+    //The array grows like the DoubleRingBuffer: The representation moves through an array of about
+    //twice its size and the values are moved to the front of a new array once its end is reached.
+    //Returns the new capacity.
+    private int appendToFloatCopy(FloatBufferRepresentation copy, int capacity, int removed, int stride, float[] values, int n) {
+        synchronized (copy.lock) {
+            int r = Math.min(removed * stride, copy.size);
+            copy.offset += r;
+            copy.size -= r;
+            if (capacity < copy.offset + copy.size + n) {
+                int needed = copy.size + n;
+                if (capacity < 2 * needed)
+                    capacity = Math.max(2 * capacity, needed);
+                FloatBuffer newData = ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                FloatBuffer oldData = copy.data.duplicate();
+                oldData.limit(copy.offset + copy.size);
+                oldData.position(copy.offset);
+                newData.put(oldData);
+                copy.data = newData;
+                copy.offset = 0;
+            }
+            //Write through a duplicate, so we do not change the position a graph might rely on
+            FloatBuffer target = copy.data.duplicate();
+            target.position(copy.offset + copy.size);
+            target.put(values, 0, n);
+            copy.size += n;
+        }
+        return capacity;
+    }
+
+    private float[] getFloatScratch(int n) {
+        if (floatScratch == null || floatScratch.length < n)
+            floatScratch = new float[n];
+        return floatScratch;
+    }
+
+    private double[] getAppendScratch(int n) {
+        if (appendScratch == null || appendScratch.length < n)
+            appendScratch = new double[n];
+        return appendScratch;
+    }
+
+    //Append count values starting at values[offset]. The caller has to hold the write lock.
+    //This updates the minimum, maximum, the float copies and the time reference sets in one pass
+    //over the new values, so graphs attached to the buffer do not need to rebuild their data.
+    private void appendValues(double[] values, int offset, int count, boolean notify) {
         if (staticAndSet)
             return;
-        double last = this.value;
-        this.value = value; //Update last value
-        if (this.size > 0 && buffer.size()+1 > this.size) { //If the buffer becomes larger than the target size, remove the first item (queue!)
-            buffer.remove(0);
-            min = Double.NaN;
-            max = Double.NaN;
-            if (floatCopy != null) {
-                synchronized (floatCopy.lock) {
-                    floatCopy.offset++;
-                    floatCopy.size--;
-                }
-            }
-            if (floatCopyBarAxis != null) {
-                synchronized (floatCopyBarAxis.lock) {
-                    floatCopyBarAxis.offset+=6;
-                    floatCopyBarAxis.size-=6;
-                }
-            }
-            if (floatCopyBarValue != null) {
-                synchronized (floatCopyBarValue.lock) {
-                    floatCopyBarValue.offset+=6;
-                    floatCopyBarValue.size-=6;
-                }
-            }
-            if (experimentTimeReferenceSets != null) {
-                synchronized (experimentTimeReferenceSetsLock) {
-                    for (int i = experimentTimeReferenceSets.size()-1; i >= 0; i--) {
-                        experimentTimeReferenceSets.get(i).index--;
-                    }
-                    if (experimentTimeReferenceSets.get(0).index < 0) {
-                        experimentTimeReferenceSets.get(0).index = 0;
-                        experimentTimeReferenceSets.get(0).count--;
-                    }
-                    if (experimentTimeReferenceSets.get(0).count <= 0) {
-                        experimentTimeReferenceSets.remove(0);
+        if (count > 0) {
+            double last = this.value;
+            this.value = values[offset + count - 1]; //Update last value
+            int removed = buffer.add(values, offset, count); //The storage takes care of removing old values if it overflows.
+            nextSequence += count;
+            firstSequence = nextSequence - buffer.size();
+
+            //If there are more new values than the buffer can hold, only the last ones are kept
+            int added = Math.min(count, buffer.size());
+            int first = offset + count - added;
+            if (added < count)
+                last = values[first - 1];
+
+            if (removed > 0) {
+                min = Double.NaN;
+                max = Double.NaN;
+            } else {
+                //Smallest and largest finite value (see getMin() and getMax())
+                boolean updateMin = !Double.isNaN(min) && !Double.isInfinite(min);
+                boolean updateMax = !Double.isNaN(max) && !Double.isInfinite(max);
+                if (updateMin || updateMax) {
+                    for (int i = first; i < first + added; i++) {
+                        double v = values[i];
+                        if (Double.isNaN(v) || Double.isInfinite(v))
+                            continue;
+                        if (updateMin && v < min)
+                            min = v;
+                        if (updateMax && v > max)
+                            max = v;
                     }
                 }
             }
 
-        }
-        buffer.add(value);
-        if (!Double.isNaN(min) && !Double.isInfinite(min))
-            min = Math.min(min, value);
-        if (!Double.isNaN(max) && !Double.isInfinite(max))
-            max = Math.max(max, value);
-
-        if (floatCopy != null) {
-            synchronized (floatCopy.lock) {
-                if (floatCopyCapacity < floatCopy.offset + floatCopy.size + 1) {
-                    if (floatCopyCapacity < buffer.size() * 2)
-                        floatCopyCapacity *= 2;
-                    FloatBuffer newData = ByteBuffer.allocateDirect(floatCopyCapacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-                    floatCopy.data.position(floatCopy.offset);
-                    newData.put(floatCopy.data);
-                    floatCopy.data = newData;
-                    floatCopy.offset = 0;
+            if (floatCopy != null) {
+                float[] f = getFloatScratch(added);
+                for (int i = 0; i < added; i++) {
+                    double x = values[first + i];
+                    f[i] = (Double.isNaN(x) || Double.isInfinite(x)) ? -3.4e38f : (float)x; //see getFloatBuffer()
                 }
-                floatCopy.data.put(floatCopy.offset + floatCopy.size, (float) value);
-                floatCopy.size++;
+                floatCopyCapacity = appendToFloatCopy(floatCopy, floatCopyCapacity, removed, 1, f, added);
             }
-        }
 
-        if (floatCopyBarValue != null) {
-            synchronized (floatCopyBarValue.lock) {
-                if (floatCopyBarValueCapacity < floatCopyBarValue.offset + floatCopyBarValue.size + 6) {
-                    if (floatCopyBarValueCapacity < buffer.size() * 2 * 6)
-                        floatCopyBarValueCapacity *= 2;
-                    FloatBuffer newData = ByteBuffer.allocateDirect(floatCopyBarValueCapacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-                    floatCopyBarValue.data.position(floatCopyBarValue.offset);
-                    newData.put(floatCopyBarValue.data);
-                    floatCopyBarValue.data = newData;
-                    floatCopyBarValue.offset = 0;
+            if (floatCopyBarValue != null || floatCopyBarAxis != null) {
+                FloatBuffer f = FloatBuffer.wrap(getFloatScratch(added * 6));
+                if (floatCopyBarValue != null) {
+                    double l = last;
+                    for (int i = 0; i < added; i++) {
+                        putBarValueValue(f, l, i * 6);
+                        l = values[first + i];
+                    }
+                    floatCopyBarValueCapacity = appendToFloatCopy(floatCopyBarValue, floatCopyBarValueCapacity, removed, 6, f.array(), added * 6);
                 }
-
-                putBarValueValue(floatCopyBarValue.data, last, floatCopyBarValue.offset + floatCopyBarValue.size);
-                floatCopyBarValue.size += 6;
-            }
-        }
-        if (floatCopyBarAxis != null) {
-            synchronized (floatCopyBarAxis.lock) {
-                if (floatCopyBarAxisCapacity < floatCopyBarAxis.offset + floatCopyBarAxis.size + 6) {
-                    if (floatCopyBarAxisCapacity < buffer.size() * 2 * 6)
-                        floatCopyBarAxisCapacity *= 2;
-                    FloatBuffer newData = ByteBuffer.allocateDirect(floatCopyBarAxisCapacity * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-                    floatCopyBarAxis.data.position(floatCopyBarAxis.offset);
-                    newData.put(floatCopyBarAxis.data);
-                    floatCopyBarAxis.data = newData;
-                    floatCopyBarAxis.offset = 0;
+                if (floatCopyBarAxis != null) {
+                    double l = last;
+                    for (int i = 0; i < added; i++) {
+                        double v = values[first + i];
+                        putBarAxisValue(f, l, v, i * 6);
+                        l = v;
+                    }
+                    floatCopyBarAxisCapacity = appendToFloatCopy(floatCopyBarAxis, floatCopyBarAxisCapacity, removed, 6, f.array(), added * 6);
                 }
-
-                putBarAxisValue(floatCopyBarAxis.data, last, value, floatCopyBarAxis.offset + floatCopyBarAxis.size);
-                floatCopyBarAxis.size += 6;
             }
-        }
-        if (experimentTimeReferenceSets != null) {
-            synchronized (experimentTimeReferenceSetsLock) {
-                int referenceIndex = linearTime ? experimentTimeReference.getReferenceIndexFromLinearTime(value) : experimentTimeReference.getReferenceIndexFromExperimentTime(value);
-                if (experimentTimeReferenceSets.size() > 0) {
-                    ExperimentTimeReferenceSet lastSet = experimentTimeReferenceSets.get(experimentTimeReferenceSets.size()-1);
-                    if (lastSet.referenceIndex == referenceIndex) {
-                        lastSet.count++;
-                    } else {
-                        experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(lastSet.index + lastSet.count, 1, experimentTimeReference.getExperimentTimeReferenceByIndex(referenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(referenceIndex), referenceIndex, experimentTimeReference.getPausedByIndex(referenceIndex)));
+
+            if (experimentTimeReferenceSets != null) {
+                synchronized (experimentTimeReferenceSetsLock) {
+                    if (removed > 0) {
+                        for (ExperimentTimeReferenceSet set : experimentTimeReferenceSets)
+                            set.index -= removed;
+                        while (!experimentTimeReferenceSets.isEmpty() && experimentTimeReferenceSets.get(0).index < 0) {
+                            ExperimentTimeReferenceSet firstSet = experimentTimeReferenceSets.get(0);
+                            firstSet.count += firstSet.index;
+                            firstSet.index = 0;
+                            if (firstSet.count <= 0)
+                                experimentTimeReferenceSets.remove(0);
+                        }
+                    }
+                    ExperimentTimeReferenceSet lastSet = experimentTimeReferenceSets.isEmpty() ? null : experimentTimeReferenceSets.get(experimentTimeReferenceSets.size()-1);
+                    for (int i = first; i < first + added; i++) {
+                        double v = values[i];
+                        int referenceIndex = linearTime ? experimentTimeReference.getReferenceIndexFromLinearTime(v) : experimentTimeReference.getReferenceIndexFromExperimentTime(v);
+                        if (lastSet != null && lastSet.referenceIndex == referenceIndex) {
+                            lastSet.count++;
+                        } else {
+                            lastSet = new ExperimentTimeReferenceSet(lastSet != null ? lastSet.index + lastSet.count : 0, 1, experimentTimeReference.getExperimentTimeReferenceByIndex(referenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(referenceIndex), referenceIndex, experimentTimeReference.getPausedByIndex(referenceIndex));
+                            experimentTimeReferenceSets.add(lastSet);
+                        }
                     }
-                } else {
-                    experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(0, 1, experimentTimeReference.getExperimentTimeReferenceByIndex(referenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(referenceIndex), referenceIndex, experimentTimeReference.getPausedByIndex(referenceIndex)));
                 }
             }
         }
 
-        if (notify) {
+        if (notify)
             notifyListeners(false, false);
-        }
+    }
+
+    //Append a value to the buffer. The caller has to hold the write lock.
+    private void append(double value, boolean notify) {
+        double[] single = getAppendScratch(1);
+        single[0] = value;
+        appendValues(single, 0, 1, notify);
     }
 
     public void append(double value) {
-        append(value, true);
+        lock.writeLock().lock();
+        try {
+            append(value, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     //Get the number of elements actually filled into the buffer
     public int getFilledSize() {
-        return buffer.size();
+        lock.readLock().lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     //Append a double-array with [count] entries.
     public void append(Double value[], Integer count, boolean notify) {
-        if (staticAndSet)
-            return;
-        if (4*count < buffer.size() && (!Double.isNaN(min) || !Double.isNaN(max) || floatCopy != null || floatCopyBarValue != null || floatCopyBarAxis != null || experimentTimeReferenceSets != null)) {
-            // In these cases the buffer is connected to a view element and adding every item individually is probably faster
-            for (int i = 0; i < count; i++) {
-                append(value[i], false);
-            }
-        } else {
-            //Just dump the data into the array and make sure it does not overflow.
-            if (count > 0)
-                this.value = value[count - 1]; //Update last value
-            if (this.size > 0) {
-                if (count >= this.size) {
-                    buffer.clear();
-                    buffer.addAll(Arrays.asList(value).subList(count - this.size, count));
-                } else if (buffer.size() + count > this.size) { //If the buffer becomes larger than the target size, remove the first items (queue!)
-                    Double[] remainder = buffer.subList(count, this.size).toArray(new Double[0]);
-                    buffer.clear();
-                    buffer.addAll(Arrays.asList(remainder));
-                    buffer.addAll(Arrays.asList(value));
-                } else {
-                    buffer.addAll(Arrays.asList(value));
-                }
-            } else {
-                buffer.addAll(Arrays.asList(value));
-            }
-            min = Double.NaN;
-            max = Double.NaN;
-            floatCopy = null;
-            floatCopyBarValue = null;
-            floatCopyBarAxis = null;
-            experimentTimeReferenceSets = null;
+        lock.writeLock().lock();
+        try {
+            double[] values = getAppendScratch(count);
+            for (int i = 0; i < count; i++)
+                values[i] = value[i];
+            appendValues(values, 0, count, notify);
+        } finally {
+            lock.writeLock().unlock();
         }
-
-        if (notify)
-            notifyListeners(false, false);
     }
 
     public void append(Double value[], Integer count) {
         append(value, count, true);
     }
 
+    //Append count entries of a primitive double-array starting at offset.
+    public void append(double value[], int offset, int count, boolean notify) {
+        lock.writeLock().lock();
+        try {
+            appendValues(value, offset, count, notify);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Append a primitive double-array with [count] entries.
+    public void append(double value[], int count, boolean notify) {
+        append(value, 0, count, notify);
+    }
+
+    public void append(double value[], int count) {
+        append(value, 0, count, true);
+    }
+
     //Append a short-array with [count] entries. This will be scaled to [-1:+1] and is used for audio data
     public void append(short value[], int count) {
-        for (int i = 0; i < count; i++)
-            append((double)value[i]/(double)Short.MAX_VALUE, false); //Normalize to [-1:+1] and append
-        notifyListeners(false, false);
+        lock.writeLock().lock();
+        try {
+            double[] values = getAppendScratch(count);
+            for (int i = 0; i < count; i++)
+                values[i] = (double)value[i]/(double)Short.MAX_VALUE; //Normalize to [-1:+1]
+            appendValues(values, 0, count, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     //Append a float-array with [count] entries. This is used for audio data
     public void append(float value[], int count) {
-        for (int i = 0; i < count; i++)
-            append(value[i], false); //Normalize to [-1:+1] and append
-        notifyListeners(false, false);
+        lock.writeLock().lock();
+        try {
+            double[] values = getAppendScratch(count);
+            for (int i = 0; i < count; i++)
+                values[i] = value[i];
+            appendValues(values, 0, count, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     //Wrapper function to set this buffer's static-state
@@ -325,58 +403,108 @@ public class DataBuffer implements Serializable {
 
     //Wrapper function to set this buffer's static-state
     public void setInit(Double[] init) {
-        this.init = init;
-        this.append(init, init.length, false);
-        if (init.length > 0)
-            markSet();
+        lock.writeLock().lock();
+        try {
+            this.init = init;
+            this.initData = null;
+            this.append(init, init.length, false);
+            if (init.length > 0)
+                markSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Set the initial values from a section of a mapped state file (see StateData). The values are
+    //copied to the buffer in chunks without keeping a copy on the heap. On a reset, they are read
+    //from the mapping again.
+    public void setInit(DoubleBuffer init) {
+        lock.writeLock().lock();
+        try {
+            this.init = new Double[0];
+            this.initData = init;
+            appendInitData(false);
+            if (init.capacity() > 0)
+                markSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Append the mapped initial values. The caller has to hold the write lock.
+    private void appendInitData(boolean notify) {
+        DoubleBuffer source = initData.duplicate();
+        source.clear();
+        double[] chunk = getAppendScratch(Math.min(source.remaining(), chunkSize));
+        while (source.hasRemaining()) {
+            int n = Math.min(chunkSize, source.remaining());
+            source.get(chunk, 0, n);
+            appendValues(chunk, 0, n, false);
+        }
+        if (notify)
+            notifyListeners(false, false);
     }
 
     //Delete all data and set last item to NaN (if not static)
     public void clear(boolean reset, boolean notify) {
-        if (isStatic) {
-            if (reset)
-                staticAndSet = false;
-            else
-                return;
-        }
-        buffer.clear();
-        value = Double.NaN;
-        if (floatCopy != null) {
-            synchronized (floatCopy.lock) {
-                //Instead of just resetting the offset and length to zero, we abandon the buffer, so
-                //a new one will be created. The reason to do this is that the copy of the old
-                //buffer remains in tact if a graph has just received it as a data source. So the
-                //data is available until the graph gets a new reference and it is removed by the
-                //garbage collector. Otherwise the reference might be reset before the graph is
-                //redrawn which results in flickering.
-                floatCopy = null;
+        lock.writeLock().lock();
+        try {
+            if (isStatic) {
+                if (reset)
+                    staticAndSet = false;
+                else
+                    return;
             }
-        }
-        if (floatCopyBarValue != null) {
-            //see above
-            synchronized (floatCopyBarValue.lock) {
-                floatCopyBarValue = null;
+            if (buffer.size() > 0) {
+                nextSequence++;
+                skippedSequences++;
             }
-        }
-        if (floatCopyBarAxis != null) {
-            //see above
-            synchronized (floatCopyBarAxis.lock) {
-                floatCopyBarAxis = null;
+            buffer.clear();
+            firstSequence = nextSequence;
+            value = Double.NaN;
+            if (floatCopy != null) {
+                synchronized (floatCopy.lock) {
+                    //Instead of just resetting the offset and length to zero, we abandon the buffer, so
+                    //a new one will be created. The reason to do this is that the copy of the old
+                    //buffer remains in tact if a graph has just received it as a data source. So the
+                    //data is available until the graph gets a new reference and it is removed by the
+                    //garbage collector. Otherwise the reference might be reset before the graph is
+                    //redrawn which results in flickering.
+                    floatCopy = null;
+                }
             }
-        }
-        if (experimentTimeReferenceSets != null) {
-            synchronized (experimentTimeReferenceSetsLock) {
-                experimentTimeReferenceSets = null;
+            if (floatCopyBarValue != null) {
+                //see above
+                synchronized (floatCopyBarValue.lock) {
+                    floatCopyBarValue = null;
+                }
             }
-        }
-        min = Double.NaN;
-        max = Double.NaN;
+            if (floatCopyBarAxis != null) {
+                //see above
+                synchronized (floatCopyBarAxis.lock) {
+                    floatCopyBarAxis = null;
+                }
+            }
+            if (experimentTimeReferenceSets != null) {
+                synchronized (experimentTimeReferenceSetsLock) {
+                    experimentTimeReferenceSets = null;
+                }
+            }
+            min = Double.NaN;
+            max = Double.NaN;
 
-        if (reset)
-            this.append(init, init.length);
+            if (reset) {
+                if (initData != null)
+                    appendInitData(true);
+                else
+                    this.append(init, init.length);
+            }
 
-        if (notify)
-            notifyListeners(true, reset);
+            if (notify)
+                notifyListeners(true, reset);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public void clear(boolean reset) {
@@ -384,203 +512,377 @@ public class DataBuffer implements Serializable {
     }
 
     public void markSet() {
-        if (isStatic)
-            staticAndSet = true;
+        lock.writeLock().lock();
+        try {
+            if (isStatic)
+                staticAndSet = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    //Retrieve the iterator
+    //Retrieve the iterator. The iterator is only valid until the buffer is modified, so the
+    //caller should hold the lock of this buffer while using it.
     public Iterator<Double> getIterator() {
         return buffer.iterator();
     }
 
     //Get all values as a double array
     public Double[] getArray() {
-        return buffer.toArray(new Double[0]);
+        lock.readLock().lock();
+        try {
+            return buffer.toBoxedArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Get all values as a primitive double array
+    public double[] getDoubleArray() {
+        lock.readLock().lock();
+        try {
+            return buffer.toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Copy all values to a primitive double array. If reuse is large enough, the values are written
+    //to reuse and it is returned, otherwise a new array (with some headroom) is returned.
+    public double[] getDoubleArray(double[] reuse) {
+        lock.readLock().lock();
+        try {
+            int n = buffer.size();
+            if (reuse == null || reuse.length < n)
+                reuse = new double[n + n/2];
+            buffer.copyTo(reuse, 0);
+            return reuse;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Copy the values from index start to the end to a primitive double array (see getDoubleArray(double[] reuse))
+    //A start outside of the buffer is clamped, so the result has no values if start is behind the end.
+    public double[] getDoubleArray(double[] reuse, int start) {
+        lock.readLock().lock();
+        try {
+            start = Math.max(0, Math.min(start, buffer.size()));
+            int n = buffer.size() - start;
+            if (reuse == null || reuse.length < n)
+                reuse = new double[n + n/2];
+            buffer.copyTo(start, reuse, 0, n);
+            return reuse;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Result of getValuesSince()
+    public static class ValuesSince {
+        public double[] values = null; //The values are stored in values[0...n-1]
+        public int n = 0;
+        public long next = 0; //Sequence number of the next value, i.e. the one to ask for next time
+        public boolean evicted = false; //Some of the requested values have been removed, so values holds the whole buffer instead
+    }
+
+    //Get the values appended since the given sequence number (those with a sequence number >=
+    //since), usually the value of ValuesSince.next from the previous call. Finding the values takes
+    //constant time. If any of the requested values have already been removed (the buffer has been
+    //cleared or they have been dropped because the buffer is full), evicted is set and all values
+    //in the buffer are returned instead, so the caller should replace everything it has. The
+    //arrays of reuse are reused if they are large enough.
+    public ValuesSince getValuesSince(long since, ValuesSince reuse) {
+        ValuesSince result = reuse != null ? reuse : new ValuesSince();
+        lock.readLock().lock();
+        try {
+            int start;
+            if (since < firstSequence || since > nextSequence) {
+                //Values have been removed (or the caller refers to another instance of this buffer)
+                result.evicted = true;
+                start = 0;
+            } else {
+                result.evicted = false;
+                start = (int)(since - firstSequence);
+            }
+            result.n = buffer.size() - start;
+            if (result.values == null || result.values.length < result.n)
+                result.values = new double[result.n];
+            buffer.copyTo(start, result.values, 0, result.n);
+            result.next = nextSequence;
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Copy up to count values to target (starting at offset), beginning with the value with the
+    //sequence number from. Returns the number of values copied (less than count if the buffer ends
+    //earlier) or -1 if the value with the sequence number from has already been removed.
+    public int getValues(long from, double[] target, int offset, int count) {
+        lock.readLock().lock();
+        try {
+            if (from < firstSequence)
+                return -1;
+            int start = (int)Math.min(from - firstSequence, buffer.size());
+            int n = Math.min(count, buffer.size() - start);
+            buffer.copyTo(start, target, offset, n);
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Sequence number of the oldest value in the buffer
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+
+    //Sequence number the next appended value will receive
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    //Number of sequence numbers that have been skipped by clearing the buffer. A reader that
+    //misses values can tell the missing values from the skipped numbers with this.
+    public long getSkippedSequences() {
+        return skippedSequences;
     }
 
     public FloatBufferRepresentation getFloatBuffer() {
-        int n = buffer.size();
-        if (n == 0)
-            return new FloatBufferRepresentation(null, 0, 0);
-
-        if (floatCopy == null) {
-            FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-            floatCopyCapacity = n;
-            Iterator it = getIterator();
-            int i = 0;
-            while (it.hasNext() && i < n) {
-                double x = (double) it.next();
-                if ((Double.isNaN(x) || Double.isInfinite(x)))
-                    data.put(-3.4e38f);
-                else
-                    data.put((float) x);
-                //This is a bit hacky, but should work in any reasonable situation. Some OpenGL ES
-                // implementations (HTC One X, some Samsungs, ...) seem to not properly handle NaN,
-                // which makes it impossible to detect invalid data points in the vertex and/or
-                // fragment shader. The behavior seems to be unspecified with some devices
-                // interpreting NaN as zero (Samsung?) and some devices failing all subsequent
-                // calculations ans eventually interpreting the resulting NaN as zero (HTC One X
-                // draws a line to the canvas zero coordinate.
-                // The value 3.4e38f is close to the smallest possible number represented by a
-                // float32 (I do not dare to use the exact minimum as it might be altered by
-                // rounding or shader optimization), so it should not occur by accident in any
-                // reasonable use case and we use it to tag invalid values. The vertex shader will
-                // simply check for values below -3.3e38f and mark them for the fragment shader to
-                // be discarded.
-                i++;
+        lock.writeLock().lock();
+        try {
+            int n = buffer.size();
+            if (n == 0)
+                return new FloatBufferRepresentation(null, 0, 0);
+
+            if (floatCopy == null) {
+                FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                floatCopyCapacity = n;
+                double[] chunk = new double[Math.min(n, chunkSize)];
+                for (int i = 0; i < n; i++) {
+                    if (i % chunk.length == 0)
+                        buffer.copyTo(i, chunk, 0, Math.min(chunk.length, n - i));
+                    double x = chunk[i % chunk.length];
+                    if ((Double.isNaN(x) || Double.isInfinite(x)))
+                        data.put(-3.4e38f);
+                    else
+                        data.put((float) x);
+                    //This is a bit hacky, but should work in any reasonable situation. Some OpenGL ES
+                    // implementations (HTC One X, some Samsungs, ...) seem to not properly handle NaN,
+                    // which makes it impossible to detect invalid data points in the vertex and/or
+                    // fragment shader. The behavior seems to be unspecified with some devices
+                    // interpreting NaN as zero (Samsung?) and some devices failing all subsequent
+                    // calculations ans eventually interpreting the resulting NaN as zero (HTC One X
+                    // draws a line to the canvas zero coordinate.
+                    // The value 3.4e38f is close to the smallest possible number represented by a
+                    // float32 (I do not dare to use the exact minimum as it might be altered by
+                    // rounding or shader optimization), so it should not occur by accident in any
+                    // reasonable use case and we use it to tag invalid values. The vertex shader will
+                    // simply check for values below -3.3e38f and mark them for the fragment shader to
+                    // be discarded.
+                }
+                floatCopy = new FloatBufferRepresentation(data, 0, n);
             }
-            floatCopy = new FloatBufferRepresentation(data, 0, n);
+            return floatCopy;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return floatCopy;
     }
 
     public FloatBufferRepresentation getFloatBufferBarAxis(double lineWidth) {
-        this.lineWidth = lineWidth;
-        int n = buffer.size()*6;
-        if (n <= 0)
-            return new FloatBufferRepresentation(null, 0, 0);
-
-        if (floatCopyBarAxis == null) {
-            FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-            floatCopyBarAxisCapacity = n;
-            Iterator it = getIterator();
-            int i = 0;
-            double last = Double.NaN;
-            while (it.hasNext() && i < n) {
-                double value = (double)it.next();
-                putBarAxisValue(data, last, value, i);
-                last = value;
-                i+=6;
+        lock.writeLock().lock();
+        try {
+            this.lineWidth = lineWidth;
+            int n = buffer.size()*6;
+            if (n <= 0)
+                return new FloatBufferRepresentation(null, 0, 0);
+
+            if (floatCopyBarAxis == null) {
+                FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                floatCopyBarAxisCapacity = n;
+                double[] chunk = new double[Math.min(n/6, chunkSize)];
+                double last = Double.NaN;
+                for (int i = 0; i < n; i += 6) {
+                    if ((i/6) % chunk.length == 0)
+                        buffer.copyTo(i/6, chunk, 0, Math.min(chunk.length, n/6 - i/6));
+                    double value = chunk[(i/6) % chunk.length];
+                    putBarAxisValue(data, last, value, i);
+                    last = value;
+                }
+                floatCopyBarAxis = new FloatBufferRepresentation(data, 0, n);
             }
-            floatCopyBarAxis = new FloatBufferRepresentation(data, 0, n);
+            return floatCopyBarAxis;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return floatCopyBarAxis;
     }
 
     public FloatBufferRepresentation getFloatBufferBarValue() {
-        int n = buffer.size()*6;
-        if (n <= 0)
-            return new FloatBufferRepresentation(null, 0, 0);
-
-        if (floatCopyBarValue == null) {
-            FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
-            floatCopyBarValueCapacity = n;
-            Iterator it = getIterator();
-            int i = 0;
-            double last = Double.NaN;
-            while (it.hasNext() && i < n) {
-                double value = (double)it.next();
-                putBarValueValue(data, last, i);
-                last = value;
-                i+=6;
+        lock.writeLock().lock();
+        try {
+            int n = buffer.size()*6;
+            if (n <= 0)
+                return new FloatBufferRepresentation(null, 0, 0);
+
+            if (floatCopyBarValue == null) {
+                FloatBuffer data = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                floatCopyBarValueCapacity = n;
+                double[] chunk = new double[Math.min(n/6, chunkSize)];
+                double last = Double.NaN;
+                for (int i = 0; i < n; i += 6) {
+                    if ((i/6) % chunk.length == 0)
+                        buffer.copyTo(i/6, chunk, 0, Math.min(chunk.length, n/6 - i/6));
+                    double value = chunk[(i/6) % chunk.length];
+                    putBarValueValue(data, last, i);
+                    last = value;
+                }
+                floatCopyBarValue = new FloatBufferRepresentation(data, 0, n);
             }
-            floatCopyBarValue = new FloatBufferRepresentation(data, 0, n);
+            return floatCopyBarValue;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return floatCopyBarValue;
     }
 
     public List<ExperimentTimeReferenceSet> getExperimentTimeReferenceSets(boolean isLinearTime) {
-        if (buffer.size() <= 0)
-            return new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            if (buffer.size() <= 0)
+                return new ArrayList<>();
 
-        if (isLinearTime != linearTime) {
-            linearTime = isLinearTime;
-            synchronized (experimentTimeReferenceSetsLock) {
-                experimentTimeReferenceSets = null;
+            if (isLinearTime != linearTime) {
+                linearTime = isLinearTime;
+                synchronized (experimentTimeReferenceSetsLock) {
+                    experimentTimeReferenceSets = null;
+                }
             }
-        }
 
-        if (experimentTimeReferenceSets == null && !experimentTimeReference.timeMappings.isEmpty()) {
-            experimentTimeReferenceSets = new ArrayList<>();
-            Iterator it = getIterator();
-            int lastReferenceIndex = -1;
-            int lastchange = 0;
-            int i = 0;
-            while (it.hasNext()) {
-                double value = (double)it.next();
-                int referenceIndex = isLinearTime ? experimentTimeReference.getReferenceIndexFromLinearTime(value) : experimentTimeReference.getReferenceIndexFromExperimentTime(value);
-                if (lastReferenceIndex < 0)
-                    lastReferenceIndex = referenceIndex;
-                else if (lastReferenceIndex != referenceIndex) {
-                    experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(lastchange, i-lastchange, experimentTimeReference.getExperimentTimeReferenceByIndex(lastReferenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(lastReferenceIndex), lastReferenceIndex, experimentTimeReference.getPausedByIndex(lastReferenceIndex)));
-                    lastchange = i;
-                    lastReferenceIndex = referenceIndex;
+            if (experimentTimeReferenceSets == null && !experimentTimeReference.timeMappings.isEmpty()) {
+                experimentTimeReferenceSets = new ArrayList<>();
+                int n = buffer.size();
+                double[] chunk = new double[Math.min(n, chunkSize)];
+                int lastReferenceIndex = -1;
+                int lastchange = 0;
+                int i = 0;
+                while (i < n) {
+                    if (i % chunk.length == 0)
+                        buffer.copyTo(i, chunk, 0, Math.min(chunk.length, n - i));
+                    double value = chunk[i % chunk.length];
+                    int referenceIndex = isLinearTime ? experimentTimeReference.getReferenceIndexFromLinearTime(value) : experimentTimeReference.getReferenceIndexFromExperimentTime(value);
+                    if (lastReferenceIndex < 0)
+                        lastReferenceIndex = referenceIndex;
+                    else if (lastReferenceIndex != referenceIndex) {
+                        experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(lastchange, i-lastchange, experimentTimeReference.getExperimentTimeReferenceByIndex(lastReferenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(lastReferenceIndex), lastReferenceIndex, experimentTimeReference.getPausedByIndex(lastReferenceIndex)));
+                        lastchange = i;
+                        lastReferenceIndex = referenceIndex;
+                    }
+                    i++;
                 }
-                i++;
+                experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(lastchange, i-lastchange, experimentTimeReference.getExperimentTimeReferenceByIndex(lastReferenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(lastReferenceIndex), lastReferenceIndex, experimentTimeReference.getPausedByIndex(lastReferenceIndex)));
             }
-            experimentTimeReferenceSets.add(new ExperimentTimeReferenceSet(lastchange, i-lastchange, experimentTimeReference.getExperimentTimeReferenceByIndex(lastReferenceIndex), experimentTimeReference.getSystemTimeReferenceByIndex(lastReferenceIndex), lastReferenceIndex, experimentTimeReference.getPausedByIndex(lastReferenceIndex)));
+            return experimentTimeReferenceSets;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return experimentTimeReferenceSets;
     }
 
     //Get all values as a short array. The data will be scaled so that (-/+)1 matches (-/+)Short.MAX_VALUE, used for audio data
     public short[] getShortArray() {
-        short[] ret = new short[buffer.size()];
-        Iterator it = getIterator();
-        int i = 0;
-        while (it.hasNext()) {
-            ret[i] = (short)(((double)it.next())*(Short.MAX_VALUE)); //Rescale data to short range
-            i++;
+        lock.readLock().lock();
+        try {
+            short[] ret = new short[buffer.size()];
+            double[] chunk = new double[Math.min(ret.length, chunkSize)];
+            for (int i = 0; i < ret.length; i++) {
+                if (i % chunk.length == 0)
+                    buffer.copyTo(i, chunk, 0, Math.min(chunk.length, ret.length - i));
+                ret[i] = (short)(chunk[i % chunk.length]*(Short.MAX_VALUE)); //Rescale data to short range
+            }
+            return ret;
+        } finally {
+            lock.readLock().unlock();
         }
-        return ret;
     }
 
     public DataBuffer copy() {
-        DataBuffer db = new DataBuffer(this.name, this.size, this.experimentTimeReference);
-        db.append(this.getArray(), this.getFilledSize());
-        db.isStatic = this.isStatic;
-        return db;
+        lock.readLock().lock();
+        try {
+            DataBuffer db = new DataBuffer(this.name, this.size, this.experimentTimeReference);
+            //The copy is discarded without being closed, so it must not create a storage file
+            db.buffer = new DoubleRingBuffer(this.size, false);
+            db.buffer.add(buffer);
+            db.nextSequence = this.nextSequence;
+            db.skippedSequences = this.skippedSequences;
+            db.firstSequence = this.firstSequence;
+            db.value = this.value;
+            db.isStatic = this.isStatic;
+            return db;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public double getMin() {
-        if (!Double.isNaN(min)) {
-            return min;
-        }
+        lock.writeLock().lock();
+        try {
+            if (!Double.isNaN(min)) {
+                return min;
+            }
 
-        if (buffer.size() == 0)
-            return Double.NaN;
+            if (buffer.size() == 0)
+                return Double.NaN;
+
+            //Smallest finite value. NaN and infinite values are ignored.
+            int n = buffer.size();
+            double[] chunk = new double[Math.min(n, chunkSize)];
+            double result = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (i % chunk.length == 0)
+                    buffer.copyTo(i, chunk, 0, Math.min(chunk.length, n - i));
+                double v = chunk[i % chunk.length];
+                if (v < result && !Double.isInfinite(v))
+                    result = v;
+            }
 
-        min = Collections.min(buffer, new minComparator());
+            if (Double.isInfinite(result))
+                result = Double.NaN;
+            min = result;
 
-        if (Double.isInfinite(min))
-            min = Double.NaN;
-
-        return min;
+            return min;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     public double getMax() {
-        if (!Double.isNaN(max)) {
-            return max;
-        }
-
-        if (buffer.size() == 0)
-            return Double.NaN;
-
-        max = Collections.max(buffer, new maxComparator());
-
-        if (Double.isInfinite(max))
-            max = Double.NaN;
+        lock.writeLock().lock();
+        try {
+            if (!Double.isNaN(max)) {
+                return max;
+            }
 
-        return max;
-    }
+            if (buffer.size() == 0)
+                return Double.NaN;
+
+            //Largest finite value. NaN and infinite values are ignored.
+            int n = buffer.size();
+            double[] chunk = new double[Math.min(n, chunkSize)];
+            double result = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < n; i++) {
+                if (i % chunk.length == 0)
+                    buffer.copyTo(i, chunk, 0, Math.min(chunk.length, n - i));
+                double v = chunk[i % chunk.length];
+                if (v > result && !Double.isInfinite(v))
+                    result = v;
+            }
 
-    class minComparator implements Comparator<Double> {
-        public int compare(Double a, Double b) {
-            if (Double.isNaN(a) || Double.isInfinite(a))
-                return 1;
-            if (Double.isNaN(b) || Double.isInfinite(b))
-                return -1;
-            return Double.compare(a, b);
-        }
-    }
+            if (Double.isInfinite(result))
+                result = Double.NaN;
+            max = result;
 
-    class maxComparator implements Comparator<Double> {
-        public int compare(Double a, Double b) {
-            if (Double.isNaN(a) || Double.isInfinite(a))
-                return -1;
-            if (Double.isNaN(b) || Double.isInfinite(b))
-                return 1;
-            return Double.compare(a, b);
+            return max;
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 }
@@ -14,30 +14,40 @@ import android.util.Log;
 import androidx.core.app.ShareCompat;
 import androidx.core.content.FileProvider;
 
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.Font;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.text.DateFormat;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+import de.rwth_aachen.phyphox.Helper.XlsxWriter;
+
 //The DataExport class provides export functionality for a phyphoxExperiment.
 //it provides multiple export formats and the dialogs to control them
 public class DataExport implements Serializable {
@@ -73,13 +83,25 @@ public class DataExport implements Serializable {
         //The set consists of an arbitrary number of sourceMappings. So each entry in the dataSet has a name and a dataBuffer-source
         Vector<SourceMapping> sources = new Vector<>();
 
-        //We will also hold an array with all the data. The idea is to let all dataSets collect their
-        // data as fast as possible (like a snapshot) and then take care of pushing the data to an
-        // exporter. So after instantiating an ExportSet (with a name), addSource is called for
-        // each dataBuffer that should be added to the collection. Then getData is called so the
-        // content of these buffers is collected and finally the dataSet is given to an instance
-        // of ExportFormat (see below).
-        Double[][] data;
+        //We also hold a snapshot of the data. After instantiating an ExportSet (with a name),
+        // addSource is called for each dataBuffer that should be added to the collection. Then
+        // getData is called to take the snapshot and finally the dataSet is given to an instance
+        // of ExportFormat (see below), which reads the data in chunks with read().
+        //Copying all the data at once would need memory proportional to the size of the
+        // recording, so for buffers that only grow (like the buffers of sensors) the snapshot
+        // only consists of the range of sequence numbers (see DataBuffer) that the buffer holds at
+        // that moment. These values are read from the buffer itself while the export is written
+        // (without the dataLock, see exportSnapshot()). Appending new values does not change the
+        // snapshot. Buffers that are cleared or rewritten by the analysis (its outputs and the
+        // inputs it clears after reading) and buffers with a size limit (which drop their oldest
+        // values with every new one) are copied instead.
+        // If values of the snapshot are removed anyway before they could be read (i.e. the user
+        // clears the data during the export), valuesRemoved is set and the export is repeated
+        // with a copy of all buffers.
+        DataBuffer[] buffers;
+        long[] firstSequence; //Sequence number of the first value of each column
+        int[] count; //Number of values in each column
+        boolean valuesRemoved = false; //Set if values of the snapshot have been removed before they could be read
 
         //constructor with name for this set
         ExportSet(String name) {
@@ -91,18 +113,90 @@ public class DataExport implements Serializable {
             this.sources.add(new SourceMapping(name, source));
         }
 
-        //Retrieve all data from the dataBuffers
-        public void getData() {
-            data = new Double[sources.size()][];
-            for (int i = 0; i < sources.size(); i++) {
-                DataBuffer buffer = experiment.getBuffer(sources.get(i).source); //Get the buffer for this source
-                data[i] = buffer.getArray(); //Get all data as a double array
+        //Take a snapshot of the dataBuffers. The buffers in copy (or all of them if copy is
+        //null) are copied, the others are referenced by their range of sequence numbers.
+        public void getData(Set<DataBuffer> copy) {
+            buffers = new DataBuffer[sources.size()];
+            firstSequence = new long[sources.size()];
+            count = new int[sources.size()];
+            valuesRemoved = false;
+            for (int i = 0; i < sources.size(); i++)
+                buffers[i] = experiment.getBuffer(sources.get(i).source); //Get the buffer for this source
+
+            //Lock all buffers, so the columns are consistent even if sensors are still running
+            BufferLocks locks = new BufferLocks(Arrays.asList(buffers), null);
+            locks.lock();
+            try {
+                for (int i = 0; i < sources.size(); i++) {
+                    if (buffers[i] == null)
+                        continue;
+                    if (copy == null || buffers[i].size > 0 || copy.contains(buffers[i]))
+                        buffers[i] = buffers[i].copy();
+                    firstSequence[i] = buffers[i].getFirstSequence();
+                    count[i] = buffers[i].getFilledSize();
+                }
+            } finally {
+                locks.unlock();
+            }
+        }
+
+        //The number of columns
+        public int getColumnCount() {
+            return sources.size();
+        }
+
+        //The number of rows is determined by the first column
+        public int getRowCount() {
+            return count.length > 0 ? count[0] : 0;
+        }
+
+        //Read the rows from start to start+chunk[column].length-1 (or to the last row) of the
+        //snapshot into chunk[column][row-start]. The number of values available in each column
+        //(columns may be shorter than the first one) is stored in available[column] and the number
+        //of rows is returned.
+        public int read(int start, double[][] chunk, int[] available) {
+            int rows = Math.max(0, Math.min(chunk[0].length, getRowCount() - start));
+            BufferLocks locks = new BufferLocks(Arrays.asList(buffers), null);
+            locks.lock();
+            try {
+                for (int i = 0; i < buffers.length; i++) {
+                    int n = Math.max(0, Math.min(rows, count[i] - start));
+                    if (n > 0)
+                        n = buffers[i].getValues(firstSequence[i] + start, chunk[i], 0, n);
+                    if (n < 0) {
+                        valuesRemoved = true;
+                        n = 0;
+                    }
+                    available[i] = n;
+                }
+            } finally {
+                locks.unlock();
+            }
+            return rows;
+        }
+
+        //The number of values in a column (which may differ from the number of rows)
+        public int getValueCount(int column) {
+            return count[column];
+        }
+
+        //Read n values of a single column of the snapshot from start into target. Returns the
+        //number of values actually available (see read()).
+        public int readColumn(int column, int start, double[] target, int n) {
+            n = Math.max(0, Math.min(n, count[column] - start));
+            if (n > 0)
+                n = buffers[column].getValues(firstSequence[column] + start, target, 0, n);
+            if (n < 0) {
+                valuesRemoved = true;
+                n = 0;
             }
+            return n;
         }
     }
 
     private PhyphoxExperiment experiment; //The phyphoxExperiment which uses this DataExport
     public Vector<ExportSet> exportSets = new Vector<>(); //The available export sets
+    private final Lock exportLock = new ReentrantLock(); //Held while an export reads the snapshot of the sets (see exportSnapshot())
 
     //This abstract class defines the interface for a specific export format
     protected abstract class ExportFormat implements Serializable {
@@ -118,6 +212,109 @@ public class DataExport implements Serializable {
         protected abstract String getFilename(boolean minimalistic); //Returns a default file name for the exported file
     }
 
+    //Formats the data of an ExportSet as CSV rows. The data is read from the buffers in chunks and
+    //formatted into blocks of bytes, which are handed to the thread writing the file through a
+    //short queue, so the memory needed does not depend on the size of the data. The encoder runs
+    //on its own thread (see CsvFormat.export()), while the writing thread calls writeTo().
+    private static class CsvEncoder implements Runnable {
+        static final int blockSize = 65536; //Formatted rows are collected up to this size before writing them
+        private static final int chunkSize = 4096; //Number of rows read from the buffers at once
+        private static final int queueLength = 4; //Number of blocks that may wait for the writing thread
+
+        private static class Block {
+            final byte[] data;
+            int length = 0;
+
+            Block(int size) {
+                data = new byte[size];
+            }
+        }
+        private static final Block end = new Block(0); //Marks the end of the data
+
+        final ExportSet set;
+        private final char separator;
+        private final DoubleFormatter format;
+        private final BlockingQueue<Block> filled = new ArrayBlockingQueue<>(queueLength + 1);
+        private final BlockingQueue<Block> empty = new ArrayBlockingQueue<>(queueLength + 1);
+        private volatile boolean cancelled = false;
+        private volatile Exception error = null;
+
+        CsvEncoder(ExportSet set, char separator, char decimalPoint) {
+            this.set = set;
+            this.separator = separator;
+            this.format = DoubleFormatter.scientific(9, 9, decimalPoint); //Same as the pattern "0.000000000E0"
+            //Each block has room for one more row after reaching blockSize. A value takes at most
+            //two bytes more than maxLength() ("∞" in UTF-8), "NaN" fits as well.
+            int rowSize = set.getColumnCount() * (format.maxLength() + 3) + 1;
+            for (int i = 0; i < queueLength; i++)
+                empty.add(new Block(blockSize + rowSize));
+        }
+
+        @Override
+        public void run() {
+            try {
+                int columns = set.getColumnCount();
+                int rows = set.getRowCount();
+                double[][] chunk = new double[columns][chunkSize];
+                int[] available = new int[columns];
+
+                Block block = empty.take();
+                block.length = 0;
+                for (int start = 0; start < rows && !cancelled; start += chunkSize) {
+                    int n = set.read(start, chunk, available);
+                    for (int i = 0; i < n; i++) { //For each row of data...
+                        byte[] data = block.data;
+                        int length = block.length;
+                        for (int j = 0; j < columns; j++) { //For each column within this row
+                            if (i < available[j]) //Do we have data for this cell?
+                                length = format.format(chunk[j][i], data, length); //Add it to the row
+                            else { //No data? Enter NaN in the row
+                                data[length++] = 'N';
+                                data[length++] = 'a';
+                                data[length++] = 'N';
+                            }
+                            if (j < columns - 1)
+                                data[length++] = (byte)separator;
+                        }
+                        data[length++] = '\n';
+                        block.length = length;
+                        if (length >= blockSize) {
+                            filled.put(block);
+                            block = empty.take();
+                            block.length = 0;
+                        }
+                    }
+                }
+                if (block.length > 0)
+                    filled.put(block);
+            } catch (InterruptedException e) {
+                //Cancelled, nobody is waiting for the data
+                return;
+            } catch (Exception e) {
+                error = e;
+            }
+            filled.add(end); //There is always room for this one, as there are only queueLength blocks
+        }
+
+        //Write the encoded rows to the stream as they become available. Rethrows any exception of
+        //the encoder.
+        void writeTo(OutputStream stream) throws Exception {
+            while (true) {
+                Block block = filled.take();
+                if (block == end)
+                    break;
+                stream.write(block.data, 0, block.length);
+                empty.put(block);
+            }
+            if (error != null)
+                throw error;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
     //Implements the CSV (Comma-separated values) format.
     //Despite its name you can change the separator to something mot practical (i.e. tab-separated)
     //To provite multiple datasets, the plain-text files are grouped into a single zip-file.
@@ -147,20 +344,28 @@ public class DataExport implements Serializable {
         protected File export (Vector<ExportSet> sets, File exportPath, boolean minimalistic, Context ctx) {
             File file = new File(exportPath, "/"+getFilename(minimalistic)); // Create a file with default filename in the given path
 
-            DecimalFormat format = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-            format.applyPattern("0.000000000E0");
-            DecimalFormatSymbols dfs = format.getDecimalFormatSymbols();
-            dfs.setDecimalSeparator(decimalPoint);
-            format.setDecimalFormatSymbols(dfs);
-            format.setGroupingUsed(false);
+            DoubleFormatter format = DoubleFormatter.scientific(9, 9, decimalPoint); //Same as the pattern "0.000000000E0"
 
             try { // A lot can go wrong here... Let's catch em all...
-                FileOutputStream stream = new FileOutputStream(file); //Open a basic output stream
+                OutputStream stream = new BufferedOutputStream(new FileOutputStream(file), CsvEncoder.blockSize); //Open a (buffered) output stream
                 ZipOutputStream zstream = null;
                 if (!minimalistic)
                     zstream = new ZipOutputStream(stream); //We will pack all datasets into a single zip
+
+                //The data of each set is formatted by a CsvEncoder on a thread pool, so several sets
+                //are formatted at the same time (and while the zip is compressed on this thread).
+                //The encoded blocks are written in order to one entry per set.
+                List<CsvEncoder> encoders = new ArrayList<>();
+                ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(sets.size(), Runtime.getRuntime().availableProcessors())));
                 try {
-                    for (ExportSet set : sets) { // For each dataset...
+                    for (ExportSet set : sets) {
+                        CsvEncoder encoder = new CsvEncoder(set, separator, decimalPoint);
+                        encoders.add(encoder);
+                        pool.execute(encoder);
+                    }
+
+                    for (CsvEncoder encoder : encoders) { // For each dataset...
+                        ExportSet set = encoder.set;
                         ZipEntry entry;
                         if (!minimalistic) {
                             entry = new ZipEntry(set.name + ".csv"); //Create a new file for this dataset...
@@ -169,9 +374,9 @@ public class DataExport implements Serializable {
 
                         //Contruct the table header in the first line
                         String header = "";
-                        for (int j = 0; j < set.data.length; j++) { //Each column gets a name...
+                        for (int j = 0; j < set.getColumnCount(); j++) { //Each column gets a name...
                             header += "\"" + set.sources.get(j).getSecureName() + "\"";
-                            if (j < set.data.length -1)
+                            if (j < set.getColumnCount() -1)
                                 header += separator;
                         }
                         header += "\n";
@@ -181,23 +386,7 @@ public class DataExport implements Serializable {
                             zstream.write(header.getBytes()); //Write the header to the zip-file
 
                         //Then add all the data
-                        for (int i = 0; i < set.data[0].length; i++) { //For each row of data... The first column determines the number of rows
-                            //Construct the data row
-                            StringBuilder data = new StringBuilder();
-                            for (int j = 0; j < set.data.length; j++) { //For each column within this row
-                                if (i < set.data[j].length) //Do we have data for this cell?
-                                    data.append(format.format(set.data[j][i])); //Add it to the row
-                                else
-                                    data.append("NaN"); //No data? Enter NaN in the row
-                                if (j < set.data.length - 1)
-                                    data.append(separator);
-                            }
-                            data.append("\n");
-                            if (minimalistic)
-                                stream.write(data.toString().getBytes());
-                            else
-                                zstream.write(data.toString().getBytes()); //Write to zip-file
-                        }
+                        encoder.writeTo(minimalistic ? stream : zstream);
 
                         if (!minimalistic)
                             zstream.closeEntry(); //This dataset is complete. Close its file within the zip
@@ -231,10 +420,7 @@ public class DataExport implements Serializable {
                         zstream.putNextEntry(entry);
                         zstream.write(("\"event\""+separator+"\"experiment time\""+separator+"\"system time\""+separator+"\"system time text\"\n").getBytes());
 
-                        DecimalFormat longformat = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-                        longformat.applyPattern("############0.000");
-                        longformat.setDecimalFormatSymbols(dfs);
-                        longformat.setGroupingUsed(false);
+                        DoubleFormatter longformat = DoubleFormatter.fixed(3, decimalPoint); //Same as the pattern "############0.000"
 
                         data = new StringBuilder();
                         SimpleDateFormat dateFormat;
@@ -244,8 +430,10 @@ public class DataExport implements Serializable {
                             dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'Z");
                         for (ExperimentTimeReference.TimeMapping timeMapping : experiment.experimentTimeReference.timeMappings) {
                             data.append("\"").append(timeMapping.event.name()).append("\"").append(separator);
-                            data.append(format.format(timeMapping.experimentTime)).append(separator);
-                            data.append(longformat.format(timeMapping.systemTime/1000.)).append(separator);
+                            format.format(timeMapping.experimentTime, data);
+                            data.append(separator);
+                            longformat.format(timeMapping.systemTime/1000., data);
+                            data.append(separator);
                             data.append("\"").append(dateFormat.format(timeMapping.systemTime)).append("\"").append("\n");
                         }
                         zstream.write(data.toString().getBytes()); //Write to zip-file
@@ -255,6 +443,9 @@ public class DataExport implements Serializable {
                     //This could be done better. Any error during CSV/ZIP compiling ends up here
                     Log.e("csvExport", "Unhandled exception during write.", e);
                 } finally {
+                    for (CsvEncoder encoder : encoders)
+                        encoder.cancel();
+                    pool.shutdownNow();
                     if (minimalistic)
                         stream.close();
                     else
@@ -284,7 +475,9 @@ public class DataExport implements Serializable {
         }
     }
 
-    //This class implements an Microsoft Excel export using the Apache POI library
+    //This class implements a Microsoft Excel export (.xlsx). The workbook is written as a stream
+    //  by the XlsxWriter, so the memory needed does not depend on the number of rows. Sets with
+    //  more rows than a sheet can hold are continued on additional sheets.
     protected class ExcelFormat extends ExportFormat implements Serializable {
         //Nothing to do or configure in the constructor
         ExcelFormat() {
@@ -295,140 +488,270 @@ public class DataExport implements Serializable {
             return "Excel";
         }
 
+        //Start a sheet for a dataset with its header row
+        private void startSheet(XlsxWriter xlsx, ExportSet set) throws IOException {
+            xlsx.startSheet(set.name);
+            xlsx.startRow();
+            for (int j = 0; j < set.getColumnCount(); j++)
+                xlsx.addText(set.sources.get(j).getSecureName(), true);
+            xlsx.endRow();
+        }
+
         @Override
         protected File export (Vector<ExportSet> sets, File exportPath, boolean minimalistic, Context ctx) {
             File file = new File(exportPath, "/"+getFilename(minimalistic)); //Create file with default filename
 
-            //New excel workbook
-            Workbook wb = new HSSFWorkbook();
-            //Create a style (just bold font) for the table header
-            Font font= wb.createFont();
-            font.setBold(true);
-            CellStyle cs = wb.createCellStyle();
-            cs.setFont(font);
-
+            XlsxWriter xlsx = null;
             try { // A lot can go wrong here. Catch em all...
-                for (ExportSet set : sets) { //For each dataset...
-                    Sheet sheet = wb.createSheet(set.name);//..create a new sheet within the Excel document
-
-                    //Create the header row and fill it
-                    Row row = sheet.createRow(0);
-                    for (int j = 0; j < set.data.length; j++) {
-                        Cell c = row.createCell(j);
-                        c.setCellValue(set.sources.get(j).getSecureName());
-                        c.setCellStyle(cs);
-                    }
+                xlsx = new XlsxWriter(new BufferedOutputStream(new FileOutputStream(file)));
 
-                    //Create all the data rows
-                    for (int i = 0; i < set.data[0].length; i++) { //For each row of data (number of rows determined by first entry in dataset)
-                        row = sheet.createRow(i+1);
-                        for (int j = 0; j < set.data.length; j++) { //For each column
-                            Cell c = row.createCell(j);
-                            if (i < set.data[j].length) //Is there data for this cell?
-                                c.setCellValue(set.data[j][i]); //Yepp, enter it
-                            else
-                                c.setCellValue("NaN"); //Nope, no data. Fill NaN into this cell
+                for (ExportSet set : sets) { //For each dataset...
+                    startSheet(xlsx, set); //..create a new sheet within the Excel document
+
+                    //Create all the data rows, reading the data in chunks
+                    double[][] chunk = new double[set.getColumnCount()][4096];
+                    int[] available = new int[set.getColumnCount()];
+                    for (int start = 0; start < set.getRowCount(); start += chunk[0].length) {
+                        int n = set.read(start, chunk, available);
+                        for (int i = 0; i < n; i++) { //For each row of data (number of rows determined by first entry in dataset)
+                            if (xlsx.isSheetFull())
+                                startSheet(xlsx, set); //This sheet is full, continue on the next one
+                            xlsx.startRow();
+                            for (int j = 0; j < set.getColumnCount(); j++) { //For each column
+                                if (i < available[j]) //Is there data for this cell?
+                                    xlsx.addNumber(chunk[j][i]); //Yepp, enter it
+                                else
+                                    xlsx.addText("NaN"); //Nope, no data. Fill NaN into this cell
+                            }
+                            xlsx.endRow();
                         }
                     }
                 }
 
                 if (!minimalistic) {
-                    Sheet sheet;
-                    Row row;
-                    Cell c;
-
-                    sheet = wb.createSheet("Metadata Device");//..create a new sheet within the Excel document
-                    row = sheet.createRow(0);
-                    c = row.createCell(0);
-                    c.setCellValue("proeprty");
-                    c.setCellStyle(cs);
-                    c = row.createCell(1);
-                    c.setCellValue("value");
-                    c.setCellStyle(cs);
-
-                    int i = 1;
-                    StringBuilder data = new StringBuilder();
+                    xlsx.startSheet("Metadata Device");//..create a new sheet within the Excel document
+                    xlsx.startRow();
+                    xlsx.addText("proeprty", true);
+                    xlsx.addText("value", true);
+                    xlsx.endRow();
+
                     for (Metadata.DeviceMetadata deviceMetadata : Metadata.DeviceMetadata.values()) {
                         if (deviceMetadata == Metadata.DeviceMetadata.sensorMetadata || deviceMetadata == Metadata.DeviceMetadata.uniqueID || deviceMetadata == Metadata.DeviceMetadata.camera2api || deviceMetadata == Metadata.DeviceMetadata.camera2apiFull)
                             continue;
                         String identifier = deviceMetadata.toString();
 
-                        row = sheet.createRow(i);
-                        row.createCell(0).setCellValue(identifier);
-                        row.createCell(1).setCellValue(new Metadata(identifier, ctx).get(""));
-                        i++;
+                        xlsx.startRow();
+                        xlsx.addText(identifier);
+                        xlsx.addText(new Metadata(identifier, ctx).get(""));
+                        xlsx.endRow();
                     }
                     for (SensorInput.SensorName sensor : SensorInput.SensorName.values()) {
                         for (Metadata.SensorMetadata sensorMetadata : Metadata.SensorMetadata.values()) {
                             String identifier = sensorMetadata.toString();
 
-                            row = sheet.createRow(i);
-                            row.createCell(0).setCellValue(sensor.name() + " " + identifier);
-                            row.createCell(1).setCellValue(new Metadata(sensor.name()+identifier, ctx).get(""));
-                            i++;
+                            xlsx.startRow();
+                            xlsx.addText(sensor.name() + " " + identifier);
+                            xlsx.addText(new Metadata(sensor.name()+identifier, ctx).get(""));
+                            xlsx.endRow();
                         }
                     }
 
-                    sheet = wb.createSheet("Metadata Time");//..create a new sheet within the Excel document
-                    row = sheet.createRow(0);
-                    c = row.createCell(0);
-                    c.setCellValue("event");
-                    c.setCellStyle(cs);
-                    c = row.createCell(1);
-                    c.setCellValue("experiment time");
-                    c.setCellStyle(cs);
-                    c = row.createCell(2);
-                    c.setCellValue("system time");
-                    c.setCellStyle(cs);
-                    c = row.createCell(3);
-                    c.setCellValue("system time text");
-                    c.setCellStyle(cs);
-
-                    i = 1;
-                    data = new StringBuilder();
+                    xlsx.startSheet("Metadata Time");//..create a new sheet within the Excel document
+                    xlsx.startRow();
+                    xlsx.addText("event", true);
+                    xlsx.addText("experiment time", true);
+                    xlsx.addText("system time", true);
+                    xlsx.addText("system time text", true);
+                    xlsx.endRow();
+
                     SimpleDateFormat dateFormat;
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
                         dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'XXX");
                     else
                         dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'Z");
                     for (ExperimentTimeReference.TimeMapping timeMapping : experiment.experimentTimeReference.timeMappings) {
-                        row = sheet.createRow(i);
-                        row.createCell(0).setCellValue(timeMapping.event.name());
-                        row.createCell(1).setCellValue(timeMapping.experimentTime);
-                        row.createCell(2).setCellValue(timeMapping.systemTime / 1000.);
-                        row.createCell(3).setCellValue(dateFormat.format(timeMapping.systemTime));
-                        i++;
+                        xlsx.startRow();
+                        xlsx.addText(timeMapping.event.name());
+                        xlsx.addNumber(timeMapping.experimentTime);
+                        xlsx.addNumber(timeMapping.systemTime / 1000.);
+                        xlsx.addText(dateFormat.format(timeMapping.systemTime));
+                        xlsx.endRow();
+                    }
+                }
+            } catch (Exception e) {
+                Log.e("excelExport", "Unhandled exception.", e);
+            } finally {
+                if (xlsx != null) {
+                    try { //Finish the document and close the file
+                        xlsx.close();
+                    } catch (Exception e) {
+                        Log.e("excelExport", "Unhandled exception during write.", e);
                     }
                 }
+            }
 
-                //We now have our Excel document. Let's write it to the file.
-                FileOutputStream os = null;
-                try { //Let's catch errors while writing separately
-                    os = new FileOutputStream(file);
-                    wb.write(os);
-                } catch (Exception e) {
-                    Log.e("excelExport", "Unhandled exception during write.", e);
-                } finally {
-                    if (os != null)
-                        os.close();
+            return file;
+        }
+
+        @Override
+        protected String getType (boolean minimalistic) {
+            return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+        }
+
+        @Override
+        protected String getFilename (boolean minimalistic) {
+            return filenameBase + ".xlsx";
+        }
+    }
+
+    //This class implements the NumPy format (.npz), which can be loaded in Python with numpy.load()
+    //  without parsing any text. A .npz file is a zip archive of .npy files, each holding a single
+    //  typed array. Each column of a dataset is stored as a float64 array named "set/column", so
+    //  columns keep their own length. The metadata (device info and time mappings) is stored as
+    //  JSON in "meta.json", which numpy.load() returns as raw bytes.
+    protected class NpzFormat extends ExportFormat implements Serializable {
+        private static final int chunkSize = 4096; //Number of values read from the buffers at once
+
+        //Nothing to do or configure in the constructor
+        NpzFormat() {
+        }
+
+        @Override
+        protected String getName() {
+            return "NumPy (.npz)";
+        }
+
+        //Header of a .npy file (version 1.0) holding a one-dimensional array of the given type.
+        //The header is padded with spaces, so the data starts at a multiple of 64 bytes.
+        private byte[] npyHeader(String descr, int length) {
+            String dict = "{'descr': '" + descr + "', 'fortran_order': False, 'shape': (" + length + ",), }";
+            int headerLength = dict.length() + 1; //The header ends with a line break
+            headerLength += (64 - (10 + headerLength) % 64) % 64;
+            byte[] header = new byte[10 + headerLength];
+            Arrays.fill(header, (byte)' ');
+            header[0] = (byte)0x93;
+            for (int i = 0; i < 5; i++)
+                header[1+i] = (byte)"NUMPY".charAt(i);
+            header[6] = 1; //Major version
+            header[7] = 0; //Minor version
+            header[8] = (byte)(headerLength & 0xff); //Header length as little-endian uint16
+            header[9] = (byte)(headerLength >> 8);
+            for (int i = 0; i < dict.length(); i++)
+                header[10+i] = (byte)dict.charAt(i);
+            header[header.length-1] = '\n';
+            return header;
+        }
+
+        //A name that can be used as a path in the zip file (and as a key in numpy)
+        private String entryName(String name) {
+            return name.replace('/', '_').replace('\\', '_');
+        }
+
+        @Override
+        protected File export (Vector<ExportSet> sets, File exportPath, boolean minimalistic, Context ctx) {
+            File file = new File(exportPath, "/"+getFilename(minimalistic)); //Create file with default filename
+
+            ZipOutputStream zstream = null;
+            try { // A lot can go wrong here. Catch em all...
+                zstream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file), CsvEncoder.blockSize));
+                zstream.setLevel(Deflater.BEST_SPEED); //Binary floating point data does not compress well anyway, so we rather save time
+
+                //The values are copied chunk by chunk through a little-endian view onto a byte array
+                double[] values = new double[chunkSize];
+                byte[] bytes = new byte[chunkSize * 8];
+                DoubleBuffer view = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+                Set<String> entries = new HashSet<>();
+                JSONObject setInfo = new JSONObject();
+                for (ExportSet set : sets) { //For each dataset...
+                    JSONObject columnInfo = new JSONObject();
+                    for (int j = 0; j < set.getColumnCount(); j++) { //...and each column
+                        //Column names should be unique, but we cannot have the same entry twice
+                        String name = entryName(set.name) + "/" + entryName(set.sources.get(j).name);
+                        for (int k = 2; entries.contains(name); k++)
+                            name = entryName(set.name) + "/" + entryName(set.sources.get(j).name) + " (" + k + ")";
+                        entries.add(name);
+                        columnInfo.put(set.sources.get(j).name, name);
+
+                        int count = set.getValueCount(j);
+                        zstream.putNextEntry(new ZipEntry(name + ".npy"));
+                        zstream.write(npyHeader("<f8", count));
+                        for (int start = 0; start < count; start += chunkSize) {
+                            int n = Math.min(chunkSize, count - start);
+                            int available = set.readColumn(j, start, values, n);
+                            Arrays.fill(values, available, n, Double.NaN); //Values removed during the export
+                            view.clear();
+                            view.put(values, 0, n);
+                            zstream.write(bytes, 0, n * 8);
+                        }
+                        zstream.closeEntry();
+                    }
+                    setInfo.put(set.name, columnInfo);
                 }
 
+                if (!minimalistic) {
+                    JSONObject meta = new JSONObject();
+                    meta.put("title", experiment.title);
+                    meta.put("sets", setInfo); //Maps the column names to the arrays of each set
+
+                    JSONObject device = new JSONObject();
+                    for (Metadata.DeviceMetadata deviceMetadata : Metadata.DeviceMetadata.values()) {
+                        if (deviceMetadata == Metadata.DeviceMetadata.sensorMetadata || deviceMetadata == Metadata.DeviceMetadata.uniqueID || deviceMetadata == Metadata.DeviceMetadata.camera2api || deviceMetadata == Metadata.DeviceMetadata.camera2apiFull)
+                            continue;
+                        String identifier = deviceMetadata.toString();
+                        device.put(identifier, new Metadata(identifier, ctx).get(""));
+                    }
+                    for (SensorInput.SensorName sensor : SensorInput.SensorName.values()) {
+                        for (Metadata.SensorMetadata sensorMetadata : Metadata.SensorMetadata.values()) {
+                            String identifier = sensorMetadata.toString();
+                            device.put(sensor.name() + " " + identifier, new Metadata(sensor.name()+identifier, ctx).get(""));
+                        }
+                    }
+                    meta.put("device", device);
+
+                    SimpleDateFormat dateFormat;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N)
+                        dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'XXX");
+                    else
+                        dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS 'UTC'Z");
+                    JSONArray time = new JSONArray();
+                    for (ExperimentTimeReference.TimeMapping timeMapping : experiment.experimentTimeReference.timeMappings) {
+                        JSONObject mapping = new JSONObject();
+                        mapping.put("event", timeMapping.event.name());
+                        mapping.put("experimentTime", timeMapping.experimentTime);
+                        mapping.put("systemTime", timeMapping.systemTime / 1000.);
+                        mapping.put("systemTimeText", dateFormat.format(timeMapping.systemTime));
+                        time.put(mapping);
+                    }
+                    meta.put("time", time);
+
+                    zstream.putNextEntry(new ZipEntry("meta.json"));
+                    zstream.write(meta.toString().getBytes("UTF-8"));
+                    zstream.closeEntry();
+                }
             } catch (Exception e) {
-                Log.e("excelExport", "Unhandled exception.", e);
+                Log.e("npzExport", "Unhandled exception.", e);
+            } finally {
+                if (zstream != null) {
+                    try {
+                        zstream.close();
+                    } catch (Exception e) {
+                        Log.e("npzExport", "Unhandled exception during write.", e);
+                    }
+                }
             }
 
             return file;
         }
 
         @Override
-        //This mime-typ is ugly, but seems to be the "official" one, while there are many others in use.
         protected String getType (boolean minimalistic) {
-            return "application/vnd.ms-excel";
+            return "application/zip";
         }
 
         @Override
         protected String getFilename (boolean minimalistic) {
-            return filenameBase + ".xls";
+            return filenameBase + ".npz";
         }
     }
 
@@ -439,7 +762,8 @@ public class DataExport implements Serializable {
             new CsvFormat('\t', '.', "CSV (Tabulator, decimal point)"),
             new CsvFormat(';', '.', "CSV (Semicolon, decimal point)"),
             new CsvFormat('\t', ',', "CSV (Tabulator, decimal comma)"),
-            new CsvFormat(';', ',', "CSV (Semicolon, decimal comma)")
+            new CsvFormat(';', ',', "CSV (Semicolon, decimal comma)"),
+            new NpzFormat()
     };
 
     //The constructor just has to store a reference to the experiment
@@ -454,12 +778,6 @@ public class DataExport implements Serializable {
 
     //Export the data (this will show dialogs to the user)
     public void export(Activity c, boolean minimalistic) {
-
-        //Retrieve all the data
-        for (int i = 0; i < exportSets.size(); i++) {
-            exportSets.get(i).getData();
-        }
-
         final String fileName = experiment.title.replaceAll("[^0-9a-zA-Z \\-_]", "");
         showFormatDialog(exportSets, c, minimalistic, fileName.isEmpty() ? "phyphox" : fileName);
     }
@@ -502,63 +820,24 @@ public class DataExport implements Serializable {
                         //Set a file name including the current date
                         exportFormats[selected.value].setFilenameBase(fileName + " " + (new SimpleDateFormat("yyyy-MM-dd HH-mm-ss")).format(new Date()));
 
-                        //Call the export filter to write the data to a file
-                        File exportFile = exportFormats[selected.value].export(chosenSets, c.getCacheDir(), minimalistic, c);
-
-                        //Use a FileProvider so we can send this file to other apps
-                        final Uri uri = FileProvider.getUriForFile(c, c.getPackageName() + ".exportProvider", exportFile);
-
-                        //Create a share intent
-                        final Intent intent = ShareCompat.IntentBuilder.from(c)
-                                .setType(exportFormats[selected.value].getType(minimalistic)) //mime type from the export filter
-                                .setSubject(c.getString(R.string.export_subject))
-                                .setStream(uri)
-                                .getIntent()
-                                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-
-                        List<ResolveInfo> resInfoList = c.getPackageManager().queryIntentActivities(intent, 0);
-                        for (ResolveInfo ri : resInfoList) {
-                            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                        }
-
-                        //Create intents for apps that support viewing or editing the file
-                        final Intent viewIntent = new Intent(Intent.ACTION_VIEW);
-                        viewIntent.setDataAndType(uri, exportFormats[selected.value].getType(minimalistic));
-                        viewIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-
-                        resInfoList = c.getPackageManager().queryIntentActivities(viewIntent, 0);
-                        Vector<Intent> extraIntents = new Vector<>();
-                        for (ResolveInfo ri : resInfoList) {
-                            if (ri.activityInfo.packageName.equals(BuildConfig.APPLICATION_ID
-                            ))
-                                continue;
-                            Intent appIntent = new Intent();
-                            appIntent.setComponent(new ComponentName(ri.activityInfo.packageName, ri.activityInfo.name));
-                            appIntent.setAction(Intent.ACTION_VIEW);
-                            appIntent.setDataAndType(uri, exportFormats[selected.value].getType(minimalistic));
-                            appIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                            extraIntents.add(appIntent);
-                            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                        }
-
-                        final Intent[] extraIntentsArray = extraIntents.toArray(new Intent[extraIntents.size()]);
-
-                        //Create chooser
-                        Intent chooser = Intent.createChooser(intent, c.getString(R.string.share_pick_share));
-                        chooser.putExtra(Intent.EXTRA_INITIAL_INTENTS, extraIntentsArray);
-
-                        //And finally grant permissions again for any activities created by the chooser
-                        resInfoList = c.getPackageManager().queryIntentActivities(chooser, 0);
-                        for (ResolveInfo ri : resInfoList) {
-                            if (ri.activityInfo.packageName.equals(BuildConfig.APPLICATION_ID
-                            ))
-                                continue;
-                            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                        }
-
-
-                        //Execute this intent
-                        c.startActivity(chooser);
+                        //Call the export filter to write the data to a file. Large recordings take a
+                        //while, so this is done on a background thread and the result is shared
+                        //from the UI thread afterwards.
+                        final ExportFormat format = exportFormats[selected.value];
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                final File exportFile = exportSnapshot(format, chosenSets, c.getCacheDir(), minimalistic, c);
+                                c.runOnUiThread(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (c.isFinishing()) //The user has left in the meantime
+                                            return;
+                                        share(exportFile, format, c, minimalistic);
+                                    }
+                                });
+                            }
+                        }).start();
                     }
                 })
                 .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -572,6 +851,64 @@ public class DataExport implements Serializable {
         builder.create().show();
     }
 
+    //Offer the exported file to other apps with a share intent
+    protected void share(File exportFile, ExportFormat format, Activity c, boolean minimalistic) {
+        //Use a FileProvider so we can send this file to other apps
+        final Uri uri = FileProvider.getUriForFile(c, c.getPackageName() + ".exportProvider", exportFile);
+
+        //Create a share intent
+        final Intent intent = ShareCompat.IntentBuilder.from(c)
+                .setType(format.getType(minimalistic)) //mime type from the export filter
+                .setSubject(c.getString(R.string.export_subject))
+                .setStream(uri)
+                .getIntent()
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        List<ResolveInfo> resInfoList = c.getPackageManager().queryIntentActivities(intent, 0);
+        for (ResolveInfo ri : resInfoList) {
+            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+
+        //Create intents for apps that support viewing or editing the file
+        final Intent viewIntent = new Intent(Intent.ACTION_VIEW);
+        viewIntent.setDataAndType(uri, format.getType(minimalistic));
+        viewIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+        resInfoList = c.getPackageManager().queryIntentActivities(viewIntent, 0);
+        Vector<Intent> extraIntents = new Vector<>();
+        for (ResolveInfo ri : resInfoList) {
+            if (ri.activityInfo.packageName.equals(BuildConfig.APPLICATION_ID
+            ))
+                continue;
+            Intent appIntent = new Intent();
+            appIntent.setComponent(new ComponentName(ri.activityInfo.packageName, ri.activityInfo.name));
+            appIntent.setAction(Intent.ACTION_VIEW);
+            appIntent.setDataAndType(uri, format.getType(minimalistic));
+            appIntent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_WHEN_TASK_RESET | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            extraIntents.add(appIntent);
+            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+
+        final Intent[] extraIntentsArray = extraIntents.toArray(new Intent[extraIntents.size()]);
+
+        //Create chooser
+        Intent chooser = Intent.createChooser(intent, c.getString(R.string.share_pick_share));
+        chooser.putExtra(Intent.EXTRA_INITIAL_INTENTS, extraIntentsArray);
+
+        //And finally grant permissions again for any activities created by the chooser
+        resInfoList = c.getPackageManager().queryIntentActivities(chooser, 0);
+        for (ResolveInfo ri : resInfoList) {
+            if (ri.activityInfo.packageName.equals(BuildConfig.APPLICATION_ID
+            ))
+                continue;
+            c.grantUriPermission(ri.activityInfo.packageName, uri, Intent.FLAG_GRANT_WRITE_URI_PERMISSION | Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        }
+
+
+        //Execute this intent
+        c.startActivity(chooser);
+    }
+
     //This function allows to export the data without dialogs. Hence it takes a list of selected
     //   exportSets (as an array of their indices), the selected ExportFormat and the directory to
     //   write to.
@@ -579,13 +916,43 @@ public class DataExport implements Serializable {
     //The user will select the exportSets and file format in the browser and will download the
     //   resulting file there as well.
     protected File exportDirect(ExportFormat format, File cacheDir, boolean minimalistic, final String fileName, Context ctx) {
-        for (int i = 0; i < exportSets.size(); i++) {
-            exportSets.get(i).getData();
-        }
-
         format.setFilenameBase(fileName + " " + (new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss")).format(new Date()));
 
-        return format.export(exportSets, cacheDir, minimalistic, ctx);
+        return exportSnapshot(format, exportSets, cacheDir, minimalistic, ctx);
+    }
+
+    //Take the snapshot of the sets and write them to a file. The snapshot needs the dataLock to be
+    //consistent with the analysis, but it is only held while the snapshot is taken (see
+    //ExportSet.getData()), so neither the analysis nor the UI have to wait for the file. The
+    //exportLock keeps two exports (i.e. from the app and the web interface) from replacing the
+    //snapshot of the same sets while the other one is still reading it.
+    //If values of the snapshot have been removed while the file was written, the file is written
+    //again from a copy of all buffers, so the export never contains values that are missing.
+    protected File exportSnapshot(ExportFormat format, Vector<ExportSet> sets, File cacheDir, boolean minimalistic, Context ctx) {
+        exportLock.lock();
+        try {
+            takeSnapshot(sets, experiment.getRewrittenBuffers());
+            File file = format.export(sets, cacheDir, minimalistic, ctx);
+            boolean valuesRemoved = false;
+            for (ExportSet set : sets)
+                valuesRemoved |= set.valuesRemoved;
+            if (!valuesRemoved)
+                return file;
+            takeSnapshot(sets, null);
+            return format.export(sets, cacheDir, minimalistic, ctx);
+        } finally {
+            exportLock.unlock();
+        }
+    }
+
+    private void takeSnapshot(Vector<ExportSet> sets, Set<DataBuffer> copy) {
+        experiment.dataLock.lock();
+        try {
+            for (ExportSet set : sets)
+                set.getData(copy);
+        } finally {
+            experiment.dataLock.unlock();
+        }
     }
 
 }
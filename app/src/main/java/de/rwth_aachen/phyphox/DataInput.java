@@ -72,6 +72,29 @@ public class DataInput implements Serializable {
         }
     }
 
+    //Get all values as a primitive double array. The array reuse is filled and returned if it is
+    //large enough, so the caller can avoid allocations. Use getFilledSize() to get the number of valid values.
+    public double[] getDoubleArray(double[] reuse) {
+        if (isBuffer) {
+            return buffer.getDoubleArray(reuse);
+        } else if (isEmpty) {
+            return reuse != null ? reuse : new double[0];
+        } else {
+            if (reuse == null || reuse.length < 1)
+                reuse = new double[1];
+            reuse[0] = value;
+            return reuse;
+        }
+    }
+
+    //Same as above, but only copies the values from index start. Constant values are always returned as a whole.
+    public double[] getDoubleArray(double[] reuse, int start) {
+        if (isBuffer)
+            return buffer.getDoubleArray(reuse, start);
+        else
+            return getDoubleArray(reuse);
+    }
+
     //Get all values as a short array. The data will be scaled so that (-/+)1 matches (-/+)Short.MAX_VALUE, used for audio data
     public short[] getShortArray() {
         if (isBuffer) {
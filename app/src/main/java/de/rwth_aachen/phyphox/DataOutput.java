@@ -50,6 +50,10 @@ public class DataOutput implements Serializable {
         buffer.append(value, count);
     }
 
+    public void append(double value[], int count) {
+        buffer.append(value, count);
+    }
+
     public boolean isStatic() {
         return buffer.isStatic;
     }
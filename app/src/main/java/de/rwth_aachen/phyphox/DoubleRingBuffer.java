@@ -0,0 +1,331 @@
+package de.rwth_aachen.phyphox;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//Primitive storage engine of the DataBuffer class.
+//The values are kept in a plain double array, so we do not need an object per sample. The array
+//works like a sliding window: Appending writes behind the last value and removing values from
+//the front only moves the start index. Once the end of the array is reached, the remaining values
+//are moved to the front in a single copy (or the array is enlarged if it is more than half full).
+//Appending and removing are therefore O(1) (amortized).
+//Buffers without a limit would grow on the heap for as long as a recording runs. Therefore, they
+//only keep the newest hotCapacity to hotCapacity+segmentSize values in the array (the "hot" part,
+//which is where new values are appended and which is read most often) and move older values in
+//whole segments to a temporary file (see FileDoubleStorage), the "cold" part. All read
+//methods cover both parts transparently, so the values are to be read through get(), copyTo()
+//and the iterator instead of accessing an array directly. If no storage is available (no
+//directory has been set or the file could not be created), all values stay on the heap.
+//Short-lived copies (i.e. the snapshots of analysis modules, see DataBuffer.copy()) are created
+//with spill set to false and always stay on the heap. Nobody closes those copies, so each of
+//them would otherwise leave an open storage file behind.
+
+public class DoubleRingBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int minCapacity = 16;
+    static final int hotCapacity = 65536; //Values an unlimited buffer keeps on the heap before moving older ones to the storage
+    private static final int segmentSize = FileDoubleStorage.segmentSize;
+    private static final int chunkSize = 4096; //Values read at once from the storage when boxing or iterating
+
+    private double[] data;
+    private int start = 0; //Index of the first hot value in data
+    private int count = 0; //Number of hot values in data
+    private final int limit; //Maximum number of values. Older values are removed if more values are added. 0 means unlimited.
+
+    //The cold part. Values from coldStart to coldStart+coldCount-1 in the storage precede the hot
+    //values. The storage itself is not serialized (see writeObject()).
+    private transient FileDoubleStorage cold = null;
+    private long coldStart = 0;
+    private int coldCount = 0;
+    private boolean storageFailed = false; //Set if the storage could not be used (or must not be used), so we do not try again for every value
+
+    public DoubleRingBuffer(int limit) {
+        this(limit, true);
+    }
+
+    //If spill is false, older values are never moved to a storage file
+    public DoubleRingBuffer(int limit, boolean spill) {
+        this.limit = limit > 0 ? limit : 0;
+        this.data = new double[this.limit > 0 ? Math.min(this.limit, minCapacity) : minCapacity];
+        this.storageFailed = !spill;
+    }
+
+    //The storage file cannot be serialized, so all values are written as if they were on the heap.
+    //A deserialized buffer keeps them there until it has to move values to a storage again.
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("data", toArray());
+        fields.put("start", 0);
+        fields.put("count", size());
+        fields.put("limit", limit);
+        fields.put("coldStart", 0L);
+        fields.put("coldCount", 0);
+        fields.put("storageFailed", storageFailed);
+        out.writeFields();
+    }
+
+    public int size() {
+        return coldCount + count;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    //Number of values kept in the storage file instead of the heap
+    public int coldSize() {
+        return coldCount;
+    }
+
+    public double get(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for size " + size());
+        if (index < coldCount)
+            return cold.get(coldStart + index);
+        return data[start + index - coldCount];
+    }
+
+    //Make sure that there is space for n additional values behind the last value
+    private void ensureSpace(int n) {
+        if (start + count + n <= data.length)
+            return;
+        int needed = count + n;
+        if (needed <= data.length / 2) {
+            //Plenty of space at the front. Just move the values there.
+            System.arraycopy(data, start, data, 0, count);
+        } else {
+            int capacity = Math.max(needed, 2 * data.length);
+            if (limit > 0)
+                capacity = Math.max(needed, Math.min(capacity, 2 * limit));
+            else if (!storageFailed)
+                capacity = Math.max(needed, Math.min(capacity, 2 * (hotCapacity + segmentSize)));
+            double[] newData = new double[capacity];
+            System.arraycopy(data, start, newData, 0, count);
+            data = newData;
+        }
+        start = 0;
+    }
+
+    //Make room for n (at most segmentSize) new hot values by moving the oldest hot values of an
+    //unlimited buffer to the storage
+    private void moveToStorage(int n) {
+        if (limit > 0 || storageFailed)
+            return;
+        while (count + n > hotCapacity + segmentSize) {
+            if (cold == null) {
+                cold = FileDoubleStorage.create();
+                if (cold == null) {
+                    storageFailed = true;
+                    return;
+                }
+                coldStart = 0;
+            }
+            try {
+                cold.append(data, start, segmentSize);
+            } catch (IOException e) {
+                Log.e("DoubleRingBuffer", "Could not move values to storage. Keeping them on the heap.", e);
+                storageFailed = true;
+                return;
+            }
+            start += segmentSize;
+            count -= segmentSize;
+            coldCount += segmentSize;
+        }
+    }
+
+    //Remove the first n values. Returns the number of values actually removed.
+    public int removeFirst(int n) {
+        if (n > size())
+            n = size();
+        if (n <= 0)
+            return 0;
+        int c = Math.min(n, coldCount);
+        coldStart += c;
+        coldCount -= c;
+        if (coldCount == 0)
+            closeStorage();
+        start += n - c;
+        count -= n - c;
+        if (count == 0)
+            start = 0;
+        return n;
+    }
+
+    //Append a single value. Returns the number of values that have been removed from the front to respect the limit.
+    public int add(double value) {
+        int removed = 0;
+        if (limit > 0 && count >= limit)
+            removed = removeFirst(count - limit + 1);
+        moveToStorage(1);
+        ensureSpace(1);
+        data[start + count] = value;
+        count++;
+        return removed;
+    }
+
+    //Append length values from an array. Returns the number of values that have been removed from the front to respect the limit.
+    public int add(double[] values, int offset, int length) {
+        if (length <= 0)
+            return 0;
+        int removed = 0;
+        if (limit > 0) {
+            if (length >= limit) {
+                //The new values will replace everything
+                removed = count;
+                clear();
+                offset += length - limit;
+                length = limit;
+            } else if (count + length > limit) {
+                removed = removeFirst(count + length - limit);
+            }
+        }
+        //Unlimited buffers may have to move values to the storage, which is done per segment
+        int step = limit > 0 ? length : segmentSize;
+        for (int done = 0; done < length; done += step) {
+            int n = Math.min(step, length - done);
+            moveToStorage(n);
+            ensureSpace(n);
+            System.arraycopy(values, offset + done, data, start + count, n);
+            count += n;
+        }
+        return removed;
+    }
+
+    //Same as above for boxed values, which are still used by a lot of analysis modules
+    public int add(Double[] values, int offset, int length) {
+        if (length <= 0)
+            return 0;
+        int removed = 0;
+        if (limit > 0) {
+            if (length >= limit) {
+                removed = count;
+                clear();
+                offset += length - limit;
+                length = limit;
+            } else if (count + length > limit) {
+                removed = removeFirst(count + length - limit);
+            }
+        }
+        int step = limit > 0 ? length : segmentSize;
+        for (int done = 0; done < length; done += step) {
+            int n = Math.min(step, length - done);
+            moveToStorage(n);
+            ensureSpace(n);
+            int end = start + count;
+            for (int i = 0; i < n; i++)
+                data[end + i] = values[offset + done + i];
+            count += n;
+        }
+        return removed;
+    }
+
+    //Append all values of another buffer
+    public int add(DoubleRingBuffer source) {
+        int removed = 0;
+        int n = source.size();
+        double[] chunk = new double[Math.min(n, segmentSize)];
+        for (int i = 0; i < n; i += chunk.length) {
+            int m = Math.min(chunk.length, n - i);
+            source.copyTo(i, chunk, 0, m);
+            removed += add(chunk, 0, m);
+        }
+        return removed;
+    }
+
+    private void closeStorage() {
+        if (cold != null) {
+            cold.close();
+            cold = null;
+        }
+        coldStart = 0;
+        coldCount = 0;
+    }
+
+    public void clear() {
+        start = 0;
+        count = 0;
+        closeStorage();
+        //Release large arrays, so a cleared buffer does not keep its memory
+        if (data.length > 4 * minCapacity && (limit == 0 || data.length > limit))
+            data = new double[minCapacity];
+    }
+
+    //Copy all values to dst starting at dstOffset
+    public void copyTo(double[] dst, int dstOffset) {
+        copyTo(0, dst, dstOffset, size());
+    }
+
+    //Copy length values starting at index from to dst starting at dstOffset
+    public void copyTo(int from, double[] dst, int dstOffset, int length) {
+        if (from < 0 || length < 0 || from + length > size())
+            throw new IndexOutOfBoundsException("Range " + from + "+" + length + " out of range for size " + size());
+        if (from < coldCount) {
+            int n = Math.min(length, coldCount - from);
+            cold.read(coldStart + from, dst, dstOffset, n);
+            from += n;
+            dstOffset += n;
+            length -= n;
+        }
+        if (length > 0)
+            System.arraycopy(data, start + from - coldCount, dst, dstOffset, length);
+    }
+
+    public double[] toArray() {
+        double[] ret = new double[size()];
+        copyTo(ret, 0);
+        return ret;
+    }
+
+    public Double[] toBoxedArray() {
+        int n = size();
+        Double[] ret = new Double[n];
+        double[] chunk = new double[Math.min(n, chunkSize)];
+        for (int i = 0; i < n; i += chunk.length) {
+            int m = Math.min(chunk.length, n - i);
+            copyTo(i, chunk, 0, m);
+            for (int j = 0; j < m; j++)
+                ret[i + j] = chunk[j];
+        }
+        return ret;
+    }
+
+    //Iterates over the values in chunks, so values from the storage are not read one by one
+    public Iterator<Double> iterator() {
+        return new Iterator<Double>() {
+            private int i = 0;
+            private final double[] chunk = new double[Math.min(size(), chunkSize)];
+            private int chunkStart = 0;
+            private int chunkEnd = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size();
+            }
+
+            @Override
+            public Double next() {
+                if (i >= size())
+                    throw new NoSuchElementException();
+                if (i >= coldCount)
+                    return data[start + i++ - coldCount];
+                if (i >= chunkEnd) {
+                    chunkStart = i;
+                    chunkEnd = i + Math.min(chunk.length, coldCount - i);
+                    copyTo(chunkStart, chunk, 0, chunkEnd - chunkStart);
+                }
+                return chunk[i++ - chunkStart];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -1157,7 +1157,8 @@ public class Experiment extends AppCompatActivity implements View.OnClickListene
                             try {
                                 String file = UUID.randomUUID().toString().replaceAll("-", "") + ".phyphox"; //Random file name
                                 FileOutputStream output = openFileOutput(file, Activity.MODE_PRIVATE);
-                                String result = experiment.writeStateFile(customTitleET.getText().toString(), output);
+                                //Local states keep their data in a binary file next to the state (see StateData)
+                                String result = experiment.writeStateFile(customTitleET.getText().toString(), output, new File(getFilesDir(), file + StateData.suffix));
                                 output.close();
                                 if (result != null) {
                                     Toast.makeText(getBaseContext(), "Error: " + result, Toast.LENGTH_LONG).show();
@@ -1453,6 +1454,9 @@ public class Experiment extends AppCompatActivity implements View.OnClickListene
                         //time for some analysis?
                         if (measuring) {
                             experiment.processAnalysis(true); //Do the math.
+                            RemoteServer remoteServer = remote;
+                            if (remoteServer != null)
+                                remoteServer.notifyUpdate(); //Let the remote streams send new data
                         }
                     } catch (Exception e) {
                         Log.e("updateData", "Unhandled exception.", e);
@@ -0,0 +1,592 @@
+package de.rwth_aachen.phyphox;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.Xml;
+
+import com.caverock.androidsvg.SVG;
+import com.caverock.androidsvg.SVGParseException;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.rwth_aachen.phyphox.Helper.Helper;
+
+//Index of the information needed to list the experiments.
+//The experiment list used to pull-parse every experiment file (local files and assets) and decode
+//all icons whenever it was shown. This class keeps the results of parsing (see Info) in memory and
+//in a file in the cache directory, keyed by the path of the experiment file together with its
+//modification time and size. Assets can only change with an update of the app, so they are keyed
+//by the time of the last update instead. When the list is refreshed (see update()), only new or
+//changed files are parsed again, which is done in parallel and has to be done off the UI thread.
+//The index only holds what has been read from the files. Everything that depends on the device
+//(sensor availability, resources) is evaluated by ExperimentList when the list is shown, as it
+//used to be.
+//The index depends on the locale (translations), so it is discarded if the locale changes.
+
+public class ExperimentIndex {
+    private static final int version = 1; //Increase if the file format or the content of Info changes
+    private static final String fileName = "experiment_index";
+
+    //Requirements of an experiment, which are checked when the experiment is listed
+    public static class Requirement {
+        public static final int SENSOR = 0;
+        public static final int LOCATION = 1;
+        public static final int DEPTH = 2;
+        public static final int BLUETOOTH = 3;
+
+        public final int kind;
+        public final String type; //Sensor type or Bluetooth device name
+        public final boolean ignoreUnavailable; //Sensor only
+        public final UUID uuid; //Bluetooth only
+
+        Requirement(int kind, String type, boolean ignoreUnavailable, UUID uuid) {
+            this.kind = kind;
+            this.type = type;
+            this.ignoreUnavailable = ignoreUnavailable;
+            this.uuid = uuid;
+        }
+    }
+
+    //Everything we need to list an experiment
+    public static class Info {
+        final String path; //Key within the index
+        final long modified; //Modification time (or time of the last update for assets)
+        final long size; //File size (-1 for assets)
+
+        public String error = null; //If set, the experiment is invalid and this is the message to show
+        public String title = ""; //Experiment title
+        public String stateTitle = ""; //A title given by the user for a saved experiment state
+        public String category = ""; //Experiment category
+        public String color = null; //Icon base color as given in the file, null if not set
+        public String iconFormat = null; //"base64", "svg" or null for a text icon
+        public String icon = ""; //Raw icon data as defined in the experiment file
+        public String description = ""; //First line of the experiment's descriptions as a short info
+        public boolean isLink = false;
+        public String link = null;
+        public final List<Requirement> requirements = new ArrayList<>(); //In order of appearance
+
+        //The decoded icon. This is not stored in the file, but decoded in the background after
+        //loading the index, so it is ready when the list is shown.
+        public Bitmap bitmap = null;
+        public SVG svg = null;
+        private boolean decoded = false;
+
+        private boolean parsed = false; //False for files that have to be parsed (again)
+
+        Info(String path, long modified, long size) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+        }
+
+        void decodeIcon() {
+            if (decoded)
+                return;
+            if ("base64".equals(iconFormat)) {
+                try {
+                    bitmap = Helper.decodeBase64(icon);
+                } catch (IllegalArgumentException e) {
+                    Log.e("loadExperimentInfo", "Invalid icon: " + e.getMessage());
+                }
+            } else if ("svg".equals(iconFormat)) {
+                try {
+                    svg = SVG.getFromString(icon);
+                } catch (SVGParseException e) {
+                    Log.e("loadExperimentInfo", "Invalid icon: " + e.getMessage());
+                }
+            }
+            decoded = true;
+        }
+    }
+
+    //The experiments found by an update. Lists are in the order in which the files are listed.
+    public static class Listing {
+        public final List<Info> local = new ArrayList<>(); //Files in the internal storage, keyed by their file name
+        public final List<Info> assets = new ArrayList<>(); //Files in assets/experiments
+        public final List<Info> bluetooth = new ArrayList<>(); //Hidden Bluetooth experiments in assets/experiments/bluetooth
+
+        //Name of the experiment file as used by ExperimentList
+        public static String name(Info info) {
+            return info.path.substring(info.path.lastIndexOf('/') + 1);
+        }
+    }
+
+    private static ExperimentIndex instance = null;
+
+    private final File file;
+    private final Map<String, Info> entries = new HashMap<>();
+    private String locale = null;
+    private boolean loaded = false;
+    private volatile Listing listing = null; //The result of the last update
+
+    private ExperimentIndex(File file) {
+        this.file = file;
+    }
+
+    public static synchronized ExperimentIndex getInstance(Context context) {
+        if (instance == null)
+            instance = new ExperimentIndex(new File(context.getApplicationContext().getCacheDir(), fileName));
+        return instance;
+    }
+
+    //The result of the last update. This can be shown right away (without any IO) while an
+    //update is running. Null if there has not been an update yet.
+    public Listing getListing() {
+        return listing;
+    }
+
+    //Bring the index up to date with the experiment files and return the listing. If nothing has
+    //changed, the same listing as before is returned. This reads files and must not be called on
+    //the UI thread.
+    public synchronized Listing update(Context context) {
+        Resources res = context.getResources();
+        String currentLocale = res.getConfiguration().locale.toString();
+        if (!loaded) {
+            load(currentLocale);
+            loaded = true;
+        }
+        boolean changed = false;
+        if (!currentLocale.equals(locale)) {
+            entries.clear();
+            locale = currentLocale;
+            changed = true;
+        }
+
+        long appUpdated = 0;
+        try {
+            appUpdated = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (Exception e) {
+            Log.e("ExperimentIndex", "Could not get the time of the last update. Assets will be parsed again.", e);
+        }
+
+        //Collect the current files with their modification times and sizes
+        List<Info> current = new ArrayList<>();
+        Listing newListing = new Listing();
+        File[] files = context.getFilesDir().listFiles((dir, filename) -> filename.endsWith(".phyphox"));
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory())
+                    continue;
+                Info info = new Info("files/" + f.getName(), f.lastModified(), f.length());
+                current.add(info);
+                newListing.local.add(info);
+            }
+        } else
+            Log.e("ExperimentIndex", "Could not list internal experiments.");
+        AssetManager assetManager = context.getAssets();
+        try {
+            for (String name : assetManager.list("experiments")) {
+                if (!name.endsWith(".phyphox"))
+                    continue;
+                Info info = new Info("experiments/" + name, appUpdated, -1);
+                current.add(info);
+                newListing.assets.add(info);
+            }
+            for (String name : assetManager.list("experiments/bluetooth")) {
+                Info info = new Info("experiments/bluetooth/" + name, appUpdated, -1);
+                current.add(info);
+                newListing.bluetooth.add(info);
+            }
+        } catch (IOException e) {
+            Log.e("ExperimentIndex", "Could not list experiments from assets.", e);
+        }
+
+        //Reuse what has not changed, parse everything else and decode missing icons
+        List<Info> pending = new ArrayList<>();
+        Map<String, Info> newEntries = new HashMap<>();
+        for (int i = 0; i < current.size(); i++) {
+            Info info = current.get(i);
+            Info known = entries.get(info.path);
+            if (known != null && known.modified == info.modified && known.size == info.size && info.modified != 0) {
+                current.set(i, known);
+            } else {
+                changed = true;
+            }
+            if (current.get(i) != known || !known.decoded)
+                pending.add(current.get(i));
+            newEntries.put(info.path, current.get(i));
+        }
+        if (newEntries.size() != entries.size())
+            changed = true; //Some files have been removed
+
+        if (!pending.isEmpty()) {
+            int threads = Math.min(pending.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (final Info info : pending) {
+                    futures.add(executor.submit(() -> {
+                        if (!info.parsed)
+                            parse(info, context);
+                        info.decodeIcon();
+                    }));
+                }
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (Exception e) {
+                Log.e("ExperimentIndex", "Could not update the index.", e);
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        entries.clear();
+        entries.putAll(newEntries);
+
+        if (!changed && listing != null)
+            return listing;
+
+        //Replace the infos in the listing with those actually used
+        replace(newListing.local, newEntries);
+        replace(newListing.assets, newEntries);
+        replace(newListing.bluetooth, newEntries);
+        listing = newListing;
+        if (changed)
+            save();
+        return listing;
+    }
+
+    private static void replace(List<Info> list, Map<String, Info> entries) {
+        for (int i = 0; i < list.size(); i++)
+            list.set(i, entries.get(list.get(i).path));
+    }
+
+    private static void parse(Info info, Context context) {
+        InputStream input = null;
+        try {
+            if (info.path.startsWith("files/"))
+                input = new FileInputStream(new File(context.getFilesDir(), Listing.name(info)));
+            else
+                input = context.getAssets().open(info.path);
+            parse(new BufferedInputStream(input), Listing.name(info), context.getResources(), info);
+        } catch (IOException e) {
+            info.error = "Error loading " + Listing.name(info) + " (IOException)";
+        } finally {
+            info.parsed = true;
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    //Minimalistic parser. This only retrieves the data necessary to list the experiment and
+    //stores it in info. Problems are reported through info.error.
+    public static void parse(InputStream input, String experimentXML, Resources res, Info info) {
+        XmlPullParser xpp;
+        try { //A lot of stuff can go wrong here. Let's catch any xml problem.
+            //Prepare the PullParser
+            xpp = Xml.newPullParser();
+            xpp.setInput(input, "UTF-8");
+        } catch (XmlPullParserException e) {
+            info.error = "Cannot open " + experimentXML + ".";
+            return;
+        }
+
+        try { //A lot of stuff can go wrong here. Let's catch any xml problem.
+            int eventType = xpp.getEventType(); //should be START_DOCUMENT
+            int phyphoxDepth = -1; //Depth of the first phyphox tag (We only care for title, icon, description and category directly below the phyphox tag)
+            int translationBlockDepth = -1; //Depth of the translations block
+            int translationDepth = -1; //Depth of a suitable translation, if found.
+
+            //Requirements are only listed in the input and output blocks
+            boolean inInput = false;
+            boolean inOutput = false;
+
+            int languageRating = 0; //If we find a locale, it replaces previous translations as long as it has a higher rating than the previous one.
+            while (eventType != XmlPullParser.END_DOCUMENT){ //Go through all tags until the end...
+                switch (eventType) {
+                    case XmlPullParser.START_TAG: //React to start tags
+                        switch (xpp.getName()) {
+                            case "phyphox": //The phyphox tag is the root element of the experiment we want to interpret
+                                if (phyphoxDepth < 0) { //There should not be a phyphox tag within an phyphox tag, but who cares. Just ignore it if it happens
+                                    phyphoxDepth = xpp.getDepth(); //Remember depth of phyphox tag
+                                    String globalLocale = xpp.getAttributeValue(null, "locale");
+                                    String isLinkStr = xpp.getAttributeValue(null, "isLink");
+                                    if (isLinkStr != null)
+                                        info.isLink = isLinkStr.toUpperCase().equals("TRUE");
+                                    int thisLaguageRating = Helper.getLanguageRating(res, globalLocale);
+                                    if (thisLaguageRating > languageRating)
+                                        languageRating = thisLaguageRating;
+                                }
+                                break;
+                            case "translations": //The translations block may contain a localized title and description
+                                if (xpp.getDepth() != phyphoxDepth+1) //Translations block has to be immediately below phyphox tag
+                                    break;
+                                if (translationBlockDepth < 0) {
+                                    translationBlockDepth = xpp.getDepth(); //Remember depth of the block
+                                }
+                                break;
+                            case "translation": //The translation block may contain our localized version
+                                if (xpp.getDepth() != translationBlockDepth+1) //The translation has to be immediately below he translations block
+                                    break;
+                                String thisLocale = xpp.getAttributeValue(null, "locale");
+                                int thisLaguageRating = Helper.getLanguageRating(res, thisLocale);
+                                if (translationDepth < 0 && thisLaguageRating > languageRating) {
+                                    languageRating = thisLaguageRating;
+                                    translationDepth = xpp.getDepth(); //Remember depth of the translation block
+                                }
+                                break;
+                            case "title": //This should give us the experiment title
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.title = xpp.nextText().trim();
+                                break;
+                            case "state-title":
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.stateTitle = xpp.nextText().trim();
+                                break;
+                            case "icon": //This should give us the experiment icon (might be an acronym or a base64-encoded image)
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) { //May be in phyphox root or from a valid translation
+                                    String format = xpp.getAttributeValue(null, "format");
+                                    if (format != null && (format.equals("base64") || format.equals("svg"))) { //Check the icon type
+                                        //base64 encoded image or SVG. This is decoded later (see decodeIcon())
+                                        info.iconFormat = format;
+                                        info.icon = xpp.nextText().trim();
+                                    } else {
+                                        //Just a string. We allow a maximum of three characters.
+                                        info.iconFormat = null;
+                                        info.icon = xpp.nextText().trim();
+                                        if (info.icon.length() > 3)
+                                            info.icon = info.icon.substring(0,3);
+                                    }
+                                }
+                                break;
+                            case "description": //This should give us the experiment description, but we only need the first line
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.description = xpp.nextText().trim().split("\n", 2)[0]; //Remove any whitespaces and take the first line until the first line break
+                                break;
+                            case "category": //This should give us the experiment category
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.category = xpp.nextText().trim();
+                                break;
+                            case "link": //This should give us a link if the experiment is only a dummy entry with a link
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.link = xpp.nextText().trim();
+                                break;
+                            case "color": //This is the base color for design decisions (icon background color and category color)
+                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
+                                    info.color = xpp.nextText().trim();
+                                break;
+                            case "input": //We just have to check if there are any sensors, which are not supported on this device
+                                if (xpp.getDepth() == phyphoxDepth+1)
+                                    inInput = true;
+                                break;
+                            case "output":
+                                if (xpp.getDepth() == phyphoxDepth+1)
+                                    inOutput = true;
+                                break;
+                            case "sensor":
+                                if (!inInput)
+                                    break;
+                                String ignoreUnavailableStr = xpp.getAttributeValue(null, "ignoreUnavailable");
+                                boolean ignoreUnavailable = (ignoreUnavailableStr != null && Boolean.valueOf(ignoreUnavailableStr));
+                                info.requirements.add(new Requirement(Requirement.SENSOR, xpp.getAttributeValue(null, "type"), ignoreUnavailable, null));
+                                break;
+                            case "location":
+                                if (inInput)
+                                    info.requirements.add(new Requirement(Requirement.LOCATION, null, false, null));
+                                break;
+                            case "depth":
+                                if (inInput)
+                                    info.requirements.add(new Requirement(Requirement.DEPTH, null, false, null));
+                                break;
+                            case "bluetooth":
+                                if (!inInput && !inOutput)
+                                    break;
+                                UUID uuid = null;
+                                try {
+                                    uuid = UUID.fromString(xpp.getAttributeValue(null, "uuid"));
+                                } catch (Exception ignored) {
+
+                                }
+                                info.requirements.add(new Requirement(Requirement.BLUETOOTH, xpp.getAttributeValue(null, "name"), false, uuid));
+                                break;
+                        }
+                        break;
+                    case XmlPullParser.END_TAG: //React to end tags
+                        switch (xpp.getName()) {
+                            case "phyphox": //We are leaving the phyphox tag
+                                if (xpp.getDepth() == phyphoxDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
+                                    phyphoxDepth = -1;
+                                }
+                                break;
+                            case "translations": //We are leaving the phyphox tag
+                                if (xpp.getDepth() == translationBlockDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
+                                    translationBlockDepth = -1;
+                                }
+                                break;
+                            case "translation": //We are leaving the phyphox tag
+                                if (xpp.getDepth() == translationDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
+                                    translationDepth = -1;
+                                }
+                                break;
+                            case "input":
+                                if (xpp.getDepth() == phyphoxDepth+1)
+                                    inInput = false;
+                                break;
+                            case "output":
+                                if (xpp.getDepth() == phyphoxDepth+1)
+                                    inOutput = false;
+                                break;
+                        }
+                        break;
+
+                }
+                eventType = xpp.next(); //Next event in the file...
+            }
+
+            //Sanity check: We need a title!
+            if (info.title.equals("")) {
+                info.error = "Invalid: \" + experimentXML + \" misses a title.";
+                return;
+            }
+
+            //Sanity check: We need a category!
+            if (info.category.equals("")) {
+                info.error = "Invalid: \" + experimentXML + \" misses a category.";
+            }
+
+        } catch (XmlPullParserException e) { //XML Pull Parser is unhappy... Abort and notify user.
+            info.error = "Error loading " + experimentXML + " (XML Exception)";
+        } catch (IOException e) { //IOException... Abort and notify user.
+            info.error = "Error loading " + experimentXML + " (IOException)";
+        }
+    }
+
+    //Read the index file. Any problem just leaves us with an empty index.
+    private void load(String currentLocale) {
+        if (!file.exists())
+            return;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != version)
+                return;
+            String fileLocale = readString(in);
+            if (!currentLocale.equals(fileLocale))
+                return;
+            int n = in.readInt();
+            Map<String, Info> read = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                Info info = new Info(readString(in), in.readLong(), in.readLong());
+                info.parsed = true;
+                info.error = readString(in);
+                info.title = readString(in);
+                info.stateTitle = readString(in);
+                info.category = readString(in);
+                info.color = readString(in);
+                info.iconFormat = readString(in);
+                info.icon = readString(in);
+                info.description = readString(in);
+                info.isLink = in.readBoolean();
+                info.link = readString(in);
+                int m = in.readInt();
+                for (int j = 0; j < m; j++) {
+                    int kind = in.readInt();
+                    String type = readString(in);
+                    boolean ignoreUnavailable = in.readBoolean();
+                    String uuid = readString(in);
+                    info.requirements.add(new Requirement(kind, type, ignoreUnavailable, uuid == null ? null : UUID.fromString(uuid)));
+                }
+                read.put(info.path, info);
+            }
+            entries.putAll(read);
+            locale = fileLocale;
+        } catch (Exception e) {
+            Log.w("ExperimentIndex", "Could not read the index. Rebuilding it.", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    //Write the index file. The file is replaced at once, so it cannot be left incomplete.
+    private void save() {
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(version);
+                writeString(out, locale);
+                out.writeInt(entries.size());
+                for (Info info : entries.values()) {
+                    writeString(out, info.path);
+                    out.writeLong(info.modified);
+                    out.writeLong(info.size);
+                    writeString(out, info.error);
+                    writeString(out, info.title);
+                    writeString(out, info.stateTitle);
+                    writeString(out, info.category);
+                    writeString(out, info.color);
+                    writeString(out, info.iconFormat);
+                    writeString(out, info.icon);
+                    writeString(out, info.description);
+                    out.writeBoolean(info.isLink);
+                    writeString(out, info.link);
+                    out.writeInt(info.requirements.size());
+                    for (Requirement r : info.requirements) {
+                        out.writeInt(r.kind);
+                        writeString(out, r.type);
+                        out.writeBoolean(r.ignoreUnavailable);
+                        writeString(out, r.uuid == null ? null : r.uuid.toString());
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file))
+                Log.e("ExperimentIndex", "Could not replace the index.");
+        } catch (IOException e) {
+            Log.e("ExperimentIndex", "Could not write the index.", e);
+            tmp.delete();
+        }
+    }
+
+    //Strings may be null and icons may be longer than writeUTF() allows
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        if (n < 0)
+            return null;
+        byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
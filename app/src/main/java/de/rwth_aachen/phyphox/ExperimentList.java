@@ -25,7 +25,6 @@ import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.AssetManager;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
@@ -44,7 +43,6 @@ import android.text.style.StyleSpan;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.util.TypedValue;
-import android.util.Xml;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -78,15 +76,10 @@ import androidx.core.content.ContextCompat;
 import androidx.core.content.FileProvider;
 import androidx.preference.PreferenceManager;
 
-import com.caverock.androidsvg.SVG;
-import com.caverock.androidsvg.SVGParseException;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.zxing.integration.android.IntentIntegrator;
 import com.google.zxing.integration.android.IntentResult;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -159,6 +152,7 @@ public class ExperimentList extends AppCompatActivity {
     private Vector<ExperimentsInCategory> categories = new Vector<>(); //The list of categories. The ExperimentsInCategory class (see below) holds a ExperimentsInCategory and all its experiment items
     private HashMap<String, Vector<String>> bluetoothDeviceNameList = new HashMap<>(); //This will collect names of Bluetooth devices and maps them to (hidden) experiments supporting these devices
     private HashMap<UUID, Vector<String>> bluetoothDeviceUUIDList = new HashMap<>(); //This will collect uuids of Bluetooth devices (services or characteristics) and maps them to (hidden) experiments supporting these devices
+    private ExperimentIndex.Listing shownListing = null; //The listing from the index, which is currently shown
 
     PopupWindow popupWindow = null;
 
@@ -441,6 +435,18 @@ public class ExperimentList extends AppCompatActivity {
                         switch (menuItem.getItemId()) {
                             case R.id.experiment_item_share: {
                                 File file = new File(getFilesDir(), "/"+xmlFiles.get(position));
+                                if (new File(file.getPath() + StateData.suffix).exists()) {
+                                    //The data of this state is stored in a separate file, so we share a copy with the data in the XML
+                                    File inlined = new File(getCacheDir(), "/"+xmlFiles.get(position));
+                                    try {
+                                        StateData.inline(file, inlined);
+                                    } catch (Exception e) {
+                                        Toast.makeText(getBaseContext(), "Error wirting state file: " + e.getMessage(), Toast.LENGTH_LONG).show();
+                                        Log.e("shareState", "Unhandled exception.", e);
+                                        return true;
+                                    }
+                                    file = inlined;
+                                }
 
                                 final Uri uri = FileProvider.getUriForFile(getBaseContext(), getPackageName() + ".exportProvider", file);
                                 final Intent intent = ShareCompat.IntentBuilder.from(parentActivity)
@@ -479,6 +485,7 @@ public class ExperimentList extends AppCompatActivity {
                                             public void onClick(DialogInterface dialog, int id) {
                                                 //Confirmed. Delete the item and reload the list
                                                 deleteFile(xmlFiles.get(position));
+                                                deleteFile(xmlFiles.get(position) + StateData.suffix); //Binary data of a state, if any
                                                 loadExperimentList();
                                             }
                                         })
@@ -744,282 +751,116 @@ public class ExperimentList extends AppCompatActivity {
     }
 
     //Minimalistic loading function. This only retrieves the data necessary to list the experiment.
+    //The experiment list itself uses the index (see ExperimentIndex) instead of parsing each file.
     private void loadExperimentInfo(InputStream input, String experimentXML, String isTemp, boolean isAsset, Vector<ExperimentsInCategory> categories, HashMap<String, Vector<String>> bluetoothDeviceNameList, HashMap<UUID, Vector<String>> bluetoothDeviceUUIDList) {
-        XmlPullParser xpp;
-        try { //A lot of stuff can go wrong here. Let's catch any xml problem.
-            //Prepare the PullParser
-            xpp = Xml.newPullParser();
-            xpp.setInput(input, "UTF-8");
-        } catch (XmlPullParserException e) {
-            Toast.makeText(this, "Cannot open " + experimentXML + ".", Toast.LENGTH_LONG).show();
+        ExperimentIndex.Info info = new ExperimentIndex.Info(experimentXML, 0, -1);
+        ExperimentIndex.parse(input, experimentXML, res, info);
+        info.decodeIcon();
+        addExperimentInfo(info, experimentXML, isTemp, isAsset, categories, bluetoothDeviceNameList, bluetoothDeviceUUIDList);
+    }
+
+    //Add an experiment from the information that has been read from its file. This is where the
+    //requirements of the experiment are checked against this device.
+    private void addExperimentInfo(ExperimentIndex.Info info, String experimentXML, String isTemp, boolean isAsset, Vector<ExperimentsInCategory> categories, HashMap<String, Vector<String>> bluetoothDeviceNameList, HashMap<UUID, Vector<String>> bluetoothDeviceUUIDList) {
+        if (info.error != null) {
+            addInvalidExperiment(experimentXML, info.error, isTemp, isAsset, categories);
             return;
         }
 
-        //Strings to hold results of the few items we care about
-        String title = ""; //Experiment title
-        String stateTitle = ""; //A title given by the user for a saved experiment state
-        String category = ""; //Experiment category
+        String title = info.title;
+        String category = info.category;
+        String description = info.description;
         RGB color = new RGB(getResources().getColor(R.color.phyphox_primary)); //Icon base color
-        boolean customColor = false;
-        String icon = ""; //Experiment icon (just the raw data as defined in the experiment file. Will be interpreted below)
-        String description = ""; //First line of the experiment's descriptions as a short info
-        BaseColorDrawable image = null; //This will hold the icon
-
-        try { //A lot of stuff can go wrong here. Let's catch any xml problem.
-            int eventType = xpp.getEventType(); //should be START_DOCUMENT
-            int phyphoxDepth = -1; //Depth of the first phyphox tag (We only care for title, icon, description and category directly below the phyphox tag)
-            int translationBlockDepth = -1; //Depth of the translations block
-            int translationDepth = -1; //Depth of a suitable translation, if found.
-
-            //This part is used to check sensor availability before launching the experiment
-            SensorManager sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE); //The sensor manager will probably be needed...
-            boolean inInput = false;
-            boolean inOutput = false;
-            Integer unavailableSensor = -1;
-            boolean isLink = false;
-            String link = null;
-
-            int languageRating = 0; //If we find a locale, it replaces previous translations as long as it has a higher rating than the previous one.
-            while (eventType != XmlPullParser.END_DOCUMENT){ //Go through all tags until the end...
-                switch (eventType) {
-                    case XmlPullParser.START_TAG: //React to start tags
-                        switch (xpp.getName()) {
-                            case "phyphox": //The phyphox tag is the root element of the experiment we want to interpret
-                                if (phyphoxDepth < 0) { //There should not be a phyphox tag within an phyphox tag, but who cares. Just ignore it if it happens
-                                    phyphoxDepth = xpp.getDepth(); //Remember depth of phyphox tag
-                                    String globalLocale = xpp.getAttributeValue(null, "locale");
-                                    String isLinkStr = xpp.getAttributeValue(null, "isLink");
-                                    if (isLinkStr != null)
-                                        isLink = isLinkStr.toUpperCase().equals("TRUE");
-                                    int thisLaguageRating = Helper.getLanguageRating(res, globalLocale);
-                                    if (thisLaguageRating > languageRating)
-                                        languageRating = thisLaguageRating;
-                                }
-                                break;
-                            case "translations": //The translations block may contain a localized title and description
-                                if (xpp.getDepth() != phyphoxDepth+1) //Translations block has to be immediately below phyphox tag
-                                    break;
-                                if (translationBlockDepth < 0) {
-                                    translationBlockDepth = xpp.getDepth(); //Remember depth of the block
-                                }
-                                break;
-                            case "translation": //The translation block may contain our localized version
-                                if (xpp.getDepth() != translationBlockDepth+1) //The translation has to be immediately below he translations block
-                                    break;
-                                String thisLocale = xpp.getAttributeValue(null, "locale");
-                                int thisLaguageRating = Helper.getLanguageRating(res, thisLocale);
-                                if (translationDepth < 0 && thisLaguageRating > languageRating) {
-                                    languageRating = thisLaguageRating;
-                                    translationDepth = xpp.getDepth(); //Remember depth of the translation block
-                                }
-                                break;
-                            case "title": //This should give us the experiment title
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
-                                    title = xpp.nextText().trim();
-                                break;
-                            case "state-title":
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
-                                    stateTitle = xpp.nextText().trim();
-                                break;
-                            case "icon": //This should give us the experiment icon (might be an acronym or a base64-encoded image)
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) { //May be in phyphox root or from a valid translation
-                                    if (xpp.getAttributeValue(null, "format") != null && xpp.getAttributeValue(null, "format").equals("base64")) { //Check the icon type
-                                        //base64 encoded image. Decode it
-                                        icon = xpp.nextText().trim();
-                                        try {
-                                            Bitmap bitmap = Helper.decodeBase64(icon);
-                                            // This bitmap will be used for the icon used in contribution headline
-                                            if(bitmap != null) {
-                                                image = new BitmapIcon(bitmap, this);
-                                            }
-
-                                        } catch (IllegalArgumentException e) {
-                                            Log.e("loadExperimentInfo", "Invalid icon: " + e.getMessage());
-                                        }
-                                    } else if (xpp.getAttributeValue(null, "format") != null && xpp.getAttributeValue(null, "format").equals("svg")) { //Check the icon type
-                                        //SVG image. Handle it with AndroidSVG
-                                        icon = xpp.nextText().trim();
-                                        try {
-                                            SVG svg = SVG.getFromString(icon);
-                                            image = new VectorIcon(svg, this);
-                                        } catch (SVGParseException e) {
-                                            Log.e("loadExperimentInfo", "Invalid icon: " + e.getMessage());
-                                        }
-                                    } else {
-                                        //Just a string. Create an icon from it. We allow a maximum of three characters.
-                                        icon = xpp.nextText().trim();
-                                        if (icon.length() > 3)
-                                            icon = icon.substring(0,3);
-                                        image = new TextIcon(icon, this);
-                                    }
-
-                                }
-                                break;
-                            case "description": //This should give us the experiment description, but we only need the first line
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
-                                    description = xpp.nextText().trim().split("\n", 2)[0]; //Remove any whitespaces and take the first line until the first line break
-                                break;
-                            case "category": //This should give us the experiment category
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
-                                    category = xpp.nextText().trim();
-                                break;
-                            case "link": //This should give us a link if the experiment is only a dummy entry with a link
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) //May be in phyphox root or from a valid translation
-                                    link = xpp.nextText().trim();
-                                break;
-                            case "color": //This is the base color for design decisions (icon background color and category color)
-                                if (xpp.getDepth() == phyphoxDepth+1 || xpp.getDepth() == translationDepth+1) { //May be in phyphox root or from a valid translation
-                                    customColor = true;
-                                    color = RGB.fromPhyphoxString(xpp.nextText().trim(), getResources(), new RGB(getResources().getColor(R.color.phyphox_primary)));
-                                }
-                                break;
-                            case "input": //We just have to check if there are any sensors, which are not supported on this device
-                                if (xpp.getDepth() == phyphoxDepth+1)
-                                    inInput = true;
-                                break;
-                            case "output":
-                                if (xpp.getDepth() == phyphoxDepth+1)
-                                    inOutput = true;
-                                break;
-                            case "sensor":
-                                if (!inInput || unavailableSensor >= 0)
-                                    break;
-                                String type = xpp.getAttributeValue(null, "type");
-                                String ignoreUnavailableStr = xpp.getAttributeValue(null, "ignoreUnavailable");
-                                boolean ignoreUnavailable = (ignoreUnavailableStr != null && Boolean.valueOf(ignoreUnavailableStr));
-                                SensorInput testSensor;
-                                try {
-                                    testSensor = new SensorInput(type, ignoreUnavailable,0, SensorInput.SensorRateStrategy.auto, 0, false, null, null, null);
-                                    testSensor.attachSensorManager(sensorManager);
-                                } catch (SensorInput.SensorException e) {
-                                    unavailableSensor = SensorInput.getDescriptionRes(SensorInput.resolveSensorString(type));
-                                    break;
-                                }
-                                if (!(testSensor.isAvailable() || testSensor.ignoreUnavailable)) {
-                                    unavailableSensor = SensorInput.getDescriptionRes(SensorInput.resolveSensorString(type));
-                                }
-                                break;
-                            case "location":
-                                if (!inInput || unavailableSensor >= 0)
-                                    break;
-                                if (!GpsInput.isAvailable(this)) {
-                                    unavailableSensor = R.string.location;
-                                }
-                                break;
-                            case "depth":
-                                if (!inInput || unavailableSensor >= 0)
-                                    break;
-                                if (!DepthInput.isAvailable()) {
-                                    unavailableSensor = R.string.sensorDepth;
-                                }
-                                break;
-                            case "bluetooth":
-                                if ((!inInput && !inOutput) || unavailableSensor >= 0) {
-                                    break;
-                                }
-                                String name = xpp.getAttributeValue(null, "name");
-                                String uuidStr = xpp.getAttributeValue(null, "uuid");
-                                UUID uuid = null;
-                                try {
-                                    uuid = UUID.fromString(uuidStr);
-                                } catch (Exception ignored) {
-
-                                }
-                                if (name != null && !name.isEmpty()) {
-                                    if (bluetoothDeviceNameList != null) {
-                                        if (!bluetoothDeviceNameList.containsKey(name))
-                                            bluetoothDeviceNameList.put(name, new Vector<>());
-                                        bluetoothDeviceNameList.get(name).add(experimentXML);
-                                    }
-                                }
-                                if (uuid != null) {
-                                    if (bluetoothDeviceUUIDList != null) {
-                                        if (!bluetoothDeviceUUIDList.containsKey(uuid))
-                                            bluetoothDeviceUUIDList.put(uuid, new Vector<String>());
-                                        bluetoothDeviceUUIDList.get(uuid).add(experimentXML);
-                                    }
-                                }
-                                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                                    unavailableSensor = R.string.bluetooth;
-                                } else if (!Bluetooth.isSupported(this)) {
-                                    unavailableSensor = R.string.bluetooth;
-                                }
-                                if (!customColor)
-                                    color = new RGB(getResources().getColor(R.color.phyphox_blue_100));
-                                break;
-                        }
+        boolean customColor = info.color != null;
+        if (customColor)
+            color = RGB.fromPhyphoxString(info.color, getResources(), new RGB(getResources().getColor(R.color.phyphox_primary)));
+
+        //This part is used to check sensor availability before launching the experiment
+        SensorManager sensorManager = (SensorManager)getSystemService(SENSOR_SERVICE); //The sensor manager will probably be needed...
+        Integer unavailableSensor = -1;
+        for (ExperimentIndex.Requirement requirement : info.requirements) {
+            if (unavailableSensor >= 0)
+                break;
+            switch (requirement.kind) {
+                case ExperimentIndex.Requirement.SENSOR:
+                    SensorInput testSensor;
+                    try {
+                        testSensor = new SensorInput(requirement.type, requirement.ignoreUnavailable,0, SensorInput.SensorRateStrategy.auto, 0, false, null, null, null);
+                        testSensor.attachSensorManager(sensorManager);
+                    } catch (SensorInput.SensorException e) {
+                        unavailableSensor = SensorInput.getDescriptionRes(SensorInput.resolveSensorString(requirement.type));
                         break;
-                    case XmlPullParser.END_TAG: //React to end tags
-                        switch (xpp.getName()) {
-                            case "phyphox": //We are leaving the phyphox tag
-                                if (xpp.getDepth() == phyphoxDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
-                                    phyphoxDepth = -1;
-                                }
-                                break;
-                            case "translations": //We are leaving the phyphox tag
-                                if (xpp.getDepth() == translationBlockDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
-                                    translationBlockDepth = -1;
-                                }
-                                break;
-                            case "translation": //We are leaving the phyphox tag
-                                if (xpp.getDepth() == translationDepth) { //Check if we in fact reached the surface. There might have been something else called phyphox within.
-                                    translationDepth = -1;
-                                }
-                                break;
-                            case "input":
-                                if (xpp.getDepth() == phyphoxDepth+1)
-                                    inInput = false;
-                                break;
-                            case "output":
-                                if (xpp.getDepth() == phyphoxDepth+1)
-                                    inOutput = false;
-                                break;
+                    }
+                    if (!(testSensor.isAvailable() || testSensor.ignoreUnavailable)) {
+                        unavailableSensor = SensorInput.getDescriptionRes(SensorInput.resolveSensorString(requirement.type));
+                    }
+                    break;
+                case ExperimentIndex.Requirement.LOCATION:
+                    if (!GpsInput.isAvailable(this)) {
+                        unavailableSensor = R.string.location;
+                    }
+                    break;
+                case ExperimentIndex.Requirement.DEPTH:
+                    if (!DepthInput.isAvailable()) {
+                        unavailableSensor = R.string.sensorDepth;
+                    }
+                    break;
+                case ExperimentIndex.Requirement.BLUETOOTH:
+                    String name = requirement.type;
+                    UUID uuid = requirement.uuid;
+                    if (name != null && !name.isEmpty()) {
+                        if (bluetoothDeviceNameList != null) {
+                            if (!bluetoothDeviceNameList.containsKey(name))
+                                bluetoothDeviceNameList.put(name, new Vector<>());
+                            bluetoothDeviceNameList.get(name).add(experimentXML);
                         }
-                        break;
-
-                }
-                eventType = xpp.next(); //Next event in the file...
-            }
-
-            //Sanity check: We need a title!
-            if (title.equals("")) {
-                addInvalidExperiment(experimentXML,  "Invalid: \" + experimentXML + \" misses a title.", isTemp, isAsset, categories);
-                return;
-            }
-
-            //Sanity check: We need a category!
-            if (category.equals("")) {
-                addInvalidExperiment(experimentXML,  "Invalid: \" + experimentXML + \" misses a category.", isTemp, isAsset, categories);
-                return;
-            }
-
-            if (!stateTitle.equals("")) {
-                description = title;
-                title = stateTitle;
-                category = getString(R.string.save_state_category);
-            }
-
-            //Let's check the icon
-            if (image == null) //No icon given. Create a TextIcon from the first three characters of the title
-                image = new TextIcon(title.substring(0, Math.min(title.length(), 3)), this);
-
-
-
-            //We have all the information. Add the experiment.
-            image.setBaseColor(color);
-            if (categories != null) {
-                addExperiment(title, category, color, image, isLink ? "Link: " + link : description, experimentXML, isTemp, isAsset, unavailableSensor, (isLink ? link : null), categories);
+                    }
+                    if (uuid != null) {
+                        if (bluetoothDeviceUUIDList != null) {
+                            if (!bluetoothDeviceUUIDList.containsKey(uuid))
+                                bluetoothDeviceUUIDList.put(uuid, new Vector<String>());
+                            bluetoothDeviceUUIDList.get(uuid).add(experimentXML);
+                        }
+                    }
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                        unavailableSensor = R.string.bluetooth;
+                    } else if (!Bluetooth.isSupported(this)) {
+                        unavailableSensor = R.string.bluetooth;
+                    }
+                    if (!customColor)
+                        color = new RGB(getResources().getColor(R.color.phyphox_blue_100));
+                    break;
             }
+        }
 
+        if (!info.stateTitle.equals("")) {
+            description = title;
+            title = info.stateTitle;
+            category = getString(R.string.save_state_category);
+        }
 
-        } catch (XmlPullParserException e) { //XML Pull Parser is unhappy... Abort and notify user.
-            addInvalidExperiment(experimentXML,  "Error loading " + experimentXML + " (XML Exception)", isTemp, isAsset, categories);
-        } catch (IOException e) { //IOException... Abort and notify user.
-            addInvalidExperiment(experimentXML,  "Error loading " + experimentXML + " (IOException)", isTemp, isAsset, categories);
+        //Let's check the icon (decoded by the index)
+        BaseColorDrawable image;
+        if (info.bitmap != null)
+            image = new BitmapIcon(info.bitmap, this);
+        else if (info.svg != null)
+            image = new VectorIcon(info.svg, this);
+        else if (info.iconFormat == null && !info.icon.isEmpty())
+            image = new TextIcon(info.icon, this);
+        else //No (valid) icon given. Create a TextIcon from the first three characters of the title
+            image = new TextIcon(title.substring(0, Math.min(title.length(), 3)), this);
+
+        //We have all the information. Add the experiment.
+        image.setBaseColor(color);
+        if (categories != null) {
+            addExperiment(title, category, color, image, info.isLink ? "Link: " + info.link : description, experimentXML, isTemp, isAsset, unavailableSensor, (info.isLink ? info.link : null), categories);
         }
     }
 
     //Load all experiments from assets and from local files
+    //The files are read by the index in the background (see updateExperimentIndex), so if we have
+    //already read them before, we show that list right away and only update it if something has
+    //changed.
     private void loadExperimentList() {
 
         //We want to show current availability of experiments requiring cameras
@@ -1028,6 +869,16 @@ public class ExperimentList extends AppCompatActivity {
             CameraHelper.updateCameraList(cm);
         }
 
+        ExperimentIndex.Listing listing = ExperimentIndex.getInstance(this).getListing();
+        if (listing != null)
+            showExperimentList(listing);
+        new updateExperimentIndex(this).execute();
+    }
+
+    //Show the experiments of a listing from the index
+    private void showExperimentList(ExperimentIndex.Listing listing) {
+        shownListing = listing;
+
         //Save scroll position to restore this later
         ScrollView sv = findViewById(R.id.experimentScroller);
         int scrollY = sv.getScrollY();
@@ -1039,36 +890,13 @@ public class ExperimentList extends AppCompatActivity {
         LinearLayout catList = findViewById(R.id.experimentList);
         catList.removeAllViews();
 
-        //Load experiments from local files
-        try {
-            //Get all files that end on ".phyphox"
-            File[] files = getFilesDir().listFiles((dir, filename) -> filename.endsWith(".phyphox"));
-
-            for (File file : files) {
-                if (file.isDirectory())
-                    continue;
-                //Load details for each experiment
-                InputStream input = openFileInput(file.getName());
-                loadExperimentInfo(input, file.getName(), null, false, categories, null, null);
-            }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error: Could not load internal experiment list. " + e, Toast.LENGTH_LONG).show();
-        }
+        //Experiments from local files
+        for (ExperimentIndex.Info info : listing.local)
+            addExperimentInfo(info, ExperimentIndex.Listing.name(info), null, false, categories, null, null);
 
-        //Load experiments from assets
-        try {
-            AssetManager assetManager = getAssets();
-            final String[] experimentXMLs = assetManager.list("experiments"); //All experiments are placed in the experiments folder
-            for (String experimentXML : experimentXMLs) {
-                //Load details for each experiment
-                if (!experimentXML.endsWith(".phyphox"))
-                    continue;
-                InputStream input = assetManager.open("experiments/" + experimentXML);
-                loadExperimentInfo(input, experimentXML, null,true, categories, null, null);
-            }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error: Could not load internal experiment list. " + e, Toast.LENGTH_LONG).show();
-        }
+        //Experiments from assets
+        for (ExperimentIndex.Info info : listing.assets)
+            addExperimentInfo(info, ExperimentIndex.Listing.name(info), null, true, categories, null, null);
 
         Collections.sort(categories, new categoryComparator());
 
@@ -1076,22 +904,40 @@ public class ExperimentList extends AppCompatActivity {
             cat.addToParent(catList);
         }
 
-        //Load hidden bluetooth experiments - these are not shown but will be offered if a matching Bluetooth device is found during a scan
-        try {
-            AssetManager assetManager = getAssets();
-            final String[] experimentXMLs = assetManager.list("experiments/bluetooth");
-            for (String experimentXML : experimentXMLs) {
-                //Load details for each experiment
-                InputStream input = assetManager.open("experiments/bluetooth/" + experimentXML);
-                loadExperimentInfo(input, experimentXML, null,true, null, bluetoothDeviceNameList, bluetoothDeviceUUIDList);
-            }
-        } catch (IOException e) {
-            Toast.makeText(this, "Error: Could not load internal experiment list.", Toast.LENGTH_LONG).show();
-        }
+        //Hidden bluetooth experiments - these are not shown but will be offered if a matching Bluetooth device is found during a scan
+        for (ExperimentIndex.Info info : listing.bluetooth)
+            addExperimentInfo(info, ExperimentIndex.Listing.name(info), null, true, null, bluetoothDeviceNameList, bluetoothDeviceUUIDList);
 
         sv.scrollTo(0, scrollY);
     }
 
+    //This asyncTask brings the index of the experiments up to date (reading new and changed files)
+    //and shows the list if it has changed
+    protected static class updateExperimentIndex extends AsyncTask<Void, Void, ExperimentIndex.Listing> {
+        private WeakReference<ExperimentList> parent;
+        private Context context;
+
+        updateExperimentIndex(ExperimentList parent) {
+            this.parent = new WeakReference<ExperimentList>(parent);
+            this.context = parent.getApplicationContext();
+        }
+
+        //Reading the files is done on a second thread...
+        protected ExperimentIndex.Listing doInBackground(Void... params) {
+            return ExperimentIndex.getInstance(context).update(context);
+        }
+
+        @Override
+        //Back on the UI thread...
+        protected void onPostExecute(ExperimentIndex.Listing listing) {
+            ExperimentList list = parent.get();
+            if (list == null || list.isFinishing())
+                return;
+            if (listing != list.shownListing)
+                list.showExperimentList(listing);
+        }
+    }
+
     @Override
     //If we return to this activity we want to reload the experiment list as other activities may
     //have changed it
@@ -0,0 +1,190 @@
+package de.rwth_aachen.phyphox;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+//Disk-backed storage for the older values of unlimited buffers (see DoubleRingBuffer).
+//Buffers without a size limit would otherwise grow on the heap until a long recording crashes the
+//app. Instead, DoubleRingBuffer only keeps the newest values in its array and hands older values
+//to this class in whole segments. The values are stored in a temporary file, which is accessed
+//through a fixed set of windows of windowSize values each. A window holds the values of one part
+//of the file and is moved to another part when needed, writing its values back to the file first
+//if they have been changed. The most recently used parts stay in the windows (usually the one
+//being written and the ones being read by a graph or an export).
+//The windows are allocated once per storage and reused, so neither the heap nor the address space
+//grow with the length of the recording. We do not map the file into memory: A mapping cannot be
+//moved or released explicitly in Java, so each part ever accessed would keep its mapping until
+//the garbage collector gets around to it.
+//All methods are synchronized, as several threads may read a buffer at the same time.
+
+public class FileDoubleStorage {
+    public static final int segmentSize = 65536; //Values handed over at once by DoubleRingBuffer, 512 kB
+    private static final int windowSize = 16384; //Values per window, 128 kB
+    private static final int windowCount = 4; //Windows per storage
+
+    private static File directory = null; //Directory for the temporary files. Null disables the storage.
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private long length = 0; //Number of values stored
+
+    //A window onto the part of the file with the given index (values index*windowSize to
+    //(index+1)*windowSize-1)
+    private static class Window {
+        final ByteBuffer bytes = ByteBuffer.allocateDirect(windowSize * 8).order(ByteOrder.nativeOrder());
+        final DoubleBuffer values = bytes.asDoubleBuffer();
+        long index = -1;
+        boolean changed = false; //Values have been written that are not in the file yet
+    }
+
+    //The windows in use by the index of their part, least recently used first. Until all
+    //windowCount windows have been created, a new one is created for each part.
+    private final LinkedHashMap<Long, Window> windows = new LinkedHashMap<>(8, 0.75f, true);
+
+    //Set the directory for the temporary files (usually in the cache directory of the app). Files
+    //left over from a previous run (i.e. if the app has been killed) are removed.
+    public static synchronized void setDirectory(File dir) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e("FileDoubleStorage", "Could not create directory " + dir.getPath() + ". Unlimited buffers will stay on the heap.");
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                f.delete();
+        }
+        directory = dir;
+    }
+
+    //Create a new storage. Returns null if no directory has been set or if the file cannot be
+    //created, in which case the values should just stay on the heap.
+    static synchronized FileDoubleStorage create() {
+        if (directory == null)
+            return null;
+        try {
+            return new FileDoubleStorage(File.createTempFile("buffer", ".bin", directory));
+        } catch (IOException e) {
+            Log.e("FileDoubleStorage", "Could not create storage file.", e);
+            return null;
+        }
+    }
+
+    private FileDoubleStorage(File f) throws IOException {
+        file = new RandomAccessFile(f, "rw");
+        channel = file.getChannel();
+        //The file remains accessible through the open channel, but it is removed as soon as we
+        //close it (or the app is killed)
+        f.delete();
+    }
+
+    //Number of values stored
+    public synchronized long length() {
+        return length;
+    }
+
+    //Get the window onto the part with the given index, moving the least recently used window
+    //there if none is on it yet
+    private Window window(long index) throws IOException {
+        Window window = windows.get(index);
+        if (window != null)
+            return window;
+
+        if (windows.size() < windowCount)
+            window = new Window();
+        else {
+            Iterator<Window> it = windows.values().iterator();
+            window = it.next();
+            it.remove();
+            if (window.changed)
+                transfer(window, true);
+        }
+        window.index = index;
+        window.changed = false;
+        //Parts behind the end of the file have not been written yet, so there is nothing to read
+        if (index * windowSize < length)
+            transfer(window, false);
+        windows.put(index, window);
+        return window;
+    }
+
+    //Write the values of a window to its part of the file or read them from there
+    private void transfer(Window window, boolean write) throws IOException {
+        long position = window.index * windowSize * 8L;
+        ByteBuffer bytes = window.bytes;
+        bytes.clear();
+        while (bytes.hasRemaining()) {
+            int n = write ? channel.write(bytes, position + bytes.position()) : channel.read(bytes, position + bytes.position());
+            if (n < 0)
+                break; //The end of the file. The remaining values have not been written yet.
+        }
+    }
+
+    //Append n values from src starting at offset
+    public synchronized void append(double[] src, int offset, int n) throws IOException {
+        while (n > 0) {
+            int position = (int)(length % windowSize);
+            int m = Math.min(n, windowSize - position);
+            Window window = window(length / windowSize);
+            window.changed = true;
+            DoubleBuffer target = window.values.duplicate();
+            target.position(position);
+            target.put(src, offset, m);
+            length += m;
+            offset += m;
+            n -= m;
+        }
+    }
+
+    //Copy n values starting at the given position to dst starting at offset
+    public synchronized void read(long position, double[] dst, int offset, int n) {
+        if (position < 0 || n < 0 || position + n > length)
+            throw new IndexOutOfBoundsException("Range " + position + "+" + n + " out of range for length " + length);
+        try {
+            while (n > 0) {
+                int p = (int)(position % windowSize);
+                int m = Math.min(n, windowSize - p);
+                DoubleBuffer source = window(position / windowSize).values.duplicate();
+                source.position(p);
+                source.get(dst, offset, m);
+                position += m;
+                offset += m;
+                n -= m;
+            }
+        } catch (IOException e) {
+            //The values have been written before, so this should not happen unless the storage has
+            //been closed. There is no sensible way to continue without the data.
+            throw new IllegalStateException("Could not read values from storage.", e);
+        }
+    }
+
+    public synchronized double get(long position) {
+        if (position < 0 || position >= length)
+            throw new IndexOutOfBoundsException("Position " + position + " out of range for length " + length);
+        try {
+            return window(position / windowSize).values.get((int)(position % windowSize));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read value from storage.", e);
+        }
+    }
+
+    //Close and remove the file
+    public synchronized void close() {
+        windows.clear();
+        length = 0;
+        try {
+            channel.close();
+            file.close();
+        } catch (IOException e) {
+            Log.e("FileDoubleStorage", "Could not close storage file.", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.rwth_aachen.phyphox;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 public class FormulaParser {
@@ -33,26 +34,6 @@ public class FormulaParser {
         Source(Double value) {
             this.value = value;
         }
-
-        public Double get(Vector<Double[]> in, int i) throws FormulaException {
-            if (node != null) {
-                return node.calculate(in, i);
-            } else if (index != null) {
-                if (index >= in.size())
-                    throw new FormulaException("Index too large.");
-                Double[] thisIn = in.get(index);
-                if (thisIn.length == 0)
-                    throw new FormulaException("Empty input.");
-                if (single) {
-                    return thisIn[thisIn.length-1];
-                } else {
-                    if (i > thisIn.length)
-                        throw new FormulaException("Input too short.");
-                    return thisIn[i];
-                }
-            } else
-                return value;
-        }
     }
 
     class FormulaNode {
@@ -64,187 +45,255 @@ public class FormulaParser {
             this.in1 = in1;
             this.in2 = in2;
         }
-
-        public Double calculate(Vector<Double[]> in, int i) throws FormulaException {
-            return func.apply(in1.get(in, i), in2 != null ? in2.get(in, i) : null);
-        }
-
     }
 
     static class Function {
-        protected Double apply (Double in1, Double in2) {
+        //Operations that get their own loop in the compiled program. Everything else calls apply() for each value.
+        static final int GENERIC = 0;
+        static final int ADD = 1;
+        static final int SUBTRACT = 2;
+        static final int MULTIPLY = 3;
+        static final int DIVIDE = 4;
+        static final int MINUS = 5;
+
+        protected double apply (double in1, double in2) {
             return Double.NaN;
         }
+
+        //Functions that take two parameters cannot be evaluated if the second one is missing
+        protected boolean isBinary() {
+            return false;
+        }
+
+        protected int opcode() {
+            return GENERIC;
+        }
     }
 
     static class AddFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return in1+in2;
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
+
+        protected int opcode() {
+            return ADD;
+        }
     }
 
     static class MultiplyFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return in1*in2;
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
+
+        protected int opcode() {
+            return MULTIPLY;
+        }
     }
 
     static class SubtractFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return in1-in2;
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
+
+        protected int opcode() {
+            return SUBTRACT;
+        }
     }
 
     static class DivideFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return in1/in2;
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
+
+        protected int opcode() {
+            return DIVIDE;
+        }
     }
 
     static class ModuloFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return in1%in2;
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
     }
 
     static class PowerFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.pow(in1, in2);
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
     }
 
     static class MinusFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return -in1;
         }
+
+        protected int opcode() {
+            return MINUS;
+        }
     }
 
     static class SqrtFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.sqrt(in1);
         }
     }
 
     static class SinFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.sin(in1);
         }
     }
 
     static class CosFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.cos(in1);
         }
     }
 
     static class TanFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.tan(in1);
         }
     }
 
     static class AsinFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.asin(in1);
         }
     }
 
     static class AcosFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.acos(in1);
         }
     }
 
     static class AtanFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.atan(in1);
         }
     }
 
     static class Atan2Function extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.atan2(in1, in2);
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
     }
 
     static class SinhFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.sinh(in1);
         }
     }
 
     static class CoshFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.cosh(in1);
         }
     }
 
     static class TanhFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.tanh(in1);
         }
     }
 
     static class ExpFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.exp(in1);
         }
     }
 
     static class LogFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.log(in1);
         }
     }
 
     static class AbsFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.abs(in1);
         }
     }
 
     static class SignFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.signum(in1);
         }
     }
 
     static class HeavisideFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
-            if (in1.isNaN())
+        protected double apply (double in1, double in2) {
+            if (Double.isNaN(in1))
                 return Double.NaN;
             return in1 >= 0 ? 1.0 : 0.0;
         }
     }
 
     static class RoundFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return (double)Math.round(in1);
         }
     }
 
     static class CeilFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.ceil(in1);
         }
     }
 
     static class FloorFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.floor(in1);
         }
     }
 
     static class MinFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.min(in1, in2);
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
     }
 
     static class MaxFunction extends Function {
-        protected Double apply (Double in1, Double in2) {
+        protected double apply (double in1, double in2) {
             return Math.max(in1, in2);
         }
+
+        protected boolean isBinary() {
+            return true;
+        }
     }
 
     private Source parse(String formula, int start, int end) throws FormulaException {
@@ -488,23 +537,197 @@ public class FormulaParser {
         }
     }
 
+    //The compiled formula
+    //The tree of sources and nodes is flattened into a list of instructions in postfix order. Each
+    //instruction works on registers, which either hold a single value (constants, single inputs and
+    //results that only depend on those) or a whole column of values. Constant sub-expressions are
+    //evaluated during compilation and single values are calculated once per execution, so only
+    //the instructions that depend on a full input are evaluated in a loop over all elements.
+
+    static class Register {
+        double[] data; //Single values are stored at index 0
+        int stride = 0; //0 for single values, 1 for columns
+        boolean constant = false;
+        int input = -1; //Index of the input for input registers
+    }
+
+    static class Instruction {
+        Function func;
+        Register in1, in2, out;
+
+        //Evaluate the instruction for n elements
+        void run(int n) {
+            int count = out.stride == 0 ? 1 : n;
+            if (out.stride != 0 && (out.data == null || out.data.length < n))
+                out.data = new double[n + n/2];
+            double[] r = out.data;
+            double[] a = in1.data;
+            int sa = in1.stride;
+            double[] b = in2 != null ? in2.data : null;
+            int sb = in2 != null ? in2.stride : 0;
+            switch (func.opcode()) {
+                case Function.ADD:
+                    for (int i = 0; i < count; i++)
+                        r[i] = a[i*sa] + b[i*sb];
+                    break;
+                case Function.SUBTRACT:
+                    for (int i = 0; i < count; i++)
+                        r[i] = a[i*sa] - b[i*sb];
+                    break;
+                case Function.MULTIPLY:
+                    for (int i = 0; i < count; i++)
+                        r[i] = a[i*sa] * b[i*sb];
+                    break;
+                case Function.DIVIDE:
+                    for (int i = 0; i < count; i++)
+                        r[i] = a[i*sa] / b[i*sb];
+                    break;
+                case Function.MINUS:
+                    for (int i = 0; i < count; i++)
+                        r[i] = -a[i*sa];
+                    break;
+                default:
+                    if (b != null) {
+                        for (int i = 0; i < count; i++)
+                            r[i] = func.apply(a[i*sa], b[i*sb]);
+                    } else {
+                        for (int i = 0; i < count; i++)
+                            r[i] = func.apply(a[i*sa], Double.NaN);
+                    }
+            }
+        }
+    }
+
+    private boolean valid = true; //False if the formula cannot be evaluated (i.e. a missing parameter), which results in an empty output
+    private final Vector<Register> inputRegisters = new Vector<>();
+    private final Vector<Instruction> program = new Vector<>();
+    private Register result = null;
+    private double[] fill = null; //Used to expand a single result
+
+    private Register compile(Source source) {
+        if (source == null) {
+            valid = false;
+            return null;
+        }
+        Register reg = new Register();
+        if (source.node != null) {
+            FormulaNode node = source.node;
+            Register in1 = compile(node.in1);
+            //A second parameter is evaluated even if the function does not use it
+            Register in2 = node.in2 != null ? compile(node.in2) : null;
+            if (in1 == null || (in2 == null && node.func.isBinary())) {
+                valid = false;
+                return null;
+            }
+            if (!node.func.isBinary())
+                in2 = null;
+            reg.stride = (in1.stride != 0 || (in2 != null && in2.stride != 0)) ? 1 : 0;
+            if (reg.stride == 0) {
+                reg.data = new double[1];
+                if (in1.constant && (in2 == null || in2.constant)) {
+                    //Constant sub-expression
+                    reg.constant = true;
+                    reg.data[0] = node.func.apply(in1.data[0], in2 != null ? in2.data[0] : Double.NaN);
+                    return reg;
+                }
+            }
+            Instruction instruction = new Instruction();
+            instruction.func = node.func;
+            instruction.in1 = in1;
+            instruction.in2 = in2;
+            instruction.out = reg;
+            program.add(instruction);
+        } else if (source.index != null) {
+            reg.input = source.index;
+            reg.stride = source.single ? 0 : 1;
+            if (source.single)
+                reg.data = new double[1];
+            inputRegisters.add(reg);
+        } else {
+            reg.constant = true;
+            reg.data = new double[]{source.value};
+        }
+        return reg;
+    }
+
     FormulaParser(String formula) throws FormulaException {
         String strippedFormula = formula.replaceAll("\\s+","").toLowerCase();
         base = parse(strippedFormula, 0, strippedFormula.length());
+        result = compile(base);
+    }
+
+    //True if any input is used as a column
+    public boolean usesColumns() {
+        for (Register reg : inputRegisters)
+            if (reg.stride != 0)
+                return true;
+        return false;
+    }
+
+    //True if input i is used as a column ("[1_]")
+    public boolean usesColumn(int i) {
+        for (Register reg : inputRegisters)
+            if (reg.input == i && reg.stride != 0)
+                return true;
+        return false;
+    }
+
+    //True if input i is used as a single value ("[1]")
+    public boolean usesSingle(int i) {
+        for (Register reg : inputRegisters)
+            if (reg.input == i && reg.stride == 0)
+                return true;
+        return false;
     }
 
-    public void execute(Vector<Double[]> in, DataOutput out) {
+    //Evaluate the formula for the inputs in (each with sizes[i] valid values) and append the result to out
+    //The output is as long as the shortest input used as a column ("[1]_"). If only single values
+    //are used, it is as long as the longest input.
+    //Returns the number of values appended to out.
+    public int execute(double[][] in, int[] sizes, DataOutput out) {
+        if (!valid)
+            return 0;
+
         int n = 0;
-        for (Double[] i : in) {
-            n = Math.max(n, i.length);
+        for (int i = 0; i < in.length; i++) {
+            if (in[i] != null)
+                n = Math.max(n, sizes[i]);
         }
-        for (int i = 0; i < n; i++) {
-            try {
-                out.append(base.get(in, i));
-            } catch (Exception e) {
-                break;
+
+        for (Register reg : inputRegisters) {
+            if (reg.input >= in.length || in[reg.input] == null || sizes[reg.input] == 0)
+                return 0;
+            if (reg.stride == 0) {
+                reg.data[0] = in[reg.input][sizes[reg.input]-1];
+            } else {
+                reg.data = in[reg.input];
             }
         }
+        for (Register reg : inputRegisters) {
+            if (reg.stride != 0)
+                n = Math.min(n, sizes[reg.input]);
+        }
+        if (n == 0)
+            return 0;
+
+        for (int i = 0; i < program.size(); i++)
+            program.get(i).run(n);
+
+        if (result.stride != 0) {
+            out.append(result.data, n);
+        } else {
+            if (fill == null || fill.length < n)
+                fill = new double[n];
+            Arrays.fill(fill, 0, n, result.data[0]);
+            out.append(fill, n);
+        }
+
+        //Do not keep references to the input arrays
+        for (Register reg : inputRegisters) {
+            if (reg.stride != 0)
+                reg.data = null;
+        }
+        return n;
     }
 
 }
@@ -33,7 +33,7 @@ public class GpsInput implements Serializable {
     private ExperimentTimeReference experimentTimeReference; //the start time of the measurement. This allows for timestamps relative to the beginning of a measurement
     public double lastSatBasedLocation;
 
-    private Lock dataLock;
+    private Lock outputLock;
     private int lastStatus = 0;
     private GpsGeoid geoid;
 
@@ -42,7 +42,7 @@ public class GpsInput implements Serializable {
 
     //The constructor
     protected GpsInput(Vector<DataOutput> buffers, Lock lock, ExperimentTimeReference experimentTimeReference) {
-        this.dataLock = lock;
+        this.outputLock = lock;
         this.experimentTimeReference = experimentTimeReference;
 
         //Store the buffer references if any
@@ -135,7 +135,7 @@ public class GpsInput implements Serializable {
         if (dataStatus == null)
             return;
 
-        dataLock.lock();
+        outputLock.lock();
         try {
             if (locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER))
                 if (status == LocationProvider.AVAILABLE)
@@ -145,7 +145,7 @@ public class GpsInput implements Serializable {
             else
                 dataStatus.append(-1);
         } finally {
-            dataLock.unlock();
+            outputLock.unlock();
         }
     }
 
@@ -171,7 +171,7 @@ public class GpsInput implements Serializable {
         }
 
         //Append the data to available buffers
-        dataLock.lock();
+        outputLock.lock();
         try {
             if (dataT != null)
                 dataT.append(newT);
@@ -205,7 +205,7 @@ public class GpsInput implements Serializable {
                     dataSatellites.append(-1);
             }
         } finally {
-            dataLock.unlock();
+            outputLock.unlock();
         }
 
     }
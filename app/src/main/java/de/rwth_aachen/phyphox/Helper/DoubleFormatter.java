@@ -0,0 +1,238 @@
+package de.rwth_aachen.phyphox.Helper;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+//Formats doubles as text in scientific notation (like the DecimalFormat pattern "0.000###E0") or
+//fixed notation (like "############0.000" without grouping). The output is the same as that of
+//DecimalFormat for these patterns, including "NaN" and "∞", but the digits are written straight
+//into a char array, a byte array (UTF-8) or a StringBuilder without creating any objects. This
+//matters for the exports and the remote interface, which format millions of values, while
+//DecimalFormat creates several objects and takes a few microseconds for each value.
+//Like DecimalFormat, we round the shortest decimal representation of the value (as given by
+//Double.toString()) with HALF_EVEN. The digits are calculated with floating point arithmetic,
+//which gives the same result unless the value is very close to a tie. In that case (and for
+//extreme exponents) we fall back to BigDecimal, which is exact but slow.
+//A formatter reuses its internal buffer, so (like DecimalFormat) each thread needs its own.
+
+public class DoubleFormatter {
+    private static final double[] powers = new double[309]; //Powers of ten from 1e0 to 1e308, correctly rounded
+    private static final long[] longPowers = new long[19]; //Powers of ten from 1 to 1e18
+    static {
+        for (int i = 0; i < powers.length; i++)
+            powers[i] = Double.parseDouble("1e" + i);
+        longPowers[0] = 1;
+        for (int i = 1; i < longPowers.length; i++)
+            longPowers[i] = longPowers[i-1] * 10;
+    }
+
+    private static final int maxFastDigits = 15; //Beyond 15 digits, the fraction of a double is too inexact for the fast path
+    private static final double tolerance = 1e-15; //Relative distance to a tie below which we do not trust the fast path
+    private static final char infinity = '∞';
+
+    private final boolean scientific;
+    private final int minFraction, maxFraction;
+    private final char decimalPoint;
+
+    private final char[] chars;
+    private int length;
+
+    private DoubleFormatter(boolean scientific, int minFraction, int maxFraction, char decimalPoint) {
+        if (minFraction < 0 || maxFraction < minFraction || maxFraction > 17)
+            throw new IllegalArgumentException("Invalid number of fraction digits.");
+        this.scientific = scientific;
+        this.minFraction = minFraction;
+        this.maxFraction = maxFraction;
+        this.decimalPoint = decimalPoint;
+        this.chars = new char[maxLength()];
+    }
+
+    //Scientific notation with one integer digit and minFraction to maxFraction fraction digits.
+    //For example, scientific(0, 7, '.') corresponds to the pattern "0.#######E0"
+    public static DoubleFormatter scientific(int minFraction, int maxFraction, char decimalPoint) {
+        return new DoubleFormatter(true, minFraction, maxFraction, decimalPoint);
+    }
+
+    //Fixed notation with the given number of fraction digits.
+    //For example, fixed(3, '.') corresponds to the pattern "############0.000"
+    public static DoubleFormatter fixed(int fraction, char decimalPoint) {
+        return new DoubleFormatter(false, fraction, fraction, decimalPoint);
+    }
+
+    //The maximum number of chars of a formatted value. As "∞" takes three bytes in UTF-8, the
+    //maximum number of bytes is two more.
+    public int maxLength() {
+        if (scientific)
+            return 1 + 1 + 1 + maxFraction + 2 + 3; //Sign, digit, point, fraction, "E-", exponent
+        else
+            return 1 + 309 + 1 + maxFraction; //Sign, integer digits, point, fraction
+    }
+
+    //Writes the value to the buffer at offset and returns the offset after the value
+    public int format(double v, char[] buffer, int offset) {
+        render(v);
+        System.arraycopy(chars, 0, buffer, offset, length);
+        return offset + length;
+    }
+
+    //Writes the value encoded as UTF-8 to the buffer at offset and returns the offset after the value
+    public int format(double v, byte[] buffer, int offset) {
+        render(v);
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80)
+                buffer[offset++] = (byte)c;
+            else if (c < 0x800) {
+                buffer[offset++] = (byte)(0xc0 | (c >> 6));
+                buffer[offset++] = (byte)(0x80 | (c & 0x3f));
+            } else {
+                buffer[offset++] = (byte)(0xe0 | (c >> 12));
+                buffer[offset++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                buffer[offset++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        return offset;
+    }
+
+    public void format(double v, StringBuilder sb) {
+        render(v);
+        sb.append(chars, 0, length);
+    }
+
+    public String format(double v) {
+        render(v);
+        return new String(chars, 0, length);
+    }
+
+    //Formats the value into chars
+    private void render(double v) {
+        length = 0;
+        if (Double.isNaN(v)) {
+            chars[length++] = 'N';
+            chars[length++] = 'a';
+            chars[length++] = 'N';
+            return;
+        }
+        if (Double.doubleToRawLongBits(v) < 0) //Also true for -0.0, which DecimalFormat shows as "-0"
+            chars[length++] = '-';
+        double a = Math.abs(v);
+        if (Double.isInfinite(a)) {
+            chars[length++] = infinity;
+            return;
+        }
+        if (scientific)
+            renderScientific(a);
+        else
+            renderFixed(a);
+    }
+
+    private void renderScientific(double a) {
+        int p = maxFraction + 1; //Significant digits
+        long n = 0; //The significant digits as an integer with p digits (or zero)
+        int e = 0; //Exponent
+
+        if (a != 0) {
+            boolean fallback = true;
+            if (p <= maxFastDigits && a > 1e-280 && a < 1e280) {
+                e = (int)Math.floor(Math.log10(a));
+                //log10 may be off by one close to powers of ten, in which case we correct e and try again
+                for (int attempt = 0; attempt < 3; attempt++) {
+                    int k = e - p + 1;
+                    double scaled = k >= 0 ? a / powers[k] : a * powers[-k];
+                    n = roundHalfEven(scaled);
+                    if (n < 0)
+                        break;
+                    if (n >= longPowers[p])
+                        e++;
+                    else if (n < longPowers[p-1])
+                        e--;
+                    else {
+                        fallback = false;
+                        break;
+                    }
+                }
+            }
+            if (fallback) {
+                BigDecimal rounded = new BigDecimal(Double.toString(a)).round(new MathContext(p, RoundingMode.HALF_EVEN));
+                n = rounded.unscaledValue().longValue();
+                int digits = rounded.precision();
+                e = digits - rounded.scale() - 1;
+                n *= longPowers[p - digits];
+            }
+        }
+
+        //Skip trailing zeros that are not required
+        int fraction = p - 1;
+        while (fraction > minFraction && n % 10 == 0) {
+            n /= 10;
+            fraction--;
+        }
+
+        int first = length;
+        length += fraction + (fraction > 0 ? 2 : 1);
+        writeDigits(n, first, fraction, fraction + 1);
+
+        chars[length++] = 'E';
+        if (e < 0) {
+            chars[length++] = '-';
+            e = -e;
+        }
+        if (e >= 100)
+            chars[length++] = (char)('0' + e / 100);
+        if (e >= 10)
+            chars[length++] = (char)('0' + (e / 10) % 10);
+        chars[length++] = (char)('0' + e % 10);
+    }
+
+    private void renderFixed(double a) {
+        int f = maxFraction;
+        double scaled = a * powers[f];
+        long n = -1;
+        if (scaled < 1e15)
+            n = roundHalfEven(scaled);
+        if (n >= 0) {
+            int digits = 1; //Number of digits of the integer part, at least one
+            while (digits + f < 19 && n >= longPowers[digits + f])
+                digits++;
+            int first = length;
+            length += digits + (f > 0 ? f + 1 : 0);
+            writeDigits(n, first, f, digits + f);
+        } else {
+            //Large values and ties. These are rare, so we accept a few objects here
+            String s = new BigDecimal(Double.toString(a)).setScale(f, RoundingMode.HALF_EVEN).unscaledValue().toString();
+            int digits = s.length() - f;
+            for (int i = 0; i < digits; i++)
+                chars[length++] = s.charAt(i);
+            if (digits <= 0)
+                chars[length++] = '0';
+            if (f > 0) {
+                chars[length++] = decimalPoint;
+                for (int i = digits; i < s.length(); i++)
+                    chars[length++] = i < 0 ? '0' : s.charAt(i);
+            }
+        }
+    }
+
+    //Writes the lowest count digits of n to chars starting at first, with a decimal point in front
+    //of the last fraction digits
+    private void writeDigits(long n, int first, int fraction, int count) {
+        int i = first + count + (fraction > 0 ? 1 : 0);
+        for (int j = 0; j < count; j++) {
+            if (j == fraction && fraction > 0)
+                chars[--i] = decimalPoint;
+            chars[--i] = (char)('0' + (int)(n % 10));
+            n /= 10;
+        }
+    }
+
+    //Rounds a positive value to an integer (HALF_EVEN). Returns -1 if the value is too close to a
+    //tie to decide, as it is probably not exactly what the precise calculation would give.
+    private static long roundHalfEven(double scaled) {
+        double floor = Math.floor(scaled);
+        double remainder = scaled - floor;
+        if (Math.abs(remainder - 0.5) <= scaled * tolerance)
+            return -1;
+        return (long)floor + (remainder > 0.5 ? 1 : 0);
+    }
+}
@@ -0,0 +1,278 @@
+package de.rwth_aachen.phyphox.Helper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+//Writes an Excel workbook in the Office Open XML format (.xlsx) as a stream.
+//A .xlsx file is a zip archive of XML files, one for each sheet and a few that describe the
+//workbook. Instead of building the workbook in memory (like Apache POI does with one object for
+//each cell), the rows are written to the sheet XML as they are added, so the memory needed does
+//not depend on the number of rows. The price is that sheets have to be written one after another
+//and that rows cannot be changed once they have been written.
+//Numbers are written with 15 significant digits, which is the precision Excel keeps anyway. Text
+//is written as inline strings, so we do not need to collect a table of shared strings. There is
+//only one style besides the default one: Bold text for table headers.
+//Usage: startSheet(), then startRow(), add...() and endRow() for each row, and finally close().
+
+public class XlsxWriter {
+    public static final int maxRows = 1048576; //Maximum number of rows per sheet in Excel
+    public static final int maxSheetNameLength = 31; //Maximum length of sheet names in Excel
+
+    private static final int bufferSize = 65536; //XML is collected up to this size before it is compressed
+
+    private final int rowLimit; //Rows per sheet, which is maxRows except for tests
+
+    private final ZipOutputStream zip;
+    private final DoubleFormatter format = DoubleFormatter.scientific(0, 14, '.'); //Same as the pattern "0.##############E0"
+    private final byte[] buffer = new byte[bufferSize];
+    private int length = 0;
+
+    private final List<String> sheets = new ArrayList<>();
+    private boolean sheetOpen = false;
+    private boolean rowOpen = false;
+    private int rows = 0; //Number of rows in the current sheet
+
+    public XlsxWriter(OutputStream stream) throws IOException {
+        this(stream, maxRows);
+    }
+
+    XlsxWriter(OutputStream stream, int rowLimit) throws IOException {
+        this.rowLimit = rowLimit;
+        zip = new ZipOutputStream(stream);
+
+        //Sheets are declared by their file extension, so we can write the content types before we
+        //know the sheets.
+        writeEntry("[Content_Types].xml",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+                "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+                "<Default Extension=\"xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>" +
+                "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>" +
+                "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>" +
+                "</Types>");
+        writeEntry("_rels/.rels",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" +
+                "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>" +
+                "</Relationships>");
+        writeEntry("xl/styles.xml",
+                "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<styleSheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">" +
+                "<fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font><font><b/><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>" +
+                "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>" +
+                "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>" +
+                "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>" +
+                "<cellXfs count=\"2\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/><xf numFmtId=\"0\" fontId=\"1\" fillId=\"0\" borderId=\"0\" xfId=\"0\" applyFont=\"1\"/></cellXfs>" +
+                "</styleSheet>");
+    }
+
+    //Start a new sheet (ending the current one). The name is adjusted to the rules of Excel (see
+    //sheetName()) and the name actually used is returned.
+    public String startSheet(String name) throws IOException {
+        endSheet();
+        name = sheetName(name);
+        sheets.add(name);
+        zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheets.size() + ".xml"));
+        append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+                "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\"><sheetData>");
+        sheetOpen = true;
+        rows = 0;
+        return name;
+    }
+
+    //The number of rows in the current sheet, including the current row
+    public int getRowCount() {
+        return rows;
+    }
+
+    //True if no more rows can be added to the current sheet, so a new one has to be started
+    public boolean isSheetFull() {
+        return rows >= rowLimit;
+    }
+
+    public void startRow() throws IOException {
+        if (!sheetOpen)
+            throw new IllegalStateException("No sheet has been started.");
+        if (rowOpen)
+            endRow();
+        if (isSheetFull())
+            throw new IllegalStateException("Too many rows for a single sheet.");
+        rows++;
+        ensure(16);
+        append("<row r=\"");
+        appendInt(rows);
+        append("\">");
+        rowOpen = true;
+    }
+
+    public void endRow() throws IOException {
+        if (!rowOpen)
+            return;
+        append("</row>");
+        rowOpen = false;
+    }
+
+    //Add a numeric cell to the current row. Excel has no representation of NaN and infinity, so
+    //these are added as text.
+    public void addNumber(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            addText(format.format(v));
+            return;
+        }
+        ensure(format.maxLength() + 13);
+        append("<c><v>");
+        length = format.format(v, buffer, length);
+        append("</v></c>");
+    }
+
+    public void addText(String text) throws IOException {
+        addText(text, false);
+    }
+
+    //Add a text cell to the current row, optionally in bold
+    public void addText(String text, boolean bold) throws IOException {
+        append(bold ? "<c t=\"inlineStr\" s=\"1\"><is><t xml:space=\"preserve\">" : "<c t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+        appendEscaped(text);
+        append("</t></is></c>");
+    }
+
+    //Finish the workbook and close the underlying stream
+    public void close() throws IOException {
+        endSheet();
+        if (sheets.isEmpty()) { //A workbook needs at least one sheet
+            startSheet("Sheet");
+            endSheet();
+        }
+
+        StringBuilder workbook = new StringBuilder();
+        StringBuilder rels = new StringBuilder();
+        workbook.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        workbook.append("<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\"><sheets>");
+        rels.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+        rels.append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+        for (int i = 1; i <= sheets.size(); i++) {
+            workbook.append("<sheet name=\"").append(escape(sheets.get(i-1))).append("\" sheetId=\"").append(i).append("\" r:id=\"rId").append(i).append("\"/>");
+            rels.append("<Relationship Id=\"rId").append(i).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        rels.append("<Relationship Id=\"rId").append(sheets.size() + 1).append("\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/styles\" Target=\"styles.xml\"/>");
+        workbook.append("</sheets></workbook>");
+        rels.append("</Relationships>");
+        writeEntry("xl/workbook.xml", workbook.toString());
+        writeEntry("xl/_rels/workbook.xml.rels", rels.toString());
+
+        zip.close();
+    }
+
+    private void endSheet() throws IOException {
+        if (!sheetOpen)
+            return;
+        endRow();
+        append("</sheetData></worksheet>");
+        flush();
+        zip.closeEntry();
+        sheetOpen = false;
+    }
+
+    //Excel does not allow sheet names longer than 31 characters, names with any of []:*?/\ and
+    //names starting or ending with an apostrophe. Also, the names have to be unique (ignoring the
+    //case), so we append a number to names that have been used before.
+    private String sheetName(String name) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append("[]:*?/\\".indexOf(c) >= 0 || c < 0x20 ? '_' : c);
+        }
+        String base = sb.toString().trim();
+        while (base.startsWith("'"))
+            base = base.substring(1);
+        while (base.endsWith("'"))
+            base = base.substring(0, base.length() - 1);
+        if (base.isEmpty())
+            base = "Sheet";
+
+        String candidate = base.length() > maxSheetNameLength ? base.substring(0, maxSheetNameLength) : base;
+        for (int n = 2; isUsed(candidate); n++) {
+            String suffix = " (" + n + ")";
+            candidate = (base.length() + suffix.length() > maxSheetNameLength ? base.substring(0, maxSheetNameLength - suffix.length()) : base) + suffix;
+        }
+        return candidate;
+    }
+
+    private boolean isUsed(String name) {
+        for (String sheet : sheets)
+            if (sheet.equalsIgnoreCase(name))
+                return true;
+        return false;
+    }
+
+    private void writeEntry(String name, String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes("UTF-8"));
+        zip.closeEntry();
+    }
+
+    //Make sure that there is room for n more bytes in the buffer
+    private void ensure(int n) throws IOException {
+        if (length + n > buffer.length)
+            flush();
+    }
+
+    private void flush() throws IOException {
+        zip.write(buffer, 0, length);
+        length = 0;
+    }
+
+    //Append ASCII text
+    private void append(String s) throws IOException {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++)
+            buffer[length++] = (byte)s.charAt(i);
+    }
+
+    private void appendInt(int v) {
+        int digits = 1;
+        for (int x = v; x >= 10; x /= 10)
+            digits++;
+        for (int i = length + digits - 1; i >= length; i--) {
+            buffer[i] = (byte)('0' + v % 10);
+            v /= 10;
+        }
+        length += digits;
+    }
+
+    private void appendEscaped(String s) throws IOException {
+        byte[] bytes = escape(s).getBytes("UTF-8");
+        if (bytes.length > buffer.length - length) {
+            flush();
+            if (bytes.length > buffer.length) {
+                zip.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    //Escape text for XML. Control characters are not allowed in XML (except for tab and line
+    //breaks), so they are dropped.
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '&': sb.append("&amp;"); break;
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '"': sb.append("&quot;"); break;
+                default:
+                    if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')
+                        sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
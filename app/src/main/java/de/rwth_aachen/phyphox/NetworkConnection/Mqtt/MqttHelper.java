@@ -15,16 +15,14 @@ import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.InputStream;
 import java.security.KeyStore;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import de.rwth_aachen.phyphox.ExperimentTimeReference;
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
 import de.rwth_aachen.phyphox.NetworkConnection.NetworkConnection;
 import de.rwth_aachen.phyphox.NetworkConnection.NetworkService;
 import de.rwth_aachen.phyphox.PhyphoxExperiment;
@@ -223,9 +221,7 @@ public class MqttHelper{
                                 Map<String, NetworkConnection.NetworkSendableData> send,
                                 List<NetworkService.RequestCallback> requestCallbacks) {
 
-        DecimalFormat longformat = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-        longformat.applyPattern("############0.000");
-        longformat.setGroupingUsed(false);
+        DoubleFormatter longformat = DoubleFormatter.fixed(3, '.'); //Same as the pattern "############0.000"
 
         NetworkService.ServiceResult result;
         try {
@@ -241,7 +237,7 @@ public class MqttHelper{
                     else if (item.getValue().type == NetworkConnection.NetworkSendableData.DataType.BUFFER) {
                         payload = writeBufferValuesIntoCsvPayload(item,payload);
                     } else if (item.getValue().type == NetworkConnection.NetworkSendableData.DataType.TIME)
-                        payload = String.valueOf(longformat.format(System.currentTimeMillis()/1000.0));
+                        payload = longformat.format(System.currentTimeMillis()/1000.0);
                     else
                         continue;
                     MqttMessage message = new MqttMessage();
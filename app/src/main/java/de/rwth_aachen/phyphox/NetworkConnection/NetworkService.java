@@ -14,13 +14,11 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
 import de.rwth_aachen.phyphox.ExperimentTimeReference;
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
 
 public class NetworkService {
 
@@ -78,9 +76,7 @@ public class NetworkService {
 
         //Synchronous function to prepare the data while buffers are blocked before the asynchronous communication may try to access the buffers while they are no longer locked
         protected void prepare(HttpTaskParameters params) {
-            DecimalFormat longformat = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-            longformat.applyPattern("############0.000");
-            longformat.setGroupingUsed(false);
+            DoubleFormatter longformat = DoubleFormatter.fixed(3, '.'); //Same as the pattern "############0.000"
 
             parameters = params;
 
@@ -134,7 +130,7 @@ public class NetworkService {
                         else if (item.getValue().type == NetworkConnection.NetworkSendableData.DataType.BUFFER)
                             value = String.valueOf(item.getValue().buffer.value);
                         else if (item.getValue().type == NetworkConnection.NetworkSendableData.DataType.TIME)
-                            value = String.valueOf(longformat.format(System.currentTimeMillis()/1000.0));
+                            value = longformat.format(System.currentTimeMillis()/1000.0);
                         uri = uri.buildUpon().appendQueryParameter(item.getKey(), value).build();
                     }
                     postData = null;
@@ -16,18 +16,17 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
-import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
@@ -44,6 +43,7 @@ import de.rwth_aachen.phyphox.Bluetooth.Bluetooth;
 import de.rwth_aachen.phyphox.Bluetooth.BluetoothInput;
 import de.rwth_aachen.phyphox.Bluetooth.BluetoothOutput;
 import de.rwth_aachen.phyphox.Camera.DepthInput;
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
 import de.rwth_aachen.phyphox.NetworkConnection.NetworkConnection;
 
 //This class holds all the information that makes up an experiment
@@ -76,7 +76,8 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
     public final Vector<DataBuffer> dataBuffers = new Vector<>(); //Instances of dataBuffers (see dataBuffer.java) that are used to store sensor data, analysis results etc.
     public final Map<String, Integer> dataMap = new HashMap<>(); //This maps key names (string) defined in the experiment-file to the index of a dataBuffer
     public Vector<Analysis.AnalysisModule> analysis = new Vector<>(); //Instances of analysisModules (see analysis.java) that define all the mathematical processes in this experiment
-    public Lock dataLock = new ReentrantLock();
+    public Lock dataLock = new ReentrantLock(); //Keeps analysis, views and remote access from seeing each other's intermediate state. Inputs like sensors only lock the buffers they write to (see BufferLocks).
+    transient AnalysisScheduler analysisScheduler = null; //Runs the analysis modules, created on the first analysis cycle
 
     double analysisSleep = 0.; //Pause between analysis cycles. At 0 analysis is done as fast as possible.
     DataBuffer analysisDynamicSleep = null;
@@ -151,6 +152,20 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
         return dataBuffers.get(index);
     }
 
+    //Buffers that are cleared or rewritten while the experiment is running by the analysis or the
+    //audio recording, as opposed to buffers that only grow (see DataExport.ExportSet)
+    public Set<DataBuffer> getRewrittenBuffers() {
+        Set<DataBuffer> buffers = new HashSet<>();
+        for (Analysis.AnalysisModule module : analysis)
+            module.addRewrittenBuffers(buffers);
+        if (micOutput != null && !appendAudioInput) {
+            DataBuffer recording = getBuffer(micOutput);
+            if (recording != null)
+                buffers.add(recording);
+        }
+        return buffers;
+    }
+
     //Do the export using the DataExport class (see DataExport.java)
     public void export(Activity c) {
         exporter.export(c, false);
@@ -186,6 +201,10 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
         if (!loaded)
             return;
 
+        //Write the queued sensor events to their buffers
+        for (SensorInput sensor : inputSensors)
+            sensor.flushQueue();
+
         //Send and receive network data if used
         for (NetworkConnection networkConnection : networkConnections) {
             dataLock.lock();
@@ -284,14 +303,9 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
 
         //Call all the analysis modules and let them do their work.
         try {
-            for (Analysis.AnalysisModule mod : analysis) {
-                try {
-                    Thread.yield();
-                    mod.updateIfNotStatic(cycle);
-                } catch (Exception e) {
-                    Log.e("processAnalysis", "Unhandled exception in analysis module " + mod.toString() + ".", e);
-                }
-            }
+            if (analysisScheduler == null)
+                analysisScheduler = new AnalysisScheduler(analysis);
+            analysisScheduler.run(cycle);
         } finally {
             dataLock.unlock();
         }
@@ -495,6 +509,12 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
     }
 
     public String writeStateFile(String customTitle, OutputStream os) {
+        return writeStateFile(customTitle, os, null);
+    }
+
+    //Write a state file. If dataFile is given, the values of the buffers are written to it in a
+    //binary format instead of the init attributes of the XML (see StateData).
+    public String writeStateFile(String customTitle, OutputStream os, File dataFile) {
         if (source == null)
             return "Source is null.";
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
@@ -548,36 +568,63 @@ public class PhyphoxExperiment implements Serializable, ExperimentTimeReference.
 
         NodeList buffers = containers.item(0).getChildNodes();
 
-        DecimalFormat format = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-        format.applyPattern("0.#########E0");
-        DecimalFormatSymbols dfs = format.getDecimalFormatSymbols();
-        dfs.setDecimalSeparator('.');
-        format.setDecimalFormatSymbols(dfs);
-        format.setGroupingUsed(false);
+        //The source may be a state with binary data itself, so we remove any references to its data
+        ((Element)containers.item(0)).removeAttribute("data-file");
+        StateData.Writer dataWriter = null;
+        if (dataFile != null) {
+            try {
+                dataWriter = new StateData.Writer(dataFile);
+            } catch (Exception e) {
+                return "Could not create data file: " + e.getMessage();
+            }
+            ((Element)containers.item(0)).setAttribute("data-file", dataFile.getName());
+        }
+
+        DoubleFormatter format = DoubleFormatter.scientific(0, 9, '.'); //Same as the pattern "0.#########E0"
 
-        for (int i = 0; i < buffers.getLength(); i++) {
-            if (!buffers.item(i).getNodeName().equals("container"))
-                continue;
+        try {
+            for (int i = 0; i < buffers.getLength(); i++) {
+                if (!buffers.item(i).getNodeName().equals("container"))
+                    continue;
 
-            DataBuffer buffer = getBuffer(buffers.item(i).getTextContent());
-            if (buffer == null)
-                continue;
+                DataBuffer buffer = getBuffer(buffers.item(i).getTextContent());
+                if (buffer == null)
+                    continue;
 
-            Attr attr = doc.createAttribute("init");
+                ((Element)buffers.item(i)).removeAttribute("init-data");
 
-            StringBuilder sb = new StringBuilder();
-            boolean first = true;
-            for (double v : buffer.getArray()) {
-                if (first)
-                    first = false;
-                else
-                    sb.append(",");
-                sb.append(format.format(v));
-            }
+                if (dataWriter != null) {
+                    ((Element)buffers.item(i)).removeAttribute("init");
+                    ((Element)buffers.item(i)).setAttribute("init-data", dataWriter.write(buffer));
+                    continue;
+                }
+
+                Attr attr = doc.createAttribute("init");
+
+                StringBuilder sb = new StringBuilder();
+                boolean first = true;
+                for (double v : buffer.getArray()) {
+                    if (first)
+                        first = false;
+                    else
+                        sb.append(",");
+                    format.format(v, sb);
+                }
 
-            attr.setValue(sb.toString());
+                attr.setValue(sb.toString());
 
-            buffers.item(i).getAttributes().setNamedItem(attr);
+                buffers.item(i).getAttributes().setNamedItem(attr);
+            }
+        } catch (Exception e) {
+            return "Could not write data file: " + e.getMessage();
+        } finally {
+            if (dataWriter != null) {
+                try {
+                    dataWriter.close();
+                } catch (Exception e) {
+                    Log.e("writeStateFile", "Could not close data file.", e);
+                }
+            }
         }
 
         TransformerFactory tf = TransformerFactory.newInstance();
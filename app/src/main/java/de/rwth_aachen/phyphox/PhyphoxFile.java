@@ -38,6 +38,7 @@ import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -1123,9 +1124,22 @@ public abstract class PhyphoxFile {
 
     //Blockparser for the data-containers block
     private static class dataContainersBlockParser extends xmlBlockParser {
+        private ByteBuffer stateData = null; //The mapped data file of a state saved locally (see StateData)
 
-        dataContainersBlockParser(XmlPullParser xpp, PhyphoxExperiment experiment, Experiment parent) {
+        dataContainersBlockParser(XmlPullParser xpp, PhyphoxExperiment experiment, Experiment parent) throws phyphoxFileException {
             super(xpp, experiment, parent);
+
+            //A state saved locally may store its data in a separate file in our private directory
+            String dataFile = getStringAttribute("data-file");
+            if (dataFile != null) {
+                if (parent == null || !experiment.isLocal || dataFile.contains("/") || dataFile.contains("\\"))
+                    throw new phyphoxFileException("The data of this state is not available.", xpp.getLineNumber());
+                try {
+                    stateData = StateData.map(new File(parent.getFilesDir(), dataFile));
+                } catch (IOException e) {
+                    throw new phyphoxFileException("Could not load the data of this state: " + e.getMessage(), xpp.getLineNumber());
+                }
+            }
         }
 
         @Override
@@ -1138,6 +1152,7 @@ public abstract class PhyphoxFile {
 
                     int size = getIntAttribute("size",1);
                     String strInit = getStringAttribute("init");
+                    String initData = getStringAttribute("init-data");
                     boolean isStatic = getBooleanAttribute("static", false);
 
                     String name = getText();
@@ -1158,6 +1173,14 @@ public abstract class PhyphoxFile {
                             }
                         }
                         newBuffer.setInit(init);
+                    } else if (initData != null) {
+                        if (stateData == null)
+                            throw new phyphoxFileException("The data of this state is not available.", xpp.getLineNumber());
+                        try {
+                            newBuffer.setInit(StateData.section(stateData, initData));
+                        } catch (IOException e) {
+                            throw new phyphoxFileException(e.getMessage(), xpp.getLineNumber());
+                        }
                     }
                     break;
                 default: //Unknown tag
@@ -1664,7 +1687,7 @@ public abstract class PhyphoxFile {
 
                     //Add a sensor. If the string is unknown, sensorInput throws a phyphoxFileException
                     try {
-                        experiment.inputSensors.add(new SensorInput(type, ignoreUnavailable, rate, rateStrategy, stride, average, outputs, experiment.dataLock, experiment.experimentTimeReference));
+                        experiment.inputSensors.add(new SensorInput(type, ignoreUnavailable, rate, rateStrategy, stride, average, outputs, BufferLocks.forOutputs(outputs), experiment.experimentTimeReference));
                         experiment.inputSensors.lastElement().attachSensorManager(parent.sensorManager);
                     } catch (SensorInput.SensorException e) {
                         throw new phyphoxFileException(e.getMessage(), xpp.getLineNumber());
@@ -1702,7 +1725,7 @@ public abstract class PhyphoxFile {
                     Vector<DataOutput> outputs = new Vector<>();
                     (new ioBlockParser(xpp, experiment, parent, null, outputs, null, outputMapping, "component")).process(); //Load inputs and outputs
 
-                    experiment.gpsIn = new GpsInput(outputs, experiment.dataLock, experiment.experimentTimeReference);
+                    experiment.gpsIn = new GpsInput(outputs, BufferLocks.forOutputs(outputs), experiment.experimentTimeReference);
                     experiment.gpsIn.attachLocationManager((LocationManager)parent.getSystemService(Context.LOCATION_SERVICE));
 
                     if (!GpsInput.isAvailable(parent)) {
@@ -1820,7 +1843,7 @@ public abstract class PhyphoxFile {
 
                         CameraManager cameraManager = (CameraManager) parent.getSystemService(Context.CAMERA_SERVICE);
                         CameraHelper.updateCameraList(cameraManager);
-                        experiment.depthInput = new DepthInput(mode, (float) x1, (float) x2, (float) y1, (float) y2, outputs, experiment.dataLock, experiment.experimentTimeReference, cameraManager);
+                        experiment.depthInput = new DepthInput(mode, (float) x1, (float) x2, (float) y1, (float) y2, outputs, BufferLocks.forOutputs(outputs), experiment.experimentTimeReference, cameraManager);
 
                         if (!DepthInput.isAvailable()) {
                             throw new phyphoxFileException(parent.getResources().getString(R.string.sensorNotAvailableWarningText1) + " " + parent.getResources().getString(R.string.sensorDepth) + " " + parent.getResources().getString(R.string.sensorNotAvailableWarningText2));
@@ -1887,7 +1910,7 @@ public abstract class PhyphoxFile {
                             Vector<Bluetooth.CharacteristicData> characteristics = new Vector<>();
                             (new bluetoothIoBlockParser(xpp, experiment, parent, outputs, null, characteristics)).process();
                             try {
-                                BluetoothInput b = new BluetoothInput(idString, nameFilter, addressFilter, modeFilter, uuidFilter, autoConnect, rate, subscribeOnStart, outputs, experiment.dataLock, parent, parent, characteristics, experiment.experimentTimeReference);
+                                BluetoothInput b = new BluetoothInput(idString, nameFilter, addressFilter, modeFilter, uuidFilter, autoConnect, rate, subscribeOnStart, outputs, BufferLocks.forOutputs(outputs), parent, parent, characteristics, experiment.experimentTimeReference);
                                 if (mtu > 0)
                                     b.requestMTU = mtu;
                                 experiment.bluetoothInputs.add(b);
@@ -2670,6 +2693,39 @@ public abstract class PhyphoxFile {
 
                     experiment.analysis.add(new Analysis.fftAM(experiment, inputs, outputs));
                 } break;
+                case "stft": { //Short-time Fourier transform (spectrogram)
+                    String windowStr = getStringAttribute("window");
+                    if (windowStr == null)
+                        windowStr = "hann";
+
+                    Analysis.stftAM.Window window;
+                    switch (windowStr) {
+                        case "rectangular": window = Analysis.stftAM.Window.rectangular;
+                                            break;
+                        case "hann":        window = Analysis.stftAM.Window.hann;
+                                            break;
+                        case "hamming":     window = Analysis.stftAM.Window.hamming;
+                                            break;
+                        case "blackman":    window = Analysis.stftAM.Window.blackman;
+                                            break;
+                        default:            throw new phyphoxFileException("Unknown window " + windowStr, xpp.getLineNumber());
+                    }
+
+                    ioBlockParser.ioMapping[] inputMapping = {
+                            new ioBlockParser.ioMapping() {{name = "in"; asRequired = false; minCount = 1; maxCount = 1; valueAllowed = false; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "size"; asRequired = true; minCount = 1; maxCount = 1; valueAllowed = true; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "hop"; asRequired = true; minCount = 0; maxCount = 1; valueAllowed = true; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "rate"; asRequired = true; minCount = 0; maxCount = 1; valueAllowed = true; repeatableOffset = -1; }}
+                    };
+                    ioBlockParser.ioMapping[] outputMapping = {
+                            new ioBlockParser.ioMapping() {{name = "t"; asRequired = true; minCount = 0; maxCount = 1; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "f"; asRequired = true; minCount = 0; maxCount = 1; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "magnitude"; asRequired = true; minCount = 0; maxCount = 1; repeatableOffset = -1; }}
+                    };
+                    (new ioBlockParser(xpp, experiment, parent, inputs, outputs, inputMapping, outputMapping, "as")).process(); //Load inputs and outputs
+
+                    experiment.analysis.add(new Analysis.stftAM(experiment, inputs, outputs, window));
+                } break;
                 case "autocorrelation": { //Autocorrelation. First in/out is y, second in/out may be x
 
                     ioBlockParser.ioMapping[] inputMapping = {
@@ -2744,9 +2800,11 @@ public abstract class PhyphoxFile {
                 } break;
                 case "gausssmooth": { //Smooth the data with a Gauss profile
                     double sigma = getDoubleAttribute("sigma", 0.);
+                    boolean recursive = getBooleanAttribute("recursive", false);
 
                     ioBlockParser.ioMapping[] inputMapping = {
                             new ioBlockParser.ioMapping() {{name = "in"; asRequired = false; minCount = 1; maxCount = 1; valueAllowed = false; repeatableOffset = -1; }},
+                            new ioBlockParser.ioMapping() {{name = "sigma"; asRequired = true; minCount = 0; maxCount = 1; valueAllowed = true; repeatableOffset = -1; }},
                     };
                     ioBlockParser.ioMapping[] outputMapping = {
                             new ioBlockParser.ioMapping() {{name = "out"; asRequired = false; minCount = 1; maxCount = 1; repeatableOffset = -1; }},
@@ -2756,6 +2814,7 @@ public abstract class PhyphoxFile {
                     Analysis.gaussSmoothAM gsAM = new Analysis.gaussSmoothAM(experiment, inputs, outputs);
                     if (sigma > 0)
                         gsAM.setSigma(sigma);
+                    gsAM.setRecursive(recursive);
                     experiment.analysis.add(gsAM);
                 } break;
                 case "loess": { //Smooth data with LOESS
@@ -0,0 +1,151 @@
+package de.rwth_aachen.phyphox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+//Binary response to the get command of the remote interface (see RemoteServer.getCommandHandler)
+//All numbers are little-endian, strings are given as their length in bytes (uint16) followed by
+//the UTF-8 encoded string.
+//  "PHYB", version (uint8, currently 1)
+//  status: measuring (uint8, 0/1), timedRun (uint8, 0/1), countDown (int64, ms), session (string)
+//  number of buffers (uint16), followed by each buffer:
+//    name (string), size (int32), updateMode (uint8, 0 = single, 1 = full, 2 = partial),
+//    bytes per value (uint8, 4 = float32, 8 = float64), number of values (int32),
+//    sequence number of the next value (int64), values
+//Unlike the JSON response, NaN and infinite values are sent as they are instead of null.
+//The length is known before writing, so the response is written directly to the connection
+//through a small buffer without an intermediate copy of the whole response.
+
+public class RemoteBinaryResponse {
+    public static final int version = 1;
+
+    private static class Buffer {
+        byte[] name;
+        int size;
+        int updateMode;
+        long next;
+        double value;
+        double[] data;
+        double[] dataRef;
+        double threshold;
+        int n;
+        int count;
+    }
+
+    private final byte[] session;
+    private final boolean measuring;
+    private final boolean timedRun;
+    private final long countDown;
+    private final boolean float32;
+    private final List<Buffer> buffers = new ArrayList<>();
+
+    public RemoteBinaryResponse(String session, boolean measuring, boolean timedRun, long countDown, boolean float32) {
+        this.session = utf8(session);
+        this.measuring = measuring;
+        this.timedRun = timedRun;
+        this.countDown = countDown;
+        this.float32 = float32;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return s.getBytes();
+        }
+    }
+
+    //Add a buffer. If threshold is NaN, only value is sent. Otherwise the first n values of data
+    //are sent, skipping those for which dataRef (if not null) is not above the threshold.
+    public void add(String name, int size, String updateMode, long next, double value, double[] data, double[] dataRef, double threshold, int n) {
+        Buffer buffer = new Buffer();
+        buffer.name = utf8(name);
+        buffer.size = size;
+        if (updateMode.equals("single"))
+            buffer.updateMode = 0;
+        else if (updateMode.equals("full"))
+            buffer.updateMode = 1;
+        else
+            buffer.updateMode = 2;
+        buffer.next = next;
+        buffer.value = value;
+        buffer.data = data;
+        buffer.dataRef = dataRef;
+        buffer.threshold = threshold;
+        buffer.n = n;
+
+        if (Double.isNaN(threshold))
+            buffer.count = 1;
+        else if (dataRef == null)
+            buffer.count = n;
+        else {
+            for (int i = 0; i < n; i++)
+                if (!(dataRef[i] <= threshold)) //Skip this value if it is below the threshold (same as JSON)
+                    buffer.count++;
+        }
+        buffers.add(buffer);
+    }
+
+    public long getLength() {
+        long length = 4 + 1 + 1 + 1 + 8 + 2 + session.length + 2;
+        for (Buffer buffer : buffers)
+            length += 2 + buffer.name.length + 4 + 1 + 1 + 4 + 8 + (long)buffer.count * (float32 ? 4 : 8);
+        return length;
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+
+        bb.put((byte)'P').put((byte)'H').put((byte)'Y').put((byte)'B').put((byte)version);
+        bb.put((byte)(measuring ? 1 : 0)).put((byte)(timedRun ? 1 : 0)).putLong(countDown);
+        bb.putShort((short)session.length).put(session);
+        bb.putShort((short)buffers.size());
+
+        for (Buffer buffer : buffers) {
+            if (bb.remaining() < 2 + buffer.name.length + 22) {
+                outputStream.write(bb.array(), 0, bb.position());
+                bb.clear();
+            }
+            bb.putShort((short)buffer.name.length).put(buffer.name);
+            bb.putInt(buffer.size);
+            bb.put((byte)buffer.updateMode);
+            bb.put((byte)(float32 ? 4 : 8));
+            bb.putInt(buffer.count);
+            bb.putLong(buffer.next);
+
+            if (Double.isNaN(buffer.threshold)) {
+                if (bb.remaining() < 8) {
+                    outputStream.write(bb.array(), 0, bb.position());
+                    bb.clear();
+                }
+                if (float32)
+                    bb.putFloat((float)buffer.value);
+                else
+                    bb.putDouble(buffer.value);
+                continue;
+            }
+
+            double[] data = buffer.data;
+            double[] dataRef = buffer.dataRef;
+            for (int i = 0; i < buffer.n; i++) {
+                if (dataRef != null && dataRef[i] <= buffer.threshold)
+                    continue;
+                if (bb.remaining() < 8) {
+                    outputStream.write(bb.array(), 0, bb.position());
+                    bb.clear();
+                }
+                if (float32)
+                    bb.putFloat((float)data[i]);
+                else
+                    bb.putDouble(data[i]);
+            }
+        }
+        outputStream.write(bb.array(), 0, bb.position());
+        outputStream.flush();
+    }
+}
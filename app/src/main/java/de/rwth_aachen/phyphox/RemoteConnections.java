@@ -0,0 +1,175 @@
+package de.rwth_aachen.phyphox;
+
+import org.apache.http.ConnectionClosedException;
+import org.apache.http.impl.DefaultHttpServerConnection;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//Accepts the connections of the remote interface and answers their requests with the http service
+//of the RemoteServer.
+//The connections are handled on a pool of threads, so a client that sends a slow request or keeps
+//its connection open for the next one does not block any other client. This is also why
+//persistent connections used to fail when requests were sent in rapid succession: With a single
+//thread, all other clients had to wait for the persistent connection to be closed.
+//If all threads are busy, new connections are answered with "503 Service Unavailable" right away.
+
+@SuppressWarnings( "deprecation" )
+public class RemoteConnections {
+    private final HttpService httpService;
+    private final int maxConnections; //Number of connections handled at the same time
+    private final int keepAliveTimeout; //Idle persistent connections are closed after this time (in ms)
+    private final int busyKeepAliveTimeout; //...or after this time if most threads of the pool are busy
+    private final int busyConnections; //Number of busy threads from which on the shorter timeout is used
+    private volatile boolean running = true;
+    private final Set<DefaultHttpServerConnection> openConnections = new HashSet<>(); //Connections currently handled by the pool
+    private ThreadPoolExecutor connectionPool; //Threads handling the connections
+
+    RemoteConnections(HttpService httpService, int maxConnections, int keepAliveTimeout, int busyKeepAliveTimeout) {
+        this.httpService = httpService;
+        this.maxConnections = maxConnections;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.busyKeepAliveTimeout = busyKeepAliveTimeout;
+        this.busyConnections = maxConnections * 3 / 4;
+    }
+
+    //Accept connections until stop() is called. The server socket should have a timeout, so the
+    //loop notices when it has been stopped.
+    public void serve(ServerSocket serverSocket) {
+        connectionPool = new ThreadPoolExecutor(0, maxConnections, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        try {
+            while (running) {
+                try {
+                    //Wait for an incoming connection and accept it as a socket instance
+                    final Socket socket = serverSocket.accept();
+
+                    try {
+                        connectionPool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                handleConnection(socket);
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        //All threads are busy. We must not handle the request on this thread as
+                        //it might be a stream that never ends, so we just tell the client to retry.
+                        rejectConnection(socket);
+                    }
+                } catch (SocketTimeoutException e) {
+                    //A timeout is ok. We will just start listening again
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            //Close connections that are still waiting for requests, so their threads can finish
+            synchronized (openConnections) {
+                for (DefaultHttpServerConnection httpServerConnection : openConnections) {
+                    try {
+                        httpServerConnection.shutdown();
+                    } catch (IOException e) {
+                        //We are closing anyway
+                    }
+                }
+            }
+            connectionPool.shutdown();
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    //Answer a connection that cannot be handled by the pool with "503 Service Unavailable" and
+    //close it. This never waits for the client, so it can be done on the accept thread.
+    private void rejectConnection(Socket socket) {
+        try {
+            //Discard what the client has sent so far. Closing a socket with unread data resets the
+            //connection and the client might not get to see our answer.
+            InputStream in = socket.getInputStream();
+            int available;
+            while ((available = in.available()) > 0)
+                in.skip(available);
+
+            OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.1 503 Service Unavailable\r\nRetry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+        } catch (IOException e) {
+            //The client will notice that the connection has been closed
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Nothing we can do about it
+            }
+        }
+    }
+
+    //Answer the requests on a connection. We keep answering requests until the client closes the
+    //connection, the connection has been idle for keepAliveTimeout or the server is stopped.
+    //If most threads of the pool are busy, idle connections are closed after the shorter
+    //busyKeepAliveTimeout instead, so their threads become available to new clients.
+    private void handleConnection(Socket socket) {
+        //Turn this into a http server connection
+        DefaultHttpServerConnection httpServerConnection = new DefaultHttpServerConnection();
+        synchronized (openConnections) {
+            openConnections.add(httpServerConnection);
+        }
+        try {
+            //Take the connection
+            HttpParams params = new BasicHttpParams();
+            HttpConnectionParams.setSoTimeout(params, keepAliveTimeout);
+            HttpConnectionParams.setTcpNoDelay(params, true);
+            httpServerConnection.bind(socket, params);
+
+            //Each connection gets its own context as the connections are handled concurrently
+            HttpContext httpContext = new BasicHttpContext();
+
+            //Do what has been requested and answer (see handle registry in RemoteServer). The
+            //service closes the connection if the client does not want to keep it alive.
+            do {
+                httpService.handleRequest(httpServerConnection, httpContext);
+                if (!httpServerConnection.isOpen())
+                    break; //The client did not want to keep the connection alive
+                if (connectionPool.getActiveCount() >= busyConnections)
+                    httpServerConnection.setSocketTimeout(busyKeepAliveTimeout);
+                else
+                    httpServerConnection.setSocketTimeout(keepAliveTimeout);
+            } while (running);
+        } catch (SocketTimeoutException e) {
+            //The connection has been idle for too long. The client will open a new one if needed.
+        } catch (ConnectionClosedException e) {
+            //The client has closed the connection
+        } catch (SocketException e) {
+            //The client has gone away, for example while we were sending a stream
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            synchronized (openConnections) {
+                openConnections.remove(httpServerConnection);
+            }
+            try {
+                httpServerConnection.shutdown();
+            } catch (IOException e) {
+                //Nothing we can do about it
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package de.rwth_aachen.phyphox;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
+//Cache for the buffers requested by the remote interface (see RemoteServer.getCommandHandler).
+//If several browsers watch the same experiment, they request the same buffers within one analysis
+//cycle, but each with its own range (its own threshold or sequence number). Instead of copying and
+//serializing the buffer for each of them, the cache holds one snapshot of each buffer and encodes
+//its values once. Each client then picks its range out of this shared encoding.
+//An entry is only valid for the version of the buffer it has been taken from. The version consists
+//of the sequence numbers (see DataBuffer) of the buffer, which change with every append and every
+//clear and never return to an earlier state. So an entry is dropped as soon as its buffer has
+//changed: when the buffer is requested again and after each analysis cycle (see dropOutdated()).
+//The total size of the entries is limited and the least recently used ones are dropped first.
+
+public class RemoteResponseCache {
+
+    public static class Entry {
+        public final DataBuffer buffer;
+        public final long firstSequence; //Version of the buffer, see DataBuffer
+        public final long nextSequence;
+        public final double[] values; //All values of the buffer
+
+        //The encoded values, separated by commas, and the offset of each value within it. The
+        //offset of values.length is one behind the end, as if there was another comma. Null until
+        //the first client has encoded the values, guarded by the entry.
+        private String json = null;
+        private int[] offsets = null;
+
+        private long bytes; //Estimated memory used by this entry
+
+        Entry(DataBuffer buffer) {
+            this.buffer = buffer;
+            this.firstSequence = buffer.getFirstSequence();
+            this.nextSequence = buffer.getNextSequence();
+            this.values = buffer.getDoubleArray();
+            this.bytes = 8L * values.length + 100;
+        }
+
+        boolean isOutdated() {
+            return buffer.getFirstSequence() != firstSequence || buffer.getNextSequence() != nextSequence;
+        }
+
+        //Encode the values if no other client has done so already. Returns the additional memory.
+        private synchronized long encode(DoubleFormatter format) {
+            if (json != null)
+                return 0;
+            StringBuilder sb = new StringBuilder(14 * values.length);
+            int[] offsets = new int[values.length + 1];
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0)
+                    sb.append(",");
+                offsets[i] = sb.length();
+                if (Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+                    sb.append("null");
+                else
+                    format.format(values[i], sb);
+            }
+            offsets[values.length] = sb.length() + 1;
+            this.offsets = offsets;
+            this.json = sb.toString();
+            return 2L * json.length() + 4L * offsets.length;
+        }
+    }
+
+    private final long maxBytes; //Limit for the total size of all entries
+    private long bytes = 0;
+
+    //Entries by buffer. As only the current version of a buffer can be requested, there is at most
+    //one entry for each buffer.
+    private final LinkedHashMap<DataBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits = 0;
+    private long misses = 0;
+
+    public RemoteResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    //Get the entry for the current version of the buffer. If there is none, a snapshot of the
+    //buffer is taken, so the caller has to hold the lock of the buffer (see BufferLocks).
+    public synchronized Entry get(DataBuffer buffer) {
+        dropOutdated();
+        Entry entry = entries.get(buffer);
+        if (entry == null) {
+            entry = new Entry(buffer);
+            entries.put(buffer, entry);
+            bytes += entry.bytes;
+            trim();
+        }
+        return entry;
+    }
+
+    //Drop the entries of all buffers that have changed since their snapshot has been taken
+    public synchronized void dropOutdated() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.isOutdated()) {
+                bytes -= entry.bytes;
+                it.remove();
+            }
+        }
+    }
+
+    //Drop the least recently used entries until the limit is met. An entry that is larger than the
+    //limit on its own is dropped as well, but can still be used by the clients holding it.
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    //Append the encoded values of the entry with an index from start to end - 1, separated by
+    //commas. If reference is given, values are skipped if the reference value at the same index is
+    //less than or equal to the threshold. The values are encoded with the given format on first use.
+    public void appendValues(Entry entry, StringBuilder sb, int start, int end, double[] reference, double threshold, DoubleFormatter format) {
+        long added = entry.encode(format);
+        synchronized (this) {
+            if (added > 0) {
+                misses++;
+                entry.bytes += added;
+                if (entries.get(entry.buffer) == entry) {
+                    bytes += added;
+                    trim();
+                }
+            } else
+                hits++;
+        }
+
+        String json;
+        int[] offsets;
+        synchronized (entry) {
+            json = entry.json;
+            offsets = entry.offsets;
+        }
+
+        //Copy consecutive values in one go
+        boolean first = true;
+        int i = start;
+        while (i < end) {
+            if (reference != null && reference[i] <= threshold) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < end && (reference == null || !(reference[i] <= threshold)))
+                i++;
+            if (first)
+                first = false;
+            else
+                sb.append(",");
+            sb.append(json, offsets[runStart], offsets[i] - 1);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+}
@@ -18,15 +18,15 @@ import android.util.Log;
 import androidx.appcompat.content.res.AppCompatResources;
 import androidx.preference.PreferenceManager;
 
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.impl.DefaultConnectionReuseStrategy;
 import org.apache.http.impl.DefaultHttpResponseFactory;
-import org.apache.http.impl.DefaultHttpServerConnection;
-import org.apache.http.params.BasicHttpParams;
-import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.BasicHttpProcessor;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpRequestHandler;
@@ -48,22 +48,25 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
-import java.util.Locale;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
 //remoteServer implements a web-interface to remote control the experiment and receive the data
 //Unfortunately, Google decided to depricate org.apache.http in Android 6, so until we move to
 //something else, we need to suppress deprication warnings if we do not want to get flooded.
@@ -74,15 +77,27 @@ public class RemoteServer extends Thread {
     private final PhyphoxExperiment experiment; //Reference to the experiment we want to control
 
     HttpService httpService; //Holds our http service
-    BasicHttpContext basicHttpContext; //A simple http context...
     static int httpServerPort = 8080; //We have to pick a high port number. We may not use 80...
-    boolean RUNNING = false; //Keeps the main loop alive...
+    volatile boolean RUNNING = false; //Keeps the main loop alive...
+    private static final int maxConnections = 16; //Number of connections handled at the same time
+    private static final int keepAliveTimeout = 15000; //Idle persistent connections are closed after this time (in ms)
+    private static final int busyKeepAliveTimeout = 1000; //...or after this time if most threads of the pool are busy
+    private RemoteConnections connections; //Accepts the connections and handles them on a pool of threads
+    private final Object updateMonitor = new Object(); //Notified after each analysis cycle to wake up the streams
+    private long updateCount = 0; //Number of notifications on updateMonitor
+    private static final int streamMaxWait = 500; //The streams check for changes at least this often (in ms), even without notification
+    private static final int streamHeartbeat = 15000; //Idle streams send a comment after this time (in ms) to detect clients that have gone away
+    private static final int maxStreams = maxConnections / 2; //Streams hold their thread for as long as they are open, so only this many are allowed at the same time
+    private int openStreams = 0; //Number of streams currently sent, guarded by updateMonitor
     Context context; //Resource reference for comfortable access
     Experiment callActivity; //Reference to the parent activity. Needed to provide its status on the webinterface
 
     public String sessionID = "";
 
-    public boolean forceFullUpdate = false; //Something has happened (clear) that makes it neccessary to force a full buffer update to the remote interface
+    private static final long responseCacheSize = 16 << 20; //Memory for snapshots of buffers requested by get (in bytes)
+    final RemoteResponseCache responseCache = new RemoteResponseCache(responseCacheSize); //Snapshots and encoded values of buffers shared by all clients of the get command
+
+    public volatile boolean forceFullUpdate = false; //Something has happened (clear) that makes it neccessary to force a full buffer update to the remote interface
 
     static String indexHTML, styleCSS; //These strings will hold the html and css document when loaded from our resources
 
@@ -386,7 +401,8 @@ public class RemoteServer extends Thread {
     }
 
     @Override
-    //This is the main thread, which keeps running in a loop und handles incoming requests.
+    //This is the main thread, which keeps running in a loop und accepts incoming connections (see
+    //RemoteConnections)
     public void run() {
         try {
             //Setup server socket
@@ -395,36 +411,8 @@ public class RemoteServer extends Thread {
             serverSocket.setSoTimeout(3000);
 
             //The actual loop
-            while (RUNNING) {
-                try {
-                    //Wait for an incoming connection and accept it as a socket instance
-                    Socket socket = serverSocket.accept();
+            connections.serve(serverSocket);
 
-                    //Turn this into a http server connection
-                    DefaultHttpServerConnection httpServerConnection = new DefaultHttpServerConnection();
-                    try {
-                        //Take the connection
-                        httpServerConnection.bind(socket, new BasicHttpParams());
-                        //Do what has been requested and answer (see handle registry below)
-                        //while (httpServerConnection.isOpen() && RUNNING) {
-                            httpService.handleRequest(httpServerConnection, basicHttpContext);
-                        //}
-                        //Note about the commented while-loop:
-                        //In theory, this loop should improve performance by allowing persistent connections, but for some reason many requests
-                        //fail if they are send in rapid succession. Not sure why... One idea is, that the second request is send while the first
-                        //one is still being handled and hence entirely ignored. If we close the connection instead, the browser is forced to
-                        //send it again at a more convenient timing... Not entirely convinced. For now let's use the version that works better...
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    } finally {
-                        httpServerConnection.shutdown();
-                    }
-                } catch (SocketTimeoutException e) {
-                    //A timeout is ok. We will just start listening again
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
             //The loop has been shut down, so close our server socket
             serverSocket.close();
         } catch (IOException e) {
@@ -438,7 +426,6 @@ public class RemoteServer extends Thread {
         httpServerPort = Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context).getString("remoteAccessPort", "8080"));
 
         BasicHttpProcessor basicHttpProcessor = new BasicHttpProcessor();
-        basicHttpContext = new BasicHttpContext();
 
         basicHttpProcessor.addInterceptor(new ResponseDate());
         basicHttpProcessor.addInterceptor(new ResponseServer());
@@ -455,18 +442,58 @@ public class RemoteServer extends Thread {
         registry.register("/style.css", new StyleCommandHandler()); //The style sheet (style.css) linked from index.html
         registry.register("/logo", new logoHandler()); //The phyphox logo, also included in style.css
         registry.register("/get", new getCommandHandler()); //A get command takes parameters which define, which buffers and how much of them is requested - the response is a JSON set with the data
+        registry.register("/stream", new streamCommandHandler()); //Like get, but the response is a stream of server-sent events with the new data after each analysis cycle
         registry.register("/control", new controlCommandHandler()); //The control command starts and stops measurements
         registry.register("/export", new exportCommandHandler()); //The export command requests a data file containing sets as requested by the paramters
         registry.register("/config", new configCommandHandler()); //The config command requests information on the currently active experiment configuration
         registry.register("/meta", new metaCommandHandler()); //The meta command requests information on the device
         registry.register("/time", new timeCommandHandler()); //The meta command requests information on the current time reference
+        registry.register("/cache", new cacheCommandHandler()); //The cache command requests the statistics of the response cache of the get command
         httpService.setHandlerResolver(registry);
+
+        connections = new RemoteConnections(httpService, maxConnections, keepAliveTimeout, busyKeepAliveTimeout);
     }
 
 
     //Stop the server by siply setting RUNNING to false
     public synchronized void stopServer() {
         RUNNING = false;
+        connections.stop();
+        notifyUpdate();
+    }
+
+    //Called after an analysis cycle, so the streams (see streamCommandHandler) send new data
+    public void notifyUpdate() {
+        responseCache.dropOutdated(); //Snapshots of buffers changed by the analysis will not be requested again
+        synchronized (updateMonitor) {
+            updateCount++;
+            updateMonitor.notifyAll();
+        }
+    }
+
+    //Appends the status of the experiment as JSON fields (without the braces)
+    private void appendStatus(StringBuilder sb) {
+        //Session ID
+        sb.append("\"session\":\"");
+        sb.append(sessionID);
+
+        //Measuring?
+        sb.append("\", \"measuring\":");
+        if (callActivity.measuring)
+            sb.append("true");
+        else
+            sb.append("false");
+
+        //Timed run?
+        sb.append(", \"timedRun\":");
+        if (callActivity.timedRun)
+            sb.append("true");
+        else
+            sb.append("false");
+
+        //Countdown state
+        sb.append(", \"countDown\":");
+        sb.append(String.valueOf(callActivity.millisUntilFinished));
     }
 
     //The home handler simply takes the already compiled index.html and pushes it through an OutputStreamWriter
@@ -531,6 +558,14 @@ public class RemoteServer extends Thread {
     // values from buffer3 at indices at which values of buffer2 are greater than 67890
     //Example: If you have a graph of sensor data y against time t and already have data to
     // 20 seconds, you would request t=20 and y=20|t to receive any data beyond 20 seconds
+    //A more exact alternative to thresholds are sequence numbers (see DataBuffer): Each buffer in
+    // the response also contains "next", the sequence number of the next value to be appended to
+    // it. A following request with buffer1=since:12345 receives exactly the values appended since
+    // then as "partial" update. If some of these values have already been removed (the buffer has
+    // been cleared or is full), the whole buffer is sent as "full" update instead.
+    //If the request has the header "Accept: application/octet-stream", the response is binary
+    // instead of JSON (see RemoteBinaryResponse). Add "precision=32" to the header to receive 32bit
+    // floats instead of 64bit doubles: "Accept: application/octet-stream; precision=32"
     class getCommandHandler implements HttpRequestHandler {
 
         //This structure (ok, class) holds one element of the request corresponding to a buffer
@@ -538,6 +573,67 @@ public class RemoteServer extends Thread {
             public String name;         //Name of the requested buffer
             public Double threshold;    //Threshold from which to read data
             public String reference;    //The buffer to which the threshold should be applied
+            public long since = -1;     //Sequence number from which to read data (instead of the threshold)
+            public String updateMode;   //single, full or partial
+            public RemoteResponseCache.Entry cached = null; //Snapshot of this buffer for JSON responses, shared with other clients
+            public RemoteResponseCache.Entry cachedReference = null; //...and of the threshold reference, null if it does not exist
+
+            //Snapshot of the data, so we can build the response without holding any lock
+            public DataBuffer db = null;
+            public double value = Double.NaN;
+            public double[] data = null;
+            public double[] dataRef = null; //Values used for the threshold, null if all values are sent
+            public int n = 0;
+            public long next = 0;
+        }
+
+        //Encode a buffer as JSON: "name":{"size":..., "updateMode":..., "next":..., "buffer":[...]}
+        //Except for single values, the values are taken from the shared encoding of the buffer in
+        //the responseCache.
+        private void encodeBuffer(bufferRequest buffer, DoubleFormatter format, StringBuilder sb) {
+            RemoteResponseCache.Entry cached = buffer.cached;
+
+            //Values since a sequence number start at the corresponding index. If some of them have
+            //been removed, the whole buffer is sent instead.
+            int start = 0;
+            String updateMode = buffer.updateMode;
+            if (buffer.since >= 0) {
+                if (buffer.since < cached.firstSequence || buffer.since > cached.nextSequence)
+                    updateMode = "full";
+                else
+                    start = (int)(buffer.since - cached.firstSequence);
+            }
+
+            //Buffer name
+            sb.append("\"");
+            sb.append(buffer.db.name);
+
+            //Buffer size
+            sb.append("\":{\"size\":");
+            sb.append(buffer.db.size);
+
+            //Does the response contain a single value, the whole buffer or a part of it?
+            sb.append(",\"updateMode\":\"");
+            sb.append(updateMode);
+
+            //Sequence number for the next request
+            sb.append("\", \"next\":");
+            sb.append(buffer.next);
+            sb.append(", \"buffer\":[");
+
+            if (Double.isNaN(buffer.threshold)) { //Single value. We already got the last one from our buffer class
+                if (Double.isNaN(buffer.value) || Double.isInfinite(buffer.value))
+                    sb.append("null");
+                else
+                    format.format(buffer.value, sb);
+            } else if (buffer.since >= 0) //All values since the sequence number
+                responseCache.appendValues(cached, sb, start, cached.values.length, null, buffer.threshold, format);
+            else if (buffer.cachedReference != null) { //All values above the threshold of the reference
+                double[] reference = buffer.cachedReference.values;
+                responseCache.appendValues(cached, sb, 0, Math.min(cached.values.length, reference.length), reference, buffer.threshold, format);
+            }
+
+            sb.append("]}");
         }
 
         @Override
@@ -565,13 +661,20 @@ public class RemoteServer extends Thread {
                     bufferRequest br = new bufferRequest();
                     br.name = Uri.decode(query.substring(start, separator)); //The name (the part before "=")
                     br.reference = "";
-                    if (separator == end)
+                    if (separator == end) {
                         br.threshold = Double.NaN; //No special request - the last value should be ok
-                    else {
+                        br.updateMode = "single";
+                    } else {
                         String th = query.substring(separator+1, end); //The part after "="
                         if (th.equals("full") || forceFullUpdate) {
                             br.threshold = Double.NEGATIVE_INFINITY; //Get every single value
+                            br.updateMode = "full";
+                        } else if (th.startsWith("since:")) {
+                            br.since = Long.parseLong(th.substring(6)); //Get the values after this sequence number
+                            br.threshold = Double.NEGATIVE_INFINITY;
+                            br.updateMode = "partial";
                         } else {
+                            br.updateMode = "partial";
                             //So we get a threshold. We just have to figure out the reference buffer
                             int subsplit = th.indexOf('|');
                             if (subsplit == -1)
@@ -595,134 +698,144 @@ public class RemoteServer extends Thread {
             //We now know what the query request. Let's build our answer
             StringBuilder sb;
 
-            //Lock the data, to get a consistent data block
+            Header accept = request.getFirstHeader("Accept");
+            boolean binary = accept != null && accept.getValue().contains("application/octet-stream");
+
+            //Copy the requested data. We need the dataLock, so we do not get the intermediate state
+            //of an analysis cycle, and the locks of the buffers, because sensors only use those.
+            //The response is built afterwards, so it does not block the sensors or the analysis.
+            //For JSON responses, the snapshots are taken from the responseCache. If another client
+            //has already requested the same version of a buffer (with any range), we do not need
+            //to copy the data at all.
             experiment.dataLock.lock();
             try {
-                //First let's take a guess at how much memory we will need
-                int sizeEstimate = 0;
+                Set<DataBuffer> requestedBuffers = new HashSet<>();
                 for (bufferRequest buffer : bufferList) {
-                    if (experiment.dataMap.containsKey(buffer.name)) {
-                        sizeEstimate += 14 * experiment.dataBuffers.get(experiment.dataMap.get(buffer.name)).size + 100;
-                    }
+                    buffer.db = experiment.getBuffer(buffer.name);
+                    if (buffer.db == null)
+                        continue;
+                    requestedBuffers.add(buffer.db);
+                    if (!buffer.reference.equals(""))
+                        requestedBuffers.add(experiment.getBuffer(buffer.reference));
                 }
 
-                //Create the string builder
-                sb = new StringBuilder(sizeEstimate);
-
-                boolean firstBuffer = true; //Helper to recognize the first iteration
-
-                //Set our decimal format (English to make sure we use decimal points, not comma
-                DecimalFormat format = (DecimalFormat) NumberFormat.getInstance(Locale.ENGLISH);
-                format.applyPattern("0.#######E0");
-
-                //Start building...
-                sb.append("{\"buffer\":{\n");
-                for (bufferRequest buffer : bufferList) {
-                    if (experiment.dataMap.containsKey(buffer.name)) { //For each buffer that is requested
-                        if (firstBuffer)
-                            firstBuffer = false;
-                        else
-                            sb.append(",\n"); //Seperate the object with a comma, if this is not the first item
+                BufferLocks locks = new BufferLocks(requestedBuffers, null);
+                locks.lock();
+                try {
+                    for (bufferRequest buffer : bufferList) {
+                        if (buffer.db == null)
+                            continue;
+                        buffer.value = buffer.db.value;
+                        buffer.next = buffer.db.getNextSequence();
 
                         //Get the databuffers. The one requested and the threshold reference
-                        DataBuffer db = experiment.getBuffer(buffer.name);
                         DataBuffer db_reference;
                         if (buffer.reference.equals(""))
-                            db_reference = db;
+                            db_reference = buffer.db;
                         else
                             db_reference = experiment.getBuffer(buffer.reference);
 
-                        //Buffer name
-                        sb.append("\"");
-                        sb.append(db.name);
-
-                        //Buffer size
-                        sb.append("\":{\"size\":");
-                        sb.append(db.size);
+                        if (!binary) {
+                            //A single value does not need a snapshot of the whole buffer
+                            if (Double.isNaN(buffer.threshold))
+                                continue;
+                            buffer.cached = responseCache.get(buffer.db);
+                            if (db_reference == buffer.db)
+                                buffer.cachedReference = buffer.cached;
+                            else if (db_reference != null)
+                                buffer.cachedReference = responseCache.get(db_reference);
+                            continue;
+                        }
 
-                        //Does the response contain a single value, the whole buffer or a part of it?
-                        sb.append(",\"updateMode\":\"");
                         if (Double.isNaN(buffer.threshold))
-                            sb.append("single");
-                        else if (Double.isInfinite(buffer.threshold))
-                            sb.append("full");
-                        else
-                            sb.append("partial");
-                        sb.append("\", \"buffer\":[");
-
-                        if (Double.isNaN(buffer.threshold)) //Single value. Get the last one directly from our buffer class
-                            if (Double.isNaN(db.value) || Double.isInfinite(db.value))
-                                sb.append("null");
-                            else
-                                sb.append(format.format(db.value));
-                        else {
-                            //Get all the values...
-                            boolean firstValue = true; //Find first iteration, so the other ones can add a seperator
-                            Double data[] = db.getArray();
-                            int n = db.getFilledSize();
-                            Double dataRef[];
-                            if (db_reference == db)
-                                dataRef = data;
-                            else {
-                                dataRef = db_reference.getArray();
-                                n = Math.min(n, db_reference.getFilledSize());
-                            }
+                            continue;
+
+                        if (buffer.since >= 0) {
+                            DataBuffer.ValuesSince values = buffer.db.getValuesSince(buffer.since, null);
+                            buffer.data = values.values;
+                            buffer.n = values.n;
+                            buffer.next = values.next;
+                            if (values.evicted)
+                                buffer.updateMode = "full";
+                            continue;
+                        }
 
+                        buffer.data = buffer.db.getDoubleArray();
+                        buffer.n = buffer.db.getFilledSize();
+                        if (db_reference == buffer.db)
+                            buffer.dataRef = buffer.data;
+                        else if (db_reference != null) {
+                            buffer.dataRef = db_reference.getDoubleArray();
+                            buffer.n = Math.min(buffer.n, db_reference.getFilledSize());
+                        } else
+                            buffer.n = 0;
+                    }
+                } finally {
+                    locks.unlock();
+                }
+            } finally {
+                experiment.dataLock.unlock();
+            }
 
-                            Double v;
-                            for (int i = 0; i < n; i++) {
-                                //Simultaneously get the values from both iterators
-                                v = data[i];
-                                Double v_dep = dataRef[i];
-                                if (v_dep <= buffer.threshold) //Skip this value if it is below the threshold or NaN
-                                    continue;
+            if (binary) {
+                final RemoteBinaryResponse binaryResponse = new RemoteBinaryResponse(sessionID, callActivity.measuring, callActivity.timedRun, callActivity.millisUntilFinished, accept.getValue().contains("precision=32"));
+                for (bufferRequest buffer : bufferList)
+                    if (buffer.db != null)
+                        binaryResponse.add(buffer.db.name, buffer.db.size, buffer.updateMode, buffer.next, buffer.value, buffer.data, buffer.dataRef, buffer.threshold, buffer.n);
 
-                                //Add a seperator if this is not the first value
-                                if (firstValue)
-                                    firstValue = false;
-                                else
-                                    sb.append(",");
+                EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+                    @Override
+                    public void writeTo(OutputStream outputStream) throws IOException {
+                        binaryResponse.writeTo(outputStream);
+                    }
+                }) {
+                    @Override
+                    public long getContentLength() {
+                        return binaryResponse.getLength();
+                    }
+                };
 
-                                if (Double.isNaN(v) || Double.isInfinite(v))
-                                    sb.append("null");
-                                else
-                                    sb.append(format.format(v));
-                            }
-                        }
+                response.setHeader("Content-Type", "application/octet-stream");
+                response.setEntity(entity);
+                return;
+            }
 
-                        sb.append("]}");
-                    }
+            //First let's take a guess at how much memory we will need
+            int sizeEstimate = 0;
+            for (bufferRequest buffer : bufferList) {
+                if (buffer.cached != null) {
+                    sizeEstimate += 14 * buffer.cached.values.length + 100;
                 }
+            }
 
-                //We also send the experiment status
-                sb.append("\n},\n\"status\":{\n");
+            //Create the string builder
+            sb = new StringBuilder(sizeEstimate);
 
-                //Session ID
-                sb.append("\"session\":\"");
-                sb.append(sessionID);
+            boolean firstBuffer = true; //Helper to recognize the first iteration
 
-                //Measuring?
-                sb.append("\", \"measuring\":");
-                if (callActivity.measuring)
-                    sb.append("true");
-                else
-                    sb.append("false");
+            //Set our decimal format (decimal points, not comma, same as the pattern "0.#######E0")
+            DoubleFormatter format = DoubleFormatter.scientific(0, 7, '.');
 
-                //Timed run?
-                sb.append(", \"timedRun\":");
-                if (callActivity.timedRun)
-                    sb.append("true");
-                else
-                    sb.append("false");
+            //Start building...
+            sb.append("{\"buffer\":{\n");
+            for (bufferRequest buffer : bufferList) {
+                if (buffer.db != null) { //For each buffer that is requested
+                    if (firstBuffer)
+                        firstBuffer = false;
+                    else
+                        sb.append(",\n"); //Seperate the object with a comma, if this is not the first item
 
-                //Countdown state
-                sb.append(", \"countDown\":");
-                sb.append(String.valueOf(callActivity.millisUntilFinished));
-                sb.append("\n}\n}\n");
-            } finally {
-                experiment.dataLock.unlock();
+                    //Only the first client requesting this version of the buffer encodes its
+                    //values. Others requesting it at the same time wait for the result.
+                    encodeBuffer(buffer, format, sb);
+                }
             }
 
+            //We also send the experiment status
+            sb.append("\n},\n\"status\":{\n");
+            appendStatus(sb);
+            sb.append("\n}\n}\n");
+
             //Done. Build a string and return it as usual
             final String result = sb.toString();
 
@@ -737,6 +850,210 @@ public class RemoteServer extends Thread {
 
     }
 
+    //The stream query has the form
+    //stream?buffer1=partial&buffer2=single&buffer3=full
+    //Instead of polling with get, a client can subscribe to buffers with the update mode of its
+    //element (see getUpdateMode() in ExpView). The response does not end, but is a stream of
+    //server-sent events (text/event-stream). Whenever the subscribed buffers have changed after an
+    //analysis cycle, an event with a JSON object like the response to get is sent, containing the
+    //buffers that have changed:
+    //  single   (or input) The last value of the buffer
+    //  partial  Only the values that have been appended since the last event. If values that have
+    //           been sent have been removed in the meantime (i.e. the buffer has been cleared), the
+    //           whole buffer is sent instead with the updateMode "full"
+    //  full     The whole buffer
+    //The first event contains all subscribed buffers. New values are found by their sequence
+    //numbers (see DataBuffer), so neither the client nor the server have to search for a threshold.
+    class streamCommandHandler implements HttpRequestHandler {
+
+        //A buffer subscribed by the client and the state of the client's copy of it
+        protected class subscription {
+            public String name;
+            public String mode;
+            public DataBuffer db;
+            public long firstSequence = -1; //Sequence numbers of the buffer when it was last sent
+            public long nextSequence = -1;
+
+            //Snapshot of the changes to be sent
+            public boolean changed = false;
+            public String updateMode;
+            public double value;
+            public double[] data = null;
+            public int n = 0;
+        }
+
+        @Override
+        public void handle(HttpRequest request, HttpResponse response,
+                           HttpContext httpContext) throws HttpException, IOException {
+
+            //Leave enough threads for the other requests. The client may retry later.
+            synchronized (updateMonitor) {
+                if (openStreams >= maxStreams) {
+                    response.setStatusCode(503);
+                    response.setHeader("Retry-After", "5");
+                    return;
+                }
+            }
+
+            Uri uri = Uri.parse(request.getRequestLine().getUri());
+
+            final List<subscription> subscriptions = new ArrayList<>();
+            final Set<DataBuffer> buffers = new HashSet<>();
+            for (String name : uri.getQueryParameterNames()) {
+                subscription sub = new subscription();
+                sub.name = name;
+                sub.mode = uri.getQueryParameter(name);
+                sub.db = experiment.getBuffer(name);
+                if (sub.db == null)
+                    continue;
+                subscriptions.add(sub);
+                buffers.add(sub.db);
+            }
+
+            EntityTemplate entity = new EntityTemplate(new ContentProducer() {
+                @Override
+                public void writeTo(OutputStream outputStream) throws IOException {
+                    //The check in handle() does not reserve a slot, so another stream might have
+                    //started in the meantime. In this case the stream just ends right away.
+                    synchronized (updateMonitor) {
+                        if (openStreams >= maxStreams)
+                            return;
+                        openStreams++;
+                    }
+                    try {
+                        stream(outputStream, subscriptions, buffers);
+                    } finally {
+                        synchronized (updateMonitor) {
+                            openStreams--;
+                        }
+                    }
+                }
+            });
+
+            response.setHeader("Content-Type", "text/event-stream");
+            response.setHeader("Cache-Control", "no-cache");
+            response.setEntity(entity);
+        }
+
+        private void stream(OutputStream outputStream, List<subscription> subscriptions, Set<DataBuffer> buffers) throws IOException {
+            Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+
+            //Set our decimal format (decimal points, not comma, same as the pattern "0.#######E0")
+            DoubleFormatter format = DoubleFormatter.scientific(0, 7, '.');
+
+            StringBuilder sb = new StringBuilder();
+            long lastSent = System.currentTimeMillis();
+            long seen;
+            synchronized (updateMonitor) {
+                seen = updateCount;
+            }
+
+            while (RUNNING) {
+                //Copy the changes. Just like get, we need the dataLock and the locks of the buffers.
+                boolean anyChanged = false;
+                experiment.dataLock.lock();
+                try {
+                    BufferLocks locks = new BufferLocks(buffers, null);
+                    locks.lock();
+                    try {
+                        for (subscription sub : subscriptions) {
+                            DataBuffer db = sub.db;
+                            long first = db.getFirstSequence();
+                            long next = db.getNextSequence();
+                            sub.changed = first != sub.firstSequence || next != sub.nextSequence;
+                            if (!sub.changed)
+                                continue;
+                            anyChanged = true;
+                            if ("single".equals(sub.mode) || "input".equals(sub.mode)) {
+                                sub.updateMode = "single";
+                                sub.value = db.value;
+                            } else {
+                                int start = 0;
+                                if ("partial".equals(sub.mode) && first < sub.nextSequence) {
+                                    //All values sent so far that are still in the buffer are still valid
+                                    sub.updateMode = "partial";
+                                    start = (int)(sub.nextSequence - first);
+                                } else
+                                    sub.updateMode = "full";
+                                sub.n = db.getFilledSize() - start;
+                                sub.data = db.getDoubleArray(sub.data, start);
+                            }
+                            sub.firstSequence = first;
+                            sub.nextSequence = next;
+                        }
+                    } finally {
+                        locks.unlock();
+                    }
+                } finally {
+                    experiment.dataLock.unlock();
+                }
+
+                //Build and send the event outside of the locks. Server-sent events end with an
+                //empty line, so the JSON may not contain any line breaks.
+                if (anyChanged) {
+                    sb.setLength(0);
+                    sb.append("data: {\"buffer\":{");
+                    boolean firstBuffer = true;
+                    for (subscription sub : subscriptions) {
+                        if (!sub.changed)
+                            continue;
+                        if (firstBuffer)
+                            firstBuffer = false;
+                        else
+                            sb.append(",");
+                        sb.append("\"");
+                        sb.append(sub.name.replace("\"","\\\""));
+                        sb.append("\":{\"size\":");
+                        sb.append(sub.db.size);
+                        sb.append(",\"updateMode\":\"");
+                        sb.append(sub.updateMode);
+                        sb.append("\", \"buffer\":[");
+                        if (sub.updateMode.equals("single")) {
+                            if (Double.isNaN(sub.value) || Double.isInfinite(sub.value))
+                                sb.append("null");
+                            else
+                                format.format(sub.value, sb);
+                        } else {
+                            for (int i = 0; i < sub.n; i++) {
+                                if (i > 0)
+                                    sb.append(",");
+                                double v = sub.data[i];
+                                if (Double.isNaN(v) || Double.isInfinite(v))
+                                    sb.append("null");
+                                else
+                                    format.format(v, sb);
+                            }
+                        }
+                        sb.append("]}");
+                    }
+                    sb.append("},\"status\":{");
+                    appendStatus(sb);
+                    sb.append("}}\n\n");
+                    writer.write(sb.toString());
+                    writer.flush();
+                    lastSent = System.currentTimeMillis();
+                } else if (System.currentTimeMillis() - lastSent > streamHeartbeat) {
+                    //A comment line, which is ignored by the client
+                    writer.write(":\n\n");
+                    writer.flush();
+                    lastSent = System.currentTimeMillis();
+                }
+
+                //Wait for the next analysis cycle
+                synchronized (updateMonitor) {
+                    if (updateCount == seen && RUNNING) {
+                        try {
+                            updateMonitor.wait(streamMaxWait);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    seen = updateCount;
+                }
+            }
+        }
+    }
+
     //This query has the simple form control?cmd=start or control?cmd=set&buffer=name&value=42
     //The first form starts or stops the measurement. The second one sends a user-given value (from
     //an editElement) to a buffer
@@ -1097,4 +1414,38 @@ public class RemoteServer extends Thread {
         }
     }
 
+    //The cache query does not take any parameters
+    //It returns the statistics of the responseCache used by the get command: The number of
+    // buffers that have been taken from the cache (hits), the number of buffers that had to be
+    // encoded (misses), the number of cached buffers and their estimated size in bytes
+    class cacheCommandHandler implements HttpRequestHandler {
+        @Override
+        public void handle(HttpRequest request, HttpResponse response,
+                           HttpContext httpContext) throws HttpException, IOException {
+
+            String result;
+
+            try {
+                JSONObject json = new JSONObject();
+                json.put("hits", responseCache.getHits());
+                json.put("misses", responseCache.getMisses());
+                json.put("entries", responseCache.size());
+                json.put("bytes", responseCache.getBytes());
+                result = json.toString();
+            } catch (JSONException e) {
+                result = "{\"result\": false}";
+                Log.e("cacheHandler", "Error: " + e.getMessage());
+            }
+
+            BasicHttpEntity entity = new BasicHttpEntity();
+            InputStream inputStream = new ByteArrayInputStream(result.getBytes());
+            entity.setContent(inputStream);
+            entity.setContentLength(inputStream.available());
+
+            response.setHeader("Content-Type", "application/json");
+            response.setEntity(entity);
+
+        }
+    }
+
 }
@@ -44,7 +44,11 @@ public class SensorInput implements SensorEventListener, Serializable {
     private boolean average = false; //Avergae over aquisition period?
     private int aquisitions; //Number of aquisitions for this average
 
-    private Lock dataLock;
+    private Lock outputLock;
+
+    //Sensor events are queued here by the sensor thread and written to the buffers in bulk by the analysis thread (see SensorQueue)
+    private static final int queueCapacity = 4096;
+    transient private volatile SensorQueue queue = null;
 
     public boolean vendorSensor = false;
     public Sensor sensor;
@@ -90,7 +94,7 @@ public class SensorInput implements SensorEventListener, Serializable {
     }
 
     private SensorInput(boolean ignoreUnavailable, double rate, SensorRateStrategy rateStrategy, int stride, boolean average, Vector<DataOutput> buffers, Lock lock, ExperimentTimeReference experimentTimeReference) throws SensorException {
-        this.dataLock = lock;
+        this.outputLock = lock;
         this.experimentTimeReference = experimentTimeReference;
 
         if (rate <= 0)
@@ -280,6 +284,15 @@ public class SensorInput implements SensorEventListener, Serializable {
         this.strideCount = 0;
         lastOneTooFast = false;
 
+        if (queue == null) {
+            queue = new SensorQueue(queueCapacity, new SensorQueue.Sink() {
+                @Override
+                public void write(double[][] values, int n) {
+                    writeToBuffers(values, n);
+                }
+            });
+        }
+
         if (rateStrategy == SensorRateStrategy.request || rateStrategy == SensorRateStrategy.auto)
             this.sensorManager.registerListener(this, sensor, (int)(period / 1000));
         else
@@ -291,6 +304,37 @@ public class SensorInput implements SensorEventListener, Serializable {
         if (sensor == null)
             return;
         this.sensorManager.unregisterListener(this);
+        flushQueue();
+        if (BuildConfig.DEBUG && queue != null)
+            Log.d("SensorInput", this.sensorName + ": " + queue.getTotal() + " values queued, high-water mark " + queue.getHighWaterMark() + "/" + queue.capacity() + ", " + queue.getOverflows() + " overflows, " + queue.getDropped() + " dropped.");
+    }
+
+    //Write all queued sensor events to the buffers. This is called by the analysis thread.
+    public void flushQueue() {
+        SensorQueue q = queue;
+        if (q != null)
+            q.flush();
+    }
+
+    //Append values[channel][0...n-1] to the buffers (see SensorQueue for the channels)
+    private void writeToBuffers(double[][] values, int n) {
+        outputLock.lock();
+        try {
+            if (dataX != null)
+                dataX.append(values[SensorQueue.X], n);
+            if (dataY != null)
+                dataY.append(values[SensorQueue.Y], n);
+            if (dataZ != null)
+                dataZ.append(values[SensorQueue.Z], n);
+            if (dataT != null)
+                dataT.append(values[SensorQueue.T], n);
+            if (dataAbs != null)
+                dataAbs.append(values[SensorQueue.ABS], n);
+            if (dataAccuracy != null)
+                dataAccuracy.append(values[SensorQueue.ACCURACY], n);
+        } finally {
+            outputLock.unlock();
+        }
     }
 
     //This event listener is mandatory as this class implements SensorEventListener
@@ -298,59 +342,76 @@ public class SensorInput implements SensorEventListener, Serializable {
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
     }
 
+    //Called on the sensor thread. The values are queued and written to the buffers by the analysis thread.
     private void appendToBuffers(long timestamp, double x, double y, double z, double accuracy) {
+        appendToBuffers(timestamp, x, y, z, accuracy, false);
+    }
+
+    //If direct is set, the values are written to the buffers immediately instead of being queued.
+    //This is used for values that are generated on the analysis thread, which must not use the
+    //queue as it only supports a single producer.
+    private void appendToBuffers(long timestamp, double x, double y, double z, double accuracy, boolean direct) {
         strideCount++;
         if (strideCount < stride) {
             return;
         } else {
             strideCount = 0;
         }
-        dataLock.lock();
-        try {
-            if (dataX != null)
-                dataX.append(x);
-            if (dataY != null)
-                dataY.append(y);
-            if (dataZ != null)
-                dataZ.append(z);
-            if (dataT != null) {
-                double t;
-                if (timestamp == 0) {
-                    //This is nonsense. The timestamp should be given in nanoseconds since system boot.
-                    //Receiving exactly 0 is very unlikely to be an offset, but most likely to be a bad
-                    //implementation on the device. We will do an best effort fix it by retrieving our
-                    //own timestamp.
-                    t = experimentTimeReference.getExperimentTime();
-                } else {
-                    t = experimentTimeReference.getExperimentTimeFromEvent(timestamp);
-
-                    //Some devices have a bad implementation with a significant time offset. Here we check for this problem and try to correct it
-                    if (fixDeviceTimeOffset == 0.0) { //Once we add an adjustment we should not change it
-                        double now = experimentTimeReference.getExperimentTime();
-                        if ((t < -300 || (t > now + 0.1)) && fixDeviceTimeOffset == 0.0) { //Timestamp from before the start of the experiment or in the future
-                            Log.w("SensorInput", "Unrealistic time offset detected at " + now + ". Applying adjustment of " + -t + "s.");
-                            fixDeviceTimeOffset = now-t;
-                        }
-                    }
-                    t += fixDeviceTimeOffset;
 
-                    if (t < 0.0) {
-                        Log.w("SensorInput", this.sensorName + ": Adjusted one timestamp from t = " + t + "s to t = 0s.");
-                        t = 0.0;
+        double t = Double.NaN;
+        if (dataT != null) {
+            if (timestamp == 0) {
+                //This is nonsense. The timestamp should be given in nanoseconds since system boot.
+                //Receiving exactly 0 is very unlikely to be an offset, but most likely to be a bad
+                //implementation on the device. We will do an best effort fix it by retrieving our
+                //own timestamp.
+                t = experimentTimeReference.getExperimentTime();
+            } else {
+                t = experimentTimeReference.getExperimentTimeFromEvent(timestamp);
+
+                //Some devices have a bad implementation with a significant time offset. Here we check for this problem and try to correct it
+                if (fixDeviceTimeOffset == 0.0) { //Once we add an adjustment we should not change it
+                    double now = experimentTimeReference.getExperimentTime();
+                    if ((t < -300 || (t > now + 0.1)) && fixDeviceTimeOffset == 0.0) { //Timestamp from before the start of the experiment or in the future
+                        Log.w("SensorInput", "Unrealistic time offset detected at " + now + ". Applying adjustment of " + -t + "s.");
+                        fixDeviceTimeOffset = now-t;
                     }
                 }
-                dataT.append(t);
+                t += fixDeviceTimeOffset;
+
+                if (t < 0.0) {
+                    Log.w("SensorInput", this.sensorName + ": Adjusted one timestamp from t = " + t + "s to t = 0s.");
+                    t = 0.0;
+                }
             }
-            if (dataAbs != null)
-                if (type == Sensor.TYPE_ROTATION_VECTOR)
-                    dataAbs.append(Math.sqrt(aquisitions*aquisitions-avgX*avgX-avgY*avgY-avgZ*avgZ) / aquisitions);
-                else
-                    dataAbs.append(Math.sqrt(avgX*avgX+avgY*avgY+avgZ*avgZ) / aquisitions);
-            if (dataAccuracy != null)
-                dataAccuracy.append(accuracy);
-        } finally {
-            dataLock.unlock();
         }
+
+        double abs = Double.NaN;
+        if (dataAbs != null)
+            if (type == Sensor.TYPE_ROTATION_VECTOR)
+                abs = Math.sqrt(aquisitions*aquisitions-avgX*avgX-avgY*avgY-avgZ*avgZ) / aquisitions;
+            else
+                abs = Math.sqrt(avgX*avgX+avgY*avgY+avgZ*avgZ) / aquisitions;
+
+        SensorQueue q = queue;
+        if (q == null || direct) {
+            double[][] values = new double[SensorQueue.CHANNELS][1];
+            values[SensorQueue.T][0] = t;
+            values[SensorQueue.X][0] = x;
+            values[SensorQueue.Y][0] = y;
+            values[SensorQueue.Z][0] = z;
+            values[SensorQueue.ABS][0] = abs;
+            values[SensorQueue.ACCURACY][0] = accuracy;
+            if (q == null)
+                writeToBuffers(values, 1);
+            else {
+                synchronized (q) { //Make sure that all queued values are written first
+                    q.flush();
+                    writeToBuffers(values, 1);
+                }
+            }
+        } else
+            q.put(t, x, y, z, abs, accuracy);
     }
 
     private void resetAveraging(long t) {
@@ -372,7 +433,7 @@ public class SensorInput implements SensorEventListener, Serializable {
         }
         if (rateStrategy == SensorRateStrategy.generate && lastReading > 0) {
             while (lastReading + 2*period <= now) { //In case we did not get a sensor event in the last 200ms + 2*period, we fill it up here. This just ensures that the user gets data even with sensor types that do not update without a change.
-                appendToBuffers(lastReading + period, genX, genY, genZ, genAccuracy);
+                appendToBuffers(lastReading + period, genX, genY, genZ, genAccuracy, true);
                 lastReading += period;
             }
         }
@@ -0,0 +1,123 @@
+package de.rwth_aachen.phyphox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+//Lock-free queue between a sensor callback and the data buffers of the sensor.
+//Sensor events arrive on their own thread at rates of up to several hundred Hz. Instead of locking
+//the buffers for every single event, the sensor thread (the only producer) writes the values to
+//preallocated primitive slots and the analysis thread flushes them to the buffers in bulk. The
+//producer does not wait for any lock unless the queue is full (i.e. if the analysis thread is
+//stalled), in which case it flushes the queue itself instead of losing values. Flushing is
+//synchronized, so only one thread flushes at a time.
+//The counters allow to check that no samples are lost: overflows counts how often the producer
+//had to flush the queue itself, dropped counts values that could not be queued even then (this
+//should always be zero) and highWaterMark is the maximum number of values waiting at once.
+
+public class SensorQueue {
+    public static final int T = 0, X = 1, Y = 2, Z = 3, ABS = 4, ACCURACY = 5;
+    public static final int CHANNELS = 6;
+
+    //Receives the values when the queue is flushed
+    public interface Sink {
+        void write(double[][] values, int n); //values[channel][0...n-1]
+    }
+
+    private final Sink sink;
+    private final int capacity;
+    private final int mask;
+    private final double[][] slots; //slots[channel][index & mask]
+    private final double[][] scratch = new double[CHANNELS][]; //Used to hand the values to the sink
+
+    //Number of values ever written and read. Only the producer updates head and only the flushing
+    //thread updates tail, so lazySet is sufficient to publish them.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    //Statistics, only written by the producer
+    private volatile long overflows = 0;
+    private volatile long dropped = 0;
+    private volatile int highWaterMark = 0;
+
+    //The capacity is rounded up to a power of two
+    public SensorQueue(int capacity, Sink sink) {
+        int c = 1;
+        while (c < capacity)
+            c <<= 1;
+        this.capacity = c;
+        this.mask = c - 1;
+        this.slots = new double[CHANNELS][c];
+        this.sink = sink;
+    }
+
+    //Add a value to the queue. Only to be called from the producer thread.
+    public void put(double t, double x, double y, double z, double abs, double accuracy) {
+        if (offer(t, x, y, z, abs, accuracy))
+            return;
+        overflows++;
+        flush();
+        if (!offer(t, x, y, z, abs, accuracy))
+            dropped++;
+    }
+
+    private boolean offer(double t, double x, double y, double z, double abs, double accuracy) {
+        long h = head.get();
+        int fill = (int)(h - tail.get());
+        if (fill >= capacity)
+            return false;
+        int i = (int)(h & mask);
+        slots[T][i] = t;
+        slots[X][i] = x;
+        slots[Y][i] = y;
+        slots[Z][i] = z;
+        slots[ABS][i] = abs;
+        slots[ACCURACY][i] = accuracy;
+        head.lazySet(h + 1);
+        if (fill + 1 > highWaterMark)
+            highWaterMark = fill + 1;
+        return true;
+    }
+
+    //Hand all queued values to the sink. Returns the number of values.
+    public synchronized int flush() {
+        long t = tail.get();
+        int n = (int)(head.get() - t);
+        if (n == 0)
+            return 0;
+        int start = (int)(t & mask);
+        int first = Math.min(n, capacity - start);
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if (scratch[channel] == null || scratch[channel].length < n)
+                scratch[channel] = new double[capacity];
+            System.arraycopy(slots[channel], start, scratch[channel], 0, first);
+            if (first < n)
+                System.arraycopy(slots[channel], 0, scratch[channel], first, n - first);
+        }
+        tail.lazySet(t + n);
+        sink.write(scratch, n);
+        return n;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return (int)(head.get() - tail.get());
+    }
+
+    public long getTotal() {
+        return head.get();
+    }
+
+    public long getOverflows() {
+        return overflows;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
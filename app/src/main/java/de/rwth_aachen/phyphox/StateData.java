@@ -0,0 +1,157 @@
+package de.rwth_aachen.phyphox;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
+//Binary data of saved experiment states.
+//A state file is a copy of the experiment XML, which stores the values of each data container as
+//text in its init attribute. Formatting and parsing millions of values takes a long time, so
+//states saved locally store the values in a companion file next to the state file instead (the
+//name of the state file plus suffix). The data file holds one section of raw little-endian
+//doubles for each container. The XML remains the descriptor of the state: The data-containers
+//block names the data file in the attribute data-file and each container refers to its section
+//with the attribute init-data="offset,count" (offset in bytes and number of values).
+//When the state is loaded, the data file is memory-mapped and the sections are handed to the
+//buffers without parsing (see DataBuffer.setInit(DoubleBuffer)). The OS only reads the pages as
+//they are accessed and the mapping replaces the copy of the initial values on the heap.
+//States that are shared always carry their values in the XML (see inline()), so they can be
+//opened anywhere.
+
+public class StateData {
+    public static final String suffix = ".data"; //Appended to the name of the state file
+    private static final int chunkSize = 4096; //Values written at once
+
+    //Writes the sections of a data file
+    public static class Writer implements Closeable {
+        private final FileOutputStream stream;
+        private final FileChannel channel;
+        private final double[] chunk = new double[chunkSize];
+        private final ByteBuffer bytes = ByteBuffer.allocate(chunkSize * 8).order(ByteOrder.LITTLE_ENDIAN);
+        private final DoubleBuffer view = bytes.asDoubleBuffer();
+        private long position = 0;
+
+        public Writer(File file) throws IOException {
+            stream = new FileOutputStream(file);
+            channel = stream.getChannel();
+        }
+
+        //Write the values of a buffer as a new section and return the value of its init-data attribute
+        public String write(DataBuffer buffer) throws IOException {
+            long offset = position;
+            long sequence = buffer.getFirstSequence();
+            int count = 0;
+            int n;
+            while ((n = buffer.getValues(sequence + count, chunk, 0, chunkSize)) > 0) {
+                view.clear();
+                view.put(chunk, 0, n);
+                bytes.clear();
+                bytes.limit(n * 8);
+                while (bytes.hasRemaining())
+                    channel.write(bytes);
+                count += n;
+            }
+            position += count * 8L;
+            return offset + "," + count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.force(false);
+            stream.close();
+        }
+    }
+
+    //Map a data file (read only)
+    public static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("State data file too large.");
+            //The mapping remains valid after closing the file
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    //The values of a section given by the value of an init-data attribute
+    public static DoubleBuffer section(ByteBuffer data, String initData) throws IOException {
+        String[] parts = initData.split(",");
+        long offset, count;
+        try {
+            offset = Long.parseLong(parts[0].trim());
+            count = Long.parseLong(parts[1].trim());
+        } catch (Exception e) {
+            throw new IOException("Invalid init-data \"" + initData + "\".");
+        }
+        if (offset < 0 || count < 0 || offset % 8 != 0 || offset + count * 8 > data.capacity())
+            throw new IOException("init-data \"" + initData + "\" is out of range of the state data.");
+        ByteBuffer b = data.duplicate();
+        b.limit((int)(offset + count * 8));
+        b.position((int)offset);
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    //Write a copy of a state file with its values in the XML (like states created without a data
+    //file) to target, so it can be shared. If there is no data file, the state is simply copied.
+    public static void inline(File stateFile, File target) throws Exception {
+        File dataFile = new File(stateFile.getPath() + suffix);
+        InputStream in = new FileInputStream(stateFile);
+        Document doc;
+        try {
+            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+        } finally {
+            in.close();
+        }
+
+        NodeList blocks = doc.getElementsByTagName("data-containers");
+        if (dataFile.exists() && blocks.getLength() == 1) {
+            ((Element)blocks.item(0)).removeAttribute("data-file");
+            ByteBuffer data = map(dataFile);
+            DoubleFormatter format = DoubleFormatter.scientific(0, 9, '.'); //Same as the pattern "0.#########E0" used by writeStateFile()
+            NodeList containers = doc.getElementsByTagName("container");
+            for (int i = 0; i < containers.getLength(); i++) {
+                Element container = (Element)containers.item(i);
+                if (!container.hasAttribute("init-data"))
+                    continue;
+                DoubleBuffer values = section(data, container.getAttribute("init-data"));
+                StringBuilder sb = new StringBuilder();
+                for (int j = 0; j < values.capacity(); j++) {
+                    if (j > 0)
+                        sb.append(",");
+                    format.format(values.get(j), sb);
+                }
+                container.removeAttribute("init-data");
+                container.setAttribute("init", sb.toString());
+            }
+        }
+
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(out));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+//Runs sensors, the analysis and readers at the same time on overlapping sets of buffers. All of
+//them have to keep going (no deadlock) and readers always have to see consistent data.
+public class BufferLocksTest {
+
+    private static final long duration = 1500; //in ms
+    private static final long timeout = 10000; //in ms, anything still running by then is considered a deadlock
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private Thread start(final String name, final Runnable loop) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (running.get() && failure.get() == null)
+                        loop.run();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    //Values of a buffer are consecutive numbers with the given step
+    private static void assertConsecutive(double[] values, int n, double step) {
+        for (int i = 1; i < n; i++)
+            assertEquals(values[i - 1] + step, values[i], 0);
+    }
+
+    private static Analysis.AnalysisModule module(Analysis.AnalysisModule module) {
+        module.setCycles(new Vector<Analysis.AnalysisModule.CycleRange>());
+        return module;
+    }
+
+    private static Vector<DataInput> inputs(DataInput... inputs) {
+        return new Vector<>(Arrays.asList(inputs));
+    }
+
+    private static Vector<DataOutput> output(DataBuffer buffer) {
+        Vector<DataOutput> outputs = new Vector<>();
+        outputs.add(new DataOutput(buffer, true));
+        return outputs;
+    }
+
+    @Test
+    public void sensorsAnalysisAndReaders() throws InterruptedException {
+        final PhyphoxExperiment experiment = new PhyphoxExperiment();
+
+        //Two sensors with a value and a time buffer each. Both get the same consecutive numbers.
+        final DataBuffer xA = experiment.createBuffer("xA", 500, experiment.experimentTimeReference);
+        final DataBuffer tA = experiment.createBuffer("tA", 500, experiment.experimentTimeReference);
+        final DataBuffer xB = experiment.createBuffer("xB", 500, experiment.experimentTimeReference);
+        final DataBuffer tB = experiment.createBuffer("tB", 500, experiment.experimentTimeReference);
+
+        //Analysis: a = xA + tA and b = xB + tB are independent and run in parallel, c = a / 2 has to
+        //wait for a.
+        final DataBuffer a = experiment.createBuffer("a", 0, experiment.experimentTimeReference);
+        final DataBuffer b = experiment.createBuffer("b", 0, experiment.experimentTimeReference);
+        final DataBuffer c = experiment.createBuffer("c", 0, experiment.experimentTimeReference);
+        List<Analysis.AnalysisModule> modules = new ArrayList<>();
+        modules.add(module(new Analysis.addAM(experiment, inputs(new DataInput(xA, false), new DataInput(tA, false)), output(a))));
+        modules.add(module(new Analysis.addAM(experiment, inputs(new DataInput(xB, false), new DataInput(tB, false)), output(b))));
+        modules.add(module(new Analysis.multiplyAM(experiment, inputs(new DataInput(a, false), new DataInput(0.5)), output(c))));
+        final AnalysisScheduler scheduler = new AnalysisScheduler(modules, 4, new ForkJoinPool(4));
+
+        List<Thread> threads = new ArrayList<>();
+
+        //Sensors only lock their own buffers
+        for (final DataBuffer[] sensor : new DataBuffer[][]{{xA, tA}, {xB, tB}}) {
+            threads.add(start("sensor " + sensor[0].name, new Runnable() {
+                final BufferLocks locks = new BufferLocks(null, Arrays.asList(sensor));
+                final double[] values = new double[7];
+                double next = 0;
+
+                @Override
+                public void run() {
+                    for (int i = 0; i < values.length; i++)
+                        values[i] = next++;
+                    locks.lock();
+                    try {
+                        sensor[0].append(values, values.length);
+                        sensor[1].append(values, values.length);
+                    } finally {
+                        locks.unlock();
+                    }
+                }
+            }));
+        }
+
+        //The analysis holds the dataLock for the whole cycle while the modules run on the pool
+        threads.add(start("analysis", new Runnable() {
+            int cycle = 0;
+
+            @Override
+            public void run() {
+                experiment.dataLock.lock();
+                try {
+                    scheduler.run(cycle++);
+                } finally {
+                    experiment.dataLock.unlock();
+                }
+            }
+        }));
+
+        //Readers of the analysis results (like the views and the remote server) use the dataLock
+        //and the buffer locks
+        threads.add(start("results", new Runnable() {
+            final BufferLocks locks = new BufferLocks(Arrays.asList(c, xA, a), null);
+
+            @Override
+            public void run() {
+                experiment.dataLock.lock();
+                try {
+                    locks.lock();
+                    try {
+                        //c always belongs to the same cycle as a
+                        double[] va = a.getDoubleArray();
+                        double[] vc = c.getDoubleArray();
+                        assertEquals(va.length, vc.length);
+                        for (int i = 0; i < va.length; i++)
+                            assertEquals(va[i], 2 * vc[i], 0);
+                        assertConsecutive(va, va.length, 2);
+                        assertConsecutive(b.getDoubleArray(), b.getFilledSize(), 2);
+                    } finally {
+                        locks.unlock();
+                    }
+                } finally {
+                    experiment.dataLock.unlock();
+                }
+            }
+        }));
+
+        //Others (like inputs that write to several buffers) lock the same buffers in a different
+        //order and for writing, without the dataLock
+        threads.add(start("sensors", new Runnable() {
+            final BufferLocks locks = new BufferLocks(null, Arrays.asList(tB, tA, xB, xA));
+
+            @Override
+            public void run() {
+                locks.lock();
+                try {
+                    for (DataBuffer[] sensor : new DataBuffer[][]{{xA, tA}, {xB, tB}}) {
+                        assertEquals(sensor[0].getFilledSize(), sensor[1].getFilledSize());
+                        assertEquals(sensor[0].value, sensor[1].value, 0);
+                        assertConsecutive(sensor[0].getDoubleArray(), sensor[0].getFilledSize(), 1);
+                    }
+                } finally {
+                    locks.unlock();
+                }
+            }
+        }));
+
+        Thread.sleep(duration);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join(timeout);
+            assertFalse("Deadlock in " + thread.getName(), thread.isAlive());
+        }
+        assertNull(failure.get());
+
+        //Make sure that everyone actually did something
+        assertTrue(xA.getFilledSize() > 0 && xB.getFilledSize() > 0);
+        assertTrue(a.getFilledSize() > 0 && b.getFilledSize() > 0 && c.getFilledSize() > 0);
+    }
+
+    //Appends values to a sensor buffer as fast as possible while the analysis holds the dataLock
+    //for long cycles (like a long FFT) and a remote client reads the sensor buffer and the result
+    //of the analysis. If legacy is set, the sensor uses the dataLock like all inputs did before the
+    //buffers had their own locks. Returns the longest time the sensor had to wait for its lock in ns
+    //and the number of values appended per second.
+    private long[] ingestion(final boolean legacy) throws InterruptedException {
+        final long hold = 100; //in ms, duration of an analysis cycle
+        final long contentionDuration = 1000; //in ms
+        final PhyphoxExperiment experiment = new PhyphoxExperiment();
+        final DataBuffer x = experiment.createBuffer("x", 10000, experiment.experimentTimeReference);
+        final DataBuffer result = experiment.createBuffer("result", 10000, experiment.experimentTimeReference);
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicLong appended = new AtomicLong();
+        final AtomicBoolean active = new AtomicBoolean(true);
+
+        List<Thread> threads = new ArrayList<>();
+
+        Runnable[] loops = new Runnable[] {
+            //The sensor
+            new Runnable() {
+                final Lock locks = legacy ? experiment.dataLock : new BufferLocks(null, Arrays.asList(x));
+                final double[] values = new double[10];
+
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    locks.lock();
+                    try {
+                        long wait = System.nanoTime() - start;
+                        if (wait > maxWait.get())
+                            maxWait.set(wait);
+                        x.append(values, values.length);
+                        appended.addAndGet(values.length);
+                    } finally {
+                        locks.unlock();
+                    }
+                }
+            },
+            //The analysis reads the sensor buffer and takes a long time to write its result
+            new Runnable() {
+                final BufferLocks input = new BufferLocks(Arrays.asList(x), null);
+                final BufferLocks output = new BufferLocks(null, Arrays.asList(result));
+
+                @Override
+                public void run() {
+                    experiment.dataLock.lock();
+                    try {
+                        double[] values;
+                        input.lock();
+                        try {
+                            values = x.getDoubleArray();
+                        } finally {
+                            input.unlock();
+                        }
+                        output.lock();
+                        try {
+                            Thread.sleep(hold);
+                            result.append(values, values.length);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        } finally {
+                            output.unlock();
+                        }
+                    } finally {
+                        experiment.dataLock.unlock();
+                    }
+                    try {
+                        Thread.sleep(hold / 5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            },
+            //A remote client copies both buffers like RemoteServer does and encodes them afterwards
+            new Runnable() {
+                final BufferLocks locks = new BufferLocks(Arrays.asList(x, result), null);
+
+                @Override
+                public void run() {
+                    experiment.dataLock.lock();
+                    try {
+                        locks.lock();
+                        try {
+                            x.getDoubleArray();
+                            result.getDoubleArray();
+                        } finally {
+                            locks.unlock();
+                        }
+                    } finally {
+                        experiment.dataLock.unlock();
+                    }
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            },
+        };
+        for (final Runnable loop : loops) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (active.get() && failure.get() == null)
+                            loop.run();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread.sleep(contentionDuration);
+        active.set(false);
+        for (Thread thread : threads) {
+            thread.join(timeout);
+            assertFalse(thread.isAlive());
+        }
+        assertNull(failure.get());
+        assertTrue(result.getFilledSize() > 0);
+        return new long[] {maxWait.get(), appended.get() * 1000 / contentionDuration};
+    }
+
+    @Test
+    public void ingestionUnderContention() throws InterruptedException {
+        long[] legacy = ingestion(true);
+        long[] buffers = ingestion(false);
+        System.out.println("Sensor with dataLock: longest wait " + legacy[0] / 1000000 + " ms, " + legacy[1] + " values/s");
+        System.out.println("Sensor with buffer locks: longest wait " + buffers[0] / 1000000 + " ms, " + buffers[1] + " values/s");
+
+        //With the dataLock, the sensor has to wait for entire analysis cycles (100 ms). With its
+        //own lock, it only waits while others copy its buffer.
+        assertTrue(legacy[0] > 80000000L);
+        assertTrue(buffers[0] < 40000000L);
+        assertTrue(buffers[1] > legacy[1]);
+    }
+
+    @Test
+    public void updateWithLockHeldByCaller() throws InterruptedException {
+        //The scheduler runs modules on other threads while the caller holds the dataLock on their
+        //behalf, so a module must not try to acquire it on its own
+        final PhyphoxExperiment experiment = new PhyphoxExperiment();
+        DataBuffer in = experiment.createBuffer("in", 0, experiment.experimentTimeReference);
+        final DataBuffer out = experiment.createBuffer("out", 0, experiment.experimentTimeReference);
+        in.append(new double[]{1, 2, 3}, 3);
+        final Analysis.AnalysisModule module = module(new Analysis.multiplyAM(experiment, inputs(new DataInput(in, false), new DataInput(2)), output(out)));
+
+        experiment.dataLock.lock();
+        try {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    module.updateIfNotStatic(0, true);
+                }
+            });
+            worker.setDaemon(true);
+            worker.start();
+            worker.join(timeout);
+            assertFalse(worker.isAlive());
+        } finally {
+            experiment.dataLock.unlock();
+        }
+        assertEquals(3, out.getFilledSize());
+        assertEquals(6, out.value, 0);
+    }
+}
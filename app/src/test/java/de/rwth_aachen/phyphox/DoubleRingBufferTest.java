@@ -0,0 +1,124 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+//Compares the DoubleRingBuffer to a plain list that is trimmed to the limit after each operation
+public class DoubleRingBufferTest {
+
+    private static void trim(List<Double> reference, int limit) {
+        if (limit > 0)
+            while (reference.size() > limit)
+                reference.remove(0);
+    }
+
+    private static void assertContent(List<Double> reference, DoubleRingBuffer buffer) {
+        int n = reference.size();
+        assertEquals(n, buffer.size());
+        assertEquals(n == 0, buffer.isEmpty());
+
+        double[] expected = new double[n];
+        for (int i = 0; i < n; i++)
+            expected[i] = reference.get(i);
+        assertArrayEquals(expected, buffer.toArray(), 0);
+
+        Double[] boxed = buffer.toBoxedArray();
+        Iterator<Double> it = buffer.iterator();
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], buffer.get(i), 0);
+            assertEquals(expected[i], boxed[i], 0);
+            assertEquals(expected[i], it.next(), 0);
+        }
+        assertFalse(it.hasNext());
+
+        //Partial copies with an offset in the target
+        if (n > 2) {
+            double[] part = new double[n];
+            buffer.copyTo(1, part, 2, n - 2);
+            for (int i = 0; i < n - 2; i++)
+                assertEquals(expected[i + 1], part[i + 2], 0);
+        }
+    }
+
+    @Test
+    public void limitRemovesOldestValues() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(5);
+        int removed = 0;
+        for (int i = 1; i <= 12; i++)
+            removed += buffer.add(i);
+        assertEquals(7, removed);
+        assertArrayEquals(new double[]{8, 9, 10, 11, 12}, buffer.toArray(), 0);
+
+        //Adding more values than the limit at once keeps the last ones
+        assertEquals(5, buffer.add(new double[]{1, 2, 3, 4, 5, 6, 7}, 0, 7));
+        assertArrayEquals(new double[]{3, 4, 5, 6, 7}, buffer.toArray(), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfRange() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(0);
+        buffer.add(1);
+        buffer.get(1);
+    }
+
+    @Test
+    public void randomOperations() {
+        //Limits below, at and above the initial capacity and no limit (without storage)
+        for (int limit : new int[]{1, 7, 16, 100, 0}) {
+            Random random = new Random(limit);
+            DoubleRingBuffer buffer = new DoubleRingBuffer(limit, false);
+            List<Double> reference = new ArrayList<>();
+            double next = 0;
+            for (int step = 0; step < 2000; step++) {
+                int op = random.nextInt(20);
+                if (op < 8) {
+                    buffer.add(next);
+                    reference.add(next++);
+                } else if (op < 14) {
+                    int n = random.nextInt(limit > 0 ? 2 * limit + 2 : 300);
+                    int offset = random.nextInt(3);
+                    double[] values = new double[offset + n];
+                    for (int i = 0; i < n; i++) {
+                        values[offset + i] = next;
+                        reference.add(next++);
+                    }
+                    buffer.add(values, offset, n);
+                } else if (op < 17) {
+                    int n = random.nextInt(5);
+                    Double[] values = new Double[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = next;
+                        reference.add(next++);
+                    }
+                    buffer.add(values, 0, n);
+                } else if (op < 19) {
+                    int n = random.nextInt(reference.size() + 2);
+                    assertEquals(Math.min(n, reference.size()), buffer.removeFirst(n));
+                    for (int i = 0; i < n && !reference.isEmpty(); i++)
+                        reference.remove(0);
+                } else {
+                    buffer.clear();
+                    reference.clear();
+                }
+                trim(reference, limit);
+                assertEquals(reference.size(), buffer.size());
+                if (step % 50 == 0)
+                    assertContent(reference, buffer);
+            }
+            assertContent(reference, buffer);
+
+            //A copy has the same content
+            DoubleRingBuffer copy = new DoubleRingBuffer(limit, false);
+            copy.add(buffer);
+            assertContent(reference, copy);
+        }
+    }
+}
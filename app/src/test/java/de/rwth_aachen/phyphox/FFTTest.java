@@ -0,0 +1,123 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+//Compares the Java FFT (radix 2 for powers of two, Bluestein's algorithm otherwise) to a naive DFT
+public class FFTTest {
+
+    //Sizes that are powers of two, primes and odd composites
+    private static final int[] sizes = {2, 4, 8, 64, 1024, 3, 5, 7, 13, 97, 1009, 9, 15, 21, 225, 1001, 6, 10, 12, 100, 1000};
+
+    private static void dft(double[] x, double[] y, int n, double[] re, double[] im) {
+        for (int k = 0; k < n; k++) {
+            double sr = 0, si = 0;
+            for (int j = 0; j < n; j++) {
+                //j*k modulo n keeps the argument small, so the reference stays precise for large n
+                double phi = -2 * Math.PI * ((long) j * k % n) / n;
+                double c = Math.cos(phi);
+                double s = Math.sin(phi);
+                sr += x[j] * c - y[j] * s;
+                si += x[j] * s + y[j] * c;
+            }
+            re[k] = sr;
+            im[k] = si;
+        }
+    }
+
+    //Largest deviation relative to the largest absolute value of the reference
+    private static double error(double[] re, double[] im, double[] refRe, double[] refIm, int n) {
+        double max = 0, scale = 0;
+        for (int k = 0; k < n; k++) {
+            max = Math.max(max, Math.max(Math.abs(re[k] - refRe[k]), Math.abs(im[k] - refIm[k])));
+            scale = Math.max(scale, Math.max(Math.abs(refRe[k]), Math.abs(refIm[k])));
+        }
+        return max / scale;
+    }
+
+    @Test
+    public void complexMatchesDFT() {
+        Random random = new Random(1);
+        Analysis.FFT fft = new Analysis.FFT();
+        for (int n : sizes) {
+            double[] x = new double[n];
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++) {
+                x[i] = random.nextGaussian();
+                y[i] = random.nextGaussian();
+            }
+            double[] refRe = new double[n];
+            double[] refIm = new double[n];
+            dft(x, y, n, refRe, refIm);
+
+            fft.prepare(n);
+            assertEquals(n, fft.size());
+            fft.calculate(x, y);
+            assertEquals("n = " + n, 0.0, error(x, y, refRe, refIm, n), 1e-10);
+        }
+    }
+
+    @Test
+    public void realMatchesDFT() {
+        Random random = new Random(2);
+        Analysis.FFT fft = new Analysis.FFT();
+        for (int n : sizes) {
+            double[] x = new double[n];
+            for (int i = 0; i < n; i++)
+                x[i] = random.nextGaussian();
+            double[] refRe = new double[n];
+            double[] refIm = new double[n];
+            dft(x, new double[n], n, refRe, refIm);
+
+            //The imaginary part is not cleared by the caller, so it may hold anything
+            double[] y = new double[n];
+            for (int i = 0; i < n; i++)
+                y[i] = random.nextGaussian();
+
+            fft.prepare(n);
+            fft.calculateReal(x, y);
+            assertEquals("n = " + n, 0.0, error(x, y, refRe, refIm, n), 1e-10);
+        }
+    }
+
+    @Test
+    public void arraysMayBeLargerThanTheTransform() {
+        //Callers reuse their arrays, so values behind n must neither be used nor modified
+        Analysis.FFT fft = new Analysis.FFT();
+        for (int n : new int[]{8, 7, 12}) {
+            double[] x = new double[n + 5];
+            double[] y = new double[n + 5];
+            for (int i = 0; i < n; i++)
+                x[i] = Math.sin(i);
+            for (int i = n; i < n + 5; i++) {
+                x[i] = 42;
+                y[i] = -42;
+            }
+            double[] refRe = new double[n];
+            double[] refIm = new double[n];
+            dft(x, new double[n], n, refRe, refIm);
+
+            fft.prepare(n);
+            fft.calculateReal(x, y);
+            assertEquals("n = " + n, 0.0, error(x, y, refRe, refIm, n), 1e-12);
+            for (int i = n; i < n + 5; i++) {
+                assertEquals(42, x[i], 0);
+                assertEquals(-42, y[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void trivialSizes() {
+        Analysis.FFT fft = new Analysis.FFT();
+        double[] x = {3};
+        double[] y = {4};
+        fft.prepare(1);
+        fft.calculate(x, y);
+        assertEquals(3, x[0], 0);
+        assertEquals(4, y[0], 0);
+    }
+}
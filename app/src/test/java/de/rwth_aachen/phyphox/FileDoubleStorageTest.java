@@ -0,0 +1,203 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+//Moving the values of unlimited buffers to a file and reading them back
+public class FileDoubleStorageTest {
+
+    private static final int segmentSize = FileDoubleStorage.segmentSize;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setDirectory() throws IOException {
+        FileDoubleStorage.setDirectory(folder.newFolder("buffers"));
+    }
+
+    //Appends the values 0, 1, 2... in chunks of the given size
+    private static void fill(DoubleRingBuffer buffer, int n, int chunk) {
+        double[] values = new double[chunk];
+        for (int i = 0; i < n; i += chunk) {
+            int m = Math.min(chunk, n - i);
+            for (int j = 0; j < m; j++)
+                values[j] = i + j;
+            buffer.add(values, 0, m);
+        }
+    }
+
+    private static void assertValues(DoubleRingBuffer buffer, double first) {
+        double[] values = buffer.toArray();
+        assertEquals(buffer.size(), values.length);
+        for (int i = 0; i < values.length; i++)
+            assertEquals(first + i, values[i], 0);
+        //Single values and ranges across the border between storage and heap
+        int border = buffer.coldSize();
+        for (int i = Math.max(0, border - 3); i < Math.min(values.length, border + 3); i++)
+            assertEquals(first + i, buffer.get(i), 0);
+        if (border > 10 && border + 10 < values.length) {
+            double[] part = new double[20];
+            buffer.copyTo(border - 10, part, 0, 20);
+            for (int i = 0; i < 20; i++)
+                assertEquals(first + border - 10 + i, part[i], 0);
+        }
+    }
+
+    @Test
+    public void storageAcrossSegments() throws IOException {
+        FileDoubleStorage storage = FileDoubleStorage.create();
+        assertNotNull(storage);
+        try {
+            int n = 5 * segmentSize + 123; //More parts than there are windows
+            double[] chunk = new double[10007];
+            for (int i = 0; i < n; i += chunk.length) {
+                int m = Math.min(chunk.length, n - i);
+                for (int j = 0; j < m; j++)
+                    chunk[j] = -i - j;
+                storage.append(chunk, 0, m);
+            }
+            assertEquals(n, storage.length());
+
+            double[] values = new double[3 * segmentSize];
+            storage.read(segmentSize / 2, values, 0, values.length);
+            for (int i = 0; i < values.length; i++)
+                assertEquals(-(segmentSize / 2 + i), values[i], 0);
+            assertEquals(0, storage.get(0), 0);
+            assertEquals(-(n - 1), storage.get(n - 1), 0);
+            assertEquals(-segmentSize, storage.get(segmentSize), 0);
+        } finally {
+            storage.close();
+        }
+        assertEquals(0, storage.length());
+    }
+
+    @Test
+    public void readsBetweenAppends() throws IOException {
+        //Reading older values moves the windows away from the part being written, which therefore
+        //has to be written to the file and read back before it is complete
+        FileDoubleStorage storage = FileDoubleStorage.create();
+        try {
+            Random random = new Random(18);
+            double[] chunk = new double[1000];
+            int n = 0;
+            while (n < 3 * segmentSize) {
+                int m = 1 + random.nextInt(chunk.length);
+                for (int j = 0; j < m; j++)
+                    chunk[j] = n + j;
+                storage.append(chunk, 0, m);
+                n += m;
+                for (int k = 0; k < 5; k++) {
+                    long position = (long)(random.nextDouble() * n);
+                    assertEquals(position, storage.get(position), 0);
+                }
+            }
+            double[] values = new double[n];
+            storage.read(0, values, 0, n);
+            for (int i = 0; i < n; i++)
+                assertEquals(i, values[i], 0);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readBehindEnd() throws IOException {
+        FileDoubleStorage storage = FileDoubleStorage.create();
+        try {
+            storage.append(new double[]{1, 2, 3}, 0, 3);
+            storage.read(1, new double[3], 0, 3);
+        } finally {
+            storage.close();
+        }
+    }
+
+    @Test
+    public void unlimitedBufferSpills() {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(0);
+        int n = DoubleRingBuffer.hotCapacity + 3 * segmentSize + 1000;
+        fill(buffer, n, 9973);
+        assertEquals(n, buffer.size());
+        assertTrue(buffer.coldSize() > 0);
+        assertTrue(buffer.size() - buffer.coldSize() <= DoubleRingBuffer.hotCapacity + segmentSize);
+        assertValues(buffer, 0);
+
+        //Remove values from the storage and the heap, so the storage starts within a segment
+        int removed = segmentSize + 17;
+        assertEquals(removed, buffer.removeFirst(removed));
+        assertValues(buffer, removed);
+
+        //Values appended afterwards are still in order
+        buffer.add(n);
+        assertEquals(n, buffer.get(buffer.size() - 1), 0);
+
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.coldSize());
+
+        //The buffer can be filled again after clearing (which closes the storage)
+        fill(buffer, n, 65536);
+        assertTrue(buffer.coldSize() > 0);
+        assertValues(buffer, 0);
+    }
+
+    @Test
+    public void serializedWithStorage() throws Exception {
+        DoubleRingBuffer buffer = new DoubleRingBuffer(0);
+        int n = DoubleRingBuffer.hotCapacity + 2 * segmentSize + 500;
+        fill(buffer, n, 7919);
+        buffer.removeFirst(100);
+        assertTrue(buffer.coldSize() > 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(buffer);
+        out.close();
+        DoubleRingBuffer restored = (DoubleRingBuffer)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        //The values from the storage are on the heap now
+        assertEquals(buffer.size(), restored.size());
+        assertEquals(0, restored.coldSize());
+        assertValues(restored, 100);
+
+        //...and are moved to a new storage as soon as more values are appended
+        restored.add(n);
+        assertTrue(restored.coldSize() > 0);
+        assertEquals(n, restored.get(restored.size() - 1), 0);
+        assertEquals(100, restored.get(0), 0);
+        buffer.clear();
+        restored.clear();
+    }
+
+    @Test
+    public void limitedBufferAndCopiesStayOnHeap() {
+        DoubleRingBuffer source = new DoubleRingBuffer(0);
+        int n = DoubleRingBuffer.hotCapacity + 2 * segmentSize;
+        fill(source, n, 5000);
+        assertTrue(source.coldSize() > 0);
+
+        //Copies are not closed by anyone, so they must not open a storage file (see DataBuffer.copy())
+        DoubleRingBuffer copy = new DoubleRingBuffer(0, false);
+        copy.add(source);
+        assertEquals(0, copy.coldSize());
+        assertValues(copy, 0);
+
+        DoubleRingBuffer limited = new DoubleRingBuffer(n - 10);
+        fill(limited, n, 5000);
+        assertEquals(0, limited.coldSize());
+        assertValues(limited, 10);
+    }
+}
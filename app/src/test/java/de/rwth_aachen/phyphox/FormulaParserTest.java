@@ -0,0 +1,152 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+//Compares the compiled program of the FormulaParser to evaluating the parsed tree for each element
+public class FormulaParserTest {
+
+    private final PhyphoxExperiment experiment = new PhyphoxExperiment();
+
+    private static class Missing extends Exception {
+    }
+
+    //Evaluates the tree for element i just like the parser did before formulas were compiled
+    private static double evaluate(FormulaParser.Source source, double[][] in, int[] sizes, int i) throws Missing {
+        if (source == null)
+            throw new Missing(); //A parameter is missing
+        if (source.node != null) {
+            double a = evaluate(source.node.in1, in, sizes, i);
+            if (source.node.in2 == null) {
+                if (source.node.func.isBinary())
+                    throw new Missing();
+                return source.node.func.apply(a, Double.NaN);
+            }
+            double b = evaluate(source.node.in2, in, sizes, i);
+            return source.node.func.apply(a, source.node.func.isBinary() ? b : Double.NaN);
+        } else if (source.index != null) {
+            if (source.index >= in.length || in[source.index] == null || sizes[source.index] == 0)
+                throw new Missing();
+            if (source.single)
+                return in[source.index][sizes[source.index] - 1];
+            if (i >= sizes[source.index])
+                throw new Missing();
+            return in[source.index][i];
+        } else
+            return source.value;
+    }
+
+    private static double[] reference(FormulaParser parser, double[][] in, int[] sizes) {
+        int n = 0;
+        for (int j = 0; j < in.length; j++)
+            if (in[j] != null)
+                n = Math.max(n, sizes[j]);
+        List<Double> result = new ArrayList<>();
+        try {
+            for (int i = 0; i < n; i++)
+                result.add(evaluate(parser.base, in, sizes, i));
+        } catch (Missing e) {
+            //The output ends here
+        }
+        double[] ret = new double[result.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = result.get(i);
+        return ret;
+    }
+
+    private void check(String formula, double[][] in, int[] sizes) throws FormulaParser.FormulaException {
+        FormulaParser parser = new FormulaParser(formula);
+        double[] expected = reference(parser, in, sizes);
+
+        //Execute twice, as the registers are reused
+        for (int run = 0; run < 2; run++) {
+            DataBuffer buffer = experiment.createBuffer("out", 0, experiment.experimentTimeReference);
+            int n = parser.execute(in, sizes, new DataOutput(buffer, false));
+            assertEquals(formula, expected.length, n);
+            double[] actual = buffer.getDoubleArray();
+            assertEquals(formula, expected.length, actual.length);
+            for (int i = 0; i < n; i++) {
+                if (Double.isNaN(expected[i]))
+                    assertEquals(formula + " [" + i + "]", Double.NaN, actual[i], 0);
+                else
+                    assertEquals(formula + " [" + i + "]", expected[i], actual[i], 0);
+            }
+        }
+    }
+
+    private static final String[] formulas = {
+            "1+2*3",
+            "[1_]+[2_]",
+            "[1_]-[2_]*[3]",
+            "[1_]/[2_]",
+            "-[1_]",
+            "-[1]+[2_]",
+            "([1_]-[2])^2",
+            "2^-[1_]",
+            "[1_]%[3]",
+            "1.5e3*[1_]+2e-3",
+            "sqrt(abs([1_]))",
+            "sin([1_])+cos([2_])*tan([3])",
+            "asin([1_]/10)+acos([2_]/10)+atan([1_])",
+            "atan2([1_],[2_])",
+            "sinh([1_]/10)+cosh([2_]/10)+tanh([1_])",
+            "exp([1_]/10)*log(abs([2_])+1)",
+            "sign([1_])+heaviside([2_])",
+            "round([1_])+ceil([2_])+floor([1_]*[2_])",
+            "min([1_],[2_])-max([1_],[3])",
+            "min(max([1_],[2]),sin([3]))",
+            "[1]*[2]+[3]",
+            "3*(2+1)",
+            "[1_]*0/0",
+            "atan2([1_])",
+            "[4_]+1",
+            "[1_]+[5]",
+    };
+
+    @Test
+    public void compiledMatchesTree() throws FormulaParser.FormulaException {
+        Random random = new Random(3);
+        //Columns of different lengths, including an empty one
+        int[] sizes = {50, 37, 20, 0};
+        double[][] in = new double[sizes.length][];
+        for (int j = 0; j < sizes.length; j++) {
+            in[j] = new double[sizes[j] + 5]; //Arrays may be larger than the data
+            for (int i = 0; i < in[j].length; i++)
+                in[j][i] = (random.nextDouble() - 0.5) * 20;
+        }
+        in[0][3] = 0; //Special values
+        in[1][3] = 0;
+        in[0][4] = Double.NaN;
+        in[1][5] = Double.POSITIVE_INFINITY;
+
+        for (String formula : formulas)
+            check(formula, in, sizes);
+    }
+
+    @Test
+    public void singleInputsOnly() throws FormulaParser.FormulaException {
+        //Without columns, the output is as long as the longest input
+        double[][] in = {{1, 2, 3}, {4, 5}};
+        int[] sizes = {3, 2};
+        check("[1]+[2]", in, sizes);
+        check("2*[1]", in, sizes);
+    }
+
+    @Test
+    public void invalidFormulas() {
+        for (String formula : new String[]{"(1+2", "[0]+1", "foo(1)", "sin"}) {
+            try {
+                new FormulaParser(formula);
+                fail(formula);
+            } catch (FormulaParser.FormulaException e) {
+                //Expected
+            }
+        }
+    }
+}
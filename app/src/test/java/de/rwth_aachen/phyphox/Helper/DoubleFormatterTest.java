@@ -0,0 +1,98 @@
+package de.rwth_aachen.phyphox.Helper;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+//Compares the DoubleFormatter to DecimalFormat with the patterns used throughout the app
+//On Android, DecimalFormat rounds the shortest decimal representation of a double, while the JVM
+//rounds its exact binary value (which differs for values like 2.0005). So the reference formats the
+//shortest representation as a BigDecimal, which gives the behaviour of Android on the JVM.
+public class DoubleFormatterTest {
+
+    private static DecimalFormat decimalFormat(String pattern, char decimalPoint) {
+        DecimalFormatSymbols symbols = new DecimalFormatSymbols(Locale.US);
+        symbols.setDecimalSeparator(decimalPoint);
+        DecimalFormat format = new DecimalFormat(pattern, symbols);
+        format.setGroupingUsed(false);
+        return format;
+    }
+
+    private static List<Double> values() {
+        List<Double> values = new ArrayList<>();
+        double[] special = {0.0, -0.0, 1, -1, 0.5, 1.5, 2.5, -2.5, 0.125, 0.0625, 1.0005, 2.0005, 0.1, 0.2, 0.3,
+                1.23456789e-5, 9.9999999995, 99999.9995, 123456789012345678.0, 1e22, 1e-7, 5e-324,
+                Double.MIN_NORMAL, Double.MAX_VALUE, -Double.MAX_VALUE, 1e308, 1e-308, 4.35, 0.45, 1e15 + 0.5,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double v : special)
+            values.add(v);
+
+        Random random = new Random(4);
+        for (int i = 0; i < 20000; i++) {
+            //Random magnitudes, plain random bits and values with few decimal digits (which are close to ties)
+            values.add((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20));
+            values.add(Double.longBitsToDouble(random.nextLong()));
+            values.add((random.nextInt(2000001) - 1000000) * Math.pow(10, -random.nextInt(12)) + 0.0);
+        }
+        return values;
+    }
+
+    private static void compare(DoubleFormatter formatter, DecimalFormat reference) {
+        char[] chars = new char[formatter.maxLength() + 5];
+        byte[] bytes = new byte[formatter.maxLength() + 7];
+        StringBuilder sb = new StringBuilder();
+        for (double v : values()) {
+            if (Double.isNaN(v))
+                continue;
+            String expected;
+            if (v == 0 || Double.isInfinite(v))
+                expected = reference.format(v); //BigDecimal has neither -0 nor infinity
+            else
+                expected = reference.format(new BigDecimal(Double.toString(v)));
+            assertEquals(Double.toString(v), expected, formatter.format(v));
+
+            int end = formatter.format(v, chars, 3);
+            assertEquals(Double.toString(v), expected, new String(chars, 3, end - 3));
+
+            end = formatter.format(v, bytes, 2);
+            assertEquals(Double.toString(v), expected, new String(bytes, 2, end - 2, StandardCharsets.UTF_8));
+
+            sb.setLength(0);
+            sb.append('x');
+            formatter.format(v, sb);
+            assertEquals(Double.toString(v), "x" + expected, sb.toString());
+        }
+    }
+
+    @Test
+    public void scientificMatchesDecimalFormat() {
+        compare(DoubleFormatter.scientific(0, 7, '.'), decimalFormat("0.#######E0", '.'));
+        compare(DoubleFormatter.scientific(0, 9, '.'), decimalFormat("0.#########E0", '.'));
+        compare(DoubleFormatter.scientific(9, 9, ','), decimalFormat("0.000000000E0", ','));
+        compare(DoubleFormatter.scientific(0, 14, '.'), decimalFormat("0.##############E0", '.'));
+        compare(DoubleFormatter.scientific(2, 4, '.'), decimalFormat("0.00##E0", '.'));
+    }
+
+    @Test
+    public void fixedMatchesDecimalFormat() {
+        compare(DoubleFormatter.fixed(3, '.'), decimalFormat("############0.000", '.'));
+        compare(DoubleFormatter.fixed(3, ','), decimalFormat("############0.000", ','));
+        compare(DoubleFormatter.fixed(0, '.'), decimalFormat("############0", '.'));
+    }
+
+    @Test
+    public void notANumber() {
+        //The symbol of DecimalFormat depends on the Java version, Android uses "NaN"
+        assertEquals("NaN", DoubleFormatter.scientific(0, 7, '.').format(Double.NaN));
+        assertEquals("NaN", DoubleFormatter.fixed(3, '.').format(Double.NaN));
+    }
+}
@@ -0,0 +1,195 @@
+package de.rwth_aachen.phyphox.Helper;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//Writes small workbooks, unpacks them and reads each part with an XML parser
+public class XlsxWriterTest {
+
+    //The parts of a workbook, parsed
+    private static Map<String, Document> unzip(ByteArrayOutputStream out) throws Exception {
+        Map<String, Document> parts = new LinkedHashMap<>();
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = zip.read(buffer)) > 0)
+                content.write(buffer, 0, n);
+            //Fails if the part is not well-formed
+            parts.put(entry.getName(), factory.newDocumentBuilder().parse(new ByteArrayInputStream(content.toByteArray())));
+        }
+        return parts;
+    }
+
+    private static List<String> sheetNames(Map<String, Document> parts) {
+        List<String> names = new ArrayList<>();
+        NodeList sheets = parts.get("xl/workbook.xml").getElementsByTagName("sheet");
+        for (int i = 0; i < sheets.getLength(); i++)
+            names.add(((Element)sheets.item(i)).getAttribute("name"));
+        return names;
+    }
+
+    //The cells of a sheet as text, row by row
+    private static List<List<String>> cells(Map<String, Document> parts, int sheet) {
+        List<List<String>> result = new ArrayList<>();
+        NodeList rows = parts.get("xl/worksheets/sheet" + sheet + ".xml").getElementsByTagName("row");
+        for (int i = 0; i < rows.getLength(); i++) {
+            Element row = (Element)rows.item(i);
+            assertEquals(String.valueOf(i + 1), row.getAttribute("r"));
+            List<String> values = new ArrayList<>();
+            NodeList cells = row.getElementsByTagName("c");
+            for (int j = 0; j < cells.getLength(); j++)
+                values.add(cells.item(j).getTextContent());
+            result.add(values);
+        }
+        return result;
+    }
+
+    @Test
+    public void wellFormedParts() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XlsxWriter xlsx = new XlsxWriter(out);
+        xlsx.startSheet("Data");
+        xlsx.startRow();
+        xlsx.addText("t (s)", true);
+        xlsx.addText("a (m/s²)", true);
+        xlsx.endRow();
+        xlsx.startRow();
+        xlsx.addNumber(0.5);
+        xlsx.addNumber(-1.25e-7);
+        xlsx.startRow(); //Ends the previous row
+        xlsx.addNumber(Double.NaN);
+        xlsx.addNumber(Double.NEGATIVE_INFINITY);
+        xlsx.close();
+
+        Map<String, Document> parts = unzip(out);
+        assertEquals(Arrays.asList("[Content_Types].xml", "_rels/.rels", "xl/styles.xml", "xl/worksheets/sheet1.xml", "xl/workbook.xml", "xl/_rels/workbook.xml.rels"), new ArrayList<>(parts.keySet()));
+        assertEquals(Arrays.asList("Data"), sheetNames(parts));
+
+        List<List<String>> cells = cells(parts, 1);
+        assertEquals(3, cells.size());
+        assertEquals(Arrays.asList("t (s)", "a (m/s²)"), cells.get(0));
+        assertEquals(0.5, Double.parseDouble(cells.get(1).get(0)), 0);
+        assertEquals(-1.25e-7, Double.parseDouble(cells.get(1).get(1)), 0);
+        //NaN and infinity are text, as Excel cannot represent them as numbers
+        NodeList row = parts.get("xl/worksheets/sheet1.xml").getElementsByTagName("row").item(2).getChildNodes();
+        for (int j = 0; j < row.getLength(); j++)
+            assertEquals("inlineStr", ((Element)row.item(j)).getAttribute("t"));
+    }
+
+    @Test
+    public void emptyWorkbook() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XlsxWriter(out).close();
+        //A workbook needs at least one sheet
+        assertEquals(Arrays.asList("Sheet"), sheetNames(unzip(out)));
+    }
+
+    @Test
+    public void sheetNames() throws Exception {
+        String longName = "Acceleration without g (x, y and z)";
+        String[] names = {"a/b:c*d?", "Data", "data", "DATA", longName, longName, "'quoted'", "", "  ", "[]", "R&D <1>"};
+        String[] expected = {"a_b_c_d_", "Data", "data (2)", "DATA (3)", longName.substring(0, 31), longName.substring(0, 27) + " (2)", "quoted", "Sheet", "Sheet (2)", "__", "R&D <1>"};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XlsxWriter xlsx = new XlsxWriter(out);
+        for (int i = 0; i < names.length; i++)
+            assertEquals(expected[i], xlsx.startSheet(names[i]));
+        xlsx.close();
+
+        Map<String, Document> parts = unzip(out);
+        assertEquals(Arrays.asList(expected), sheetNames(parts));
+        assertEquals(names.length, parts.get("xl/_rels/workbook.xml.rels").getElementsByTagName("Relationship").getLength() - 1);
+    }
+
+    @Test
+    public void escapedText() throws Exception {
+        char[] large = new char[100000]; //Larger than the buffer of the writer
+        Arrays.fill(large, '&');
+        String[] texts = {"<b>&amp;\"'", "tab\tand\nline", "control\u0001\u001f chars", "µ∞ ∆t", new String(large)};
+        String[] expected = {"<b>&amp;\"'", "tab\tand\nline", "control chars", "µ∞ ∆t", new String(large)};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XlsxWriter xlsx = new XlsxWriter(out);
+        xlsx.startSheet("Text");
+        for (String text : texts) {
+            xlsx.startRow();
+            xlsx.addText(text);
+        }
+        xlsx.close();
+
+        List<List<String>> cells = cells(unzip(out), 1);
+        for (int i = 0; i < texts.length; i++)
+            assertEquals(Arrays.asList(expected[i]), cells.get(i));
+    }
+
+    @Test
+    public void sheetRollover() throws Exception {
+        //Continue on new sheets like DataExport does, with a header row on each sheet
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XlsxWriter xlsx = new XlsxWriter(out, 3);
+        int rows = 7;
+        for (int i = 0; i < rows; i++) {
+            if (i == 0 || xlsx.isSheetFull()) {
+                xlsx.startSheet("Set");
+                xlsx.startRow();
+                xlsx.addText("x", true);
+                xlsx.endRow();
+            }
+            xlsx.startRow();
+            xlsx.addNumber(i);
+            xlsx.endRow();
+        }
+        assertEquals(2, xlsx.getRowCount());
+
+        //Rows beyond the limit are refused
+        xlsx.startRow();
+        assertTrue(xlsx.isSheetFull());
+        try {
+            xlsx.startRow();
+            fail();
+        } catch (IllegalStateException e) {
+            //Expected
+        }
+        xlsx.close();
+
+        Map<String, Document> parts = unzip(out);
+        assertEquals(Arrays.asList("Set", "Set (2)", "Set (3)", "Set (4)"), sheetNames(parts));
+        int value = 0;
+        for (int sheet = 1; sheet <= 4; sheet++) {
+            List<List<String>> cells = cells(parts, sheet);
+            assertTrue(cells.size() <= 3);
+            assertEquals(Arrays.asList("x"), cells.get(0));
+            for (int i = 1; i < cells.size(); i++) {
+                if (sheet == 4 && i == 2)
+                    assertEquals(0, cells.get(i).size()); //The empty row added above
+                else
+                    assertEquals(value++, Double.parseDouble(cells.get(i).get(0)), 0);
+            }
+        }
+        assertEquals(rows, value);
+    }
+}
@@ -0,0 +1,157 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+//Compares the periodicity module, which calculates the autocorrelation by FFT for large windows,
+//to the autocorrelation by direct summation as it was calculated before
+public class PeriodicityTest {
+
+    private final PhyphoxExperiment experiment = new PhyphoxExperiment();
+
+    //The original calculation of a window by direct summation
+    private static double period(double[] x, double[] y, int x1, int x2, int minPeriod, int maxPeriod, boolean userSelectedRange) {
+        int size = x2 - x1;
+        int firstNegative = -1;
+        int maxPosition = -1;
+        double maxValue = Double.NEGATIVE_INFINITY;
+        double maxValueLeft = Double.NEGATIVE_INFINITY;
+        double maxValueRight = Double.NEGATIVE_INFINITY;
+        double lastSum = Double.NEGATIVE_INFINITY;
+
+        int step = userSelectedRange ? 1 : 2;
+        for (int i = minPeriod; i < maxPeriod; i += step) {
+            double sum = 0.;
+            for (int j = x1; j < x2 - i; j++)
+                sum += y[j] * y[j + i];
+            sum /= (double) (size - i);
+
+            if (!userSelectedRange && firstNegative < 0) {
+                if (sum < 0) {
+                    firstNegative = i;
+                    i = 3 * firstNegative + 1;
+                    step = 1;
+                }
+            } else if (!userSelectedRange && i > 5 * firstNegative) {
+                break;
+            } else if (userSelectedRange || i > 3 * firstNegative) {
+                if (sum > maxValue) {
+                    maxValue = sum;
+                    maxPosition = i;
+                    maxValueLeft = lastSum;
+                    maxValueRight = Double.NEGATIVE_INFINITY;
+                } else if (i == maxPosition + 1) {
+                    maxValueRight = sum;
+                }
+            }
+            lastSum = sum;
+        }
+
+        if (maxPosition > 0 && maxValue > 0 && maxValueLeft > 0 && maxValueRight > 0) {
+            double dy = 0.5 * (maxValueRight - maxValueLeft);
+            double d2y = 2 * maxValue - maxValueLeft - maxValueRight;
+            double m = dy / d2y;
+            return x[x1 + maxPosition] + 0.5 * m * (x[x1 + maxPosition + 1] - x[x1 + maxPosition - 1]) - x[x1];
+        }
+        return Double.NaN;
+    }
+
+    //Periods of all windows (times and periods alternating)
+    private static List<Double> reference(double[] x, double[] y, int n, int dx, int overlap, Integer minPeriod, Integer maxPeriod) {
+        List<Double> result = new ArrayList<>();
+        int max = maxPeriod == null ? Integer.MAX_VALUE : maxPeriod;
+        for (int stepX = 0; stepX <= n - dx; stepX += dx) {
+            int x1 = Math.max(0, stepX - overlap);
+            int x2 = Math.min(n, stepX + dx + overlap);
+            if (max > x2 - x1)
+                max = x2 - x1;
+            result.add(x[x1]);
+            result.add(period(x, y, x1, x2, minPeriod == null ? 0 : minPeriod, max, minPeriod != null || maxPeriod != null));
+        }
+        return result;
+    }
+
+    private static Vector<DataOutput> outputs(DataBuffer... buffers) {
+        Vector<DataOutput> outputs = new Vector<>();
+        for (DataBuffer buffer : buffers)
+            outputs.add(new DataOutput(buffer, true));
+        return outputs;
+    }
+
+    private static void assertResult(List<Double> expected, DataBuffer time, DataBuffer period) {
+        double[] t = time.getDoubleArray();
+        double[] p = period.getDoubleArray();
+        assertEquals(expected.size() / 2, t.length);
+        assertEquals(expected.size() / 2, p.length);
+        for (int i = 0; i < t.length; i++) {
+            assertEquals(expected.get(2 * i), t[i], 0);
+            double e = expected.get(2 * i + 1);
+            if (Double.isNaN(e))
+                assertTrue("window " + i + ": " + p[i], Double.isNaN(p[i]));
+            else
+                assertEquals("window " + i, e, p[i], 1e-9 * Math.abs(e));
+        }
+    }
+
+    private void check(int dx, int overlap, Integer minPeriod, Integer maxPeriod) {
+        Random random = new Random(dx + overlap);
+        int n = 6000;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = 0.01 * i + 1e-4 * random.nextDouble();
+            //A period that changes slowly and some noise
+            y[i] = Math.sin(2 * Math.PI * x[i] / (0.5 + 0.00005 * i)) + 0.3 * Math.sin(13 * x[i]) + 0.2 * (random.nextDouble() - 0.5);
+        }
+
+        DataBuffer bx = experiment.createBuffer("x", 0, experiment.experimentTimeReference);
+        DataBuffer by = experiment.createBuffer("y", 0, experiment.experimentTimeReference);
+        DataBuffer time = experiment.createBuffer("time", 0, experiment.experimentTimeReference);
+        DataBuffer period = experiment.createBuffer("period", 0, experiment.experimentTimeReference);
+        Vector<DataInput> inputs = new Vector<>();
+        inputs.add(new DataInput(bx, false));
+        inputs.add(new DataInput(by, false));
+        inputs.add(new DataInput(dx));
+        inputs.add(new DataInput(overlap));
+        if (minPeriod != null || maxPeriod != null) {
+            inputs.add(minPeriod == null ? null : new DataInput(minPeriod));
+            inputs.add(maxPeriod == null ? null : new DataInput(maxPeriod));
+        }
+        Analysis.AnalysisModule module = new Analysis.periodicityAM(experiment, inputs, outputs(time, period));
+        module.setCycles(new Vector<Analysis.AnalysisModule.CycleRange>());
+
+        //First a part of the data, then the rest, so results of complete windows are reused
+        int first = n / 3 + 17;
+        bx.append(x, first);
+        by.append(y, first);
+        module.updateIfNotStatic(0, true);
+        assertResult(reference(x, y, first, dx, overlap, minPeriod, maxPeriod), time, period);
+
+        bx.append(x, first, n - first, true);
+        by.append(y, first, n - first, true);
+        module.updateIfNotStatic(1, true);
+        assertResult(reference(x, y, n, dx, overlap, minPeriod, maxPeriod), time, period);
+    }
+
+    @Test
+    public void firstPeriod() {
+        //Without a range, the first maximum after the first negative value is searched
+        check(1000, 0, null, null);
+        check(700, 300, null, null);
+    }
+
+    @Test
+    public void selectedRange() {
+        check(1000, 500, 20, 400);
+        check(2000, 0, 0, null);
+        check(1500, 100, null, 300);
+        check(500, 0, 10, 12); //Small ranges are summed directly
+    }
+}
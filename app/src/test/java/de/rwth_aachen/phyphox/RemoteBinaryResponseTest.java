@@ -0,0 +1,123 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+//Decodes the binary response of the remote interface as a client would
+public class RemoteBinaryResponseTest {
+
+    private static ByteBuffer write(RemoteBinaryResponse response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.writeTo(out);
+        //The Content-Length is sent before the response
+        assertEquals(response.getLength(), out.size());
+        return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String string(ByteBuffer bb) {
+        byte[] bytes = new byte[bb.getShort() & 0xffff];
+        bb.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void assertHeader(ByteBuffer bb, String session, boolean measuring, boolean timedRun, long countDown, int buffers) {
+        assertEquals('P', bb.get());
+        assertEquals('H', bb.get());
+        assertEquals('Y', bb.get());
+        assertEquals('B', bb.get());
+        assertEquals(RemoteBinaryResponse.version, bb.get());
+        assertEquals(measuring ? 1 : 0, bb.get());
+        assertEquals(timedRun ? 1 : 0, bb.get());
+        assertEquals(countDown, bb.getLong());
+        assertEquals(session, string(bb));
+        assertEquals(buffers, bb.getShort());
+    }
+
+    //Reads the record of a buffer up to its values and returns the number of values
+    private static int assertBuffer(ByteBuffer bb, String name, int size, int updateMode, int width, long next) {
+        assertEquals(name, string(bb));
+        assertEquals(size, bb.getInt());
+        assertEquals(updateMode, bb.get());
+        assertEquals(width, bb.get());
+        int count = bb.getInt();
+        assertEquals(next, bb.getLong());
+        return count;
+    }
+
+    @Test
+    public void allUpdateModes() throws IOException {
+        double[] data = {1, 2, Double.NaN, 4, Double.POSITIVE_INFINITY, 6};
+        double[] t = {0, 0.1, 0.2, 0.3, 0.4, 0.5};
+
+        RemoteBinaryResponse response = new RemoteBinaryResponse("a1b2c3", true, false, 1234, false);
+        response.add("single", 1, "single", 17, 42.5, null, null, Double.NaN, 0);
+        response.add("full", 100, "full", 6, Double.NaN, data, null, Double.NEGATIVE_INFINITY, data.length);
+        response.add("täter", 0, "partial", 6, Double.NaN, data, t, 0.25, data.length); //Non-ASCII name and a threshold
+        response.add("empty", 10, "partial", 0, Double.NaN, new double[0], null, 0, 0);
+
+        ByteBuffer bb = write(response);
+        assertHeader(bb, "a1b2c3", true, false, 1234, 4);
+
+        assertEquals(1, assertBuffer(bb, "single", 1, 0, 8, 17));
+        assertEquals(42.5, bb.getDouble(), 0);
+
+        assertEquals(data.length, assertBuffer(bb, "full", 100, 1, 8, 6));
+        for (double v : data)
+            assertEquals(v, bb.getDouble(), 0); //NaN and infinity are sent as they are
+
+        assertEquals(3, assertBuffer(bb, "täter", 0, 2, 8, 6));
+        assertEquals(4, bb.getDouble(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, bb.getDouble(), 0);
+        assertEquals(6, bb.getDouble(), 0);
+
+        assertEquals(0, assertBuffer(bb, "empty", 10, 2, 8, 0));
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void float32() throws IOException {
+        double[] data = {0.1, -1e10, 3};
+        RemoteBinaryResponse response = new RemoteBinaryResponse("", false, true, -1, true);
+        response.add("x", 0, "full", 3, Double.NaN, data, null, Double.NEGATIVE_INFINITY, data.length);
+        response.add("y", 1, "single", 1, 0.1, null, null, Double.NaN, 0);
+
+        ByteBuffer bb = write(response);
+        assertHeader(bb, "", false, true, -1, 2);
+        assertEquals(3, assertBuffer(bb, "x", 0, 1, 4, 3));
+        for (double v : data)
+            assertEquals((float)v, bb.getFloat(), 0);
+        assertEquals(1, assertBuffer(bb, "y", 1, 0, 4, 1));
+        assertEquals(0.1f, bb.getFloat(), 0);
+        assertFalse(bb.hasRemaining());
+    }
+
+    @Test
+    public void largerThanTheWriteBuffer() throws IOException {
+        //Many buffers and many values, so records and values cross the internal 8 KB buffer
+        RemoteBinaryResponse response = new RemoteBinaryResponse("session", true, true, 0, false);
+        double[][] data = new double[50][];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = new double[j * 97];
+            for (int i = 0; i < data[j].length; i++)
+                data[j][i] = j * 100000 + i;
+            response.add("buffer" + j, 0, "full", data[j].length, Double.NaN, data[j], data[j], Double.NEGATIVE_INFINITY, data[j].length);
+        }
+
+        ByteBuffer bb = write(response);
+        assertHeader(bb, "session", true, true, 0, data.length);
+        for (int j = 0; j < data.length; j++) {
+            assertEquals(data[j].length, assertBuffer(bb, "buffer" + j, 0, 1, 8, data[j].length));
+            for (double v : data[j])
+                assertEquals(v, bb.getDouble(), 0);
+        }
+        assertFalse(bb.hasRemaining());
+    }
+}
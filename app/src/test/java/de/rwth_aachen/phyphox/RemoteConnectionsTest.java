@@ -0,0 +1,368 @@
+package de.rwth_aachen.phyphox;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.DefaultHttpResponseFactory;
+import org.apache.http.protocol.BasicHttpProcessor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+import org.apache.http.protocol.HttpRequestHandlerRegistry;
+import org.apache.http.protocol.HttpService;
+import org.apache.http.protocol.ResponseConnControl;
+import org.apache.http.protocol.ResponseContent;
+import org.apache.http.protocol.ResponseDate;
+import org.apache.http.protocol.ResponseServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+//Runs the connection handling of the remote interface with a fast and a slow handler (which blocks
+//until released) and talks to it like a browser would
+@SuppressWarnings( "deprecation" )
+public class RemoteConnectionsTest {
+
+    private static final int timeout = 5000; //in ms, anything taking longer is considered a failure
+
+    private RemoteConnections connections;
+    private ServerSocket serverSocket;
+    private Thread server;
+    private final List<Socket> clients = new ArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger slowRequests = new AtomicInteger(); //Number of slow requests being handled
+
+    private void start(int maxConnections, int keepAliveTimeout, int busyKeepAliveTimeout) throws IOException {
+        BasicHttpProcessor processor = new BasicHttpProcessor();
+        processor.addInterceptor(new ResponseDate());
+        processor.addInterceptor(new ResponseServer());
+        processor.addInterceptor(new ResponseContent());
+        processor.addInterceptor(new ResponseConnControl());
+        HttpService httpService = new HttpService(processor, new DefaultConnectionReuseStrategy(), new DefaultHttpResponseFactory());
+
+        HttpRequestHandlerRegistry registry = new HttpRequestHandlerRegistry();
+        registry.register("/fast", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                response.setEntity(new StringEntity("fast"));
+            }
+        });
+        registry.register("/slow", new HttpRequestHandler() {
+            @Override
+            public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException, IOException {
+                slowRequests.incrementAndGet();
+                try {
+                    release.await(timeout, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    //Answer anyway
+                }
+                slowRequests.decrementAndGet();
+                response.setEntity(new StringEntity("slow"));
+            }
+        });
+        httpService.setHandlerResolver(registry);
+
+        connections = new RemoteConnections(httpService, maxConnections, keepAliveTimeout, busyKeepAliveTimeout);
+        serverSocket = new ServerSocket(0);
+        serverSocket.setSoTimeout(100);
+        server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                connections.serve(serverSocket);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        release.countDown();
+        if (connections == null)
+            return;
+        connections.stop();
+        server.join(timeout);
+        assertFalse(server.isAlive());
+        serverSocket.close();
+        for (Socket client : clients)
+            client.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+        socket.setSoTimeout(timeout);
+        clients.add(socket);
+        return socket;
+    }
+
+    private static void send(Socket socket, String path) throws IOException {
+        send(socket, path, false);
+    }
+
+    private static void send(Socket socket, String path, boolean close) throws IOException {
+        String connection = close ? "Connection: close\r\n" : "";
+        socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" + connection + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        socket.getOutputStream().flush();
+    }
+
+    //Read one response and return its head and body
+    private static String receive(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString("US-ASCII").endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0)
+                fail("Connection closed after " + head.toString("US-ASCII"));
+            head.write(b);
+        }
+        String response = head.toString("US-ASCII");
+        int length = 0;
+        for (String line : response.split("\r\n"))
+            if (line.toLowerCase().startsWith("content-length:"))
+                length = Integer.parseInt(line.substring(15).trim());
+        byte[] body = new byte[length];
+        for (int n = 0; n < length; ) {
+            int read = in.read(body, n, length - n);
+            if (read < 0)
+                fail("Connection closed within the body");
+            n += read;
+        }
+        return response + new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static void assertResponse(String body, String response) {
+        assertTrue(response, response.startsWith("HTTP/1.1 200"));
+        assertTrue(response, response.endsWith("\r\n\r\n" + body));
+    }
+
+    //The server has to close the connection within the given time
+    private static void assertClosed(Socket socket, int within) throws IOException {
+        socket.setSoTimeout(within);
+        assertEquals(-1, socket.getInputStream().read());
+    }
+
+    private void awaitSlowRequests(int n) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        while (slowRequests.get() < n) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void keepAlive() throws IOException {
+        start(4, timeout, timeout);
+        Socket socket = connect();
+        for (int i = 0; i < 3; i++) {
+            send(socket, "/fast");
+            assertResponse("fast", receive(socket));
+        }
+
+        //The connection stays open while idle
+        socket.setSoTimeout(500);
+        try {
+            socket.getInputStream().read();
+            fail("Connection closed");
+        } catch (SocketTimeoutException e) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void concurrentConnections() throws Exception {
+        start(4, timeout, timeout);
+        Socket[] slow = {connect(), connect(), connect()};
+        for (Socket socket : slow)
+            send(socket, "/slow");
+        awaitSlowRequests(slow.length);
+
+        //Another client does not have to wait for the slow ones
+        Socket fast = connect();
+        send(fast, "/fast");
+        assertResponse("fast", receive(fast));
+
+        release.countDown();
+        for (Socket socket : slow)
+            assertResponse("slow", receive(socket));
+    }
+
+    @Test
+    public void rejectedWhenSaturated() throws Exception {
+        start(2, timeout, timeout);
+        Socket[] slow = {connect(), connect()};
+        for (Socket socket : slow)
+            send(socket, "/slow");
+        awaitSlowRequests(slow.length);
+
+        //All threads are busy, so the next client is told to retry right away
+        Socket rejected = connect();
+        String response = receive(rejected);
+        assertTrue(response, response.startsWith("HTTP/1.1 503"));
+        assertTrue(response, response.contains("Retry-After: 1\r\n"));
+        assertClosed(rejected, timeout);
+
+        release.countDown();
+        for (Socket socket : slow) {
+            assertResponse("slow", receive(socket));
+            socket.close();
+        }
+
+        //Once the clients have closed their connections, the threads become available again, so
+        //new clients are served when they retry
+        long end = System.currentTimeMillis() + timeout;
+        while (true) {
+            Socket fast = connect();
+            send(fast, "/fast");
+            response = receive(fast);
+            if (!response.startsWith("HTTP/1.1 503"))
+                break;
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        assertResponse("fast", response);
+    }
+
+    @Test
+    public void busyKeepAlive() throws Exception {
+        //With 3 of 4 threads busy, idle connections are closed after the short timeout
+        start(4, 60000, 200);
+        Socket[] slow = {connect(), connect()};
+        for (Socket socket : slow)
+            send(socket, "/slow");
+        awaitSlowRequests(slow.length);
+
+        Socket idle = connect();
+        send(idle, "/fast");
+        assertResponse("fast", receive(idle));
+        long start = System.currentTimeMillis();
+        assertClosed(idle, timeout);
+        assertTrue(System.currentTimeMillis() - start < timeout / 2);
+
+        release.countDown();
+        for (Socket socket : slow)
+            assertResponse("slow", receive(socket));
+    }
+
+    @Test
+    public void stopClosesIdleConnections() throws Exception {
+        start(4, 60000, 60000);
+        Socket idle = connect();
+        send(idle, "/fast");
+        assertResponse("fast", receive(idle));
+
+        connections.stop();
+        assertClosed(idle, timeout);
+    }
+
+    //Several clients poll as fast as they can for the given time, either on persistent connections
+    //or with a new connection for each request (as the server handled them before). Returns the
+    //latencies of all successful requests in ns, sorted, and counts the rejected ones.
+    private long[] poll(int clientCount, final long duration, final boolean keepAlive, final AtomicInteger rejected) throws Exception {
+        final List<long[]> results = new ArrayList<>();
+        final long end = System.nanoTime() + duration * 1000000L;
+        Thread[] threads = new Thread[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] latencies = new long[1024];
+                    int n = 0;
+                    try {
+                        Socket socket = null;
+                        while (System.nanoTime() < end) {
+                            long start = System.nanoTime();
+                            if (socket == null) {
+                                socket = new Socket("127.0.0.1", serverSocket.getLocalPort());
+                                socket.setSoTimeout(timeout);
+                            }
+                            send(socket, "/fast", !keepAlive);
+                            String response = receive(socket);
+                            if (!keepAlive || response.startsWith("HTTP/1.1 503")) {
+                                socket.close();
+                                socket = null;
+                            }
+                            if (response.startsWith("HTTP/1.1 503")) {
+                                rejected.incrementAndGet();
+                                continue;
+                            }
+                            assertResponse("fast", response);
+                            if (n == latencies.length)
+                                latencies = Arrays.copyOf(latencies, 2 * n);
+                            latencies[n++] = System.nanoTime() - start;
+                        }
+                        if (socket != null)
+                            socket.close();
+                    } catch (Throwable t) {
+                        n = -1;
+                    }
+                    synchronized (results) {
+                        results.add(n < 0 ? null : Arrays.copyOf(latencies, n));
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        int total = 0;
+        for (Thread thread : threads) {
+            thread.join(duration + timeout);
+            assertFalse(thread.isAlive());
+        }
+        for (long[] latencies : results) {
+            assertTrue("A client failed", latencies != null);
+            total += latencies.length;
+        }
+        long[] all = new long[total];
+        int n = 0;
+        for (long[] latencies : results) {
+            System.arraycopy(latencies, 0, all, n, latencies.length);
+            n += latencies.length;
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static String summary(long[] latencies, long duration, AtomicInteger rejected) {
+        long p99 = latencies[(int)(0.99 * (latencies.length - 1))];
+        return latencies.length * 1000 / duration + " requests/s, p99 " + String.format(Locale.US, "%.1f ms", p99 * 1e-6) + ", " + rejected.get() + " rejected";
+    }
+
+    @Test
+    public void load() throws Exception {
+        //Eight clients (a classroom with browsers polling) on a server with room for all of them
+        int clientCount = 8;
+        long duration = 1000; //in ms
+        start(16, timeout, timeout);
+
+        AtomicInteger rejectedClose = new AtomicInteger();
+        long[] close = poll(clientCount, duration, false, rejectedClose);
+        AtomicInteger rejectedKeepAlive = new AtomicInteger();
+        long[] keepAlive = poll(clientCount, duration, true, rejectedKeepAlive);
+        System.out.println("New connection per request: " + summary(close, duration, rejectedClose));
+        System.out.println("Persistent connections: " + summary(keepAlive, duration, rejectedKeepAlive));
+
+        //Every client has its own thread, so none is rejected or has to wait long
+        assertTrue(keepAlive.length > 0);
+        assertEquals(0, rejectedKeepAlive.get());
+        assertTrue(keepAlive[(int)(0.99 * (keepAlive.length - 1))] < 1000000000L);
+    }
+}
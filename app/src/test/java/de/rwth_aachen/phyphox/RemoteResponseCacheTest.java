@@ -0,0 +1,142 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Test;
+
+import de.rwth_aachen.phyphox.Helper.DoubleFormatter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+//Ranges of different clients taken from the shared snapshots of the buffers requested by the remote
+//interface, compared to encoding the values of each range separately
+public class RemoteResponseCacheTest {
+
+    private final PhyphoxExperiment experiment = new PhyphoxExperiment();
+    private final DoubleFormatter format = DoubleFormatter.scientific(0, 7, '.');
+
+    private DataBuffer buffer(String name, double... values) {
+        DataBuffer buffer = experiment.createBuffer(name, 0, experiment.experimentTimeReference);
+        buffer.append(values, values.length);
+        return buffer;
+    }
+
+    //Encode the values directly as the remote interface did before the values were shared
+    private String expected(double[] values, int start, int end, double[] reference, double threshold) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (reference != null && reference[i] <= threshold)
+                continue;
+            if (sb.length() > 0)
+                sb.append(",");
+            if (Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+                sb.append("null");
+            else
+                format.format(values[i], sb);
+        }
+        return sb.toString();
+    }
+
+    private String append(RemoteResponseCache cache, RemoteResponseCache.Entry entry, int start, int end, double[] reference, double threshold) {
+        StringBuilder sb = new StringBuilder();
+        cache.appendValues(entry, sb, start, end, reference, threshold, format);
+        return sb.toString();
+    }
+
+    @Test
+    public void rangesOfOneEncoding() {
+        double[] t = new double[1000];
+        double[] y = new double[1000];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = 0.01 * i;
+            y[i] = Math.sin(i) * Math.pow(10, i % 20 - 10);
+        }
+        y[3] = Double.NaN;
+        y[4] = Double.POSITIVE_INFINITY;
+        t[500] = Double.NaN; //Never below the threshold, so this value is always included
+        t[600] = -1; //Always below the threshold, so the values are not consecutive
+        DataBuffer bt = buffer("t", t);
+        DataBuffer by = buffer("y", y);
+
+        RemoteResponseCache cache = new RemoteResponseCache(1 << 20);
+        RemoteResponseCache.Entry et = cache.get(bt);
+        RemoteResponseCache.Entry ey = cache.get(by);
+        assertSame(ey, cache.get(by));
+        assertEquals(bt.getNextSequence(), et.nextSequence);
+
+        //Each client has its own threshold, but the values are encoded only once
+        for (double threshold : new double[] {Double.NEGATIVE_INFINITY, -2, 0, 3.005, 7.5, 9.99, 20})
+            assertEquals(expected(y, 0, 1000, t, threshold), append(cache, ey, 0, 1000, et.values, threshold));
+        for (int start : new int[] {0, 1, 5, 999, 1000})
+            assertEquals(expected(y, start, 1000, null, 0), append(cache, ey, start, 1000, null, 0));
+        assertEquals(1, cache.getMisses());
+        assertEquals(11, cache.getHits());
+    }
+
+    @Test
+    public void dropOutdated() {
+        DataBuffer a = buffer("a", 1, 2, 3);
+        DataBuffer b = buffer("b", 4, 5, 6);
+        RemoteResponseCache cache = new RemoteResponseCache(1 << 20);
+        RemoteResponseCache.Entry ea = cache.get(a);
+        cache.get(b);
+        append(cache, ea, 0, 3, null, 0);
+        long bytes = cache.getBytes();
+        assertEquals(2, cache.size());
+
+        //The entry of a buffer is dropped as soon as the buffer changes
+        a.append(4);
+        cache.dropOutdated();
+        assertEquals(1, cache.size());
+        assertTrue(cache.getBytes() < bytes);
+
+        RemoteResponseCache.Entry updated = cache.get(a);
+        assertNotSame(ea, updated);
+        assertEquals("1E0,2E0,3E0,4E0", append(cache, updated, 0, 4, null, 0));
+
+        //Clearing also changes the version, even if the same values are appended again
+        b.clear(false);
+        b.append(new double[] {4, 5, 6}, 3);
+        cache.get(a);
+        assertEquals(1, cache.size());
+
+        //An outdated entry can still be used by the clients holding it
+        assertEquals("1E0,2E0,3E0", append(cache, ea, 0, 3, null, 0));
+    }
+
+    @Test
+    public void limitedSize() {
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++)
+            values[i] = Math.sqrt(i);
+        DataBuffer[] buffers = new DataBuffer[10];
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i] = buffer("b" + i, values);
+
+        //Room for a few snapshots, but not for all of them once they are encoded
+        long maxBytes = 40000;
+        RemoteResponseCache cache = new RemoteResponseCache(maxBytes);
+        for (DataBuffer buffer : buffers) {
+            RemoteResponseCache.Entry entry = cache.get(buffer);
+            assertTrue(cache.getBytes() <= maxBytes);
+            assertEquals(expected(values, 0, 1000, null, 0), append(cache, entry, 0, 1000, null, 0));
+            assertTrue(cache.getBytes() <= maxBytes);
+        }
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() < buffers.length);
+
+        //The least recently used entries have been dropped
+        RemoteResponseCache.Entry last = cache.get(buffers[buffers.length - 1]);
+        assertSame(last, cache.get(buffers[buffers.length - 1]));
+        assertEquals(buffers.length, cache.getMisses());
+
+        //A buffer larger than the cache is not kept at all
+        RemoteResponseCache small = new RemoteResponseCache(1000);
+        RemoteResponseCache.Entry entry = small.get(buffers[0]);
+        assertEquals(0, small.size());
+        assertEquals(0, small.getBytes());
+        assertEquals(expected(values, 0, 1000, null, 0), append(small, entry, 0, 1000, null, 0));
+        assertEquals(0, small.getBytes());
+    }
+}
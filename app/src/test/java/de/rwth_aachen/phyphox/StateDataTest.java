@@ -0,0 +1,152 @@
+package de.rwth_aachen.phyphox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+//Writing the values of buffers to the data file of a state and reading them back
+public class StateDataTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final PhyphoxExperiment experiment = new PhyphoxExperiment();
+
+    private DataBuffer buffer(String name, int size, int n) {
+        DataBuffer buffer = experiment.createBuffer(name, size, experiment.experimentTimeReference);
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++)
+            values[i] = Math.sin(i) * Math.pow(10, i % 30 - 15);
+        if (n > 3) {
+            values[0] = Double.NaN;
+            values[1] = Double.NEGATIVE_INFINITY;
+            values[2] = -0.0;
+        }
+        buffer.append(values, n);
+        return buffer;
+    }
+
+    //The values have to be bit-identical, including NaN and -0
+    private static void assertValues(double[] expected, DoubleBuffer actual) {
+        assertEquals(expected.length, actual.capacity());
+        for (int i = 0; i < expected.length; i++)
+            assertEquals(Double.doubleToRawLongBits(expected[i]), Double.doubleToRawLongBits(actual.get(i)));
+    }
+
+    private static void assertValues(double[] expected, double[] actual) {
+        assertValues(expected, DoubleBuffer.wrap(actual));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        //More values than are written at once, a buffer that has dropped old values and an empty one
+        DataBuffer[] buffers = {buffer("large", 0, 10000), buffer("limited", 100, 250), buffer("empty", 0, 0), buffer("small", 0, 3)};
+        String[] initData = new String[buffers.length];
+
+        File file = folder.newFile("state.phyphox" + StateData.suffix);
+        StateData.Writer writer = new StateData.Writer(file);
+        try {
+            for (int i = 0; i < buffers.length; i++)
+                initData[i] = writer.write(buffers[i]);
+        } finally {
+            writer.close();
+        }
+
+        ByteBuffer data = StateData.map(file);
+        for (int i = 0; i < buffers.length; i++) {
+            double[] expected = buffers[i].getDoubleArray();
+            assertValues(expected, StateData.section(data, initData[i]));
+
+            //A buffer initialized from the section holds the values and gets them back on reset
+            DataBuffer loaded = experiment.createBuffer(buffers[i].name, buffers[i].size, experiment.experimentTimeReference);
+            loaded.setInit(StateData.section(data, initData[i]));
+            assertValues(expected, loaded.getDoubleArray());
+            loaded.append(42);
+            loaded.clear(true);
+            assertValues(expected, loaded.getDoubleArray());
+        }
+    }
+
+    @Test
+    public void invalidSections() throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(80);
+        assertEquals(10, StateData.section(data, "0,10").capacity());
+        assertEquals(2, StateData.section(data, " 64, 2").capacity());
+        for (String initData : new String[]{"", "8", "a,b", "-8,1", "4,1", "0,11", "72,2", "8,-1"}) {
+            try {
+                StateData.section(data, initData);
+                fail(initData);
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+    }
+
+    @Test
+    public void inline() throws Exception {
+        DataBuffer x = buffer("x", 0, 1000);
+        DataBuffer y = buffer("y", 0, 5);
+
+        File stateFile = folder.newFile("state.phyphox");
+        File dataFile = new File(stateFile.getPath() + StateData.suffix);
+        StateData.Writer writer = new StateData.Writer(dataFile);
+        String xData, yData;
+        try {
+            xData = writer.write(x);
+            yData = writer.write(y);
+        } finally {
+            writer.close();
+        }
+
+        String xml = "<phyphox><data-containers data-file=\"" + dataFile.getName() + "\">"
+                + "<container init-data=\"" + xData + "\">x</container>"
+                + "<container init-data=\"" + yData + "\">y</container>"
+                + "<container init=\"1,2\">z</container>"
+                + "</data-containers></phyphox>";
+        FileOutputStream out = new FileOutputStream(stateFile);
+        try {
+            out.write(xml.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+
+        File target = folder.newFile("shared.phyphox");
+        StateData.inline(stateFile, target);
+
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(target);
+        assertFalse(((Element)doc.getElementsByTagName("data-containers").item(0)).hasAttribute("data-file"));
+        NodeList containers = doc.getElementsByTagName("container");
+        DataBuffer[] buffers = {x, y};
+        for (int i = 0; i < buffers.length; i++) {
+            Element container = (Element)containers.item(i);
+            assertFalse(container.hasAttribute("init-data"));
+            String[] init = container.getAttribute("init").split(",");
+            double[] expected = buffers[i].getDoubleArray();
+            assertEquals(expected.length, init.length);
+            //Ten significant digits and "∞" for infinity, like writeStateFile()
+            for (int j = 0; j < expected.length; j++) {
+                if (Double.isInfinite(expected[j]))
+                    assertEquals(expected[j] > 0 ? "∞" : "-∞", init[j]);
+                else
+                    assertEquals(expected[j], Double.parseDouble(init[j]), Math.abs(expected[j]) * 1e-9);
+            }
+        }
+        assertEquals("1,2", ((Element)containers.item(2)).getAttribute("init"));
+    }
+}